@@ -0,0 +1,90 @@
+#!/bin/bash
+# Mede a exportação do histórico (/history/hemograms/export) em NDJSON, CSV e CSV com gzip: linhas/s,
+# tamanho da saída e conferência da quantidade de linhas com um COUNT(*) no banco. A aplicação roda com
+# heap pequeno (padrão -Xmx128m) para mostrar que a memória não cresce com o tamanho da exportação.
+#
+# Uso: bash scripts/benchmark-exportacao.sh [hemogramas] [heap]
+#   ex: bash scripts/benchmark-exportacao.sh 1000000 128m
+
+set -euo pipefail
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+TOTAL="${1:-1000000}"
+HEAP="${2:-128m}"
+APP_URL="${APP_URL:-http://localhost:8081}"
+JAR="${PROJECT_DIR}/target/hemogram-monitoring-system-0.0.1-SNAPSHOT.jar"
+DB="/tmp/benchmark-exportacao"
+DB_URL="jdbc:h2:file:${DB}"
+SAIDA="/tmp/benchmark-exportacao-saida"
+
+echo "============================================================"
+echo "📤 Benchmark: exportação do histórico (${TOTAL} hemogramas, heap ${HEAP})"
+echo "============================================================"
+
+cd "${PROJECT_DIR}"
+mvn -B -q package -DskipTests
+H2_JAR="$(mvn -B -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout | tr ':' '\n' | grep '/h2-' | head -1)"
+rm -f "${DB}".* "${SAIDA}".*
+
+iniciar() {
+  java "-Xmx${HEAP}" -jar "${JAR}" --hemogram.monitoring.fhir.subscription.enabled=false \
+       --logging.level.com.ubiquo=INFO --logging.level.org.springframework.web=WARN \
+       --logging.level.org.hibernate.SQL=WARN --spring.jpa.show-sql=false \
+       --spring.datasource.url="${DB_URL}" "$@" >"/tmp/benchmark-exportacao.log" 2>&1 &
+  PID=$!
+  trap "kill ${PID} 2>/dev/null || true" EXIT
+  for _ in $(seq 1 300); do
+    curl -s "${APP_URL}/history/hemograms/export/status" >/dev/null 2>&1 && return
+    sleep 1
+  done
+  echo "❌ Aplicação não subiu"; tail -30 /tmp/benchmark-exportacao.log; exit 1
+}
+
+parar() {
+  kill "${PID}" && wait "${PID}" 2>/dev/null || true
+  trap - EXIT
+}
+
+# 1. Cria o schema (migrações Flyway) e popula direto via SQL
+iniciar
+parar
+java -cp "${H2_JAR}" org.h2.tools.Shell -url "${DB_URL}" -user sa -sql "
+  INSERT INTO hemograms (id, observation_id, patient_id, patient_name, patient_cpf, timestamp,
+                         plaquetas, leucocitos, hemoglobina, hematocrito, region)
+  SELECT X, 'bench-' || X, 'p' || MOD(X, 50000), 'Paciente ' || MOD(X, 50000), U&'CPF n\00e3o dispon\00edvel',
+         DATEADD('MINUTE', -MOD(X * 7919, 2880), LOCALTIMESTAMP),
+         CASE WHEN MOD(X, 5) < 2 THEN 90000 + MOD(X, 50000) ELSE 160000 + MOD(X, 200000) END,
+         3000 + MOD(X * 31, 9000), 13.5, 42.0, 'Bairro ' || MOD(X, 60)
+  FROM SYSTEM_RANGE(1, ${TOTAL});
+  ALTER SEQUENCE hemograms_seq RESTART WITH $((TOTAL + 1));" >/dev/null
+
+# 2. Exportações completas
+iniciar
+exportar() {
+  local nome="$1" consulta="$2" arquivo="${SAIDA}.$3"
+  local tempo
+  tempo=$(curl -s -o "${arquivo}" -w "%{time_total}" "${APP_URL}/history/hemograms/export?${consulta}")
+  local linhas
+  case "${arquivo}" in
+    *.gz)  linhas=$(gzip -dc "${arquivo}" | wc -l) ;;
+    *)     linhas=$(wc -l <"${arquivo}") ;;
+  esac
+  # CSV tem cabeçalho
+  [[ "${arquivo}" == *csv* ]] && linhas=$((linhas - 1))
+  printf "%-14s %9s linhas em %6.2fs (%8.0f linhas/s), %6s\n" "${nome}" "${linhas}" "${tempo}" \
+         "$(python3 -c "print(${linhas} / max(${tempo}, 0.001))")" "$(du -h "${arquivo}" | cut -f1)"
+}
+curl -s -o /dev/null "${APP_URL}/history/hemograms/export?formato=csv" # aquecimento (JIT e cache de páginas)
+exportar "NDJSON"      "formato=ndjson"           "ndjson"
+exportar "CSV"         "formato=csv"              "csv"
+exportar "CSV + gzip"  "formato=csv&gzip=true"    "csv.gz"
+exportar "Bairro 1/24h" "formato=ndjson&regiao=Bairro%201&inicio=$(date -d '-24 hours' +%Y-%m-%dT%H:%M:%S)" "regiao.ndjson"
+
+echo "Métricas: $(curl -s "${APP_URL}/history/hemograms/export/status")"
+echo "Heap máximo configurado: ${HEAP}; log de cada exportação em /tmp/benchmark-exportacao.log"
+parar
+echo "Conferência no banco:"
+java -cp "${H2_JAR}" org.h2.tools.Shell -url "${DB_URL}" -user sa -sql "
+  SELECT COUNT(*) AS total,
+         SUM(CASE WHEN region = 'Bairro 1' AND timestamp >= DATEADD('HOUR', -24, LOCALTIMESTAMP) THEN 1 ELSE 0 END) AS bairro1_24h
+  FROM hemograms"
@@ -0,0 +1,77 @@
+#!/bin/bash
+# Mede /analise/regioes-risco com agregados em memória, avaliação sequencial x paralela, à medida
+# que o número de regiões cresce (cobertura estadual de Goiás: milhares de bairros/setores).
+# O cache de resultados fica desligado para cada chamada recalcular todas as regiões.
+#
+# Uso: [THREADS=n] bash scripts/benchmark-regioes-paralelo.sh [hemogramas] [regiões...]
+#   ex: bash scripts/benchmark-regioes-paralelo.sh 300000 100 1000 5000
+#   THREADS=8 bash scripts/benchmark-regioes-paralelo.sh 300000 1000 5000
+
+set -euo pipefail
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+TOTAL="${1:-300000}"
+shift || true
+LISTA_REGIOES=("${@:-100 1000 5000}")
+THREADS="${THREADS:-$(nproc)}"
+APP_URL="${APP_URL:-http://localhost:8081}"
+JAR="${PROJECT_DIR}/target/hemogram-monitoring-system-0.0.1-SNAPSHOT.jar"
+DB="/tmp/benchmark-regioes-paralelo"
+DB_URL="jdbc:h2:file:${DB}"
+
+echo "============================================================"
+echo "📊 Benchmark: regiões com risco, sequencial x ${THREADS} threads (${TOTAL} hemogramas)"
+echo "============================================================"
+
+cd "${PROJECT_DIR}"
+mvn -B -q package -DskipTests
+H2_JAR="$(mvn -B -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout | tr ':' '\n' | grep '/h2-' | head -1)"
+
+iniciar() {
+  java -jar "${JAR}" --hemogram.monitoring.fhir.subscription.enabled=false \
+       --logging.level.com.ubiquo=WARN --logging.level.org.springframework.web=WARN \
+       --logging.level.org.hibernate.SQL=WARN --spring.jpa.show-sql=false \
+       --hemogram.monitoring.analise.fonte=memoria --hemogram.monitoring.analise.cache.enabled=false \
+       --spring.datasource.url="${DB_URL}" "$@" >"/tmp/benchmark-regioes-paralelo.log" 2>&1 &
+  PID=$!
+  trap "kill ${PID} 2>/dev/null || true" EXIT
+  for _ in $(seq 1 300); do
+    curl -s "${APP_URL}/analise/cache/status" >/dev/null 2>&1 && return
+    sleep 1
+  done
+  echo "❌ Aplicação não subiu"; tail -30 /tmp/benchmark-regioes-paralelo.log; exit 1
+}
+
+parar() {
+  kill "${PID}" && wait "${PID}" 2>/dev/null || true
+  trap - EXIT
+}
+
+# Média de 5 chamadas, depois de 3 de aquecimento
+cronometrar() {
+  for _ in 1 2 3; do curl -s -o /dev/null "$1"; done
+  for _ in 1 2 3 4 5; do curl -s -o /dev/null -w "%{time_total}\n" "$1"; done \
+    | python3 -c "import sys; v=[float(l) for l in sys.stdin]; print('%.4f' % (sum(v)/len(v)))"
+}
+
+for REGIOES in ${LISTA_REGIOES[*]}; do
+  rm -f "${DB}".*
+  iniciar
+  parar
+  java -cp "${H2_JAR}" org.h2.tools.Shell -url "${DB_URL}" -user sa -sql "
+    INSERT INTO hemograms (id, observation_id, patient_id, timestamp, plaquetas, leucocitos, hemoglobina, hematocrito, region)
+    SELECT X, 'bench-' || X, 'p' || X, DATEADD('MINUTE', -MOD(X * 7919, 2880), LOCALTIMESTAMP),
+           CASE WHEN MOD(X, 5) < 2 THEN 90000 + MOD(X, 50000) ELSE 160000 + MOD(X, 200000) END,
+           3000 + MOD(X * 31, 9000), 13.5, 42.0, 'Setor ' || MOD(X, ${REGIOES})
+    FROM SYSTEM_RANGE(1, ${TOTAL});
+    ALTER SEQUENCE hemograms_seq RESTART WITH $((TOTAL + 1));" >/dev/null
+
+  iniciar --hemogram.monitoring.analise.paralelismo.threads=1
+  SEQUENCIAL=$(cronometrar "${APP_URL}/analise/regioes-risco")
+  parar
+  iniciar --hemogram.monitoring.analise.paralelismo.threads="${THREADS}" \
+          --hemogram.monitoring.analise.paralelismo.minimo-regioes=1
+  PARALELO=$(cronometrar "${APP_URL}/analise/regioes-risco")
+  parar
+  echo "${REGIOES} regiões: sequencial ${SEQUENCIAL}s | ${THREADS} threads ${PARALELO}s"
+done
@@ -0,0 +1,78 @@
+#!/bin/bash
+# Compara /analise/regioes-risco (uma varredura agrupada) com o padrão antigo de uma análise por região
+# (6 consultas por região), e com os agregados em memória. Usa um banco H2 em arquivo populado com
+# N hemogramas distribuídos em ~60 bairros nas últimas 48h.
+#
+# Uso: bash scripts/benchmark-regioes-risco.sh [hemogramas] [regiões]
+#   ex: bash scripts/benchmark-regioes-risco.sh 1000000 60
+
+set -euo pipefail
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+TOTAL="${1:-1000000}"
+REGIOES="${2:-60}"
+APP_URL="${APP_URL:-http://localhost:8081}"
+JAR="${PROJECT_DIR}/target/hemogram-monitoring-system-0.0.1-SNAPSHOT.jar"
+DB="/tmp/benchmark-regioes-risco"
+DB_URL="jdbc:h2:file:${DB}"
+
+echo "============================================================"
+echo "📊 Benchmark: regiões com risco (${TOTAL} hemogramas, ${REGIOES} regiões)"
+echo "============================================================"
+
+cd "${PROJECT_DIR}"
+mvn -B -q package -DskipTests
+H2_JAR="$(mvn -B -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout | tr ':' '\n' | grep '/h2-' | head -1)"
+rm -f "${DB}".*
+
+iniciar() {
+  java -jar "${JAR}" --hemogram.monitoring.fhir.subscription.enabled=false \
+       --logging.level.com.ubiquo=WARN --logging.level.org.springframework.web=WARN \
+       --logging.level.org.hibernate.SQL=WARN --spring.jpa.show-sql=false \
+       --spring.datasource.url="${DB_URL}" "$@" >"/tmp/benchmark-regioes-risco.log" 2>&1 &
+  PID=$!
+  trap "kill ${PID} 2>/dev/null || true" EXIT
+  for _ in $(seq 1 300); do
+    curl -s "${APP_URL}/analise/agregados/status" >/dev/null 2>&1 && return
+    sleep 1
+  done
+  echo "❌ Aplicação não subiu"; tail -30 /tmp/benchmark-regioes-risco.log; exit 1
+}
+
+parar() {
+  kill "${PID}" && wait "${PID}" 2>/dev/null || true
+  trap - EXIT
+}
+
+cronometrar() {
+  curl -s -o /dev/null -w "%{time_total}" "$1"
+}
+
+# 1. Cria o schema (migrações Flyway) e popula direto via SQL (bem mais rápido que ingerir pela API)
+iniciar
+parar
+java -cp "${H2_JAR}" org.h2.tools.Shell -url "${DB_URL}" -user sa -sql "
+  INSERT INTO hemograms (id, observation_id, patient_id, timestamp, plaquetas, leucocitos, hemoglobina, hematocrito, region)
+  SELECT X, 'bench-' || X, 'p' || X, DATEADD('MINUTE', -MOD(X * 7919, 2880), LOCALTIMESTAMP),
+         CASE WHEN MOD(X, 5) < 2 THEN 90000 + MOD(X, 50000) ELSE 160000 + MOD(X, 200000) END,
+         3000 + MOD(X * 31, 9000), 13.5, 42.0, 'Bairro ' || MOD(X, ${REGIOES})
+  FROM SYSTEM_RANGE(1, ${TOTAL});
+  ALTER SEQUENCE hemograms_seq RESTART WITH $((TOTAL + 1));" >/dev/null
+
+# 2. SQL: varredura agrupada x uma análise por região (padrão N+1)
+iniciar --hemogram.monitoring.analise.fonte=sql
+cronometrar "${APP_URL}/analise/regioes-risco" >/dev/null # aquecimento
+echo "SQL agrupado  (/analise/regioes-risco):      $(cronometrar "${APP_URL}/analise/regioes-risco")s"
+inicio=$(date +%s.%N)
+for regiao in $(curl -s "${APP_URL}/analise/regioes" | python3 -c "import json,sys,urllib.parse;print(' '.join(urllib.parse.quote(r) for r in json.load(sys.stdin)))"); do
+  curl -s -o /dev/null "${APP_URL}/analise/regiao/${regiao}"
+done
+echo "SQL por região (6 consultas x ${REGIOES}):        $(python3 -c "print('%.3f' % ($(date +%s.%N) - ${inicio}))")s"
+parar
+
+# 3. Agregados em memória (reconstruídos na inicialização)
+iniciar --hemogram.monitoring.analise.fonte=memoria
+cronometrar "${APP_URL}/analise/regioes-risco" >/dev/null
+echo "Memória       (/analise/regioes-risco):      $(cronometrar "${APP_URL}/analise/regioes-risco")s"
+echo "Reconstrução dos agregados: $(curl -s "${APP_URL}/analise/agregados/status")"
+parar
@@ -0,0 +1,45 @@
+#!/bin/bash
+# Compara a ingestão com threads de plataforma e com virtual threads sob muitos remetentes simultâneos.
+# Requer Java 21 no PATH (o perfil Maven java21 compila para Java 21).
+#
+# Uso: bash scripts/benchmark-virtual-threads.sh [threads] [requisições]
+#   ex: bash scripts/benchmark-virtual-threads.sh 50,100,200,400 4000
+
+set -euo pipefail
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+THREADS="${1:-50,100,200,400}"
+REQUESTS="${2:-4000}"
+APP_URL="${APP_URL:-http://localhost:8081}"
+JAR="${PROJECT_DIR}/target/hemogram-monitoring-system-0.0.1-SNAPSHOT.jar"
+
+echo "============================================================"
+echo "⚙️  Benchmark: threads de plataforma x virtual threads"
+echo "============================================================"
+
+cd "${PROJECT_DIR}"
+mvn -B -q -Pjava21 package -DskipTests
+
+rodar() {
+  local nome="$1"; shift
+  echo ""
+  echo "▶️  ${nome}"
+  java -jar "${JAR}" --hemogram.monitoring.fhir.subscription.enabled=false \
+       --logging.level.com.ubiquo=WARN --spring.jpa.show-sql=false "$@" >"/tmp/benchmark-${nome}.log" 2>&1 &
+  local pid=$!
+  trap "kill ${pid} 2>/dev/null || true" EXIT
+
+  for _ in $(seq 1 60); do
+    curl -s "${APP_URL}/admin/ingestion/status" >/dev/null 2>&1 && break
+    sleep 1
+  done
+
+  python3 "${PROJECT_DIR}/scripts/test-data/benchmark_ingestion.py" \
+      --url "${APP_URL}/fhir/direct-test" --threads "${THREADS}" --requests "${REQUESTS}"
+
+  kill "${pid}" && wait "${pid}" 2>/dev/null || true
+  trap - EXIT
+}
+
+rodar plataforma
+rodar virtual --spring.profiles.active=virtual
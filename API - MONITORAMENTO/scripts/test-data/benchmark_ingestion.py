@@ -0,0 +1,120 @@
+#!/usr/bin/env python3
+"""
+Teste de carga e concorrência da ingestão de hemogramas.
+
+Para cada quantidade de threads (ex: 1, 2, 4, 8, 16), envia N Bundles distintos em paralelo
+para a API e mede a vazão (req/s). Cada Bundle tem CPF e valor de plaquetas únicos, e a
+resposta precisa devolver exatamente esses valores: qualquer resposta trocada entre
+requisições (estado compartilhado entre threads no parser) é contada como erro.
+
+Para exercitar o parser HAPI (e não o fast path), suba a aplicação com:
+    --hemogram.monitoring.ingestion.fast-path.enabled=false
+
+Uso:
+    python3 scripts/test-data/benchmark_ingestion.py --threads 1,2,4,8,16 --requests 2000
+"""
+
+import argparse
+import json
+import time
+import urllib.error
+import urllib.request
+import uuid
+from concurrent.futures import ThreadPoolExecutor
+
+LOINC = "http://loinc.org"
+CPF_SYSTEM = "https://fhir.saude.go.gov.br/sid/cpf"
+
+
+def montar_bundle(sequencial):
+    """Bundle no formato SES-GO com valores únicos por requisição."""
+    cpf = "%011d" % sequencial
+    plaquetas = 100000 + sequencial
+    subject = {"identifier": {"system": CPF_SYSTEM, "value": cpf}}
+
+    def observation(codigo, valor):
+        return {
+            "fullUrl": "urn:uuid:" + str(uuid.uuid4()),
+            "resource": {
+                "resourceType": "Observation",
+                "id": str(uuid.uuid4()),
+                "status": "final",
+                "code": {"coding": [{"system": LOINC, "code": codigo}]},
+                "subject": subject,
+                "effectiveDateTime": "2024-03-10T08:30:00-03:00",
+                "valueQuantity": {"value": valor},
+            },
+        }
+
+    bundle = {
+        "resourceType": "Bundle",
+        "type": "collection",
+        "entry": [
+            observation("33747-0", 6000),
+            observation("718-7", 14.2),
+            observation("777-3", plaquetas),
+            observation("4544-3", 42.0),
+        ],
+    }
+    return json.dumps(bundle).encode("utf-8"), cpf, plaquetas
+
+
+def enviar(url, sequencial):
+    corpo, cpf, plaquetas = montar_bundle(sequencial)
+    requisicao = urllib.request.Request(url, data=corpo, headers={"Content-Type": "application/json"})
+    try:
+        with urllib.request.urlopen(requisicao, timeout=30) as resposta:
+            dados = json.loads(resposta.read())
+    except (urllib.error.URLError, ValueError) as erro:
+        return "falha: %s" % erro
+
+    hemograma = dados.get("hemogramData") or {}
+    if hemograma.get("patientCpf") != cpf or hemograma.get("plaquetas") != plaquetas:
+        return "resposta trocada: esperado %s/%s, recebido %s/%s" % (
+            cpf, plaquetas, hemograma.get("patientCpf"), hemograma.get("plaquetas"))
+    return None
+
+
+def rodar(url, threads, total, inicio_sequencial):
+    with ThreadPoolExecutor(max_workers=threads) as pool:
+        inicio = time.perf_counter()
+        erros = [e for e in pool.map(lambda i: enviar(url, i), range(inicio_sequencial, inicio_sequencial + total)) if e]
+        duracao = time.perf_counter() - inicio
+    return total / duracao, erros
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Teste de carga da ingestão de hemogramas")
+    parser.add_argument("--url", default="http://localhost:8081/fhir/direct-test")
+    parser.add_argument("--threads", default="1,2,4,8,16", help="lista de quantidades de threads")
+    parser.add_argument("--requests", type=int, default=2000, help="requisições por rodada")
+    args = parser.parse_args()
+
+    print("=" * 60)
+    print("📊 Benchmark de ingestão: %s" % args.url)
+    print("=" * 60)
+
+    # Aquecimento (JIT, pool de parsers, pool de conexões)
+    rodar(args.url, 4, min(500, args.requests), 10_000_000)
+
+    base = None
+    total_erros = 0
+    sequencial = 0
+    print("%8s %12s %10s %8s" % ("threads", "req/s", "speedup", "erros"))
+    for threads in [int(t) for t in args.threads.split(",")]:
+        vazao, erros = rodar(args.url, threads, args.requests, sequencial)
+        sequencial += args.requests
+        base = base or vazao
+        total_erros += len(erros)
+        print("%8d %12.1f %9.2fx %8d" % (threads, vazao, vazao / base, len(erros)))
+        for erro in erros[:5]:
+            print("   ❌ %s" % erro)
+
+    if total_erros:
+        print("❌ %d respostas com erro" % total_erros)
+        raise SystemExit(1)
+    print("✅ Nenhuma resposta trocada ou com erro")
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,119 @@
+#!/bin/bash
+# Diário de ingestão: latência de append e recuperação após kill -9.
+#
+# 1. Ingestão assíncrona com o diário habilitado, 1 worker lento o bastante para acumular fila:
+#    envia N Observations em paralelo e mata a aplicação com kill -9 logo depois das respostas.
+# 2. Sobe de novo (as entradas pendentes são reprocessadas) e confere que todo payload
+#    respondido com 202 está no banco, sem duplicados.
+# 3. Mostra as métricas do diário (append em µs, fsyncs em grupo) com fsync antes da resposta e sem.
+#
+# Uso: bash scripts/teste-diario-ingestao.sh [observations] [requisições em paralelo]
+#   ex: bash scripts/teste-diario-ingestao.sh 2000 16
+
+set -euo pipefail
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+TOTAL="${1:-2000}"
+PARALELO="${2:-16}"
+APP_URL="${APP_URL:-http://localhost:8081}"
+JAR="${PROJECT_DIR}/target/hemogram-monitoring-system-0.0.1-SNAPSHOT.jar"
+DB="/tmp/teste-diario"
+DB_URL="jdbc:h2:file:${DB}"
+DIARIO="/tmp/teste-diario-segmentos"
+PAYLOADS="/tmp/teste-diario-payloads"
+
+echo "============================================================"
+echo "📒 Diário de ingestão: ${TOTAL} observations, ${PARALELO} em paralelo"
+echo "============================================================"
+
+cd "${PROJECT_DIR}"
+mvn -B -q package -DskipTests
+H2_JAR="$(mvn -B -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout | tr ':' '\n' | grep '/h2-' | head -1)"
+rm -f "${DB}".* && rm -rf "${DIARIO}" "${PAYLOADS}" && mkdir -p "${PAYLOADS}"
+
+iniciar() {
+  java -jar "${JAR}" --hemogram.monitoring.fhir.subscription.enabled=false \
+       --logging.level.com.ubiquo=WARN --logging.level.org.springframework.web=WARN \
+       --logging.level.org.hibernate.SQL=WARN --spring.jpa.show-sql=false \
+       --hemogram.monitoring.ingestion.async.enabled=true \
+       --hemogram.monitoring.ingestion.async.workers=1 \
+       --hemogram.monitoring.ingestion.async.queue-capacity=$((TOTAL * 2)) \
+       --hemogram.monitoring.ingestion.diario.enabled=true \
+       --hemogram.monitoring.ingestion.diario.diretorio="${DIARIO}" \
+       --spring.datasource.url="${DB_URL}" "$@" >>"/tmp/teste-diario.log" 2>&1 &
+  PID=$!
+  trap "kill ${PID} 2>/dev/null || true" EXIT
+  for _ in $(seq 1 300); do
+    curl -s "${APP_URL}/admin/ingestion/status" >/dev/null 2>&1 && return
+    sleep 1
+  done
+  echo "❌ Aplicação não subiu"; tail -30 /tmp/teste-diario.log; exit 1
+}
+
+parar() {
+  kill "${PID}" && wait "${PID}" 2>/dev/null || true
+  trap - EXIT
+}
+
+diario() {
+  curl -s "${APP_URL}/admin/ingestion/status" | python3 -c "
+import json,sys; d=json.load(sys.stdin)['journal']
+print('   append %.1f µs (máx %.0f), %d fsyncs de %.2f ms com %.1f entradas cada, pendentes %d, checkpoint %d, reprocessadas %d' % (
+      d['avgAppendUs'], d['maxAppendUs'], d['fsyncs'], d['avgFsyncMs'], d['avgEntriesPerFsync'],
+      d['pending'], d['checkpoint'], d['replayed']))"
+}
+
+enviar() {
+  local prefixo="$1"
+  python3 - "${PAYLOADS}" "${prefixo}" "${TOTAL}" <<'EOF'
+import json, os, sys
+d, prefixo, total = sys.argv[1], sys.argv[2], int(sys.argv[3])
+for i in range(total):
+    obs = {"resourceType": "Observation", "id": f"{prefixo}-{i}", "status": "final",
+           "subject": {"reference": f"Patient/{prefixo}-p{i}"}, "effectiveDateTime": "2026-01-15T10:00:00",
+           "component": [{"code": {"coding": [{"system": "http://loinc.org", "code": "777-3"}]},
+                          "valueQuantity": {"value": 80000 + i, "unit": "/uL"}}]}
+    with open(os.path.join(d, f"{prefixo}-{i}.json"), "w") as f:
+        json.dump(obs, f)
+EOF
+  ls "${PAYLOADS}"/"${prefixo}"-*.json | xargs -P "${PARALELO}" -I{} curl -s -o /dev/null -w "%{http_code}\n" \
+      -H 'Content-Type: application/json' -H 'Prefer: return=minimal' --data @{} "${APP_URL}/fhir/subscription"
+}
+
+contar() {
+  java -cp "${H2_JAR}" org.h2.tools.Shell -url "${DB_URL}" -user sa \
+       -sql "SELECT COUNT(*), COUNT(DISTINCT observation_id) FROM hemograms WHERE observation_id LIKE '%/$1-%'" |
+    awk 'NR==2 {print $1, $3}'
+}
+
+# 1. Envia e derruba com kill -9 (sem shutdown: fila em memória e write-behind perdidos)
+iniciar
+ACEITAS="$(enviar crash | grep -c '^202$' || true)"
+kill -9 "${PID}"; wait "${PID}" 2>/dev/null || true; trap - EXIT
+echo "🔥 ${ACEITAS} payloads respondidos com 202 antes do kill -9"
+
+# 2. Reinicia: o diário reprocessa as entradas pendentes
+iniciar
+for _ in $(seq 1 120); do
+  [ "$(curl -s "${APP_URL}/admin/ingestion/status" | python3 -c "import json,sys; print(json.load(sys.stdin)['journal']['pending'])")" = "0" ] && break
+  sleep 1
+done
+diario
+parar
+read -r LINHAS DISTINTAS <<<"$(contar crash)"
+if [ "${LINHAS}" -ge "${ACEITAS}" ] && [ "${LINHAS}" = "${DISTINTAS}" ]; then
+  echo "✅ ${LINHAS} hemogramas no banco para ${ACEITAS} aceitos, sem duplicados"
+else
+  echo "❌ ${LINHAS} hemogramas (${DISTINTAS} distintos) no banco para ${ACEITAS} aceitos"
+  exit 1
+fi
+
+# 3. Custo do append: fsync antes da resposta (group commit) e só cópia para o mapeamento
+iniciar
+enviar fsync >/dev/null
+echo "fsync=true:"; diario
+parar
+iniciar --hemogram.monitoring.ingestion.diario.fsync=false
+enviar semfsync >/dev/null
+echo "fsync=false:"; diario
+parar
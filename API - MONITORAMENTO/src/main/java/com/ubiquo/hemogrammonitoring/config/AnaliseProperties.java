@@ -0,0 +1,519 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Análise coletiva por região.
+ *
+ * - fonte: "memoria" responde as janelas a partir dos agregados por minuto mantidos em
+ *   memória (sem acessar o banco); "sql" consulta a tabela hemograms a cada requisição;
+ *   "colunar" varre as linhas guardadas em colunas primitivas em memória (ver colunar)
+ * - retencaoHoras: histórico mantido nos agregados em memória; janelas (atual + anterior)
+ *   mais longas que isso caem no caminho SQL
+ * - retencaoMinutosHoras: últimas horas com baldes de um minuto; antes disso, até
+ *   retencaoHoras, os baldes são de uma hora
+ * - retencaoSketchesHoras: últimas horas com sketches de quantis e de pacientes
+ * - maxRegioes: regiões mantidas em memória; com o limite cheio, regiões novas caem no SQL
+ * - kQuantis: tamanho dos sketches KLL de plaquetas/leucócitos por região e hora (erro de
+ *   rank ~1,7/k); 0 desliga os quantis
+ * - precisaoHll: precisão p dos HyperLogLog de pacientes distintos por região e hora
+ *   (2^p registradores, erro ~1,04/√2^p); 0 desliga a contagem de pacientes
+ * - rollup: no caminho SQL, janelas longas somam a tabela hemogram_rollup_hourly
+ * - cache: resultados dos endpoints /analise, invalidados por região a cada gravação
+ * - paralelismo: avaliação das regiões distribuída entre threads (memória e banco)
+ * - stream: eventos SSE de mudança de risco regional (/analise/stream)
+ * - deteccao: EWMA/CUSUM por região, atualizados a cada hemograma gravado
+ * - colunar: armazenamento colunar dos hemogramas (fonte=colunar)
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.analise")
+public class AnaliseProperties {
+
+    public static final String FONTE_SQL = "sql";
+    public static final String FONTE_MEMORIA = "memoria";
+    public static final String FONTE_COLUNAR = "colunar";
+
+    private String fonte = FONTE_MEMORIA;
+    private int retencaoHoras = 24 * 60;
+    private int retencaoMinutosHoras = 48;
+    private int retencaoSketchesHoras = 72;
+    private int maxRegioes = 1_000;
+    private int kQuantis = 128;
+    private int precisaoHll = 12;
+    private Rollup rollup = new Rollup();
+    private Cache cache = new Cache();
+    private Paralelismo paralelismo = new Paralelismo();
+    private Stream stream = new Stream();
+    private Deteccao deteccao = new Deteccao();
+    private Colunar colunar = new Colunar();
+
+    public String getFonte() {
+        return fonte;
+    }
+
+    public void setFonte(String fonte) {
+        this.fonte = fonte;
+    }
+
+    public int getRetencaoHoras() {
+        return retencaoHoras;
+    }
+
+    public void setRetencaoHoras(int retencaoHoras) {
+        this.retencaoHoras = retencaoHoras;
+    }
+
+    public int getRetencaoMinutosHoras() {
+        return retencaoMinutosHoras;
+    }
+
+    public void setRetencaoMinutosHoras(int retencaoMinutosHoras) {
+        this.retencaoMinutosHoras = retencaoMinutosHoras;
+    }
+
+    public int getRetencaoSketchesHoras() {
+        return retencaoSketchesHoras;
+    }
+
+    public void setRetencaoSketchesHoras(int retencaoSketchesHoras) {
+        this.retencaoSketchesHoras = retencaoSketchesHoras;
+    }
+
+    public int getMaxRegioes() {
+        return maxRegioes;
+    }
+
+    public void setMaxRegioes(int maxRegioes) {
+        this.maxRegioes = maxRegioes;
+    }
+
+    public int getKQuantis() {
+        return kQuantis;
+    }
+
+    public void setKQuantis(int kQuantis) {
+        this.kQuantis = kQuantis;
+    }
+
+    public int getPrecisaoHll() {
+        return precisaoHll;
+    }
+
+    public void setPrecisaoHll(int precisaoHll) {
+        this.precisaoHll = precisaoHll;
+    }
+
+    public Rollup getRollup() {
+        return rollup;
+    }
+
+    public void setRollup(Rollup rollup) {
+        this.rollup = rollup;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    public Paralelismo getParalelismo() {
+        return paralelismo;
+    }
+
+    public void setParalelismo(Paralelismo paralelismo) {
+        this.paralelismo = paralelismo;
+    }
+
+    public Stream getStream() {
+        return stream;
+    }
+
+    public void setStream(Stream stream) {
+        this.stream = stream;
+    }
+
+    public Deteccao getDeteccao() {
+        return deteccao;
+    }
+
+    public void setDeteccao(Deteccao deteccao) {
+        this.deteccao = deteccao;
+    }
+
+    public Colunar getColunar() {
+        return colunar;
+    }
+
+    public void setColunar(Colunar colunar) {
+        this.colunar = colunar;
+    }
+
+    /**
+     * Consolidação horária por região. Um job agendado recalcula, em blocos de loteHoras, as
+     * horas marcadas como pendentes pela gravação dos hemogramas; janelas de pelo menos
+     * minimoHoras combinam as horas consolidadas com as linhas brutas das horas pendentes e
+     * das horas parciais das pontas.
+     */
+    public static class Rollup {
+        private boolean enabled = true;
+        private long intervaloMs = 60_000;
+        private int loteHoras = 5_000;
+        private int minimoHoras = 48;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getIntervaloMs() {
+            return intervaloMs;
+        }
+
+        public void setIntervaloMs(long intervaloMs) {
+            this.intervaloMs = intervaloMs;
+        }
+
+        public int getLoteHoras() {
+            return loteHoras;
+        }
+
+        public void setLoteHoras(int loteHoras) {
+            this.loteHoras = loteHoras;
+        }
+
+        public int getMinimoHoras() {
+            return minimoHoras;
+        }
+
+        public void setMinimoHoras(int minimoHoras) {
+            this.minimoHoras = minimoHoras;
+        }
+    }
+
+    /**
+     * Cache de resultados (LRU com expiração). Limitado a maxEntradas; cada entrada vale
+     * por no máximo ttlSegundos, o que também limita o quanto a janela "até agora" envelhece.
+     * As regiões com risco só expiram por ttlSegundos (a gravação não as invalida).
+     */
+    public static class Cache {
+        private boolean enabled = true;
+        private int maxEntradas = 500;
+        private long ttlSegundos = 30;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxEntradas() {
+            return maxEntradas;
+        }
+
+        public void setMaxEntradas(int maxEntradas) {
+            this.maxEntradas = maxEntradas;
+        }
+
+        public long getTtlSegundos() {
+            return ttlSegundos;
+        }
+
+        public void setTtlSegundos(long ttlSegundos) {
+            this.ttlSegundos = ttlSegundos;
+        }
+    }
+
+    /**
+     * Avaliação das regiões de /analise/regioes-risco em pools limitados. Com pelo menos
+     * minimoRegioes regiões a lista é dividida em partes; partes que falham, são recusadas
+     * (pool e fila cheios) ou não terminam em timeoutMs ficam de fora e a resposta é marcada
+     * como parcial.
+     *
+     * - threads: agregados em memória (só CPU); 0 usa o número de processadores
+     * - threadsBanco: caminhos SQL e rollup, uma faixa de regiões por consulta; 0 usa o
+     *   maximum-pool-size do Hikari (mais threads só esperariam por conexão), 1 faz uma consulta só
+     */
+    public static class Paralelismo {
+        private int threads = 0;
+        private int threadsBanco = 0;
+        private long timeoutMs = 2_000;
+        private int minimoRegioes = 64;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getThreadsBanco() {
+            return threadsBanco;
+        }
+
+        public void setThreadsBanco(int threadsBanco) {
+            this.threadsBanco = threadsBanco;
+        }
+
+        public long getTimeoutMs() {
+            return timeoutMs;
+        }
+
+        public void setTimeoutMs(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+        public int getMinimoRegioes() {
+            return minimoRegioes;
+        }
+
+        public void setMinimoRegioes(int minimoRegioes) {
+            this.minimoRegioes = minimoRegioes;
+        }
+    }
+
+    /**
+     * Stream SSE de mudanças de risco regional. As regiões tocadas por gravações são
+     * reavaliadas a cada intervaloMs (janela de janelaHoras); cada assinante tem um buffer
+     * de até bufferPorAssinante regiões, e eventos da mesma região ainda não enviados são
+     * substituídos pelo mais recente. O assinante é desconectado se o buffer enche ou se um
+     * envio (evento ou heartbeat) passa de timeoutEnvioMs.
+     */
+    public static class Stream {
+        private int janelaHoras = 24;
+        private long intervaloMs = 250;
+        private int bufferPorAssinante = 256;
+        private int maxAssinantes = 200;
+        private int threadsEnvio = 4;
+        private long heartbeatMs = 15_000;
+        private long timeoutEnvioMs = 10_000;
+
+        public int getJanelaHoras() {
+            return janelaHoras;
+        }
+
+        public void setJanelaHoras(int janelaHoras) {
+            this.janelaHoras = janelaHoras;
+        }
+
+        public long getIntervaloMs() {
+            return intervaloMs;
+        }
+
+        public void setIntervaloMs(long intervaloMs) {
+            this.intervaloMs = intervaloMs;
+        }
+
+        public int getBufferPorAssinante() {
+            return bufferPorAssinante;
+        }
+
+        public void setBufferPorAssinante(int bufferPorAssinante) {
+            this.bufferPorAssinante = bufferPorAssinante;
+        }
+
+        public int getMaxAssinantes() {
+            return maxAssinantes;
+        }
+
+        public void setMaxAssinantes(int maxAssinantes) {
+            this.maxAssinantes = maxAssinantes;
+        }
+
+        public int getThreadsEnvio() {
+            return threadsEnvio;
+        }
+
+        public void setThreadsEnvio(int threadsEnvio) {
+            this.threadsEnvio = threadsEnvio;
+        }
+
+        public long getHeartbeatMs() {
+            return heartbeatMs;
+        }
+
+        public void setHeartbeatMs(long heartbeatMs) {
+            this.heartbeatMs = heartbeatMs;
+        }
+
+        public long getTimeoutEnvioMs() {
+            return timeoutEnvioMs;
+        }
+
+        public void setTimeoutEnvioMs(long timeoutEnvioMs) {
+            this.timeoutEnvioMs = timeoutEnvioMs;
+        }
+    }
+
+    /**
+     * Detecção de surto por região (EWMA e CUSUM sobre a proporção de alertas e as plaquetas).
+     *
+     * - lambdaEwma: peso da observação nova na EWMA rápida; larguraEwma: limite em desvios (L)
+     * - folgaCusum (k) e limiarCusum (h), em desvios padrão. Os padrões são verificados pelo
+     *   replay de surtos sintéticos do DetectorSurtoRegionalTest: menos de 1 alarme falso por
+     *   1000 hemogramas de uma região estável, e surto de 15% → 35% de alertas detectado em
+     *   menos de 40 hemogramas (mediana)
+     * - lambdaBase: adaptação da linha de base (lenta, congelada em alarme)
+     * - readaptacao: observações seguidas em alarme até o nível atual virar a linha de base (0 desliga)
+     * - aquecimento: observações de uma região antes de poder alarmar
+     * - maxRegioes: limite de regiões acompanhadas (memória limitada)
+     * - horasReconstrucao: hemogramas reprocessados na inicialização para recompor o estado (0 desliga)
+     */
+    public static class Deteccao {
+        private boolean enabled = true;
+        private double lambdaEwma = 0.05;
+        private double larguraEwma = 3.5;
+        private double folgaCusum = 0.5;
+        private double limiarCusum = 12.0;
+        private double lambdaBase = 0.002;
+        private int readaptacao = 500;
+        private int aquecimento = 50;
+        private int maxRegioes = 50_000;
+        private int maxSinais = 1_000;
+        private int horasReconstrucao = 24 * 7;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getLambdaEwma() {
+            return lambdaEwma;
+        }
+
+        public void setLambdaEwma(double lambdaEwma) {
+            this.lambdaEwma = lambdaEwma;
+        }
+
+        public double getLarguraEwma() {
+            return larguraEwma;
+        }
+
+        public void setLarguraEwma(double larguraEwma) {
+            this.larguraEwma = larguraEwma;
+        }
+
+        public double getFolgaCusum() {
+            return folgaCusum;
+        }
+
+        public void setFolgaCusum(double folgaCusum) {
+            this.folgaCusum = folgaCusum;
+        }
+
+        public double getLimiarCusum() {
+            return limiarCusum;
+        }
+
+        public void setLimiarCusum(double limiarCusum) {
+            this.limiarCusum = limiarCusum;
+        }
+
+        public double getLambdaBase() {
+            return lambdaBase;
+        }
+
+        public void setLambdaBase(double lambdaBase) {
+            this.lambdaBase = lambdaBase;
+        }
+
+        public int getReadaptacao() {
+            return readaptacao;
+        }
+
+        public void setReadaptacao(int readaptacao) {
+            this.readaptacao = readaptacao;
+        }
+
+        public int getAquecimento() {
+            return aquecimento;
+        }
+
+        public void setAquecimento(int aquecimento) {
+            this.aquecimento = aquecimento;
+        }
+
+        public int getMaxRegioes() {
+            return maxRegioes;
+        }
+
+        public void setMaxRegioes(int maxRegioes) {
+            this.maxRegioes = maxRegioes;
+        }
+
+        public int getMaxSinais() {
+            return maxSinais;
+        }
+
+        public void setMaxSinais(int maxSinais) {
+            this.maxSinais = maxSinais;
+        }
+
+        public int getHorasReconstrucao() {
+            return horasReconstrucao;
+        }
+
+        public void setHorasReconstrucao(int horasReconstrucao) {
+            this.horasReconstrucao = horasReconstrucao;
+        }
+    }
+
+    /**
+     * Armazenamento colunar (fonte=colunar): as linhas dos últimos retencaoHoras em blocos de
+     * linhasPorBloco, com uma coluna primitiva por campo (28 bytes por hemograma). Janelas
+     * arbitrárias são respondidas varrendo as colunas, com precisão de um segundo e quantis
+     * exatos. foraDoHeap guarda os blocos em buffers diretos (limite -XX:MaxDirectMemorySize).
+     * capacidadeFila limita os hemogramas gravados à espera da thread que os acrescenta às
+     * colunas; com a fila cheia, a thread de gravação acrescenta.
+     */
+    public static class Colunar {
+        private int retencaoHoras = 24 * 365;
+        private int linhasPorBloco = 65_536;
+        private boolean foraDoHeap = false;
+        private int capacidadeFila = 65_536;
+
+        public int getRetencaoHoras() {
+            return retencaoHoras;
+        }
+
+        public void setRetencaoHoras(int retencaoHoras) {
+            this.retencaoHoras = retencaoHoras;
+        }
+
+        public int getLinhasPorBloco() {
+            return linhasPorBloco;
+        }
+
+        public void setLinhasPorBloco(int linhasPorBloco) {
+            this.linhasPorBloco = linhasPorBloco;
+        }
+
+        public boolean isForaDoHeap() {
+            return foraDoHeap;
+        }
+
+        public void setForaDoHeap(boolean foraDoHeap) {
+            this.foraDoHeap = foraDoHeap;
+        }
+
+        public int getCapacidadeFila() {
+            return capacidadeFila;
+        }
+
+        public void setCapacidadeFila(int capacidadeFila) {
+            this.capacidadeFila = capacidadeFila;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Consulta paginada e exportação do histórico (/history/hemograms).
+ *
+ * - limitePadrao: hemogramas por página quando o cliente não informa o limite
+ * - limiteMaximo: teto por página; limites maiores são reduzidos a ele
+ * - tamanhoLeituraExportacao: linhas buscadas por ida ao banco na exportação (fetch size)
+ * - maxExportacoesSimultaneas: exportações HTTP em andamento ao mesmo tempo; cada uma segura
+ *   uma conexão do pool do início ao fim, então acima disso a requisição recebe 429
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.historico")
+public class HistoricoProperties {
+
+    private int limitePadrao = 100;
+    private int limiteMaximo = 1000;
+    private int tamanhoLeituraExportacao = 1000;
+    private int maxExportacoesSimultaneas = 2;
+
+    public int getLimitePadrao() {
+        return limitePadrao;
+    }
+
+    public void setLimitePadrao(int limitePadrao) {
+        this.limitePadrao = limitePadrao;
+    }
+
+    public int getLimiteMaximo() {
+        return limiteMaximo;
+    }
+
+    public void setLimiteMaximo(int limiteMaximo) {
+        this.limiteMaximo = limiteMaximo;
+    }
+
+    public int getTamanhoLeituraExportacao() {
+        return tamanhoLeituraExportacao;
+    }
+
+    public void setTamanhoLeituraExportacao(int tamanhoLeituraExportacao) {
+        this.tamanhoLeituraExportacao = tamanhoLeituraExportacao;
+    }
+
+    public int getMaxExportacoesSimultaneas() {
+        return maxExportacoesSimultaneas;
+    }
+
+    public void setMaxExportacoesSimultaneas(int maxExportacoesSimultaneas) {
+        this.maxExportacoesSimultaneas = maxExportacoesSimultaneas;
+    }
+}
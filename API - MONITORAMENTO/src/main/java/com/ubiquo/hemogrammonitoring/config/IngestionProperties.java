@@ -0,0 +1,294 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.ingestion")
+public class IngestionProperties {
+
+    private Async async = new Async();
+    private WriteBehind writeBehind = new WriteBehind();
+    private FastPath fastPath = new FastPath();
+    private Importacao importacao = new Importacao();
+    private Diario diario = new Diario();
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public void setAsync(Async async) {
+        this.async = async;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(WriteBehind writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public FastPath getFastPath() {
+        return fastPath;
+    }
+
+    public void setFastPath(FastPath fastPath) {
+        this.fastPath = fastPath;
+    }
+
+    public Importacao getImportacao() {
+        return importacao;
+    }
+
+    public void setImportacao(Importacao importacao) {
+        this.importacao = importacao;
+    }
+
+    public Diario getDiario() {
+        return diario;
+    }
+
+    public void setDiario(Diario diario) {
+        this.diario = diario;
+    }
+
+    /**
+     * Modo assíncrono de ingestão: o endpoint de subscription apenas valida o envelope,
+     * enfileira o payload e responde 202. Workers fazem parse, persistência e análise.
+     */
+    public static class Async {
+        private boolean enabled = false;
+        private int queueCapacity = 1000;
+        private int workers = 4;
+        private int retryAfterSeconds = 5;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        public void setRetryAfterSeconds(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Persistência write-behind: hemogramas são acumulados e gravados em lotes
+     * (JDBC batch), disparados por tamanho do lote ou por tempo.
+     */
+    public static class WriteBehind {
+        private boolean enabled = false;
+        private int batchSize = 500;
+        private long flushIntervalMs = 200;
+        private int queueCapacity = 10000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * Extrator streaming (Jackson) que evita montar o modelo HAPI completo.
+     * Com verify=true, cada payload também passa pelo HAPI e divergências são registradas.
+     */
+    public static class FastPath {
+        private boolean enabled = true;
+        private boolean verify = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isVerify() {
+            return verify;
+        }
+
+        public void setVerify(boolean verify) {
+            this.verify = verify;
+        }
+    }
+
+    /**
+     * Importação de arquivos NDJSON (FHIR Bulk Data) do disco local. O arquivo é dividido
+     * em blocos alinhados a quebras de linha e processado em paralelo.
+     */
+    public static class Importacao {
+        private String diretorio = "./import";
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private int chunkSizeMb = 64;
+        private int batchSize = 1000;
+
+        public String getDiretorio() {
+            return diretorio;
+        }
+
+        public void setDiretorio(String diretorio) {
+            this.diretorio = diretorio;
+        }
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getChunkSizeMb() {
+            return chunkSizeMb;
+        }
+
+        public void setChunkSizeMb(int chunkSizeMb) {
+            this.chunkSizeMb = chunkSizeMb;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    /**
+     * Diário de ingestão: payloads recebidos em /fhir/subscription são gravados em segmentos
+     * mapeados em memória antes da resposta e reprocessados na inicialização até serem
+     * confirmados como persistidos.
+     *
+     * fsync=true só responde depois do fsync do grupo (sobrevive a queda do sistema operacional);
+     * com false a resposta sai após a cópia para o mapeamento (sobrevive só a queda do processo).
+     * Acima de max-segmentos, as entradas ainda pendentes dos segmentos mais antigos são
+     * regravadas no segmento atual e os antigos são excluídos.
+     */
+    public static class Diario {
+        private boolean enabled = false;
+        private String diretorio = "./diario-ingestao";
+        private int tamanhoSegmentoMb = 64;
+        private boolean fsync = true;
+        private long janelaGroupCommitMicros = 0;
+        private long timeoutFsyncMs = 5000;
+        private long intervaloCheckpointMs = 1000;
+        private int maxSegmentos = 8;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getDiretorio() {
+            return diretorio;
+        }
+
+        public void setDiretorio(String diretorio) {
+            this.diretorio = diretorio;
+        }
+
+        public int getTamanhoSegmentoMb() {
+            return tamanhoSegmentoMb;
+        }
+
+        public void setTamanhoSegmentoMb(int tamanhoSegmentoMb) {
+            this.tamanhoSegmentoMb = tamanhoSegmentoMb;
+        }
+
+        public boolean isFsync() {
+            return fsync;
+        }
+
+        public void setFsync(boolean fsync) {
+            this.fsync = fsync;
+        }
+
+        public long getJanelaGroupCommitMicros() {
+            return janelaGroupCommitMicros;
+        }
+
+        public void setJanelaGroupCommitMicros(long janelaGroupCommitMicros) {
+            this.janelaGroupCommitMicros = janelaGroupCommitMicros;
+        }
+
+        public long getTimeoutFsyncMs() {
+            return timeoutFsyncMs;
+        }
+
+        public void setTimeoutFsyncMs(long timeoutFsyncMs) {
+            this.timeoutFsyncMs = timeoutFsyncMs;
+        }
+
+        public long getIntervaloCheckpointMs() {
+            return intervaloCheckpointMs;
+        }
+
+        public void setIntervaloCheckpointMs(long intervaloCheckpointMs) {
+            this.intervaloCheckpointMs = intervaloCheckpointMs;
+        }
+
+        public int getMaxSegmentos() {
+            return maxSegmentos;
+        }
+
+        public void setMaxSegmentos(int maxSegmentos) {
+            this.maxSegmentos = maxSegmentos;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.model.ValoresAnalitos;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tabela de despacho LOINC → analito do hemograma.
+ *
+ * - codigos: cada código LOINC reconhecido e o analito a que corresponde
+ * - unidades: unidade UCUM canônica de cada analito (valores são normalizados para ela)
+ * - conversoes: fatores de conversão entre unidades UCUM (valor_canonico = valor * fator)
+ *
+ * Novos códigos, analitos ou unidades são adicionados só pela configuração.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.loinc")
+public class LoincProperties {
+
+    private List<Codigo> codigos = new ArrayList<>(List.of(
+            new Codigo(ReferenceValues.LEUCOCITOS_LOINC, ValoresAnalitos.LEUCOCITOS),
+            new Codigo(ReferenceValues.HEMOGLOBINA_LOINC, ValoresAnalitos.HEMOGLOBINA),
+            new Codigo(ReferenceValues.PLAQUETAS_LOINC, ValoresAnalitos.PLAQUETAS),
+            new Codigo(ReferenceValues.HEMATOCRITO_LOINC, ValoresAnalitos.HEMATOCRITO)
+    ));
+
+    private Map<String, String> unidades = new LinkedHashMap<>(Map.of(
+            ValoresAnalitos.LEUCOCITOS, "/uL",
+            ValoresAnalitos.HEMOGLOBINA, "g/dL",
+            ValoresAnalitos.PLAQUETAS, "/uL",
+            ValoresAnalitos.HEMATOCRITO, "%"
+    ));
+
+    private List<Conversao> conversoes = new ArrayList<>();
+
+    public List<Codigo> getCodigos() {
+        return codigos;
+    }
+
+    public void setCodigos(List<Codigo> codigos) {
+        this.codigos = codigos;
+    }
+
+    public Map<String, String> getUnidades() {
+        return unidades;
+    }
+
+    public void setUnidades(Map<String, String> unidades) {
+        this.unidades = unidades;
+    }
+
+    public List<Conversao> getConversoes() {
+        return conversoes;
+    }
+
+    public void setConversoes(List<Conversao> conversoes) {
+        this.conversoes = conversoes;
+    }
+
+    public static class Codigo {
+        private String codigo;
+        private String analito;
+
+        public Codigo() {
+        }
+
+        public Codigo(String codigo, String analito) {
+            this.codigo = codigo;
+            this.analito = analito;
+        }
+
+        public String getCodigo() {
+            return codigo;
+        }
+
+        public void setCodigo(String codigo) {
+            this.codigo = codigo;
+        }
+
+        public String getAnalito() {
+            return analito;
+        }
+
+        public void setAnalito(String analito) {
+            this.analito = analito;
+        }
+    }
+
+    public static class Conversao {
+        private String de;
+        private String para;
+        private double fator;
+
+        public String getDe() {
+            return de;
+        }
+
+        public void setDe(String de) {
+            this.de = de;
+        }
+
+        public String getPara() {
+            return para;
+        }
+
+        public void setPara(String para) {
+            this.para = para;
+        }
+
+        public double getFator() {
+            return fator;
+        }
+
+        public void setFator(double fator) {
+            this.fator = fator;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Linha do tempo por paciente e detecção de queda seriada de plaquetas.
+ *
+ * - ultimosResultados: hemogramas recentes guardados em memória por paciente
+ * - maxPacientes: pacientes guardados; acima disso sai o menos recentemente visto (0 desliga o cache)
+ * - quedaPlaquetasPercentual: queda em relação ao maior valor da janela que gera o desvio
+ * - janelaQuedaHoras: até quantas horas atrás procurar o valor de referência
+ * - maxQuedas: últimas quedas detectadas na gravação guardadas para /history/patients/drops
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.pacientes")
+public class PacientesProperties {
+
+    private int ultimosResultados = 10;
+    private int maxPacientes = 100_000;
+    private double quedaPlaquetasPercentual = 20.0;
+    private int janelaQuedaHoras = 48;
+    private int maxQuedas = 1_000;
+
+    public int getUltimosResultados() {
+        return ultimosResultados;
+    }
+
+    public void setUltimosResultados(int ultimosResultados) {
+        this.ultimosResultados = ultimosResultados;
+    }
+
+    public int getMaxPacientes() {
+        return maxPacientes;
+    }
+
+    public void setMaxPacientes(int maxPacientes) {
+        this.maxPacientes = maxPacientes;
+    }
+
+    public double getQuedaPlaquetasPercentual() {
+        return quedaPlaquetasPercentual;
+    }
+
+    public void setQuedaPlaquetasPercentual(double quedaPlaquetasPercentual) {
+        this.quedaPlaquetasPercentual = quedaPlaquetasPercentual;
+    }
+
+    public int getJanelaQuedaHoras() {
+        return janelaQuedaHoras;
+    }
+
+    public void setJanelaQuedaHoras(int janelaQuedaHoras) {
+        this.janelaQuedaHoras = janelaQuedaHoras;
+    }
+
+    public int getMaxQuedas() {
+        return maxQuedas;
+    }
+
+    public void setMaxQuedas(int maxQuedas) {
+        this.maxQuedas = maxQuedas;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ubiquo.hemogrammonitoring.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Partições mensais dos hemogramas (tabelas hemograms_AAAAMM) e retenção por partição inteira.
+ *
+ * - enabled: liga a retenção (desligada por padrão: ela apaga dados)
+ * - particoesRetidas: meses mantidos no banco, contando o atual
+ * - arquivar: grava cada partição expirada em NDJSON gzip antes do DROP TABLE
+ * - diretorioArquivo: onde ficam os arquivos das partições
+ * - intervaloMs: intervalo entre execuções da manutenção (virada de mês e, se ligada, retenção)
+ */
+@Configuration
+@ConfigurationProperties(prefix = "hemogram.monitoring.retencao")
+public class RetencaoProperties {
+
+    private boolean enabled = false;
+    private int particoesRetidas = 24;
+    private boolean arquivar = true;
+    private String diretorioArquivo = "arquivo-hemogramas";
+    private long intervaloMs = 3_600_000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getParticoesRetidas() {
+        return particoesRetidas;
+    }
+
+    public void setParticoesRetidas(int particoesRetidas) {
+        this.particoesRetidas = particoesRetidas;
+    }
+
+    public boolean isArquivar() {
+        return arquivar;
+    }
+
+    public void setArquivar(boolean arquivar) {
+        this.arquivar = arquivar;
+    }
+
+    public String getDiretorioArquivo() {
+        return diretorioArquivo;
+    }
+
+    public void setDiretorioArquivo(String diretorioArquivo) {
+        this.diretorioArquivo = diretorioArquivo;
+    }
+
+    public long getIntervaloMs() {
+        return intervaloMs;
+    }
+
+    public void setIntervaloMs(long intervaloMs) {
+        this.intervaloMs = intervaloMs;
+    }
+}
@@ -1,14 +1,26 @@
 package com.ubiquo.hemogrammonitoring.controller;
 
 import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import com.ubiquo.hemogrammonitoring.service.AgregadosRegionaisService;
 import com.ubiquo.hemogrammonitoring.service.AnaliseColetivaService;
+import com.ubiquo.hemogrammonitoring.service.ArmazemColunarService;
+import com.ubiquo.hemogrammonitoring.service.CacheAnaliseService;
+import com.ubiquo.hemogrammonitoring.service.RollupHorarioService;
+import com.ubiquo.hemogrammonitoring.service.StreamRiscoRegionalService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Controller para análise coletiva de hemogramas
@@ -19,11 +31,29 @@ import java.util.List;
 @CrossOrigin(origins = "*")
 @Tag(name = "Análise Coletiva", description = "Endpoints para análise populacional de hemogramas por região")
 public class AnaliseController {
+
+    // Presente quando /regioes-risco estoura o prazo de avaliação e a lista é parcial
+    static final String HEADER_REGIOES_NAO_AVALIADAS = "X-Regioes-Nao-Avaliadas";
     
     private final AnaliseColetivaService analiseColetivaService;
+    private final AgregadosRegionaisService agregadosRegionaisService;
+    private final RollupHorarioService rollupHorarioService;
+    private final CacheAnaliseService cacheAnaliseService;
+    private final StreamRiscoRegionalService streamRiscoRegionalService;
+    private final ArmazemColunarService armazemColunarService;
     
-    public AnaliseController(AnaliseColetivaService analiseColetivaService) {
+    public AnaliseController(AnaliseColetivaService analiseColetivaService,
+                             AgregadosRegionaisService agregadosRegionaisService,
+                             RollupHorarioService rollupHorarioService,
+                             CacheAnaliseService cacheAnaliseService,
+                             StreamRiscoRegionalService streamRiscoRegionalService,
+                             ArmazemColunarService armazemColunarService) {
         this.analiseColetivaService = analiseColetivaService;
+        this.agregadosRegionaisService = agregadosRegionaisService;
+        this.rollupHorarioService = rollupHorarioService;
+        this.cacheAnaliseService = cacheAnaliseService;
+        this.streamRiscoRegionalService = streamRiscoRegionalService;
+        this.armazemColunarService = armazemColunarService;
     }
     
     @Operation(
@@ -40,7 +70,8 @@ public class AnaliseController {
             @Parameter(description = "Janela de tempo em horas (padrão: 24h)", example = "24")
             @RequestParam(defaultValue = "24") int horas
     ) {
-        IndicadoresRegionaisDTO indicadores = analiseColetivaService.analisarRegiao(regiao, horas);
+        IndicadoresRegionaisDTO indicadores = cacheAnaliseService.obterIndicadores(regiao, horas,
+                () -> analiseColetivaService.analisarRegiao(regiao, horas));
         return ResponseEntity.ok(indicadores);
     }
     
@@ -50,22 +81,135 @@ public class AnaliseController {
     )
     @GetMapping("/regioes")
     public ResponseEntity<List<String>> listarRegioes() {
-        List<String> regioes = analiseColetivaService.listarRegioes();
+        List<String> regioes = cacheAnaliseService.obterRegioes(
+                () -> List.copyOf(analiseColetivaService.listarRegioes()));
         return ResponseEntity.ok(regioes);
     }
     
     @Operation(
         summary = "Identifica regiões com risco coletivo de dengue",
         description = "Varre todas as regiões e retorna apenas aquelas onde mais de 40% dos hemogramas " +
-                     "apresentam plaquetas baixas, indicando possível surto coletivo de dengue."
+                     "apresentam plaquetas baixas, indicando possível surto coletivo de dengue. " +
+                     "Se a avaliação estourar o prazo, a lista é parcial e o cabeçalho " +
+                     "X-Regioes-Nao-Avaliadas traz quantas regiões ficaram de fora."
     )
     @GetMapping("/regioes-risco")
     public ResponseEntity<List<IndicadoresRegionaisDTO>> identificarRegioesComRisco(
             @Parameter(description = "Janela de tempo em horas (padrão: 24h)", example = "24")
             @RequestParam(defaultValue = "24") int horas
     ) {
-        List<IndicadoresRegionaisDTO> regioesRisco = analiseColetivaService.identificarRegioesComRisco(horas);
-        return ResponseEntity.ok(regioesRisco);
+        ResultadoRegioesRisco resultado = cacheAnaliseService.obterRegioesComRisco(horas,
+                () -> analiseColetivaService.identificarRegioesComRisco(horas));
+        if (resultado.isParcial()) {
+            // Corpo continua sendo a lista; o cabeçalho avisa quantas regiões ficaram de fora
+            return ResponseEntity.ok()
+                    .header(HEADER_REGIOES_NAO_AVALIADAS, String.valueOf(resultado.getRegioesNaoAvaliadas().size()))
+                    .body(resultado.getRegioesComRisco());
+        }
+        return ResponseEntity.ok(resultado.getRegioesComRisco());
+    }
+
+    @Operation(
+        summary = "Distribuição de plaquetas e leucócitos",
+        description = "Quantis aproximados (mínimo, p10, p25, mediana, p75, p90, máximo) de plaquetas e leucócitos " +
+                     "na janela, mesclando sketches KLL mantidos por região e hora na ingestão, sem varrer os " +
+                     "hemogramas. Sem região, mescla todas. Granularidade de uma hora; só com os agregados em " +
+                     "memória cobrindo a janela. Com fonte=colunar, quantis exatos das linhas da janela."
+    )
+    @GetMapping("/distribuicao")
+    public ResponseEntity<Map<String, Object>> distribuicao(
+            @Parameter(description = "Região (vazio = todas)", example = "Goiânia")
+            @RequestParam(required = false) String regiao,
+
+            @Parameter(description = "Janela de tempo em horas (padrão: 24h)", example = "24")
+            @RequestParam(defaultValue = "24") int horas
+    ) {
+        Map<String, Object> distribuicao = analiseColetivaService.analisarDistribuicao(regiao, horas);
+        if (distribuicao == null) {
+            return erro(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Quantis indisponíveis: exigem agregados em memória (fonte=memoria, k-quantis > 0) ou armazenamento colunar (fonte=colunar) cobrindo a janela");
+        }
+        return ResponseEntity.ok(distribuicao);
+    }
+
+    @Operation(
+        summary = "Pacientes distintos na janela",
+        description = "Quantidade aproximada de pacientes distintos e de pacientes distintos com plaquetas baixas " +
+                     "(CPF, ou id do paciente), por HyperLogLog mantidos por região e hora na ingestão: retestes do " +
+                     "mesmo paciente contam uma vez, sem COUNT(DISTINCT). Traz o erro padrão relativo. Sem região, " +
+                     "todas. Granularidade de uma hora; só com os agregados em memória cobrindo a janela."
+    )
+    @GetMapping("/pacientes")
+    public ResponseEntity<Map<String, Object>> pacientes(
+            @Parameter(description = "Região (vazio = todas)", example = "Goiânia")
+            @RequestParam(required = false) String regiao,
+
+            @Parameter(description = "Janela de tempo em horas (padrão: 24h)", example = "24")
+            @RequestParam(defaultValue = "24") int horas
+    ) {
+        Map<String, Object> pacientes = analiseColetivaService.contarPacientes(regiao, horas);
+        if (pacientes == null) {
+            return erro(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Contagem de pacientes indisponível: exige agregados em memória (fonte=memoria, precisao-hll > 0) cobrindo a janela");
+        }
+        return ResponseEntity.ok(pacientes);
     }
-}
 
+    @Operation(
+        summary = "Métricas dos agregados regionais em memória",
+        description = "Fonte da análise (memoria, sql ou colunar), retenção, quantidade de regiões e baldes por minuto, " +
+                     "tempo da reconstrução a partir do banco na inicialização, estado do rollup horário " +
+                     "(marca d'água, execuções e horas recalculadas) e do armazenamento colunar (linhas, blocos, " +
+                     "bytes por linha, linhas varridas e duração da última varredura)"
+    )
+    @GetMapping("/agregados/status")
+    public ResponseEntity<Map<String, Object>> getStatusAgregados() {
+        Map<String, Object> metricas = new LinkedHashMap<>(agregadosRegionaisService.getMetricas());
+        metricas.put("rollupHourly", rollupHorarioService.getMetricas());
+        metricas.put("columnar", armazemColunarService.getMetricas());
+        return ResponseEntity.ok(metricas);
+    }
+
+    @Operation(
+        summary = "Métricas do cache de resultados da análise",
+        description = "Acertos, falhas, despejos por capacidade (LRU), expirações, invalidações por gravação " +
+                     "de hemogramas da região, escopos indexados e cálculos em andamento"
+    )
+    @GetMapping("/cache/status")
+    public ResponseEntity<Map<String, Object>> getStatusCache() {
+        return ResponseEntity.ok(cacheAnaliseService.getMetricas());
+    }
+
+    @Operation(
+        summary = "Stream (SSE) de mudanças de risco regional",
+        description = "Mantém a conexão aberta e envia um evento \"risco-regional\" quando, após uma gravação, " +
+                     "uma região muda de risco coletivo, de faixa de 10% da proporção de alertas ou de tendência " +
+                     "de plaquetas/leucócitos. Substitui o polling de /analise/regioes-risco. " +
+                     "Com o limite de assinantes atingido responde 503."
+    )
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream() {
+        SseEmitter emitter = streamRiscoRegionalService.assinar();
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "30").build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    @Operation(
+        summary = "Métricas do stream de risco regional",
+        description = "Assinantes conectados, regiões reavaliadas, eventos publicados, enviados, coalescidos " +
+                     "(substituídos por um mais recente da mesma região) e descartados por buffer cheio"
+    )
+    @GetMapping("/stream/status")
+    public ResponseEntity<Map<String, Object>> getStatusStream() {
+        return ResponseEntity.ok(streamRiscoRegionalService.getMetricas());
+    }
+
+    private ResponseEntity<Map<String, Object>> erro(HttpStatus status, String mensagem) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", mensagem);
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -0,0 +1,58 @@
+package com.ubiquo.hemogrammonitoring.controller;
+
+import com.ubiquo.hemogrammonitoring.service.DeteccaoSurtoService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/analise/deteccao")
+@CrossOrigin(origins = "*")
+@Tag(name = "Detecção de Surtos", description = "EWMA e CUSUM por região, atualizados a cada hemograma gravado")
+public class DeteccaoController {
+
+    private final DeteccaoSurtoService deteccaoSurtoService;
+
+    public DeteccaoController(DeteccaoSurtoService deteccaoSurtoService) {
+        this.deteccaoSurtoService = deteccaoSurtoService;
+    }
+
+    @Operation(
+        summary = "Regiões em alarme e mudanças detectadas",
+        description = "Regiões cujo CUSUM ou EWMA (proporção de alertas subindo ou plaquetas caindo) está fora " +
+                     "do controle, as últimas mudanças detectadas (com início estimado) e métricas do detector"
+    )
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        Map<String, Object> response = new LinkedHashMap<>(deteccaoSurtoService.getMetricas());
+        response.put("regioesEmAlarme", deteccaoSurtoService.listarRegioesEmAlarme());
+        response.put("sinais", deteccaoSurtoService.listarSinais());
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(
+        summary = "Estado do detector de uma região",
+        description = "Linha de base, desvio, EWMA e CUSUM da proporção de alertas e das plaquetas"
+    )
+    @GetMapping("/regiao/{regiao}")
+    public ResponseEntity<Map<String, Object>> getRegiao(@PathVariable String regiao) {
+        Map<String, Object> estado = deteccaoSurtoService.consultarRegiao(regiao);
+        if (estado == null) {
+            return erro(HttpStatus.NOT_FOUND, "Região sem hemogramas acompanhados pelo detector: " + regiao);
+        }
+        return ResponseEntity.ok(estado);
+    }
+
+    private ResponseEntity<Map<String, Object>> erro(HttpStatus status, String mensagem) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", mensagem);
+        return ResponseEntity.status(status).body(response);
+    }
+}
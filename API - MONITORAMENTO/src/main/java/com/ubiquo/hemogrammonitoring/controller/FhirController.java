@@ -1,7 +1,11 @@
 package com.ubiquo.hemogrammonitoring.controller;
 
+import com.ubiquo.hemogrammonitoring.model.Desvio;
 import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.model.ResultadoIngestaoLote;
+import com.ubiquo.hemogrammonitoring.service.DiarioIngestaoService;
 import com.ubiquo.hemogrammonitoring.service.FhirParserService;
+import com.ubiquo.hemogrammonitoring.service.IngestionQueueService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -12,9 +16,13 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,10 +34,25 @@ import java.util.Map;
 public class FhirController {
     
     private static final Logger logger = LoggerFactory.getLogger(FhirController.class);
+
+    /**
+     * Media type que o remetente pode pedir no Accept para receber só o ack (id + status),
+     * equivalente a enviar "Prefer: return=minimal".
+     */
+    public static final String MEDIA_TYPE_ACK = "application/vnd.hemogram.ack+json";
+
+    private static final String PREFER_RETURN_MINIMAL = "return=minimal";
+    private static final String PREFERENCE_APPLIED = "Preference-Applied";
     
     @Autowired
     private FhirParserService fhirParserService;
 
+    @Autowired
+    private IngestionQueueService ingestionQueueService;
+
+    @Autowired
+    private DiarioIngestaoService diarioIngestaoService;
+
     @Operation(
             summary = "Testa o parser diretamente",
             description = "Endpoint para enviar um JSON FHIR diretamente para a aplicação, sem passar pelo servidor FHIR. Útil para depurar o parser."
@@ -40,20 +63,29 @@ public class FhirController {
         logger.info("📨 TESTE DIRETO RECEBIDO");
         logger.info("=".repeat(80));
 
-        // Esta chamada reutiliza a mesma lógica do endpoint de subscription
-        return receiveFhirData(fhirJson);
+        // Reutiliza a lógica do endpoint de subscription, sempre de forma síncrona para depuração
+        return processarSincrono(fhirJson, null, DiarioIngestaoService.SEM_REGISTRO);
     }
 
         @Operation(
         summary = "Recebe dados FHIR via subscription",
         description = "Endpoint para receber hemogramas em formato FHIR dos laboratórios. " +
                      "Processa o JSON, extrai os valores dos parâmetros hematológicos usando códigos LOINC " +
-                     "e detecta automaticamente alertas de dengue baseado em plaquetas baixas."
+                     "e detecta automaticamente alertas de dengue baseado em plaquetas baixas. " +
+                     "Com a ingestão assíncrona habilitada, apenas valida o envelope, enfileira e responde 202. " +
+                     "Com o diário de ingestão habilitado, o payload é gravado no diário antes da resposta e " +
+                     "reprocessado na inicialização se a aplicação cair antes de persistir o hemograma. " +
+                     "Remetentes que descartam a resposta podem enviar 'Prefer: return=minimal' (ou Accept: " +
+                     MEDIA_TYPE_ACK + ") para receber só o id e o status, sem o hemograma e sem os desvios."
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Dados processados com sucesso"),
+        @ApiResponse(responseCode = "202", description = "Dados aceitos para processamento assíncrono"),
         @ApiResponse(responseCode = "400", description = "Erro ao processar dados FHIR"),
-        @ApiResponse(responseCode = "500", description = "Erro interno do servidor")
+        @ApiResponse(responseCode = "413", description = "Payload maior que um segmento do diário de ingestão"),
+        @ApiResponse(responseCode = "429", description = "Fila de ingestão cheia - reenviar após Retry-After"),
+        @ApiResponse(responseCode = "500", description = "Erro interno do servidor"),
+        @ApiResponse(responseCode = "503", description = "Diário de ingestão indisponível ou em reprocessamento - reenviar após Retry-After")
     })
     @PostMapping("/subscription")
     public ResponseEntity<Map<String, Object>> receiveFhirData(
@@ -73,26 +105,162 @@ public class FhirController {
                             ]
                           }
                           """)))
-            @RequestBody String fhirJson) {
+            @RequestBody String fhirJson,
+            @Parameter(description = "'return=minimal' para receber só o id e o status")
+            @RequestHeader(value = "Prefer", required = false) String prefer,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         logger.info("=".repeat(80));
         logger.info("📨 NOTIFICAÇÃO RECEBIDA DO SERVIDOR FHIR VIA SUBSCRIPTION");
         logger.info("=".repeat(80));
         logger.debug("JSON recebido: {}", fhirJson);
-        
+
+        if (!diarioIngestaoService.isAceitandoPayloads()) {
+            return reprocessandoDiario();
+        }
+        MediaType respostaMinima = negociarRespostaMinima(prefer, accept);
+        if (ingestionQueueService.isEnabled()) {
+            return enfileirar(fhirJson, respostaMinima);
+        }
+
+        long sequencia;
+        try {
+            sequencia = diarioIngestaoService.registrar(fhirJson);
+        } catch (IOException | IllegalArgumentException e) {
+            return falhaNoDiario(e);
+        }
+        return processarSincrono(fhirJson, respostaMinima, sequencia);
+    }
+
+    /**
+     * Payload que não pôde ser registrado no diário de ingestão: 413 se não cabe em um
+     * segmento, 503 com Retry-After se o fsync não terminou a tempo.
+     */
+    private ResponseEntity<Map<String, Object>> falhaNoDiario(Exception e) {
+        logger.error("❌ Payload não registrado no diário de ingestão: {}", e.getMessage());
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        if (e instanceof IllegalArgumentException) {
+            response.put("message", e.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(response);
+        }
+        response.put("message", "Diário de ingestão indisponível, tente novamente mais tarde");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestionQueueService.getRetryAfterSeconds()))
+                .body(response);
+    }
+
+    /**
+     * 503 com Retry-After enquanto o diário reprocessa as entradas de antes do último reinício:
+     * um payload novo não passa na frente delas.
+     */
+    private ResponseEntity<Map<String, Object>> reprocessandoDiario() {
+        logger.warn("⏳ Payload recusado: reprocessamento do diário de ingestão em andamento");
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", "Reprocessando o diário de ingestão, tente novamente mais tarde");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestionQueueService.getRetryAfterSeconds()))
+                .body(response);
+    }
+
+    /**
+     * Resposta mínima negociada pelo header Prefer (RFC 7240, o mesmo usado pela API REST
+     * do FHIR) ou pelo Accept.
+     *
+     * @return o Content-Type da resposta mínima, ou null se o cliente quer a resposta completa
+     */
+    private static MediaType negociarRespostaMinima(String prefer, String accept) {
+        if (accept != null && accept.contains(MEDIA_TYPE_ACK)) {
+            return MediaType.parseMediaType(MEDIA_TYPE_ACK);
+        }
+        if (prefer != null) {
+            for (String preferencia : prefer.split(",")) {
+                if (PREFER_RETURN_MINIMAL.equalsIgnoreCase(preferencia.trim())) {
+                    return MediaType.APPLICATION_JSON;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static ResponseEntity<Map<String, Object>> ack(HttpStatus status, MediaType respostaMinima,
+                                                           String id, String statusIngestao) {
+        Map<String, Object> response = new HashMap<>();
+        if (id != null) {
+            response.put("id", id);
+        }
+        response.put("status", statusIngestao);
+        return ResponseEntity.status(status)
+                .contentType(respostaMinima)
+                .header(PREFERENCE_APPLIED, PREFER_RETURN_MINIMAL)
+                .body(response);
+    }
+
+    /**
+     * Modo accept-and-ack: valida o envelope, registra no diário, enfileira e responde 202 sem
+     * esperar o processamento.
+     */
+    private ResponseEntity<Map<String, Object>> enfileirar(String fhirJson, MediaType respostaMinima) {
+        Map<String, Object> response = new HashMap<>();
+
+        String resourceType = ingestionQueueService.validarEnvelope(fhirJson);
+        if (resourceType == null) {
+            response.put("status", "error");
+            response.put("message", "Envelope FHIR inválido: esperado Bundle ou Observation");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        long sequencia;
+        try {
+            sequencia = diarioIngestaoService.registrar(fhirJson);
+        } catch (IOException | IllegalArgumentException e) {
+            return falhaNoDiario(e);
+        }
+
+        if (!ingestionQueueService.enfileirar(fhirJson, sequencia)) {
+            // O remetente vai reenviar: a entrada não precisa ser reprocessada
+            diarioIngestaoService.confirmar(sequencia);
+            response.put("status", "error");
+            response.put("message", "Fila de ingestão cheia, tente novamente mais tarde");
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(ingestionQueueService.getRetryAfterSeconds()))
+                    .body(response);
+        }
+
+        if (respostaMinima != null) {
+            return ack(HttpStatus.ACCEPTED, respostaMinima, null, "accepted");
+        }
+
+        response.put("status", "accepted");
+        response.put("message", "Dados FHIR aceitos para processamento");
+        response.put("resourceType", resourceType);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
+    /**
+     * @param respostaMinima Content-Type do ack mínimo, ou null para a resposta completa
+     * @param sequencia entrada do diário de ingestão, ou {@link DiarioIngestaoService#SEM_REGISTRO}
+     */
+    private ResponseEntity<Map<String, Object>> processarSincrono(String fhirJson, MediaType respostaMinima,
+                                                                  long sequencia) {
         try {
             // Processar o JSON FHIR
-            HemogramData hemogramData = fhirParserService.parseFhirObservation(fhirJson);
+            HemogramData hemogramData = fhirParserService.parseFhirObservation(fhirJson, sequencia);
             
-            if (hemogramData != null) {
-                // Analisar o hemograma
-                List<String> deviations = fhirParserService.analyzeHemogram(hemogramData);
+            if (hemogramData != null && respostaMinima != null) {
+                // Ack mínimo: sem análise de desvios e sem serializar o hemograma (a queda seriada
+                // de plaquetas já foi avaliada e registrada na gravação)
+                return ack(HttpStatus.OK, respostaMinima, hemogramData.getId(), "success");
+            } else if (hemogramData != null) {
+                // Analisar o hemograma (o texto dos desvios só é montado na serialização)
+                List<Desvio> deviations = fhirParserService.analyzeHemogram(hemogramData);
                 
                 Map<String, Object> response = new HashMap<>();
                 response.put("status", "success");
                 response.put("message", "Dados FHIR processados com sucesso");
                 response.put("hemogramData", hemogramData);
                 response.put("deviations", deviations);
-                response.put("hasDengueAlert", deviations.stream().anyMatch(d -> d.contains("ALERTA DENGUE")));
+                response.put("hasDengueAlert", fhirParserService.possuiAlertaDengue(hemogramData));
                 
                 logger.info("Dados processados com sucesso. Desvios encontrados: {}", deviations.size());
                 
@@ -116,6 +284,49 @@ public class FhirController {
         }
     }
     
+    @Operation(
+        summary = "Recebe um Bundle em lote com hemogramas de vários pacientes",
+        description = "Processa Bundles batch/transaction/collection contendo painéis de hemograma de muitos pacientes. " +
+                     "As Observations são agrupadas por painel (DiagnosticReport.result / Observation.hasMember) ou por " +
+                     "paciente + horário de coleta, gerando um hemograma por painel. Todos são persistidos em um único lote " +
+                     "e a resposta traz um resultado compacto por hemograma e as entradas ignoradas."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Bundle processado"),
+        @ApiResponse(responseCode = "400", description = "JSON não é um Bundle FHIR válido"),
+        @ApiResponse(responseCode = "500", description = "Erro interno do servidor")
+    })
+    @PostMapping("/bundle")
+    public ResponseEntity<Map<String, Object>> receiveBundleEmLote(@RequestBody String fhirJson) {
+        logger.info("📦 BUNDLE EM LOTE RECEBIDO ({} bytes)", fhirJson.length());
+
+        Map<String, Object> response = new HashMap<>();
+        try {
+            ResultadoIngestaoLote resultado = fhirParserService.processarBundleEmLote(fhirJson);
+
+            response.put("status", "success");
+            response.put("totalEntradas", resultado.getTotalEntradas());
+            response.put("totalHemogramas", resultado.getHemogramas().size());
+            response.put("totalAlertasDengue", resultado.getTotalAlertasDengue());
+            response.put("totalQuedasPlaquetas", resultado.getTotalQuedasPlaquetas());
+            response.put("hemogramas", resultado.getHemogramas());
+            response.put("entradasIgnoradas", resultado.getEntradasIgnoradas());
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException | ca.uhn.fhir.parser.DataFormatException e) {
+            logger.warn("Bundle em lote rejeitado: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", "Bundle FHIR inválido: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+
+        } catch (Exception e) {
+            logger.error("Erro ao processar Bundle em lote: {}", e.getMessage(), e);
+            response.put("status", "error");
+            response.put("message", "Erro interno: " + e.getMessage());
+            return ResponseEntity.internalServerError().body(response);
+        }
+    }
+
     @Operation(
         summary = "Testa o sistema com dados mockados",
         description = "Endpoint de teste que processa um hemograma mockado com plaquetas baixas (120.000 /µL) " +
@@ -140,7 +351,7 @@ public class FhirController {
             
             if (hemogramData != null) {
                 // Analisar o hemograma
-                List<String> deviations = fhirParserService.analyzeHemogram(hemogramData);
+                List<Desvio> deviations = fhirParserService.analyzeHemogram(hemogramData);
                 
                 Map<String, Object> response = new HashMap<>();
                 response.put("status", "success");
@@ -148,7 +359,7 @@ public class FhirController {
                 response.put("mockFhirJson", mockFhirJson);
                 response.put("hemogramData", hemogramData);
                 response.put("deviations", deviations);
-                response.put("hasDengueAlert", deviations.stream().anyMatch(d -> d.contains("ALERTA DENGUE")));
+                response.put("hasDengueAlert", fhirParserService.possuiAlertaDengue(hemogramData));
                 
                 logger.info("Teste executado com sucesso. Desvios encontrados: {}", deviations.size());
                 
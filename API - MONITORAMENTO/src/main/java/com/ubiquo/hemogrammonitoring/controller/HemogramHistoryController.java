@@ -1,15 +1,43 @@
 package com.ubiquo.hemogrammonitoring.controller;
 
-import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
-import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.service.HistoricoHemogramaService;
+import com.ubiquo.hemogrammonitoring.service.LinhaTempoPacienteService;
+import com.ubiquo.hemogrammonitoring.service.RetencaoHemogramaService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/history")
@@ -17,18 +45,248 @@ import java.util.List;
 @Tag(name = "History API", description = "Endpoints para consultar o histórico de hemogramas")
 public class HemogramHistoryController {
 
-    private final HemogramRepository hemogramRepository;
+    private static final Logger logger = LoggerFactory.getLogger(HemogramHistoryController.class);
 
-    public HemogramHistoryController(HemogramRepository hemogramRepository) {
-        this.hemogramRepository = hemogramRepository;
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+    private static final int RETRY_AFTER_EXPORTACAO_SEGUNDOS = 30;
+
+    private final HistoricoHemogramaService historicoService;
+    private final LinhaTempoPacienteService linhaTempoPacienteService;
+    private final RetencaoHemogramaService retencaoService;
+
+    public HemogramHistoryController(HistoricoHemogramaService historicoService,
+                                     LinhaTempoPacienteService linhaTempoPacienteService,
+                                     RetencaoHemogramaService retencaoService) {
+        this.historicoService = historicoService;
+        this.linhaTempoPacienteService = linhaTempoPacienteService;
+        this.retencaoService = retencaoService;
     }
 
     @Operation(
-            summary = "Lista todos os hemogramas salvos",
-            description = "Retorna uma lista com todos os hemogramas que foram recebidos e persistidos no banco de dados."
+            summary = "Lista os hemogramas salvos, em páginas",
+            description = "Retorna os hemogramas persistidos do mais recente para o mais antigo, em páginas de até " +
+                    "'limite' itens (teto em hemogram.monitoring.historico.limite-maximo), com filtros opcionais. " +
+                    "Enquanto houver mais resultados, a resposta traz proximoCursor: repita a consulta com os " +
+                    "mesmos filtros e cursor=proximoCursor para a página seguinte."
     )
     @GetMapping("/hemograms")
-    public List<HemogramEntity> getAllHemograms() {
-        return hemogramRepository.findAll();
+    public ResponseEntity<?> getHemograms(
+            @Parameter(description = "Região (bairro)", example = "Centro")
+            @RequestParam(required = false) String regiao,
+
+            @Parameter(description = "Início do período (inclusivo), ISO-8601", example = "2024-01-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime inicio,
+
+            @Parameter(description = "Fim do período (inclusivo), ISO-8601", example = "2024-01-31T23:59:59")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fim,
+
+            @Parameter(description = "Id do paciente (referência Patient do FHIR)")
+            @RequestParam(required = false) String paciente,
+
+            @Parameter(description = "Só hemogramas com algum analito fora da faixa de referência")
+            @RequestParam(defaultValue = "false") boolean somenteAlterados,
+
+            @Parameter(description = "Hemogramas por página")
+            @RequestParam(required = false) Integer limite,
+
+            @Parameter(description = "proximoCursor da página anterior")
+            @RequestParam(required = false) String cursor
+    ) {
+        HistoricoHemogramaRepository.Filtro filtro =
+                new HistoricoHemogramaRepository.Filtro(regiao, inicio, fim, paciente, somenteAlterados);
+        try {
+            return ResponseEntity.ok(historicoService.buscar(filtro, limite, cursor));
+        } catch (IllegalArgumentException e) {
+            return erro(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @Operation(
+            summary = "Exporta os hemogramas filtrados (NDJSON ou CSV)",
+            description = "Mesmos filtros de /history/hemograms, sem paginação: todas as linhas saem em uma " +
+                    "única resposta, escritas à medida que são lidas do banco (memória constante). " +
+                    "gzip=true comprime a saída (application/gzip). Acima de " +
+                    "hemogram.monitoring.historico.max-exportacoes-simultaneas exportações em andamento, responde 429."
+    )
+    @GetMapping("/hemograms/export")
+    public ResponseEntity<StreamingResponseBody> exportHemograms(
+            @Parameter(description = "Região (bairro)", example = "Centro")
+            @RequestParam(required = false) String regiao,
+
+            @Parameter(description = "Início do período (inclusivo), ISO-8601", example = "2024-01-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime inicio,
+
+            @Parameter(description = "Fim do período (inclusivo), ISO-8601", example = "2024-01-31T23:59:59")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fim,
+
+            @Parameter(description = "Id do paciente (referência Patient do FHIR)")
+            @RequestParam(required = false) String paciente,
+
+            @Parameter(description = "Só hemogramas com algum analito fora da faixa de referência")
+            @RequestParam(defaultValue = "false") boolean somenteAlterados,
+
+            @Parameter(description = "ndjson ou csv", example = "ndjson")
+            @RequestParam(defaultValue = "ndjson") String formato,
+
+            @Parameter(description = "Comprime a saída com gzip")
+            @RequestParam(defaultValue = "false") boolean gzip,
+
+            HttpServletRequest request
+    ) {
+        HistoricoHemogramaRepository.Filtro filtro =
+                new HistoricoHemogramaRepository.Filtro(regiao, inicio, fim, paciente, somenteAlterados);
+        HistoricoHemogramaService.FormatoExportacao formatoExportacao;
+        try {
+            formatoExportacao = HistoricoHemogramaService.FormatoExportacao.de(formato);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        if (inicio != null && fim != null && inicio.isAfter(fim)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "inicio deve ser anterior ou igual a fim");
+        }
+
+        HistoricoHemogramaService.VagaExportacao vaga = historicoService.reservarExportacao();
+        if (vaga == null) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Limite de exportações simultâneas atingido, tente novamente mais tarde");
+        }
+        // Requisição encerrada (timeout, erro) antes de o executor rodar a exportação: devolve a vaga
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(
+                HistoricoHemogramaService.VagaExportacao.class.getName(),
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        vaga.descartar();
+                    }
+                });
+
+        // Roda no executor assíncrono do MVC; a conexão só é pega quando a escrita começa
+        StreamingResponseBody corpo = saida -> {
+            try {
+                if (gzip) {
+                    GZIPOutputStream compactado = new GZIPOutputStream(saida, TAMANHO_BUFFER);
+                    vaga.exportar(filtro, formatoExportacao, compactado);
+                    compactado.finish();
+                } else {
+                    BufferedOutputStream bufferizado = new BufferedOutputStream(saida, TAMANHO_BUFFER);
+                    vaga.exportar(filtro, formatoExportacao, bufferizado);
+                    bufferizado.flush();
+                }
+            } catch (IOException e) {
+                // Cliente desconectou no meio: a resposta já começou, não há o que devolver
+                logger.debug("Exportação encerrada pelo cliente: {}", e.getMessage());
+            }
+        };
+
+        String arquivo = "hemogramas." + formatoExportacao.getExtensao() + (gzip ? ".gz" : "");
+        MediaType tipo = gzip
+                ? MediaType.parseMediaType("application/gzip")
+                : new MediaType(MediaType.parseMediaType(formatoExportacao.getTipoConteudo()), StandardCharsets.UTF_8);
+        return ResponseEntity.ok()
+                .contentType(tipo)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + arquivo + "\"")
+                .body(corpo);
+    }
+
+    @Operation(summary = "Métricas da exportação do histórico (linhas, linhas/s da última exportação)")
+    @GetMapping("/hemograms/export/status")
+    public ResponseEntity<Map<String, Object>> getExportStatus() {
+        return ResponseEntity.ok(historicoService.getMetricasExportacao());
+    }
+
+    @Operation(
+            summary = "Linha do tempo de um paciente",
+            description = "Hemogramas do paciente em ordem de coleta, com a variação das plaquetas entre coletas e " +
+                    "as quedas seriadas (queda acima de hemogram.monitoring.pacientes.queda-plaquetas-percentual " +
+                    "em relação à maior contagem nas janela-queda-horas anteriores). Com mais de 'limite' " +
+                    "hemogramas no período, ficam os mais recentes."
+    )
+    @GetMapping("/patients/{paciente}/timeline")
+    public ResponseEntity<?> getPatientTimeline(
+            @Parameter(description = "Id do paciente (referência Patient do FHIR)", example = "paciente-123")
+            @PathVariable String paciente,
+
+            @Parameter(description = "Início do período (inclusivo), ISO-8601", example = "2024-01-01T00:00:00")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime inicio,
+
+            @Parameter(description = "Fim do período (inclusivo), ISO-8601", example = "2024-01-31T23:59:59")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime fim,
+
+            @Parameter(description = "Máximo de hemogramas (os mais recentes)")
+            @RequestParam(required = false) Integer limite
+    ) {
+        try {
+            return ResponseEntity.ok(linhaTempoPacienteService.linhaTempo(paciente, inicio, fim, limite));
+        } catch (IllegalArgumentException e) {
+            return erro(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    @Operation(
+            summary = "Últimas quedas seriadas de plaquetas",
+            description = "Quedas detectadas na gravação dos hemogramas, em qualquer modo de ingestão (inclusive " +
+                    "Prefer: return=minimal e fila assíncrona), da mais recente para a mais antiga. Guarda as " +
+                    "últimas hemogram.monitoring.pacientes.max-quedas."
+    )
+    @GetMapping("/patients/drops")
+    public ResponseEntity<List<Map<String, Object>>> getPlateletDrops() {
+        return ResponseEntity.ok(linhaTempoPacienteService.listarQuedas());
+    }
+
+    @Operation(summary = "Estado do cache de resultados recentes por paciente (queda seriada de plaquetas)")
+    @GetMapping("/patients/status")
+    public ResponseEntity<Map<String, Object>> getPatientCacheStatus() {
+        return ResponseEntity.ok(linhaTempoPacienteService.getMetricas());
+    }
+
+    @Operation(
+            summary = "Partições de tempo do histórico e estado da retenção",
+            description = "Lista as partições mensais (tabelas hemograms_AAAAMM), com a quantidade de linhas, " +
+                    "se já passaram da retenção e as retiradas que aguardam arquivamento."
+    )
+    @GetMapping("/partitions")
+    public ResponseEntity<Map<String, Object>> getPartitions() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("retencao", retencaoService.getMetricas());
+        response.put("particoes", retencaoService.listarParticoes());
+        return ResponseEntity.ok(response);
+    }
+
+    @Operation(
+            summary = "Executa a retenção agora",
+            description = "Arquiva (se habilitado) e exclui com DROP TABLE as partições mais antigas que as " +
+                    "hemogram.monitoring.retencao.particoes-retidas mais recentes, sem esperar a próxima execução."
+    )
+    @PostMapping("/partitions/retention")
+    public ResponseEntity<?> runRetention() {
+        if (!retencaoService.isAtivo()) {
+            return erro(HttpStatus.CONFLICT, "Retenção desabilitada (hemogram.monitoring.retencao.enabled=false)");
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("particoesExcluidas", retencaoService.executar());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Erros da exportação, que devolve StreamingResponseBody: mesmo corpo de {@link #erro}.
+     */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<Map<String, Object>> tratarErro(ResponseStatusException e) {
+        HttpStatus status = HttpStatus.valueOf(e.getStatusCode().value());
+        ResponseEntity<Map<String, Object>> resposta = erro(status, e.getReason());
+        if (status != HttpStatus.TOO_MANY_REQUESTS) {
+            return resposta;
+        }
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_EXPORTACAO_SEGUNDOS))
+                .body(resposta.getBody());
+    }
+
+    private ResponseEntity<Map<String, Object>> erro(HttpStatus status, String mensagem) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", mensagem);
+        return ResponseEntity.status(status).body(response);
     }
-}
\ No newline at end of file
+}
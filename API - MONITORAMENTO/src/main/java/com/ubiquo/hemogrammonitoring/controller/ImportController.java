@@ -0,0 +1,58 @@
+package com.ubiquo.hemogrammonitoring.controller;
+
+import com.ubiquo.hemogrammonitoring.service.NdjsonImportService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/admin/import")
+@CrossOrigin(origins = "*")
+@Tag(name = "Import Management", description = "Importação em massa de hemogramas históricos (FHIR Bulk Data NDJSON)")
+public class ImportController {
+
+    private final NdjsonImportService ndjsonImportService;
+
+    public ImportController(NdjsonImportService ndjsonImportService) {
+        this.ndjsonImportService = ndjsonImportService;
+    }
+
+    @Operation(
+        summary = "Inicia a importação de um arquivo NDJSON",
+        description = "Lê um arquivo NDJSON (uma Observation ou um Bundle por linha) do diretório de importação " +
+                     "configurado, processa em paralelo por blocos e grava em lote na tabela hemograms. " +
+                     "Se houver checkpoint de uma execução interrompida, os blocos já importados são pulados."
+    )
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> iniciarImportacao(@RequestParam("arquivo") String arquivo) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(ndjsonImportService.iniciar(arquivo));
+        } catch (IllegalArgumentException e) {
+            return erro(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            return erro(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    @Operation(
+        summary = "Progresso da importação",
+        description = "Retorna bytes e blocos processados, linhas lidas, hemogramas gravados e a vazão " +
+                     "(MB/s, linhas/s, hemogramas/s) da importação atual ou da última executada"
+    )
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getStatus() {
+        return ResponseEntity.ok(ndjsonImportService.getStatus());
+    }
+
+    private ResponseEntity<Map<String, Object>> erro(HttpStatus status, String mensagem) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "error");
+        response.put("message", mensagem);
+        return ResponseEntity.status(status).body(response);
+    }
+}
@@ -0,0 +1,56 @@
+package com.ubiquo.hemogrammonitoring.controller;
+
+import com.ubiquo.hemogrammonitoring.service.DiarioIngestaoService;
+import com.ubiquo.hemogrammonitoring.service.FhirJsonParserPool;
+import com.ubiquo.hemogrammonitoring.service.FhirParserService;
+import com.ubiquo.hemogrammonitoring.service.HemogramPersistenceService;
+import com.ubiquo.hemogrammonitoring.service.IngestionQueueService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/admin/ingestion")
+@CrossOrigin(origins = "*")
+@Tag(name = "Ingestion Management", description = "Monitoramento do pipeline de ingestão de hemogramas")
+public class IngestionController {
+
+    private final IngestionQueueService ingestionQueueService;
+    private final HemogramPersistenceService hemogramPersistenceService;
+    private final FhirParserService fhirParserService;
+    private final FhirJsonParserPool fhirJsonParserPool;
+    private final DiarioIngestaoService diarioIngestaoService;
+
+    public IngestionController(IngestionQueueService ingestionQueueService,
+                               HemogramPersistenceService hemogramPersistenceService,
+                               FhirParserService fhirParserService,
+                               FhirJsonParserPool fhirJsonParserPool,
+                               DiarioIngestaoService diarioIngestaoService) {
+        this.ingestionQueueService = ingestionQueueService;
+        this.hemogramPersistenceService = hemogramPersistenceService;
+        this.fhirParserService = fhirParserService;
+        this.fhirJsonParserPool = fhirJsonParserPool;
+        this.diarioIngestaoService = diarioIngestaoService;
+    }
+
+    @Operation(
+        summary = "Métricas do pipeline assíncrono de ingestão",
+        description = "Retorna profundidade da fila, utilização dos workers, contadores de aceitos/rejeitados " +
+                     "e lag ponta a ponta (do recebimento até o fim do processamento), além das métricas " +
+                     "da persistência write-behind, do extrator fast path, do pool de parsers HAPI e do " +
+                     "diário de ingestão (latência de append, fsyncs em grupo, checkpoint e segmentos)"
+    )
+    @GetMapping("/status")
+    public ResponseEntity<Map<String, Object>> getIngestionStatus() {
+        Map<String, Object> response = new LinkedHashMap<>(ingestionQueueService.getMetricas());
+        response.put("writeBehind", hemogramPersistenceService.getMetricas());
+        response.put("fastPath", fhirParserService.getMetricasFastPath());
+        response.put("parserPool", fhirJsonParserPool.getMetricas());
+        response.put("journal", diarioIngestaoService.getMetricas());
+        return ResponseEntity.ok(response);
+    }
+}
@@ -0,0 +1,23 @@
+package com.ubiquo.hemogrammonitoring.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Linha do histórico de hemogramas, lida direto do banco (sem entidade gerenciada).
+ * Mesmos campos, com os mesmos nomes, do JSON de HemogramEntity.
+ */
+public record HemogramaHistoricoDTO(
+        Long id,
+        String observationId,
+        String patientId,
+        String patientName,
+        String patientCpf,
+        String patientPhone,
+        LocalDateTime timestamp,
+        Double leucocitos,
+        Double hemoglobina,
+        Double plaquetas,
+        Double hematocrito,
+        String region
+) {
+}
@@ -21,6 +21,18 @@ public class IndicadoresRegionaisDTO {
     private Double variacaoPlaquetasPorcentagem;
     private String tendenciaLeucocitos; // "SUBINDO", "CAINDO", "ESTAVEL"
     private Double variacaoLeucocitosPorcentagem;
+    // Quantis aproximados (sketches por hora); null fora dos agregados em memória
+    private Double plaquetasP10;
+    private Double plaquetasMediana;
+    private Double plaquetasP90;
+    private Double leucocitosP10;
+    private Double leucocitosMediana;
+    private Double leucocitosP90;
+    // Pessoas, não exames (HyperLogLog por hora); null fora dos agregados em memória
+    private Long pacientesDistintos;
+    private Long pacientesComAlerta;
+    private Double proporcaoPacientesComAlerta;
+    private Double erroPadraoPacientes; // relativo, ex: 0.016 = ±1,6%
 
     public IndicadoresRegionaisDTO() {
     }
@@ -169,5 +181,84 @@ public class IndicadoresRegionaisDTO {
     public void setVariacaoLeucocitosPorcentagem(Double variacaoLeucocitosPorcentagem) {
         this.variacaoLeucocitosPorcentagem = variacaoLeucocitosPorcentagem;
     }
-}
 
+    public Double getPlaquetasP10() {
+        return plaquetasP10;
+    }
+
+    public void setPlaquetasP10(Double plaquetasP10) {
+        this.plaquetasP10 = plaquetasP10;
+    }
+
+    public Double getPlaquetasMediana() {
+        return plaquetasMediana;
+    }
+
+    public void setPlaquetasMediana(Double plaquetasMediana) {
+        this.plaquetasMediana = plaquetasMediana;
+    }
+
+    public Double getPlaquetasP90() {
+        return plaquetasP90;
+    }
+
+    public void setPlaquetasP90(Double plaquetasP90) {
+        this.plaquetasP90 = plaquetasP90;
+    }
+
+    public Double getLeucocitosP10() {
+        return leucocitosP10;
+    }
+
+    public void setLeucocitosP10(Double leucocitosP10) {
+        this.leucocitosP10 = leucocitosP10;
+    }
+
+    public Double getLeucocitosMediana() {
+        return leucocitosMediana;
+    }
+
+    public void setLeucocitosMediana(Double leucocitosMediana) {
+        this.leucocitosMediana = leucocitosMediana;
+    }
+
+    public Double getLeucocitosP90() {
+        return leucocitosP90;
+    }
+
+    public void setLeucocitosP90(Double leucocitosP90) {
+        this.leucocitosP90 = leucocitosP90;
+    }
+
+    public Long getPacientesDistintos() {
+        return pacientesDistintos;
+    }
+
+    public void setPacientesDistintos(Long pacientesDistintos) {
+        this.pacientesDistintos = pacientesDistintos;
+    }
+
+    public Long getPacientesComAlerta() {
+        return pacientesComAlerta;
+    }
+
+    public void setPacientesComAlerta(Long pacientesComAlerta) {
+        this.pacientesComAlerta = pacientesComAlerta;
+    }
+
+    public Double getProporcaoPacientesComAlerta() {
+        return proporcaoPacientesComAlerta;
+    }
+
+    public void setProporcaoPacientesComAlerta(Double proporcaoPacientesComAlerta) {
+        this.proporcaoPacientesComAlerta = proporcaoPacientesComAlerta;
+    }
+
+    public Double getErroPadraoPacientes() {
+        return erroPadraoPacientes;
+    }
+
+    public void setErroPadraoPacientes(Double erroPadraoPacientes) {
+        this.erroPadraoPacientes = erroPadraoPacientes;
+    }
+}
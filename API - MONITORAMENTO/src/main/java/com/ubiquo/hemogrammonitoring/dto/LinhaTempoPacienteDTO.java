@@ -0,0 +1,32 @@
+package com.ubiquo.hemogrammonitoring.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Hemogramas de um paciente em ordem de coleta (do mais antigo para o mais recente), com a
+ * variação das plaquetas entre coletas e as quedas seriadas encontradas.
+ *
+ * @param quedasPlaquetas pontos em que a contagem caiu além do limiar em relação à maior
+ *                        contagem anterior da janela (mesma regra aplicada na ingestão)
+ */
+public record LinhaTempoPacienteDTO(String paciente, int quantidade, int limite, List<Ponto> pontos,
+                                    List<Queda> quedasPlaquetas) {
+
+    /**
+     * @param variacaoPlaquetasPercentual variação em relação à coleta anterior com plaquetas
+     *                                    (null na primeira ou sem plaquetas)
+     */
+    public record Ponto(long id, String observationId, LocalDateTime timestamp, Double leucocitos,
+                        Double hemoglobina, Double plaquetas, Double hematocrito, String region,
+                        Double variacaoPlaquetasPercentual) {
+    }
+
+    /**
+     * @param pico  maior contagem anterior dentro da janela
+     * @param horas horas entre a coleta do pico e esta
+     */
+    public record Queda(String observationId, LocalDateTime timestamp, double plaquetas, double pico,
+                        double quedaPercentual, long horas, String mensagem) {
+    }
+}
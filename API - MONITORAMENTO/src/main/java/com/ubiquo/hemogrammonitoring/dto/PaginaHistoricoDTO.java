@@ -0,0 +1,37 @@
+package com.ubiquo.hemogrammonitoring.dto;
+
+import java.util.List;
+
+/**
+ * Página do histórico de hemogramas, do mais recente para o mais antigo.
+ * proximoCursor é null na última página; para continuar, repita a consulta com os mesmos
+ * filtros e cursor=proximoCursor.
+ */
+public class PaginaHistoricoDTO {
+
+    private final List<HemogramaHistoricoDTO> itens;
+    private final int limite;
+    private final String proximoCursor;
+
+    public PaginaHistoricoDTO(List<HemogramaHistoricoDTO> itens, int limite, String proximoCursor) {
+        this.itens = itens;
+        this.limite = limite;
+        this.proximoCursor = proximoCursor;
+    }
+
+    public List<HemogramaHistoricoDTO> getItens() {
+        return itens;
+    }
+
+    public int getQuantidade() {
+        return itens.size();
+    }
+
+    public int getLimite() {
+        return limite;
+    }
+
+    public String getProximoCursor() {
+        return proximoCursor;
+    }
+}
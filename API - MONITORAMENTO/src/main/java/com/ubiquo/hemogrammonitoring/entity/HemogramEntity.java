@@ -8,8 +8,10 @@ import java.time.LocalDateTime;
 @Table(name = "hemograms")
 public class HemogramEntity {
 
+    // Sequence com alocação em bloco (pooled): IDENTITY impede o JDBC batch do Hibernate
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hemograms_seq_gen")
+    @SequenceGenerator(name = "hemograms_seq_gen", sequenceName = "hemograms_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -0,0 +1,37 @@
+package com.ubiquo.hemogrammonitoring.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * Publicado pela {@link com.ubiquo.hemogrammonitoring.service.RetencaoHemogramaService}
+ * depois que os hemogramas de uma partição de tempo são excluídos do banco. Quem guarda
+ * dados derivados (rollup, agregados em memória, cache) descarta o intervalo.
+ */
+public class HemogramasExcluidosEvent {
+
+    private final LocalDateTime inicio;
+    private final LocalDateTime fim;
+    private final long linhas;
+
+    /**
+     * @param inicio inclusivo
+     * @param fim    exclusivo
+     */
+    public HemogramasExcluidosEvent(LocalDateTime inicio, LocalDateTime fim, long linhas) {
+        this.inicio = inicio;
+        this.fim = fim;
+        this.linhas = linhas;
+    }
+
+    public LocalDateTime getInicio() {
+        return inicio;
+    }
+
+    public LocalDateTime getFim() {
+        return fim;
+    }
+
+    public long getLinhas() {
+        return linhas;
+    }
+}
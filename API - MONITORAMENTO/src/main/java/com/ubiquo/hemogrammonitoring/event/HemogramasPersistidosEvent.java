@@ -0,0 +1,23 @@
+package com.ubiquo.hemogrammonitoring.event;
+
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+
+import java.util.List;
+
+/**
+ * Publicado pela {@link com.ubiquo.hemogrammonitoring.service.HemogramPersistenceService}
+ * depois que hemogramas são efetivamente gravados no banco (duplicados ignorados ficam
+ * de fora). Os listeners rodam na thread que gravou, então devem ser baratos.
+ */
+public class HemogramasPersistidosEvent {
+
+    private final List<HemogramEntity> hemogramas;
+
+    public HemogramasPersistidosEvent(List<HemogramEntity> hemogramas) {
+        this.hemogramas = List.copyOf(hemogramas);
+    }
+
+    public List<HemogramEntity> getHemogramas() {
+        return hemogramas;
+    }
+}
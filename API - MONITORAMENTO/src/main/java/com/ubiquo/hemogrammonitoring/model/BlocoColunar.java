@@ -0,0 +1,435 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Bloco de capacidade fixa do armazenamento colunar de hemogramas: uma coluna primitiva
+ * por campo (coleta em segundos epoch, código da região no dicionário e um float por
+ * analito, NaN quando ausente). Na heap são arrays; fora da heap, buffers diretos.
+ *
+ * Um escritor por vez acrescenta linhas; leitores concorrentes leem {@code tamanho}
+ * (volatile) e só enxergam linhas já completas. O menor e o maior segundo do bloco
+ * permitem pular blocos inteiros fora da janela consultada.
+ */
+public abstract class BlocoColunar {
+
+    // long (coleta) + int (região) + 4 floats (leucócitos, hemoglobina, plaquetas, hematócrito)
+    public static final int BYTES_POR_LINHA = Long.BYTES + Integer.BYTES + 4 * Float.BYTES;
+
+    protected final int capacidade;
+    private volatile int tamanho;
+    private volatile long menorSegundo = Long.MAX_VALUE;
+    private volatile long maiorSegundo = Long.MIN_VALUE;
+
+    protected BlocoColunar(int capacidade) {
+        this.capacidade = capacidade;
+    }
+
+    public static BlocoColunar naHeap(int capacidade) {
+        return new NaHeap(capacidade);
+    }
+
+    public static BlocoColunar foraDoHeap(int capacidade) {
+        return new ForaDoHeap(capacidade);
+    }
+
+    public abstract long segundo(int i);
+
+    public abstract int regiao(int i);
+
+    public abstract float leucocitos(int i);
+
+    public abstract float hemoglobina(int i);
+
+    public abstract float plaquetas(int i);
+
+    public abstract float hematocrito(int i);
+
+    protected abstract void gravar(int i, long segundo, int regiao, float leucocitos, float hemoglobina,
+                                   float plaquetas, float hematocrito);
+
+    public abstract boolean isForaDoHeap();
+
+    /**
+     * Acrescenta uma linha. Chamado por um escritor de cada vez.
+     *
+     * @return false com o bloco cheio
+     */
+    public boolean adicionar(long segundo, int regiao, float leucocitos, float hemoglobina, float plaquetas,
+                             float hematocrito) {
+        int i = tamanho;
+        if (i == capacidade) {
+            return false;
+        }
+        gravar(i, segundo, regiao, leucocitos, hemoglobina, plaquetas, hematocrito);
+        if (segundo < menorSegundo) {
+            menorSegundo = segundo;
+        }
+        if (segundo > maiorSegundo) {
+            maiorSegundo = segundo;
+        }
+        // Publica a linha: quem ler o tamanho novo enxerga as colunas e os limites já gravados
+        tamanho = i + 1;
+        return true;
+    }
+
+    /**
+     * Copia a linha {@code i} para o fim de outro bloco (compactação).
+     *
+     * @return false com o destino cheio
+     */
+    public boolean copiarPara(int i, BlocoColunar destino) {
+        return destino.adicionar(segundo(i), regiao(i), leucocitos(i), hemoglobina(i), plaquetas(i), hematocrito(i));
+    }
+
+    /**
+     * Indica se o bloco pode ter linhas entre {@code de} e {@code ate} (segundos, inclusivos).
+     */
+    public boolean sobrepoe(long de, long ate) {
+        return tamanho > 0 && maiorSegundo >= de && menorSegundo <= ate;
+    }
+
+    /**
+     * Soma as linhas entre {@code inicioAnterior} e {@code fim} (segundos, inclusivos) no
+     * acumulador, separando a janela atual ({@code >= inicio}) da anterior. Com {@code regiao}
+     * >= 0 só essa região entra, nos slots 0 (atual) e 1 (anterior); com regiao < 0 todas
+     * entram, no slot {@code 2 * código + janela}.
+     *
+     * O laço lê primeiro a coluna de coleta e a de região, e só as linhas que passam no filtro
+     * tocam as colunas de analitos.
+     *
+     * @return linhas percorridas (0 se o bloco foi pulado pelos limites)
+     */
+    public int agregar(int regiao, long inicioAnterior, long inicio, long fim, Acumulador acumulador) {
+        int n = tamanho;
+        if (n == 0 || maiorSegundo < inicioAnterior || menorSegundo > fim) {
+            return 0;
+        }
+        boolean todas = regiao < 0;
+        for (int i = 0; i < n; i++) {
+            long t = segundo(i);
+            if (t < inicioAnterior | t > fim) {
+                continue;
+            }
+            int r = regiao(i);
+            if (!todas && r != regiao) {
+                continue;
+            }
+            int slot = (todas ? r << 1 : 0) | (t < inicio ? 1 : 0);
+            acumulador.somar(slot, plaquetas(i), leucocitos(i));
+        }
+        return n;
+    }
+
+    /**
+     * Acrescenta ao coletor as plaquetas e os leucócitos das linhas entre {@code inicio} e
+     * {@code fim} (segundos, inclusivos), de uma região ou de todas (regiao < 0).
+     *
+     * @return linhas percorridas (0 se o bloco foi pulado pelos limites)
+     */
+    public int coletar(int regiao, long inicio, long fim, Coletor coletor) {
+        int n = tamanho;
+        if (n == 0 || maiorSegundo < inicio || menorSegundo > fim) {
+            return 0;
+        }
+        boolean todas = regiao < 0;
+        for (int i = 0; i < n; i++) {
+            long t = segundo(i);
+            if (t < inicio | t > fim || (!todas && regiao(i) != regiao)) {
+                continue;
+            }
+            coletor.adicionar(plaquetas(i), leucocitos(i));
+        }
+        return n;
+    }
+
+    public int getTamanho() {
+        return tamanho;
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public long getBytes() {
+        return (long) capacidade * BYTES_POR_LINHA;
+    }
+
+    /**
+     * Totais por slot (janela, ou região e janela) preenchidos por {@link #agregar}.
+     * Valores NaN (analito ausente) não entram nas somas nem nos alertas, como o NULL no SQL.
+     */
+    public static final class Acumulador {
+        private final float limiarAlerta;
+        private long[] total;
+        private long[] alertas;
+        private double[] somaPlaquetas;
+        private long[] quantidadePlaquetas;
+        private double[] somaLeucocitos;
+        private long[] quantidadeLeucocitos;
+
+        /**
+         * @param slots        2 para uma região, 2 * quantidade de códigos para todas
+         * @param limiarAlerta plaquetas abaixo disso contam como alerta
+         */
+        public Acumulador(int slots, float limiarAlerta) {
+            this.limiarAlerta = limiarAlerta;
+            this.total = new long[slots];
+            this.alertas = new long[slots];
+            this.somaPlaquetas = new double[slots];
+            this.quantidadePlaquetas = new long[slots];
+            this.somaLeucocitos = new double[slots];
+            this.quantidadeLeucocitos = new long[slots];
+        }
+
+        private void crescer(int slots) {
+            total = Arrays.copyOf(total, slots);
+            alertas = Arrays.copyOf(alertas, slots);
+            somaPlaquetas = Arrays.copyOf(somaPlaquetas, slots);
+            quantidadePlaquetas = Arrays.copyOf(quantidadePlaquetas, slots);
+            somaLeucocitos = Arrays.copyOf(somaLeucocitos, slots);
+            quantidadeLeucocitos = Arrays.copyOf(quantidadeLeucocitos, slots);
+        }
+
+        void somar(int slot, float plaquetas, float leucocitos) {
+            if (slot >= total.length) {
+                // Região criada durante a varredura
+                crescer(Math.max(slot + 2, total.length * 2));
+            }
+            total[slot]++;
+            if (plaquetas == plaquetas) {
+                somaPlaquetas[slot] += plaquetas;
+                quantidadePlaquetas[slot]++;
+                if (plaquetas < limiarAlerta) {
+                    alertas[slot]++;
+                }
+            }
+            if (leucocitos == leucocitos) {
+                somaLeucocitos[slot] += leucocitos;
+                quantidadeLeucocitos[slot]++;
+            }
+        }
+
+        public int getSlots() {
+            return total.length;
+        }
+
+        public long getTotal(int slot) {
+            return total[slot];
+        }
+
+        public long getAlertas(int slot) {
+            return alertas[slot];
+        }
+
+        public double getSomaPlaquetas(int slot) {
+            return somaPlaquetas[slot];
+        }
+
+        public long getQuantidadePlaquetas(int slot) {
+            return quantidadePlaquetas[slot];
+        }
+
+        public double getSomaLeucocitos(int slot) {
+            return somaLeucocitos[slot];
+        }
+
+        public long getQuantidadeLeucocitos(int slot) {
+            return quantidadeLeucocitos[slot];
+        }
+    }
+
+    /**
+     * Plaquetas e leucócitos de uma janela, para quantis exatos (sem NaN).
+     */
+    public static final class Coletor {
+        private float[] plaquetas = new float[1024];
+        private int quantidadePlaquetas;
+        private float[] leucocitos = new float[1024];
+        private int quantidadeLeucocitos;
+
+        void adicionar(float plaqueta, float leucocito) {
+            if (plaqueta == plaqueta) {
+                if (quantidadePlaquetas == plaquetas.length) {
+                    plaquetas = Arrays.copyOf(plaquetas, plaquetas.length * 2);
+                }
+                plaquetas[quantidadePlaquetas++] = plaqueta;
+            }
+            if (leucocito == leucocito) {
+                if (quantidadeLeucocitos == leucocitos.length) {
+                    leucocitos = Arrays.copyOf(leucocitos, leucocitos.length * 2);
+                }
+                leucocitos[quantidadeLeucocitos++] = leucocito;
+            }
+        }
+
+        /**
+         * Plaquetas coletadas, em ordem crescente.
+         */
+        public float[] getPlaquetasOrdenadas() {
+            float[] ordenadas = Arrays.copyOf(plaquetas, quantidadePlaquetas);
+            Arrays.sort(ordenadas);
+            return ordenadas;
+        }
+
+        /**
+         * Leucócitos coletados, em ordem crescente.
+         */
+        public float[] getLeucocitosOrdenados() {
+            float[] ordenados = Arrays.copyOf(leucocitos, quantidadeLeucocitos);
+            Arrays.sort(ordenados);
+            return ordenados;
+        }
+    }
+
+    private static final class NaHeap extends BlocoColunar {
+        private final long[] segundos;
+        private final int[] regioes;
+        private final float[] leucocitos;
+        private final float[] hemoglobina;
+        private final float[] plaquetas;
+        private final float[] hematocrito;
+
+        NaHeap(int capacidade) {
+            super(capacidade);
+            this.segundos = new long[capacidade];
+            this.regioes = new int[capacidade];
+            this.leucocitos = new float[capacidade];
+            this.hemoglobina = new float[capacidade];
+            this.plaquetas = new float[capacidade];
+            this.hematocrito = new float[capacidade];
+        }
+
+        @Override
+        public long segundo(int i) {
+            return segundos[i];
+        }
+
+        @Override
+        public int regiao(int i) {
+            return regioes[i];
+        }
+
+        @Override
+        public float leucocitos(int i) {
+            return leucocitos[i];
+        }
+
+        @Override
+        public float hemoglobina(int i) {
+            return hemoglobina[i];
+        }
+
+        @Override
+        public float plaquetas(int i) {
+            return plaquetas[i];
+        }
+
+        @Override
+        public float hematocrito(int i) {
+            return hematocrito[i];
+        }
+
+        @Override
+        protected void gravar(int i, long segundo, int regiao, float leucocitos, float hemoglobina,
+                              float plaquetas, float hematocrito) {
+            this.segundos[i] = segundo;
+            this.regioes[i] = regiao;
+            this.leucocitos[i] = leucocitos;
+            this.hemoglobina[i] = hemoglobina;
+            this.plaquetas[i] = plaquetas;
+            this.hematocrito[i] = hematocrito;
+        }
+
+        @Override
+        public boolean isForaDoHeap() {
+            return false;
+        }
+    }
+
+    /**
+     * Colunas em um único buffer direto (liberado pelo GC quando o bloco é descartado).
+     * Conta para -XX:MaxDirectMemorySize, não para o heap.
+     */
+    private static final class ForaDoHeap extends BlocoColunar {
+        private final LongBuffer segundos;
+        private final IntBuffer regioes;
+        private final FloatBuffer leucocitos;
+        private final FloatBuffer hemoglobina;
+        private final FloatBuffer plaquetas;
+        private final FloatBuffer hematocrito;
+
+        ForaDoHeap(int capacidade) {
+            super(capacidade);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(capacidade * BYTES_POR_LINHA);
+            int posicao = 0;
+            this.segundos = fatia(buffer, posicao, capacidade * Long.BYTES).asLongBuffer();
+            posicao += capacidade * Long.BYTES;
+            this.regioes = fatia(buffer, posicao, capacidade * Integer.BYTES).asIntBuffer();
+            posicao += capacidade * Integer.BYTES;
+            this.leucocitos = fatia(buffer, posicao, capacidade * Float.BYTES).asFloatBuffer();
+            posicao += capacidade * Float.BYTES;
+            this.hemoglobina = fatia(buffer, posicao, capacidade * Float.BYTES).asFloatBuffer();
+            posicao += capacidade * Float.BYTES;
+            this.plaquetas = fatia(buffer, posicao, capacidade * Float.BYTES).asFloatBuffer();
+            posicao += capacidade * Float.BYTES;
+            this.hematocrito = fatia(buffer, posicao, capacidade * Float.BYTES).asFloatBuffer();
+        }
+
+        private static ByteBuffer fatia(ByteBuffer buffer, int posicao, int tamanho) {
+            // slice() volta para big-endian; a ordem nativa evita troca de bytes a cada leitura
+            return buffer.slice(posicao, tamanho).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public long segundo(int i) {
+            return segundos.get(i);
+        }
+
+        @Override
+        public int regiao(int i) {
+            return regioes.get(i);
+        }
+
+        @Override
+        public float leucocitos(int i) {
+            return leucocitos.get(i);
+        }
+
+        @Override
+        public float hemoglobina(int i) {
+            return hemoglobina.get(i);
+        }
+
+        @Override
+        public float plaquetas(int i) {
+            return plaquetas.get(i);
+        }
+
+        @Override
+        public float hematocrito(int i) {
+            return hematocrito.get(i);
+        }
+
+        @Override
+        protected void gravar(int i, long segundo, int regiao, float leucocitos, float hemoglobina,
+                              float plaquetas, float hematocrito) {
+            this.segundos.put(i, segundo);
+            this.regioes.put(i, regiao);
+            this.leucocitos.put(i, leucocitos);
+            this.hemoglobina.put(i, hemoglobina);
+            this.plaquetas.put(i, plaquetas);
+            this.hematocrito.put(i, hematocrito);
+        }
+
+        @Override
+        public boolean isForaDoHeap() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Desvio encontrado na análise de um hemograma.
+ *
+ * Guarda apenas os dados do desvio; o texto só é formatado quando alguém o pede
+ * (serialização da resposta completa ou log), e não no caminho de ingestão.
+ */
+public class Desvio {
+
+    public static final String ALERTA_DENGUE = "alertaDengue";
+    public static final String QUEDA_PLAQUETAS = "quedaPlaquetas";
+
+    private final String analito;
+    private final double valor;
+    // Só na queda de plaquetas: maior contagem anterior na janela e horas desde ela
+    private final double referencia;
+    private final long horas;
+
+    private Desvio(String analito, double valor) {
+        this(analito, valor, Double.NaN, 0);
+    }
+
+    private Desvio(String analito, double valor, double referencia, long horas) {
+        this.analito = analito;
+        this.valor = valor;
+        this.referencia = referencia;
+        this.horas = horas;
+    }
+
+    public static Desvio alterado(String analito, double valor) {
+        return new Desvio(analito, valor);
+    }
+
+    public static Desvio alertaDengue() {
+        return new Desvio(ALERTA_DENGUE, Double.NaN);
+    }
+
+    /**
+     * Queda seriada de plaquetas do mesmo paciente: a contagem atual caiu em relação à
+     * maior contagem das horas anteriores.
+     */
+    public static Desvio quedaPlaquetas(double valor, double pico, long horas) {
+        return new Desvio(QUEDA_PLAQUETAS, valor, pico, horas);
+    }
+
+    public String getAnalito() {
+        return analito;
+    }
+
+    public double getValor() {
+        return valor;
+    }
+
+    public double getReferencia() {
+        return referencia;
+    }
+
+    public long getHoras() {
+        return horas;
+    }
+
+    public boolean isAlertaDengue() {
+        return ALERTA_DENGUE.equals(analito);
+    }
+
+    public boolean isQuedaPlaquetas() {
+        return QUEDA_PLAQUETAS.equals(analito);
+    }
+
+    /**
+     * Queda percentual em relação à referência (só na queda de plaquetas).
+     */
+    public double getQuedaPercentual() {
+        return (referencia - valor) / referencia * 100;
+    }
+
+    /**
+     * Texto do desvio, no mesmo formato das respostas anteriores (lista de strings).
+     */
+    @JsonValue
+    public String getMensagem() {
+        switch (analito) {
+            case ValoresAnalitos.LEUCOCITOS:
+                return String.format("Leucócitos alterados: %.2f /µL (normal: %.0f-%.0f)",
+                        valor, ReferenceValues.LEUCOCITOS_MIN, ReferenceValues.LEUCOCITOS_MAX);
+            case ValoresAnalitos.HEMOGLOBINA:
+                return String.format("Hemoglobina alterada: %.2f g/dL (normal: %.1f-%.1f)",
+                        valor, ReferenceValues.HEMOGLOBINA_MIN, ReferenceValues.HEMOGLOBINA_MAX);
+            case ValoresAnalitos.PLAQUETAS:
+                return String.format("Plaquetas alteradas: %.0f /µL (normal: %.0f-%.0f)",
+                        valor, ReferenceValues.PLAQUETAS_MIN, ReferenceValues.PLAQUETAS_MAX);
+            case ValoresAnalitos.HEMATOCRITO:
+                return String.format("Hematócrito alterado: %.2f%% (normal: %.0f-%.0f%%)",
+                        valor, ReferenceValues.HEMATOCRITO_MIN, ReferenceValues.HEMATOCRITO_MAX);
+            case ALERTA_DENGUE:
+                return "⚠️ ALERTA DENGUE: Plaquetas E Leucócitos baixos detectados simultaneamente!";
+            case QUEDA_PLAQUETAS:
+                return String.format("📉 QUEDA DE PLAQUETAS: %.0f → %.0f /µL (-%.0f%%) em %dh",
+                        referencia, valor, getQuedaPercentual(), horas);
+            default:
+                return analito + " alterado: " + valor;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getMensagem();
+    }
+}
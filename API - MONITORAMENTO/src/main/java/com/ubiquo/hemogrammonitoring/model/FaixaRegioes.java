@@ -0,0 +1,22 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+/**
+ * Faixa de nomes de região, {@code de} inclusivo e {@code ate} exclusivo, na ordem do banco:
+ * uma busca no índice (region, ...) em vez de uma lista IN, que o H2 compara linha a linha.
+ * Faixas vizinhas não se sobrepõem, e as das pontas ({@link #INICIO}, {@link #FIM}) cobrem
+ * também regiões que ainda não existiam quando a divisão foi feita.
+ */
+public record FaixaRegioes(String de, String ate) {
+
+    // Menor que qualquer nome de região
+    public static final String INICIO = "";
+    // Maior que qualquer nome de região (nomes sem U+FFFF)
+    public static final String FIM = String.valueOf(Character.MAX_VALUE);
+
+    /**
+     * Faixa só com a região: [regiao, regiao + U+0000).
+     */
+    public static FaixaRegioes daRegiao(String regiao) {
+        return new FaixaRegioes(regiao, regiao + '\u0000');
+    }
+}
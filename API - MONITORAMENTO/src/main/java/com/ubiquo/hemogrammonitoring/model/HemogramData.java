@@ -1,7 +1,9 @@
 package com.ubiquo.hemogrammonitoring.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 public class HemogramData {
     
@@ -37,6 +39,10 @@ public class HemogramData {
     
     @JsonProperty("region")
     private String region; // Região geográfica
+
+    @JsonProperty("outrosAnalitos")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Double> outrosAnalitos = Map.of(); // Demais analitos do hemograma (não persistidos)
     
     // Construtores
     public HemogramData() {}
@@ -56,6 +62,14 @@ public class HemogramData {
         this.hematocrito = hematocrito;
         this.region = region;
     }
+
+    public HemogramData(String id, String patientId, String patientName, String patientCpf, String patientPhone,
+                        LocalDateTime timestamp, ValoresAnalitos valores, String region) {
+        this(id, patientId, patientName, patientCpf, patientPhone, timestamp,
+                valores.get(ValoresAnalitos.LEUCOCITOS), valores.get(ValoresAnalitos.HEMOGLOBINA),
+                valores.get(ValoresAnalitos.PLAQUETAS), valores.get(ValoresAnalitos.HEMATOCRITO), region);
+        this.outrosAnalitos = valores.getOutros();
+    }
     
     // Getters e Setters
     public String getId() {
@@ -146,6 +160,14 @@ public class HemogramData {
         this.region = region;
     }
 
+    public Map<String, Double> getOutrosAnalitos() {
+        return outrosAnalitos;
+    }
+
+    public void setOutrosAnalitos(Map<String, Double> outrosAnalitos) {
+        this.outrosAnalitos = outrosAnalitos;
+    }
+
     @Override
     public String toString() {
         return "HemogramData{" +
@@ -160,6 +182,7 @@ public class HemogramData {
                 ", plaquetas=" + plaquetas +
                 ", hematocrito=" + hematocrito +
                 ", region='" + region + '\'' +
+                ", outrosAnalitos=" + outrosAnalitos +
                 '}';
     }
 }
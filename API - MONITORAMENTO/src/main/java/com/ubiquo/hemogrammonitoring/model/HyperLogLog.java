@@ -0,0 +1,261 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog: contagem aproximada de elementos distintos em memória constante, com erro
+ * padrão relativo de 1,04/√m (m = 2^precisao registradores; precisao 12 → ~1,6%).
+ *
+ * Cada elemento vira um hash de 64 bits: os primeiros {@code precisao} bits escolhem o
+ * registrador, que guarda o maior número de zeros à esquerda (+1) visto no restante.
+ * Mesclar é tirar o máximo registrador a registrador, então sketches de horas e regiões
+ * diferentes se combinam para qualquer janela, sem dupla contagem de quem aparece em várias.
+ *
+ * Começa esparso (só os registradores não vazios, em um int[] ordenado por índice) e vira
+ * denso (byte[m]) quando o esparso passaria a ocupar mais memória; a maioria dos baldes
+ * tem poucos pacientes e fica pequena.
+ *
+ * Thread-safe (métodos sincronizados).
+ */
+public final class HyperLogLog {
+
+    public static final int PRECISAO_MINIMA = 4;
+    public static final int PRECISAO_MAXIMA = 18;
+
+    // Cada entrada esparsa: índice << BITS_VALOR | valor (valor <= 64 - precisao + 1 < 64)
+    private static final int BITS_VALOR = 6;
+    private static final int MASCARA_VALOR = (1 << BITS_VALOR) - 1;
+
+    private final int precisao;
+    private final int m;
+    private int[] esparso = new int[4];
+    private int tamanhoEsparso;
+    private byte[] registradores;
+
+    public HyperLogLog(int precisao) {
+        if (precisao < PRECISAO_MINIMA || precisao > PRECISAO_MAXIMA) {
+            throw new IllegalArgumentException("precisao deve estar entre " + PRECISAO_MINIMA + " e " + PRECISAO_MAXIMA);
+        }
+        this.precisao = precisao;
+        this.m = 1 << precisao;
+    }
+
+    public synchronized void adicionar(String valor) {
+        long hash = hash64(valor);
+        int indice = (int) (hash >>> (64 - precisao));
+        // Bit de guarda: limita a contagem de zeros quando o restante do hash é todo zero
+        long restante = (hash << precisao) | (1L << (precisao - 1));
+        atualizar(indice, Long.numberOfLeadingZeros(restante) + 1);
+    }
+
+    /**
+     * Acrescenta os elementos de outro sketch (que não é alterado). As precisões precisam ser iguais.
+     */
+    public void mesclar(HyperLogLog outro) {
+        if (outro.precisao != precisao) {
+            throw new IllegalArgumentException("Precisões diferentes: " + precisao + " e " + outro.precisao);
+        }
+        int[] esparsoOutro;
+        byte[] registradoresOutro;
+        synchronized (outro) {
+            esparsoOutro = outro.registradores == null ? Arrays.copyOf(outro.esparso, outro.tamanhoEsparso) : null;
+            registradoresOutro = outro.registradores != null ? outro.registradores.clone() : null;
+        }
+        synchronized (this) {
+            if (registradoresOutro != null) {
+                densificar();
+                for (int i = 0; i < m; i++) {
+                    if (registradoresOutro[i] > registradores[i]) {
+                        registradores[i] = registradoresOutro[i];
+                    }
+                }
+            } else if (registradores != null) {
+                for (int entrada : esparsoOutro) {
+                    atualizar(entrada >>> BITS_VALOR, entrada & MASCARA_VALOR);
+                }
+            } else {
+                mesclarEsparsos(esparsoOutro);
+            }
+        }
+    }
+
+    /**
+     * Estimativa de elementos distintos, pelo estimador de Ertl ("New cardinality estimation
+     * algorithms for HyperLogLog sketches", 2017): usa o histograma dos registradores e não
+     * tem a faixa de viés do estimador clássico na troca para contagem linear (~2,5·m).
+     */
+    public synchronized long estimar() {
+        int q = 64 - precisao;
+        int[] histograma = new int[q + 2];
+        if (registradores == null) {
+            histograma[0] = m - tamanhoEsparso;
+            for (int i = 0; i < tamanhoEsparso; i++) {
+                histograma[esparso[i] & MASCARA_VALOR]++;
+            }
+        } else {
+            for (byte registrador : registradores) {
+                histograma[registrador]++;
+            }
+        }
+        if (histograma[0] == m) {
+            return 0;
+        }
+        double z = m * tau(1 - (double) histograma[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z = 0.5 * (z + histograma[k]);
+        }
+        z += m * sigma((double) histograma[0] / m);
+        return Math.round(m / (2 * Math.log(2)) * m / z);
+    }
+
+    /**
+     * Erro padrão relativo da estimativa (1,04/√m).
+     */
+    public double getErroPadrao() {
+        return 1.04 / Math.sqrt(m);
+    }
+
+    public int getPrecisao() {
+        return precisao;
+    }
+
+    public synchronized boolean isDenso() {
+        return registradores != null;
+    }
+
+    private void atualizar(int indice, int valor) {
+        if (registradores != null) {
+            if (valor > registradores[indice]) {
+                registradores[indice] = (byte) valor;
+            }
+            return;
+        }
+        int posicao = buscar(indice);
+        if (posicao >= 0) {
+            if (valor > (esparso[posicao] & MASCARA_VALOR)) {
+                esparso[posicao] = indice << BITS_VALOR | valor;
+            }
+            return;
+        }
+        posicao = -posicao - 1;
+        if (tamanhoEsparso == esparso.length) {
+            esparso = Arrays.copyOf(esparso, esparso.length * 2);
+        }
+        System.arraycopy(esparso, posicao, esparso, posicao + 1, tamanhoEsparso - posicao);
+        esparso[posicao] = indice << BITS_VALOR | valor;
+        tamanhoEsparso++;
+        densificarSeMaior();
+    }
+
+    private void mesclarEsparsos(int[] outro) {
+        int[] resultado = new int[tamanhoEsparso + outro.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < tamanhoEsparso || j < outro.length) {
+            if (j == outro.length || (i < tamanhoEsparso && (esparso[i] >>> BITS_VALOR) < (outro[j] >>> BITS_VALOR))) {
+                resultado[n++] = esparso[i++];
+            } else if (i == tamanhoEsparso || (outro[j] >>> BITS_VALOR) < (esparso[i] >>> BITS_VALOR)) {
+                resultado[n++] = outro[j++];
+            } else {
+                // Mesmo índice: fica o maior valor (o índice é igual, então o maior int)
+                resultado[n++] = Math.max(esparso[i++], outro[j++]);
+            }
+        }
+        esparso = resultado;
+        tamanhoEsparso = n;
+        densificarSeMaior();
+    }
+
+    /**
+     * Passa para denso quando o int[] esparso ocuparia mais que o byte[m] denso.
+     */
+    private void densificarSeMaior() {
+        if (tamanhoEsparso * (long) Integer.BYTES > m) {
+            densificar();
+        }
+    }
+
+    private void densificar() {
+        if (registradores != null) {
+            return;
+        }
+        registradores = new byte[m];
+        for (int i = 0; i < tamanhoEsparso; i++) {
+            registradores[esparso[i] >>> BITS_VALOR] = (byte) (esparso[i] & MASCARA_VALOR);
+        }
+        esparso = null;
+        tamanhoEsparso = 0;
+    }
+
+    /**
+     * Posição do índice no esparso, ou -(ponto de inserção) - 1.
+     */
+    private int buscar(int indice) {
+        int baixo = 0;
+        int alto = tamanhoEsparso - 1;
+        while (baixo <= alto) {
+            int meio = (baixo + alto) >>> 1;
+            int atual = esparso[meio] >>> BITS_VALOR;
+            if (atual < indice) {
+                baixo = meio + 1;
+            } else if (atual > indice) {
+                alto = meio - 1;
+            } else {
+                return meio;
+            }
+        }
+        return -(baixo + 1);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double y = 1;
+        double z = x;
+        double anterior;
+        do {
+            x *= x;
+            anterior = z;
+            z += x * y;
+            y += y;
+        } while (z != anterior);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double y = 1;
+        double z = 1 - x;
+        double anterior;
+        do {
+            x = Math.sqrt(x);
+            anterior = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != anterior);
+        return z / 3;
+    }
+
+    /**
+     * FNV-1a de 64 bits sobre os bytes UTF-8, com a finalização do MurmurHash3 para espalhar
+     * os bits altos (que escolhem o registrador).
+     */
+    private static long hash64(String valor) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : valor.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
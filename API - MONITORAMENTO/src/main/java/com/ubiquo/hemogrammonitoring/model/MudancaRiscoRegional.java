@@ -0,0 +1,46 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+
+import java.util.List;
+
+/**
+ * Evento do stream /analise/stream: os indicadores atuais de uma região e o que mudou
+ * desde o último evento dela.
+ */
+public class MudancaRiscoRegional {
+
+    public static final String RISCO = "temRiscoColetivo";
+    public static final String FAIXA_PROPORCAO = "faixaProporcaoAlertas";
+    public static final String TENDENCIA_PLAQUETAS = "tendenciaPlaquetas";
+    public static final String TENDENCIA_LEUCOCITOS = "tendenciaLeucocitos";
+
+    private final IndicadoresRegionaisDTO indicadores;
+    private final int faixaProporcaoAlertas;
+    private final List<String> mudancas;
+
+    public MudancaRiscoRegional(IndicadoresRegionaisDTO indicadores, int faixaProporcaoAlertas, List<String> mudancas) {
+        this.indicadores = indicadores;
+        this.faixaProporcaoAlertas = faixaProporcaoAlertas;
+        this.mudancas = List.copyOf(mudancas);
+    }
+
+    public String getRegiao() {
+        return indicadores.getRegiao();
+    }
+
+    public IndicadoresRegionaisDTO getIndicadores() {
+        return indicadores;
+    }
+
+    /**
+     * Faixa de 10 pontos percentuais da proporção de alertas (0 = 0-9%, 4 = 40-49%, ...).
+     */
+    public int getFaixaProporcaoAlertas() {
+        return faixaProporcaoAlertas;
+    }
+
+    public List<String> getMudancas() {
+        return mudancas;
+    }
+}
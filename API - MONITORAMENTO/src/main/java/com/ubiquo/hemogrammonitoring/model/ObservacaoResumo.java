@@ -0,0 +1,66 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resumo de uma Observation individual (um único analito), usado quando as Observations
+ * chegam soltas (ex: NDJSON do FHIR Bulk Data) e precisam ser agrupadas em hemogramas
+ * por paciente + horário de coleta.
+ */
+public class ObservacaoResumo {
+
+    private final String observationId;
+    private final String patientId;
+    private final String patientCpf;
+    private final String horarioColeta; // valor bruto de effectiveDateTime/issued (chave de agrupamento)
+    private final LocalDateTime timestamp;
+    private final String bairro;
+    private final ValoresAnalitos valores; // analitos reconhecidos (code e component[])
+
+    public ObservacaoResumo(String observationId, String patientId, String patientCpf, String horarioColeta,
+                            LocalDateTime timestamp, String bairro, ValoresAnalitos valores) {
+        this.observationId = observationId;
+        this.patientId = patientId;
+        this.patientCpf = patientCpf;
+        this.horarioColeta = horarioColeta;
+        this.timestamp = timestamp;
+        this.bairro = bairro;
+        this.valores = valores;
+    }
+
+    /**
+     * Chave de agrupamento: paciente (CPF ou referência) + horário de coleta.
+     */
+    public String getChavePacienteEHorario() {
+        String paciente = "CPF não disponível".equals(patientCpf) ? patientId : patientCpf;
+        return paciente + "|" + (horarioColeta != null ? horarioColeta : "");
+    }
+
+    public String getObservationId() {
+        return observationId;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public String getPatientCpf() {
+        return patientCpf;
+    }
+
+    public String getHorarioColeta() {
+        return horarioColeta;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public String getBairro() {
+        return bairro;
+    }
+
+    public ValoresAnalitos getValores() {
+        return valores;
+    }
+}
@@ -0,0 +1,53 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Partição de tempo dos hemogramas: um mês, guardado na tabela hemograms_AAAAMM.
+ * {@code inicio} é inclusivo e {@code fim} exclusivo, então partições vizinhas não se sobrepõem.
+ *
+ * @param nome ex: "2025-03"
+ */
+public record ParticaoTempo(String nome, LocalDateTime inicio, LocalDateTime fim) {
+
+    private static final String PREFIXO_TABELA = "hemograms_";
+
+    /**
+     * Partição que contém o instante.
+     */
+    public static ParticaoTempo contendo(LocalDateTime instante) {
+        LocalDateTime inicio = instante.toLocalDate().withDayOfMonth(1).atStartOfDay();
+        return new ParticaoTempo(String.format("%d-%02d", inicio.getYear(), inicio.getMonthValue()),
+                inicio, inicio.plusMonths(1));
+    }
+
+    /**
+     * Partição guardada na tabela (ex: "hemograms_202503", em qualquer caixa).
+     *
+     * @throws IllegalArgumentException se o nome não é de uma tabela de partição
+     */
+    public static ParticaoTempo daTabela(String tabela) {
+        String sufixo = tabela.substring(Math.min(tabela.length(), PREFIXO_TABELA.length()));
+        if (!tabela.regionMatches(true, 0, PREFIXO_TABELA, 0, PREFIXO_TABELA.length())
+                || sufixo.length() != 6 || !sufixo.chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("Tabela de partição inválida: " + tabela);
+        }
+        int aaaamm = Integer.parseInt(sufixo);
+        return contendo(LocalDateTime.of(aaaamm / 100, aaaamm % 100, 1, 0, 0));
+    }
+
+    /**
+     * Tabela física da partição, ex: "hemograms_202503".
+     */
+    public String tabela() {
+        return String.format("%s%d%02d", PREFIXO_TABELA, inicio.getYear(), inicio.getMonthValue());
+    }
+
+    public ParticaoTempo anterior() {
+        return contendo(inicio.minusMonths(1));
+    }
+
+    public ParticaoTempo proxima() {
+        return contendo(fim);
+    }
+}
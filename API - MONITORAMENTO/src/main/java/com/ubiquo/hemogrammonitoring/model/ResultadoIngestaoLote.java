@@ -0,0 +1,153 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultado compacto da ingestão de um Bundle em lote: um item por hemograma montado
+ * (com as posições das entradas do Bundle que o compõem) e a lista de entradas ignoradas.
+ */
+public class ResultadoIngestaoLote {
+
+    public static final String STATUS_CRIADO = "CRIADO";
+    public static final String STATUS_ENFILEIRADO = "ENFILEIRADO";
+    public static final String STATUS_IGNORADO = "IGNORADO";
+
+    @JsonProperty("totalEntradas")
+    private final int totalEntradas;
+
+    @JsonProperty("hemogramas")
+    private final List<Item> hemogramas = new ArrayList<>();
+
+    @JsonProperty("entradasIgnoradas")
+    private final List<EntradaIgnorada> entradasIgnoradas = new ArrayList<>();
+
+    public ResultadoIngestaoLote(int totalEntradas) {
+        this.totalEntradas = totalEntradas;
+    }
+
+    public void adicionarHemograma(HemogramData hemogramData, List<Integer> entradas) {
+        hemogramas.add(new Item(hemogramData, entradas));
+    }
+
+    public void ignorarEntrada(int entrada, String motivo) {
+        entradasIgnoradas.add(new EntradaIgnorada(entrada, motivo));
+    }
+
+    public int getTotalEntradas() {
+        return totalEntradas;
+    }
+
+    public List<Item> getHemogramas() {
+        return hemogramas;
+    }
+
+    public List<EntradaIgnorada> getEntradasIgnoradas() {
+        return entradasIgnoradas;
+    }
+
+    @JsonIgnore
+    public List<HemogramData> getDadosHemogramas() {
+        return hemogramas.stream().map(Item::getHemogramData).toList();
+    }
+
+    @JsonProperty("totalAlertasDengue")
+    public long getTotalAlertasDengue() {
+        return hemogramas.stream().filter(Item::isAlertaDengue).count();
+    }
+
+    @JsonProperty("totalQuedasPlaquetas")
+    public long getTotalQuedasPlaquetas() {
+        return hemogramas.stream().filter(Item::isQuedaPlaquetas).count();
+    }
+
+    public static class Item {
+
+        @JsonIgnore
+        private final HemogramData hemogramData;
+
+        @JsonProperty("entradas")
+        private final List<Integer> entradas;
+
+        @JsonProperty("status")
+        private String status;
+
+        @JsonProperty("alertaDengue")
+        private boolean alertaDengue;
+
+        @JsonProperty("quedaPlaquetas")
+        private boolean quedaPlaquetas;
+
+        Item(HemogramData hemogramData, List<Integer> entradas) {
+            this.hemogramData = hemogramData;
+            this.entradas = entradas;
+        }
+
+        @JsonProperty("id")
+        public String getId() {
+            return hemogramData.getId();
+        }
+
+        @JsonProperty("paciente")
+        public String getPaciente() {
+            return hemogramData.getPatientCpf();
+        }
+
+        public HemogramData getHemogramData() {
+            return hemogramData;
+        }
+
+        public List<Integer> getEntradas() {
+            return entradas;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public void setStatus(String status) {
+            this.status = status;
+        }
+
+        public boolean isAlertaDengue() {
+            return alertaDengue;
+        }
+
+        public void setAlertaDengue(boolean alertaDengue) {
+            this.alertaDengue = alertaDengue;
+        }
+
+        public boolean isQuedaPlaquetas() {
+            return quedaPlaquetas;
+        }
+
+        public void setQuedaPlaquetas(boolean quedaPlaquetas) {
+            this.quedaPlaquetas = quedaPlaquetas;
+        }
+    }
+
+    public static class EntradaIgnorada {
+
+        @JsonProperty("entrada")
+        private final int entrada;
+
+        @JsonProperty("motivo")
+        private final String motivo;
+
+        EntradaIgnorada(int entrada, String motivo) {
+            this.entrada = entrada;
+            this.motivo = motivo;
+        }
+
+        public int getEntrada() {
+            return entrada;
+        }
+
+        public String getMotivo() {
+            return motivo;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+
+import java.util.List;
+
+/**
+ * Resultado da varredura de regiões com risco coletivo. Quando a avaliação das regiões
+ * estoura o prazo, traz as regiões com risco entre as que foram avaliadas e a lista das
+ * que ficaram de fora (resultado parcial).
+ */
+public class ResultadoRegioesRisco {
+
+    private final List<IndicadoresRegionaisDTO> regioesComRisco;
+    private final List<String> regioesNaoAvaliadas;
+
+    public ResultadoRegioesRisco(List<IndicadoresRegionaisDTO> regioesComRisco, List<String> regioesNaoAvaliadas) {
+        this.regioesComRisco = List.copyOf(regioesComRisco);
+        this.regioesNaoAvaliadas = List.copyOf(regioesNaoAvaliadas);
+    }
+
+    public static ResultadoRegioesRisco completo(List<IndicadoresRegionaisDTO> regioesComRisco) {
+        return new ResultadoRegioesRisco(regioesComRisco, List.of());
+    }
+
+    public List<IndicadoresRegionaisDTO> getRegioesComRisco() {
+        return regioesComRisco;
+    }
+
+    public List<String> getRegioesNaoAvaliadas() {
+        return regioesNaoAvaliadas;
+    }
+
+    public boolean isParcial() {
+        return !regioesNaoAvaliadas.isEmpty();
+    }
+}
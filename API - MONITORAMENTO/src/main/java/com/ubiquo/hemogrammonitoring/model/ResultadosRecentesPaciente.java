@@ -0,0 +1,99 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * Últimas contagens de plaquetas de um paciente, em ordem de coleta, com capacidade fixa:
+ * ao encher, sai a coleta mais antiga. Hemogramas fora de ordem são inseridos na posição
+ * certa, e um que seja mais antigo que todos com a lista cheia é descartado.
+ *
+ * Com a capacidade fixa, avaliar a queda seriada custa no máximo {@code capacidade}
+ * comparações, sem ir ao banco.
+ *
+ * Não é thread-safe: quem guarda as instâncias sincroniza o acesso.
+ */
+public final class ResultadosRecentesPaciente {
+
+    private final String[] observationIds;
+    private final long[] segundos;
+    private final double[] plaquetas;
+    private int tamanho;
+
+    public ResultadosRecentesPaciente(int capacidade) {
+        if (capacidade < 1) {
+            throw new IllegalArgumentException("capacidade deve ser >= 1");
+        }
+        this.observationIds = new String[capacidade];
+        this.segundos = new long[capacidade];
+        this.plaquetas = new double[capacidade];
+    }
+
+    /**
+     * @return false se o hemograma já estava na lista ou é mais antigo que todos com ela cheia
+     */
+    public boolean adicionar(String observationId, LocalDateTime coleta, double contagem) {
+        long instante = coleta.toEpochSecond(ZoneOffset.UTC);
+        for (int i = 0; i < tamanho; i++) {
+            if (segundos[i] == instante && Objects.equals(observationIds[i], observationId)) {
+                return false;
+            }
+        }
+        int capacidade = segundos.length;
+        if (tamanho == capacidade) {
+            if (instante < segundos[0]) {
+                return false;
+            }
+            // Libera a posição da coleta mais antiga
+            System.arraycopy(observationIds, 1, observationIds, 0, tamanho - 1);
+            System.arraycopy(segundos, 1, segundos, 0, tamanho - 1);
+            System.arraycopy(plaquetas, 1, plaquetas, 0, tamanho - 1);
+            tamanho--;
+        }
+        int posicao = tamanho;
+        while (posicao > 0 && segundos[posicao - 1] > instante) {
+            posicao--;
+        }
+        System.arraycopy(observationIds, posicao, observationIds, posicao + 1, tamanho - posicao);
+        System.arraycopy(segundos, posicao, segundos, posicao + 1, tamanho - posicao);
+        System.arraycopy(plaquetas, posicao, plaquetas, posicao + 1, tamanho - posicao);
+        observationIds[posicao] = observationId;
+        segundos[posicao] = instante;
+        plaquetas[posicao] = contagem;
+        tamanho++;
+        return true;
+    }
+
+    /**
+     * Compara a contagem com a maior contagem das coletas anteriores dentro da janela.
+     * O próprio hemograma (mesmo observationId) e coletas posteriores não contam.
+     *
+     * @param percentual queda mínima, em % do maior valor anterior
+     * @return o desvio de queda, ou null se não caiu o suficiente (ou não há anteriores)
+     */
+    public Desvio avaliarQueda(String observationId, LocalDateTime coleta, double contagem,
+                               double percentual, int janelaHoras) {
+        long instante = coleta.toEpochSecond(ZoneOffset.UTC);
+        long inicioJanela = instante - janelaHoras * 3600L;
+        double pico = 0;
+        long instantePico = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if (segundos[i] >= instante || segundos[i] < inicioJanela || Objects.equals(observationIds[i], observationId)) {
+                continue;
+            }
+            if (plaquetas[i] > pico) {
+                pico = plaquetas[i];
+                instantePico = segundos[i];
+            }
+        }
+        if (pico <= 0 || contagem > pico * (1 - percentual / 100)) {
+            return null;
+        }
+        return Desvio.quedaPlaquetas(contagem, pico, (instante - instantePico) / 3600);
+    }
+
+    public int getTamanho() {
+        return tamanho;
+    }
+}
@@ -0,0 +1,194 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.util.Arrays;
+
+/**
+ * Sketch de quantis KLL (Karnin, Lang, Liberty): resumo mesclável de uma distribuição com
+ * memória O(k), erro de rank ~1,7/k (k = 128 → ~1,3%) e mínimo/máximo exatos.
+ *
+ * Os valores ficam em níveis (compactadores); um item no nível h vale 2^h observações.
+ * Quando um nível enche, é ordenado e metade dos itens (pares ou ímpares, ao acaso) sobe
+ * para o nível seguinte. Níveis altos têm capacidade k e os baixos decaem por 2/3.
+ * Mesclar dois sketches é juntar os níveis e compactar, então sketches de horas e regiões
+ * diferentes se combinam para qualquer janela.
+ *
+ * Thread-safe (métodos sincronizados).
+ */
+public final class SketchQuantis {
+
+    private static final double DECAIMENTO = 2.0 / 3.0;
+    private static final int CAPACIDADE_MINIMA = 2;
+
+    private final int k;
+    private double[][] niveis = {new double[8]};
+    private int[] tamanhos = {0};
+    private long quantidade;
+    private double minimo = Double.POSITIVE_INFINITY;
+    private double maximo = Double.NEGATIVE_INFINITY;
+    // xorshift: só decide qual metade de um nível sobe
+    private long semente = 0x9E3779B97F4A7C15L;
+
+    public SketchQuantis(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k deve ser >= 8");
+        }
+        this.k = k;
+    }
+
+    public synchronized void adicionar(double valor) {
+        inserir(0, valor);
+        quantidade++;
+        minimo = Math.min(minimo, valor);
+        maximo = Math.max(maximo, valor);
+        comprimir();
+    }
+
+    /**
+     * Acrescenta as observações de outro sketch (que não é alterado).
+     */
+    public void mesclar(SketchQuantis outro) {
+        double[][] niveisOutro;
+        long quantidadeOutro;
+        double minimoOutro;
+        double maximoOutro;
+        synchronized (outro) {
+            if (outro.quantidade == 0) {
+                return;
+            }
+            niveisOutro = new double[outro.niveis.length][];
+            for (int h = 0; h < outro.niveis.length; h++) {
+                niveisOutro[h] = Arrays.copyOf(outro.niveis[h], outro.tamanhos[h]);
+            }
+            quantidadeOutro = outro.quantidade;
+            minimoOutro = outro.minimo;
+            maximoOutro = outro.maximo;
+        }
+        synchronized (this) {
+            for (int h = 0; h < niveisOutro.length; h++) {
+                for (double valor : niveisOutro[h]) {
+                    inserir(h, valor);
+                }
+            }
+            quantidade += quantidadeOutro;
+            minimo = Math.min(minimo, minimoOutro);
+            maximo = Math.max(maximo, maximoOutro);
+            comprimir();
+        }
+    }
+
+    /**
+     * @param q entre 0 e 1 (0,5 = mediana)
+     * @return o valor aproximado do quantil, ou null sem observações
+     */
+    public synchronized Double quantil(double q) {
+        if (quantidade == 0) {
+            return null;
+        }
+        if (q <= 0) {
+            return minimo;
+        }
+        if (q >= 1) {
+            return maximo;
+        }
+
+        int total = 0;
+        for (int tamanho : tamanhos) {
+            total += tamanho;
+        }
+        double[] valores = new double[total];
+        long[] pesos = new long[total];
+        Integer[] ordem = new Integer[total];
+        int i = 0;
+        for (int h = 0; h < niveis.length; h++) {
+            for (int j = 0; j < tamanhos[h]; j++) {
+                valores[i] = niveis[h][j];
+                pesos[i] = 1L << h;
+                ordem[i] = i;
+                i++;
+            }
+        }
+        Arrays.sort(ordem, (a, b) -> Double.compare(valores[a], valores[b]));
+
+        long pesoTotal = 0;
+        for (long peso : pesos) {
+            pesoTotal += peso;
+        }
+        double alvo = q * pesoTotal;
+        long acumulado = 0;
+        for (int indice : ordem) {
+            acumulado += pesos[indice];
+            if (acumulado >= alvo) {
+                return valores[indice];
+            }
+        }
+        return maximo;
+    }
+
+    public synchronized long getQuantidade() {
+        return quantidade;
+    }
+
+    private void inserir(int nivel, double valor) {
+        while (nivel >= niveis.length) {
+            niveis = Arrays.copyOf(niveis, niveis.length + 1);
+            niveis[niveis.length - 1] = new double[8];
+            tamanhos = Arrays.copyOf(tamanhos, tamanhos.length + 1);
+        }
+        if (tamanhos[nivel] == niveis[nivel].length) {
+            niveis[nivel] = Arrays.copyOf(niveis[nivel], niveis[nivel].length * 2);
+        }
+        niveis[nivel][tamanhos[nivel]++] = valor;
+    }
+
+    private void comprimir() {
+        while (true) {
+            int tamanhoTotal = 0;
+            int capacidadeTotal = 0;
+            for (int h = 0; h < niveis.length; h++) {
+                tamanhoTotal += tamanhos[h];
+                capacidadeTotal += capacidade(h);
+            }
+            if (tamanhoTotal <= capacidadeTotal) {
+                return;
+            }
+            for (int h = 0; h < niveis.length; h++) {
+                if (tamanhos[h] >= capacidade(h)) {
+                    compactar(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ordena o nível e sobe metade dos itens (peso dobra); com tamanho ímpar, o último fica.
+     */
+    private void compactar(int nivel) {
+        int tamanho = tamanhos[nivel];
+        double[] itens = niveis[nivel];
+        Arrays.sort(itens, 0, tamanho);
+        int pares = tamanho - (tamanho % 2);
+        int deslocamento = proximoBit();
+        for (int i = deslocamento; i < pares; i += 2) {
+            inserir(nivel + 1, itens[i]);
+        }
+        if (tamanho % 2 == 1) {
+            itens[0] = itens[tamanho - 1];
+            tamanhos[nivel] = 1;
+        } else {
+            tamanhos[nivel] = 0;
+        }
+    }
+
+    private int capacidade(int nivel) {
+        int profundidade = niveis.length - 1 - nivel;
+        return Math.max(CAPACIDADE_MINIMA, (int) Math.ceil(k * Math.pow(DECAIMENTO, profundidade)));
+    }
+
+    private int proximoBit() {
+        semente ^= semente << 13;
+        semente ^= semente >>> 7;
+        semente ^= semente << 17;
+        return (int) (semente & 1);
+    }
+}
@@ -0,0 +1,63 @@
+package com.ubiquo.hemogrammonitoring.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Valores de analitos lidos de uma ou mais Observations, já normalizados para a unidade
+ * canônica de cada analito. A última leitura de um analito prevalece.
+ *
+ * Os quatro analitos principais viram campos do {@link HemogramData}; os demais
+ * (eritrócitos, VCM, RDW etc.) vão para {@link HemogramData#getOutrosAnalitos()}.
+ */
+public class ValoresAnalitos {
+
+    public static final String LEUCOCITOS = "leucocitos";
+    public static final String HEMOGLOBINA = "hemoglobina";
+    public static final String PLAQUETAS = "plaquetas";
+    public static final String HEMATOCRITO = "hematocrito";
+
+    private final Map<String, Double> valores = new LinkedHashMap<>();
+
+    public void registrar(String analito, Double valor) {
+        valores.put(analito, valor);
+    }
+
+    public void registrarTodos(ValoresAnalitos outros) {
+        valores.putAll(outros.valores);
+    }
+
+    public Double get(String analito) {
+        return valores.get(analito);
+    }
+
+    /**
+     * Indica se algum analito tem valor (leituras sem valor numérico não contam).
+     */
+    public boolean possuiValor() {
+        for (Double valor : valores.values()) {
+            if (valor != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Analitos fora dos quatro principais, com valor.
+     */
+    public Map<String, Double> getOutros() {
+        Map<String, Double> outros = new LinkedHashMap<>();
+        valores.forEach((analito, valor) -> {
+            if (valor != null && !isPrincipal(analito)) {
+                outros.put(analito, valor);
+            }
+        });
+        return outros;
+    }
+
+    private static boolean isPrincipal(String analito) {
+        return LEUCOCITOS.equals(analito) || HEMOGLOBINA.equals(analito)
+                || PLAQUETAS.equals(analito) || HEMATOCRITO.equals(analito);
+    }
+}
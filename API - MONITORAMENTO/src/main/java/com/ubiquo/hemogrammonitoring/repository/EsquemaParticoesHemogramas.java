@@ -0,0 +1,117 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * DDL das partições de hemogramas, usada pela migração V5 e pelo
+ * {@link ParticaoHemogramaRepository} ao criar e retirar meses.
+ *
+ * Cada mês é uma tabela hemograms_AAAAMM com as colunas, restrições e índices que a tabela
+ * única tinha (V1 e V3), nomeados com a tabela. "hemograms" passa a ser uma view UNION ALL
+ * das partições: JPQL e consultas sem período continuam funcionando, e o H2 leva as
+ * condições de cada consulta para os índices de cada parte. Um gatilho INSTEAD OF INSERT
+ * ({@link RoteadorParticoesHemogramas}) grava cada linha inserida na view na tabela do mês.
+ *
+ * observation_id é único em cada tabela e, entre os meses, pela guarda {@link #GUARDA} (V6),
+ * que o gatilho preenche na mesma transação.
+ */
+public final class EsquemaParticoesHemogramas {
+
+    public static final String VISAO = "hemograms";
+    // observation_id de todas as partições, inclusive as retiradas ainda não excluídas
+    public static final String GUARDA = "hemogram_observation_ids";
+
+    public static final String COLUNAS = "id, observation_id, patient_id, patient_name, patient_cpf, patient_phone,"
+            + " timestamp, leucocitos, hemoglobina, plaquetas, hematocrito, region";
+
+    // Sufixo do nome do índice -> colunas (mesmos índices de V1 e V3)
+    private static final String[][] INDICES = {
+            // region = ? AND timestamp BETWEEN ? AND ? (contagens, alertas e médias por região)
+            {"region_timestamp", "region, timestamp, plaquetas, leucocitos"},
+            // timestamp BETWEEN ? AND ? GROUP BY region (todas as regiões de uma vez)
+            {"timestamp_region", "timestamp, region, plaquetas, leucocitos"},
+            // plaquetas < ? (hemogramas com alerta de dengue)
+            {"plaquetas", "plaquetas, timestamp"},
+            // Páginas do histórico já ordenadas pelo índice: geral, por região e por paciente
+            {"timestamp_id", "timestamp DESC, id DESC"},
+            {"region_timestamp_id", "region, timestamp DESC, id DESC"},
+            {"patient", "patient_id, timestamp DESC, id DESC"},
+    };
+
+    private EsquemaParticoesHemogramas() {
+    }
+
+    /**
+     * Comandos que criam a tabela de uma partição com restrições e índices.
+     */
+    public static List<String> criarTabela(String tabela) {
+        List<String> comandos = new ArrayList<>();
+        comandos.add("CREATE TABLE " + tabela + " ("
+                + " id BIGINT NOT NULL,"
+                + " observation_id VARCHAR(255) NOT NULL,"
+                + " patient_id VARCHAR(255),"
+                + " patient_name VARCHAR(255),"
+                + " patient_cpf VARCHAR(255),"
+                + " patient_phone VARCHAR(255),"
+                + " timestamp TIMESTAMP(6) NOT NULL,"
+                + " leucocitos FLOAT(53),"
+                + " hemoglobina FLOAT(53),"
+                + " plaquetas FLOAT(53),"
+                + " hematocrito FLOAT(53),"
+                + " region VARCHAR(255),"
+                + " CONSTRAINT pk_" + tabela + " PRIMARY KEY (id),"
+                // Único no mês; entre os meses, pela guarda global
+                + " CONSTRAINT uk_" + tabela + "_observation_id UNIQUE (observation_id))");
+        for (String[] indice : INDICES) {
+            comandos.add("CREATE INDEX idx_" + tabela + "_" + indice[0] + " ON " + tabela + " (" + indice[1] + ")");
+        }
+        return comandos;
+    }
+
+    /**
+     * Comandos que renomeiam a tabela junto com as restrições e índices dela, liberando os
+     * nomes para uma nova tabela com o nome antigo.
+     */
+    public static List<String> renomearTabela(String de, String para) {
+        List<String> comandos = new ArrayList<>();
+        comandos.add("ALTER TABLE " + de + " RENAME TO " + para);
+        comandos.add("ALTER TABLE " + para + " RENAME CONSTRAINT pk_" + de + " TO pk_" + para);
+        comandos.add("ALTER TABLE " + para + " RENAME CONSTRAINT uk_" + de + "_observation_id TO uk_" + para + "_observation_id");
+        for (String[] indice : INDICES) {
+            comandos.add("ALTER INDEX idx_" + de + "_" + indice[0] + " RENAME TO idx_" + para + "_" + indice[0]);
+        }
+        return comandos;
+    }
+
+    /**
+     * (Re)cria a view hemograms sobre as tabelas informadas. O gatilho de inserção continua
+     * associado à view.
+     *
+     * @throws IllegalArgumentException sem tabelas (a view precisa de ao menos uma parte)
+     */
+    public static String recriarVisao(List<String> tabelas) {
+        if (tabelas.isEmpty()) {
+            throw new IllegalArgumentException("A view " + VISAO + " precisa de ao menos uma partição");
+        }
+        return "CREATE OR REPLACE VIEW " + VISAO + " AS " + uniao(tabelas);
+    }
+
+    /**
+     * Gatilho que grava as linhas inseridas na view na tabela do mês de cada uma.
+     */
+    public static String criarGatilho() {
+        return "CREATE TRIGGER trg_" + VISAO + "_insercao INSTEAD OF INSERT ON " + VISAO
+                + " FOR EACH ROW CALL \"" + RoteadorParticoesHemogramas.class.getName() + "\"";
+    }
+
+    /**
+     * SELECT com as colunas da view sobre as tabelas, unidas por UNION ALL.
+     */
+    static String uniao(List<String> tabelas) {
+        return tabelas.stream()
+                .map(tabela -> "SELECT " + COLUNAS + " FROM " + tabela)
+                .collect(Collectors.joining(" UNION ALL "));
+    }
+}
@@ -7,10 +7,18 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface HemogramRepository extends JpaRepository<HemogramEntity, Long> {
+
+    /**
+     * Retorna, dentre os observationIds informados, os que já estão gravados.
+     * Usado pelo write-behind para descartar duplicados antes do INSERT em lote.
+     */
+    @Query("SELECT h.observationId FROM HemogramEntity h WHERE h.observationId IN :observationIds")
+    List<String> findExistingObservationIds(@Param("observationIds") Collection<String> observationIds);
     
     /**
      * Busca todos os hemogramas de uma região específica
@@ -72,13 +80,6 @@ public interface HemogramRepository extends JpaRepository<HemogramEntity, Long>
             @Param("plaquetasThreshold") Double plaquetasThreshold
     );
     
-    /**
-     * Busca todas as regiões distintas que têm hemogramas cadastrados
-     * Útil para varrer todas as regiões na análise coletiva
-     */
-    @Query("SELECT DISTINCT h.region FROM HemogramEntity h WHERE h.region IS NOT NULL")
-    List<String> findDistinctRegions();
-    
     /**
      * Calcula a média de plaquetas de uma região em um período
      */
@@ -101,4 +102,50 @@ public interface HemogramRepository extends JpaRepository<HemogramEntity, Long>
             @Param("startTime") LocalDateTime startTime,
             @Param("endTime") LocalDateTime endTime
     );
+
+    /**
+     * Indicadores de todas as regiões em uma única varredura (GROUP BY com agregação condicional):
+     * janela atual [startTime, endTime] e janela anterior [previousStartTime, startTime].
+     * Cada linha: [region, total atual, alertas atuais, média plaquetas atual, média leucócitos atual,
+     * média plaquetas anterior, média leucócitos anterior]. AVG ignora os NULL do CASE sem ELSE.
+     */
+    @Query("SELECT h.region, " +
+           "SUM(CASE WHEN h.timestamp >= :startTime THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN h.timestamp >= :startTime AND h.plaquetas < :plaquetasThreshold THEN 1 ELSE 0 END), " +
+           "AVG(CASE WHEN h.timestamp >= :startTime THEN h.plaquetas END), " +
+           "AVG(CASE WHEN h.timestamp >= :startTime THEN h.leucocitos END), " +
+           "AVG(CASE WHEN h.timestamp <= :startTime THEN h.plaquetas END), " +
+           "AVG(CASE WHEN h.timestamp <= :startTime THEN h.leucocitos END) " +
+           "FROM HemogramEntity h WHERE h.region IS NOT NULL " +
+           "AND h.timestamp BETWEEN :previousStartTime AND :endTime " +
+           "GROUP BY h.region")
+    List<Object[]> aggregateWindowsByRegion(
+            @Param("previousStartTime") LocalDateTime previousStartTime,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime,
+            @Param("plaquetasThreshold") Double plaquetasThreshold
+    );
+
+    /**
+     * Mesmas linhas de {@link #aggregateWindowsByRegion}, só das regiões em [fromRegion, toRegion):
+     * uma parte das regiões por consulta, lida por uma faixa do índice (region, timestamp).
+     */
+    @Query("SELECT h.region, " +
+           "SUM(CASE WHEN h.timestamp >= :startTime THEN 1 ELSE 0 END), " +
+           "SUM(CASE WHEN h.timestamp >= :startTime AND h.plaquetas < :plaquetasThreshold THEN 1 ELSE 0 END), " +
+           "AVG(CASE WHEN h.timestamp >= :startTime THEN h.plaquetas END), " +
+           "AVG(CASE WHEN h.timestamp >= :startTime THEN h.leucocitos END), " +
+           "AVG(CASE WHEN h.timestamp <= :startTime THEN h.plaquetas END), " +
+           "AVG(CASE WHEN h.timestamp <= :startTime THEN h.leucocitos END) " +
+           "FROM HemogramEntity h WHERE h.region >= :fromRegion AND h.region < :toRegion " +
+           "AND h.timestamp BETWEEN :previousStartTime AND :endTime " +
+           "GROUP BY h.region")
+    List<Object[]> aggregateWindowsByRegionRange(
+            @Param("fromRegion") String fromRegion,
+            @Param("toRegion") String toRegion,
+            @Param("previousStartTime") LocalDateTime previousStartTime,
+            @Param("startTime") LocalDateTime startTime,
+            @Param("endTime") LocalDateTime endTime,
+            @Param("plaquetasThreshold") Double plaquetasThreshold
+    );
 }
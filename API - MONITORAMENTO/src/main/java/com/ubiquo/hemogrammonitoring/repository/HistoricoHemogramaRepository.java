@@ -0,0 +1,243 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import com.ubiquo.hemogrammonitoring.dto.HemogramaHistoricoDTO;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Leitura paginada do histórico de hemogramas por keyset (seek) em (timestamp, id), do mais
+ * recente para o mais antigo. Usa SQL nativo via JdbcTemplate: os filtros são opcionais e
+ * cada combinação precisa de uma consulta própria para usar índice, e as linhas saem como
+ * {@link HemogramaHistoricoDTO}, sem passar pelo contexto de persistência.
+ *
+ * A continuação é "WHERE (timestamp, id) < (último timestamp, último id)": o custo de cada
+ * página é o tamanho da página, não a posição dela (ao contrário de OFFSET). Com filtro de
+ * paciente ou região, a coluna filtrada entra como prefixo do ORDER BY (é constante, não muda
+ * a ordem) para o H2 ler a página já ordenada dos índices da migração V3.
+ *
+ * As consultas rodam partição a partição ({@link ParticaoHemogramaRepository}), da mais recente
+ * para a mais antiga e só nas que cruzam o período: cada uma lê o índice da própria tabela já
+ * ordenado, e como as partições não se sobrepõem no tempo, concatenar os resultados mantém a
+ * ordem. Uma página para assim que completa o limite. Uma partição retirada pela retenção no
+ * meio da leitura é pulada.
+ *
+ * {@link #exportar} roda a mesma consulta sem limite, entregando linha a linha (fetch size
+ * configurável) em vez de montar uma lista.
+ */
+@Repository
+public class HistoricoHemogramaRepository {
+
+    private static final String COLUNAS =
+            "h.id, h.observation_id, h.patient_id, h.patient_name, h.patient_cpf, h.patient_phone,"
+            + " h.timestamp, h.leucocitos, h.hemoglobina, h.plaquetas, h.hematocrito, h.region";
+
+    // Algum analito fora da faixa de referência (NULL não conta); filtro residual, sem índice
+    private static final String ALTERADO =
+            "(h.leucocitos < ? OR h.leucocitos > ? OR h.hemoglobina < ? OR h.hemoglobina > ?"
+            + " OR h.plaquetas < ? OR h.plaquetas > ? OR h.hematocrito < ? OR h.hematocrito > ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ParticaoHemogramaRepository particaoRepository;
+
+    public HistoricoHemogramaRepository(JdbcTemplate jdbcTemplate, ParticaoHemogramaRepository particaoRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.particaoRepository = particaoRepository;
+    }
+
+    /**
+     * Filtros opcionais (null = sem filtro); inicio e fim inclusivos.
+     */
+    public record Filtro(String regiao, LocalDateTime inicio, LocalDateTime fim, String paciente,
+                         boolean somenteAlterados) {
+    }
+
+    /**
+     * Último hemograma de uma página: a próxima começa logo depois dele.
+     */
+    public record Posicao(LocalDateTime timestamp, long id) {
+    }
+
+    /**
+     * Recebe as linhas de {@link #exportar}, uma por vez.
+     */
+    @FunctionalInterface
+    public interface Destino {
+        void escrever(HemogramaHistoricoDTO hemograma) throws IOException;
+    }
+
+    /**
+     * @param apos   posição da página anterior, ou null para a primeira página
+     * @param limite máximo de linhas
+     */
+    public List<HemogramaHistoricoDTO> buscarPagina(Filtro filtro, Posicao apos, int limite) {
+        List<HemogramaHistoricoDTO> pagina = new ArrayList<>();
+        for (ParticaoTempo particao : particoes(filtro, apos)) {
+            Consulta consulta = montar(particao.tabela(), filtro, apos, limite - pagina.size());
+            try {
+                pagina.addAll(jdbcTemplate.query(consulta.sql(), this::mapear, consulta.parametros().toArray()));
+            } catch (DataAccessException e) {
+                if (!ParticaoHemogramaRepository.tabelaInexistente(e)) {
+                    throw e;
+                }
+            }
+            if (pagina.size() >= limite) {
+                break;
+            }
+        }
+        return pagina;
+    }
+
+    /**
+     * Percorre todas as linhas do filtro, na ordem do histórico, sem acumulá-las: cada linha
+     * vai para o destino assim que lida. Deve rodar dentro de uma transação (alguns drivers só
+     * respeitam o fetch size fora do autocommit).
+     *
+     * @param tamanhoLeitura linhas buscadas por ida ao banco (fetch size)
+     * @return quantidade de linhas entregues
+     * @throws UncheckedIOException se o destino falhar (ex: cliente desconectou)
+     */
+    public long exportar(Filtro filtro, int tamanhoLeitura, Destino destino) {
+        long linhas = 0;
+        for (ParticaoTempo particao : particoes(filtro, null)) {
+            try {
+                linhas += exportar(montar(particao.tabela(), filtro, null, null), tamanhoLeitura, destino);
+            } catch (DataAccessException e) {
+                if (!ParticaoHemogramaRepository.tabelaInexistente(e)) {
+                    throw e;
+                }
+            }
+        }
+        return linhas;
+    }
+
+    /**
+     * Percorre uma tabela de partição inteira (ex: uma partição retirada, no arquivamento),
+     * na ordem do histórico, como {@link #exportar(Filtro, int, Destino)}.
+     */
+    public long exportarTabela(String tabela, int tamanhoLeitura, Destino destino) {
+        return exportar(new Consulta("SELECT " + COLUNAS + " FROM " + tabela + " h"
+                + " ORDER BY h.timestamp DESC, h.id DESC", List.of()), tamanhoLeitura, destino);
+    }
+
+    private long exportar(Consulta consulta, int tamanhoLeitura, Destino destino) {
+        long[] linhas = {0};
+        jdbcTemplate.query(conexao -> {
+            PreparedStatement ps = conexao.prepareStatement(consulta.sql(),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(tamanhoLeitura);
+            List<Object> parametros = consulta.parametros();
+            for (int i = 0; i < parametros.size(); i++) {
+                ps.setObject(i + 1, parametros.get(i));
+            }
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                destino.escrever(mapear(rs, 0));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            linhas[0]++;
+        });
+        return linhas[0];
+    }
+
+    /**
+     * Partições que podem ter linhas do filtro depois da posição, da mais recente para a mais antiga.
+     */
+    private List<ParticaoTempo> particoes(Filtro filtro, Posicao apos) {
+        LocalDateTime fim = filtro.fim();
+        if (apos != null && (fim == null || apos.timestamp().isBefore(fim))) {
+            fim = apos.timestamp();
+        }
+        List<ParticaoTempo> particoes = new ArrayList<>(particaoRepository.particoes(filtro.inicio(), fim));
+        Collections.reverse(particoes);
+        return particoes;
+    }
+
+    private record Consulta(String sql, List<Object> parametros) {
+    }
+
+    /**
+     * @param limite null = sem FETCH FIRST
+     */
+    private Consulta montar(String tabela, Filtro filtro, Posicao apos, Integer limite) {
+        List<String> condicoes = new ArrayList<>();
+        List<Object> parametros = new ArrayList<>();
+        String prefixoOrdem = "";
+
+        if (filtro.paciente() != null) {
+            condicoes.add("h.patient_id = ?");
+            parametros.add(filtro.paciente());
+            prefixoOrdem = "h.patient_id, ";
+        }
+        if (filtro.regiao() != null) {
+            condicoes.add("h.region = ?");
+            parametros.add(filtro.regiao());
+            if (prefixoOrdem.isEmpty()) {
+                prefixoOrdem = "h.region, ";
+            }
+        }
+        if (filtro.inicio() != null) {
+            condicoes.add("h.timestamp >= ?");
+            parametros.add(Timestamp.valueOf(filtro.inicio()));
+        }
+        if (filtro.fim() != null) {
+            condicoes.add("h.timestamp <= ?");
+            parametros.add(Timestamp.valueOf(filtro.fim()));
+        }
+        if (apos != null) {
+            // O "timestamp <= ?" redundante é o que vira condição de busca no índice
+            Timestamp ultimo = Timestamp.valueOf(apos.timestamp());
+            condicoes.add("h.timestamp <= ? AND (h.timestamp < ? OR h.id < ?)");
+            parametros.add(ultimo);
+            parametros.add(ultimo);
+            parametros.add(apos.id());
+        }
+        if (filtro.somenteAlterados()) {
+            condicoes.add(ALTERADO);
+            parametros.add(ReferenceValues.LEUCOCITOS_MIN);
+            parametros.add(ReferenceValues.LEUCOCITOS_MAX);
+            parametros.add(ReferenceValues.HEMOGLOBINA_MIN);
+            parametros.add(ReferenceValues.HEMOGLOBINA_MAX);
+            parametros.add(ReferenceValues.PLAQUETAS_MIN);
+            parametros.add(ReferenceValues.PLAQUETAS_MAX);
+            parametros.add(ReferenceValues.HEMATOCRITO_MIN);
+            parametros.add(ReferenceValues.HEMATOCRITO_MAX);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLUNAS).append(" FROM ").append(tabela).append(" h");
+        if (!condicoes.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", condicoes));
+        }
+        sql.append(" ORDER BY ").append(prefixoOrdem).append("h.timestamp DESC, h.id DESC");
+        if (limite != null) {
+            sql.append(" FETCH FIRST ? ROWS ONLY");
+            parametros.add(limite);
+        }
+        return new Consulta(sql.toString(), parametros);
+    }
+
+    private HemogramaHistoricoDTO mapear(ResultSet rs, int linha) throws SQLException {
+        return new HemogramaHistoricoDTO(
+                rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6),
+                rs.getTimestamp(7).toLocalDateTime(),
+                rs.getObject(8, Double.class), rs.getObject(9, Double.class),
+                rs.getObject(10, Double.class), rs.getObject(11, Double.class),
+                rs.getString(12));
+    }
+}
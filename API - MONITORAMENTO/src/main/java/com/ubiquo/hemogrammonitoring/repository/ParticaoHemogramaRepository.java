@@ -0,0 +1,347 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import jakarta.annotation.PostConstruct;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Partições mensais dos hemogramas: uma tabela hemograms_AAAAMM por mês, unidas pela view
+ * hemograms ({@link EsquemaParticoesHemogramas}).
+ *
+ * Guarda a lista das partições da view (lida do INFORMATION_SCHEMA uma vez e atualizada a
+ * cada mudança) e dá às consultas com período só as tabelas que cruzam o período
+ * ({@link #fonte}), às reconstruções em memória a leitura por keyset de id tabela a tabela
+ * ({@link #percorrer}) e à retenção a retirada de um mês inteiro: a tabela sai da view, é
+ * renomeada para hemograms_AAAAMM_retirada (novas gravações do mês vão para uma tabela nova)
+ * e, depois de arquivada, excluída com DROP TABLE, liberando antes os observation_id dela na
+ * guarda global ({@link EsquemaParticoesHemogramas#GUARDA}).
+ *
+ * Mudanças de DDL (criar meses, recriar a view, renomear) são serializadas por um lock; o
+ * caminho comum de {@link #garantir}, com os meses já criados, só consulta a lista em memória.
+ */
+@Repository
+public class ParticaoHemogramaRepository {
+
+    public static final String SUFIXO_RETIRADA = "_retirada";
+
+    private static final Pattern TABELA = Pattern.compile("HEMOGRAMS_(\\d{6})(" + SUFIXO_RETIRADA.toUpperCase() + ")?");
+    private static final String TABELA_INEXISTENTE = "42S02";
+    private static final int LOTE_GUARDA = 10_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReentrantLock ddl = new ReentrantLock();
+    // Partições na view, por início; substituída inteira a cada mudança
+    private volatile NavigableMap<LocalDateTime, ParticaoTempo> ativas = Collections.emptyNavigableMap();
+
+    public ParticaoHemogramaRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Colunas lidas por {@link #percorrer}; as linhas saem como nas antigas consultas JPQL
+     * (Long, String, LocalDateTime e Double/String nas demais posições).
+     */
+    public enum Leitura {
+        // [id, region, timestamp, plaquetas, leucocitos, patientCpf, patientId]
+        RESUMOS("id, region, timestamp, plaquetas, leucocitos, patient_cpf, patient_id"),
+        // [id, region, timestamp, leucocitos, hemoglobina, plaquetas, hematocrito]
+        COLUNAS("id, region, timestamp, leucocitos, hemoglobina, plaquetas, hematocrito");
+
+        private final String colunas;
+        private final int quantidade;
+
+        Leitura(String colunas) {
+            this.colunas = colunas;
+            this.quantidade = colunas.split(",").length;
+        }
+    }
+
+    /**
+     * Partições da view, da mais antiga para a mais recente.
+     */
+    public List<ParticaoTempo> particoes() {
+        return List.copyOf(ativas.values());
+    }
+
+    /**
+     * Partições que cruzam o período [inicio, fim] (null = sem limite daquele lado), da mais
+     * antiga para a mais recente.
+     */
+    public List<ParticaoTempo> particoes(LocalDateTime inicio, LocalDateTime fim) {
+        NavigableMap<LocalDateTime, ParticaoTempo> periodo = ativas;
+        if (inicio != null) {
+            periodo = periodo.tailMap(ParticaoTempo.contendo(inicio).inicio(), true);
+        }
+        if (fim != null) {
+            periodo = periodo.headMap(fim, true);
+        }
+        return List.copyOf(periodo.values());
+    }
+
+    /**
+     * Expressão FROM com só as partições que cruzam [inicio, fim]: a tabela, se for uma, ou
+     * o UNION ALL delas. Sem partições no período, uma consulta vazia sobre a view.
+     */
+    public String fonte(LocalDateTime inicio, LocalDateTime fim) {
+        List<ParticaoTempo> periodo = particoes(inicio, fim);
+        if (periodo.isEmpty()) {
+            return "(SELECT " + EsquemaParticoesHemogramas.COLUNAS + " FROM " + EsquemaParticoesHemogramas.VISAO
+                    + " WHERE FALSE)";
+        }
+        if (periodo.size() == 1) {
+            return periodo.get(0).tabela();
+        }
+        return "(" + EsquemaParticoesHemogramas.uniao(periodo.stream().map(ParticaoTempo::tabela).toList()) + ")";
+    }
+
+    /**
+     * Regiões distintas de todas as partições, na ordem do banco (a das faixas de
+     * {@link com.ubiquo.hemogrammonitoring.model.FaixaRegioes}). Sobre a view, o DISTINCT leria
+     * as tabelas inteiras; por tabela, cada DISTINCT lê só o índice que começa por region.
+     */
+    public List<String> regioes() {
+        List<ParticaoTempo> todas = particoes();
+        if (todas.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.queryForList(todas.stream()
+                .map(particao -> "SELECT DISTINCT region FROM " + particao.tabela() + " WHERE region IS NOT NULL")
+                .collect(Collectors.joining(" UNION ")) + " ORDER BY 1", String.class);
+    }
+
+    /**
+     * Cria as partições dos instantes que ainda não têm tabela e as inclui na view. Deve
+     * rodar antes da transação que grava nelas: DDL no H2 faz commit da transação corrente.
+     */
+    public void garantir(Collection<LocalDateTime> instantes) {
+        NavigableMap<LocalDateTime, ParticaoTempo> atuais = ativas;
+        TreeSet<LocalDateTime> faltando = null;
+        for (LocalDateTime instante : instantes) {
+            LocalDateTime mes = instante.toLocalDate().withDayOfMonth(1).atStartOfDay();
+            if (!atuais.containsKey(mes)) {
+                if (faltando == null) {
+                    faltando = new TreeSet<>();
+                }
+                faltando.add(mes);
+            }
+        }
+        if (faltando == null) {
+            return;
+        }
+        ddl.lock();
+        try {
+            NavigableMap<LocalDateTime, ParticaoTempo> novas = new TreeMap<>(ativas);
+            boolean criou = false;
+            for (LocalDateTime mes : faltando) {
+                if (!novas.containsKey(mes)) {
+                    ParticaoTempo particao = ParticaoTempo.contendo(mes);
+                    executar(EsquemaParticoesHemogramas.criarTabela(particao.tabela()));
+                    novas.put(mes, particao);
+                    criou = true;
+                }
+            }
+            if (criou) {
+                publicar(novas);
+            }
+        } finally {
+            ddl.unlock();
+        }
+    }
+
+    /**
+     * Tira a partição da view e a renomeia para {@code tabela + SUFIXO_RETIRADA}, onde fica
+     * até {@link #excluirRetirada}. Gravações que já estavam em andamento na partição terminam
+     * antes da renomeação (que espera o lock da tabela) e vão junto com ela.
+     *
+     * @return false se a partição não está na view
+     * @throws IllegalArgumentException se é a única partição da view
+     */
+    public boolean retirar(ParticaoTempo particao) {
+        ddl.lock();
+        try {
+            NavigableMap<LocalDateTime, ParticaoTempo> novas = new TreeMap<>(ativas);
+            if (novas.remove(particao.inicio()) == null) {
+                return false;
+            }
+            publicar(novas);
+            executar(EsquemaParticoesHemogramas.renomearTabela(particao.tabela(), tabelaRetirada(particao)));
+            return true;
+        } finally {
+            ddl.unlock();
+        }
+    }
+
+    /**
+     * Partições retiradas da view e ainda não excluídas (ex: arquivamento que falhou).
+     */
+    public List<ParticaoTempo> retiradas() {
+        List<ParticaoTempo> retiradas = new ArrayList<>();
+        for (String tabela : tabelas()) {
+            Matcher nome = TABELA.matcher(tabela);
+            if (nome.matches() && nome.group(2) != null) {
+                retiradas.add(ParticaoTempo.daTabela(tabela.substring(0, tabela.length() - SUFIXO_RETIRADA.length())));
+            }
+        }
+        Collections.sort(retiradas, (a, b) -> a.inicio().compareTo(b.inicio()));
+        return retiradas;
+    }
+
+    /**
+     * Exclui a tabela de uma partição retirada (DROP TABLE), depois de liberar os
+     * observation_id dela na guarda global, em blocos pela ordem do índice único da tabela.
+     * Uma queda entre os dois passos deixa a tabela retirada para a próxima rodada; na ordem
+     * inversa, a guarda ficaria com ids sem hemograma e recusaria reenvios deles.
+     */
+    public void excluirRetirada(ParticaoTempo particao) {
+        String tabela = tabelaRetirada(particao);
+        String ultimo = null;
+        while (true) {
+            List<String> ids = ultimo == null
+                    ? jdbcTemplate.queryForList("SELECT observation_id FROM " + tabela
+                            + " ORDER BY observation_id FETCH FIRST ? ROWS ONLY", String.class, LOTE_GUARDA)
+                    : jdbcTemplate.queryForList("SELECT observation_id FROM " + tabela
+                            + " WHERE observation_id > ? ORDER BY observation_id FETCH FIRST ? ROWS ONLY",
+                            String.class, ultimo, LOTE_GUARDA);
+            if (!ids.isEmpty()) {
+                jdbcTemplate.batchUpdate("DELETE FROM " + EsquemaParticoesHemogramas.GUARDA + " WHERE observation_id = ?",
+                        ids, ids.size(), (ps, id) -> ps.setString(1, id));
+                ultimo = ids.get(ids.size() - 1);
+            }
+            if (ids.size() < LOTE_GUARDA) {
+                break;
+            }
+        }
+        jdbcTemplate.execute("DROP TABLE " + tabela);
+    }
+
+    public static String tabelaRetirada(ParticaoTempo particao) {
+        return particao.tabela() + SUFIXO_RETIRADA;
+    }
+
+    /**
+     * Linhas da tabela (COUNT(*) sem condição, respondido pelo H2 sem percorrer a tabela).
+     */
+    public long contar(String tabela) {
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + tabela, Long.class);
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * Entrega em blocos, na ordem de gravação (id) dentro de cada partição e das partições da
+     * mais antiga para a mais recente, as linhas das partições com coleta a partir de
+     * {@code desde}. Cada bloco é um keyset pela chave primária da tabela; na primeira
+     * partição a leitura começa no menor id com coleta a partir de {@code desde}, e as poucas
+     * linhas mais antigas com id maior (importação de histórico) ficam para o chamador descartar.
+     *
+     * @return linhas entregues
+     */
+    public long percorrer(Leitura leitura, LocalDateTime desde, int tamanhoLote, Consumer<List<Object[]>> consumidor) {
+        long linhas = 0;
+        for (ParticaoTempo particao : particoes(desde, null)) {
+            String tabela = particao.tabela();
+            try {
+                Long primeiroId = particao.inicio().isBefore(desde)
+                        ? jdbcTemplate.queryForObject("SELECT MIN(id) FROM " + tabela + " WHERE timestamp >= ?",
+                                Long.class, Timestamp.valueOf(desde))
+                        : jdbcTemplate.queryForObject("SELECT MIN(id) FROM " + tabela, Long.class);
+                long ultimoId = primeiroId == null ? 0 : primeiroId - 1;
+                String sql = "SELECT " + leitura.colunas + " FROM " + tabela
+                        + " WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY";
+                while (primeiroId != null) {
+                    List<Object[]> lote = jdbcTemplate.query(sql, (rs, i) -> {
+                        Object[] linha = new Object[leitura.quantidade];
+                        linha[0] = rs.getLong(1);
+                        linha[1] = rs.getString(2);
+                        linha[2] = rs.getTimestamp(3).toLocalDateTime();
+                        for (int c = 4; c <= leitura.quantidade; c++) {
+                            linha[c - 1] = rs.getObject(c);
+                        }
+                        return linha;
+                    }, ultimoId, tamanhoLote);
+                    if (!lote.isEmpty()) {
+                        consumidor.accept(lote);
+                        ultimoId = (Long) lote.get(lote.size() - 1)[0];
+                        linhas += lote.size();
+                    }
+                    if (lote.size() < tamanhoLote) {
+                        break;
+                    }
+                }
+            } catch (DataAccessException e) {
+                // Partição retirada durante a leitura: as linhas dela saíram junto
+                if (!tabelaInexistente(e)) {
+                    throw e;
+                }
+            }
+        }
+        return linhas;
+    }
+
+    /**
+     * A consulta falhou porque a tabela não existe mais (partição retirada no meio dela).
+     */
+    static boolean tabelaInexistente(DataAccessException e) {
+        return e.getMostSpecificCause() instanceof SQLException sql && TABELA_INEXISTENTE.equals(sql.getSQLState());
+    }
+
+    /**
+     * Lê as partições existentes e recria a view com elas: cobre uma tabela criada por um
+     * processo que caiu antes de incluí-la na view. Roda na inicialização, fora de transação.
+     */
+    @PostConstruct
+    public void carregar() {
+        ddl.lock();
+        try {
+            NavigableMap<LocalDateTime, ParticaoTempo> lidas = new TreeMap<>();
+            for (String tabela : tabelas()) {
+                Matcher nome = TABELA.matcher(tabela);
+                if (nome.matches() && nome.group(2) == null) {
+                    ParticaoTempo particao = ParticaoTempo.daTabela(tabela);
+                    lidas.put(particao.inicio(), particao);
+                }
+            }
+            publicar(lidas);
+        } finally {
+            ddl.unlock();
+        }
+    }
+
+    private List<String> tabelas() {
+        return jdbcTemplate.queryForList("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_TYPE = 'BASE TABLE' AND TABLE_NAME LIKE 'HEMOGRAMS%'",
+                String.class);
+    }
+
+    /**
+     * Recria a view com as partições e passa a usá-las. Chamado com o lock de DDL.
+     */
+    private void publicar(NavigableMap<LocalDateTime, ParticaoTempo> particoes) {
+        jdbcTemplate.execute(EsquemaParticoesHemogramas.recriarVisao(
+                particoes.values().stream().map(ParticaoTempo::tabela).toList()));
+        ativas = Collections.unmodifiableNavigableMap(particoes);
+    }
+
+    private void executar(List<String> comandos) {
+        for (String comando : comandos) {
+            jdbcTemplate.execute(comando);
+        }
+    }
+}
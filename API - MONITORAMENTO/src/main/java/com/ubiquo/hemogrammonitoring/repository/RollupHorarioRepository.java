@@ -0,0 +1,243 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import com.ubiquo.hemogrammonitoring.model.FaixaRegioes;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Acesso à tabela hemogram_rollup_hourly (agregados por região e hora), às horas pendentes de
+ * recálculo (rollup_pendente) e às linhas brutas de hemograms que completam as janelas. Usa SQL
+ * nativo via JdbcTemplate: o MERGE e o truncamento por hora não têm equivalente em JPQL.
+ *
+ * As linhas brutas são lidas só nas partições do período ({@link ParticaoHemogramaRepository}):
+ * o recálculo de uma hora vai direto à tabela do mês dela, e as somas, às tabelas que cruzam
+ * a janela.
+ */
+@Repository
+public class RollupHorarioRepository {
+
+    private static final String TABELA = "hemogram_rollup_hourly";
+
+    // Recalcula uma hora de uma região a partir das linhas brutas (idempotente)
+    private static final String MERGE_HORA =
+            "MERGE INTO hemogram_rollup_hourly r USING ("
+            + " SELECT h.region AS region, CAST(? AS TIMESTAMP(6)) AS hora, COUNT(*) AS total,"
+            + " SUM(CASE WHEN h.plaquetas < ? THEN 1 ELSE 0 END) AS alertas,"
+            + " SUM(h.plaquetas) AS soma_plaquetas, COUNT(h.plaquetas) AS qtd_plaquetas,"
+            + " MIN(h.plaquetas) AS min_plaquetas, MAX(h.plaquetas) AS max_plaquetas,"
+            + " SUM(h.leucocitos) AS soma_leucocitos, COUNT(h.leucocitos) AS qtd_leucocitos,"
+            + " MIN(h.leucocitos) AS min_leucocitos, MAX(h.leucocitos) AS max_leucocitos"
+            + " FROM %s h WHERE h.region = ? AND h.timestamp >= ? AND h.timestamp < ?"
+            + " GROUP BY h.region) s"
+            + " ON (r.region = s.region AND r.hora = s.hora)"
+            + " WHEN MATCHED THEN UPDATE SET total = s.total, alertas = s.alertas,"
+            + " soma_plaquetas = s.soma_plaquetas, qtd_plaquetas = s.qtd_plaquetas,"
+            + " min_plaquetas = s.min_plaquetas, max_plaquetas = s.max_plaquetas,"
+            + " soma_leucocitos = s.soma_leucocitos, qtd_leucocitos = s.qtd_leucocitos,"
+            + " min_leucocitos = s.min_leucocitos, max_leucocitos = s.max_leucocitos"
+            + " WHEN NOT MATCHED THEN INSERT (region, hora, total, alertas, soma_plaquetas, qtd_plaquetas,"
+            + " min_plaquetas, max_plaquetas, soma_leucocitos, qtd_leucocitos, min_leucocitos, max_leucocitos)"
+            + " VALUES (s.region, s.hora, s.total, s.alertas, s.soma_plaquetas, s.qtd_plaquetas,"
+            + " s.min_plaquetas, s.max_plaquetas, s.soma_leucocitos, s.qtd_leucocitos, s.min_leucocitos, s.max_leucocitos)";
+
+    // Marca a hora como pendente; a versão muda a cada nova gravação na hora
+    private static final String MARCAR_PENDENTE =
+            "MERGE INTO rollup_pendente p USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS TIMESTAMP(6)))) s(region, hora)"
+            + " ON (p.region = s.region AND p.hora = s.hora)"
+            + " WHEN MATCHED THEN UPDATE SET versao = p.versao + 1"
+            + " WHEN NOT MATCHED THEN INSERT (region, hora, versao) VALUES (s.region, s.hora, 1)";
+
+    // Colunas somáveis das linhas brutas, na ordem de Somas
+    private static final String SOMAS_BRUTAS =
+            "COUNT(*), SUM(CASE WHEN plaquetas < ? THEN 1 ELSE 0 END), SUM(plaquetas), COUNT(plaquetas),"
+            + " SUM(leucocitos), COUNT(leucocitos)";
+
+    // Horas cheias [?, ?) da região: o rollup das horas em dia mais as linhas brutas das pendentes.
+    // Uma só consulta: uma hora marcada ou concluída no meio da leitura não é somada duas vezes.
+    private static final String SOMAR_HORAS =
+            "SELECT region, SUM(total), SUM(alertas), SUM(soma_plaquetas), SUM(qtd_plaquetas),"
+            + " SUM(soma_leucocitos), SUM(qtd_leucocitos) FROM ("
+            + " SELECT r.region, r.total, r.alertas, r.soma_plaquetas, r.qtd_plaquetas, r.soma_leucocitos, r.qtd_leucocitos"
+            + " FROM " + TABELA + " r WHERE %1$s r.hora >= ? AND r.hora < ?"
+            + " AND NOT EXISTS (SELECT 1 FROM rollup_pendente p WHERE p.region = r.region AND p.hora = r.hora)"
+            + " UNION ALL"
+            + " SELECT h.region, 1, CASE WHEN h.plaquetas < ? THEN 1 ELSE 0 END, h.plaquetas,"
+            + " CASE WHEN h.plaquetas IS NULL THEN 0 ELSE 1 END, h.leucocitos, CASE WHEN h.leucocitos IS NULL THEN 0 ELSE 1 END"
+            + " FROM rollup_pendente p JOIN %3$s h ON h.region = p.region"
+            + " AND h.timestamp >= p.hora AND h.timestamp < DATEADD(HOUR, 1, p.hora)"
+            + " WHERE %2$s p.hora >= ? AND p.hora < ?"
+            + ") s GROUP BY region";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ParticaoHemogramaRepository particaoRepository;
+
+    public RollupHorarioRepository(JdbcTemplate jdbcTemplate, ParticaoHemogramaRepository particaoRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.particaoRepository = particaoRepository;
+    }
+
+    /**
+     * Região e hora (truncada) de um grupo de hemogramas.
+     */
+    public record HoraRegiao(String regiao, LocalDateTime hora) {
+    }
+
+    /**
+     * Somas de uma região em uma janela (somas sem valores vêm como 0).
+     */
+    public record Somas(String regiao, long total, long alertas, double somaPlaquetas, long quantidadePlaquetas,
+                        double somaLeucocitos, long quantidadeLeucocitos) {
+    }
+
+    /**
+     * Hora pendente de recálculo, com a versão lida.
+     */
+    public record Pendente(String regiao, LocalDateTime hora, long versao) {
+    }
+
+    /**
+     * Marca as horas como pendentes. Deve rodar na transação que grava os hemogramas: a
+     * marca só existe se os hemogramas existem.
+     */
+    public void marcarPendentes(Collection<HoraRegiao> horas) {
+        jdbcTemplate.batchUpdate(MARCAR_PENDENTE, horas, 500, (ps, hora) -> {
+            ps.setString(1, hora.regiao());
+            ps.setTimestamp(2, Timestamp.valueOf(hora.hora()));
+        });
+    }
+
+    /**
+     * Até {@code limite} horas pendentes em ordem de (hora, região), depois de {@code apos}.
+     * A continuação por keyset não volta às horas que continuaram pendentes na mesma rodada.
+     *
+     * @param apos última hora do bloco anterior, ou null para começar da mais antiga
+     */
+    public List<Pendente> pendentes(Pendente apos, int limite) {
+        RowMapper<Pendente> mapper =
+                (rs, i) -> new Pendente(rs.getString(1), rs.getTimestamp(2).toLocalDateTime(), rs.getLong(3));
+        if (apos == null) {
+            return jdbcTemplate.query("SELECT region, hora, versao FROM rollup_pendente"
+                    + " ORDER BY hora, region FETCH FIRST ? ROWS ONLY", mapper, limite);
+        }
+        Timestamp hora = Timestamp.valueOf(apos.hora());
+        // O "hora >= ?" redundante é o que vira condição de busca no índice
+        return jdbcTemplate.query("SELECT region, hora, versao FROM rollup_pendente"
+                        + " WHERE hora >= ? AND (hora > ? OR region > ?) ORDER BY hora, region FETCH FIRST ? ROWS ONLY",
+                mapper, hora, hora, apos.regiao(), limite);
+    }
+
+    public long contarPendentes() {
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM rollup_pendente", Long.class);
+        return total == null ? 0 : total;
+    }
+
+    /**
+     * Remove as marcas das horas recalculadas. Uma hora que recebeu gravações depois da
+     * leitura (versão diferente) continua pendente para a próxima rodada.
+     */
+    public void concluir(List<Pendente> pendentes) {
+        jdbcTemplate.batchUpdate("DELETE FROM rollup_pendente WHERE region = ? AND hora = ? AND versao = ?",
+                pendentes, 500, (ps, pendente) -> {
+                    ps.setString(1, pendente.regiao());
+                    ps.setTimestamp(2, Timestamp.valueOf(pendente.hora()));
+                    ps.setLong(3, pendente.versao());
+                });
+    }
+
+    /**
+     * Recalcula por completo cada hora informada (MERGE em lote por partição). Uma hora sem
+     * partição não tem linhas brutas: o MERGE não mudaria nada e ela é pulada.
+     */
+    public void recalcular(List<Pendente> horas, double limiarPlaquetas) {
+        Map<String, List<Pendente>> porTabela = new LinkedHashMap<>();
+        Set<LocalDateTime> meses = new HashSet<>();
+        for (ParticaoTempo particao : particaoRepository.particoes()) {
+            meses.add(particao.inicio());
+        }
+        for (Pendente hora : horas) {
+            ParticaoTempo particao = ParticaoTempo.contendo(hora.hora());
+            if (meses.contains(particao.inicio())) {
+                porTabela.computeIfAbsent(particao.tabela(), t -> new ArrayList<>()).add(hora);
+            }
+        }
+        porTabela.forEach((tabela, daTabela) ->
+                jdbcTemplate.batchUpdate(MERGE_HORA.formatted(tabela), daTabela, 500, (ps, hora) -> {
+                    Timestamp inicio = Timestamp.valueOf(hora.hora());
+                    ps.setTimestamp(1, inicio);
+                    ps.setDouble(2, limiarPlaquetas);
+                    ps.setString(3, hora.regiao());
+                    ps.setTimestamp(4, inicio);
+                    ps.setTimestamp(5, Timestamp.valueOf(hora.hora().plusHours(1)));
+                }));
+    }
+
+    /**
+     * Exclui as horas consolidadas e as pendentes em [deHora, ateHora), de todas as regiões.
+     *
+     * @return horas (linhas) excluídas do rollup
+     */
+    public int excluirHoras(LocalDateTime deHora, LocalDateTime ateHora) {
+        jdbcTemplate.update("DELETE FROM rollup_pendente WHERE hora >= ? AND hora < ?",
+                Timestamp.valueOf(deHora), Timestamp.valueOf(ateHora));
+        return jdbcTemplate.update("DELETE FROM " + TABELA + " WHERE hora >= ? AND hora < ?",
+                Timestamp.valueOf(deHora), Timestamp.valueOf(ateHora));
+    }
+
+    /**
+     * Soma as horas cheias em [deHora, ateHora) das regiões da faixa (ou de todas, se faixa for
+     * null), agrupadas por região: as recalculadas pelo rollup e, das pendentes, as linhas brutas
+     * lidas por região e hora.
+     */
+    public List<Somas> somarHoras(FaixaRegioes faixa, LocalDateTime deHora, LocalDateTime ateHora,
+                                  double limiarPlaquetas) {
+        Timestamp de = Timestamp.valueOf(deHora);
+        Timestamp ate = Timestamp.valueOf(ateHora);
+        String fonte = particaoRepository.fonte(deHora, ateHora);
+        if (faixa != null) {
+            return jdbcTemplate.query(SOMAR_HORAS.formatted("r.region >= ? AND r.region < ? AND",
+                            "p.region >= ? AND p.region < ? AND", fonte),
+                    (rs, i) -> somas(rs), faixa.de(), faixa.ate(), de, ate, limiarPlaquetas,
+                    faixa.de(), faixa.ate(), de, ate);
+        }
+        return jdbcTemplate.query(SOMAR_HORAS.formatted("", "", fonte),
+                (rs, i) -> somas(rs), de, ate, limiarPlaquetas, de, ate);
+    }
+
+    /**
+     * Soma as linhas brutas com timestamp em [inicio, fim) — ou [inicio, fim] com fimInclusivo —
+     * das regiões da faixa (ou de todas, se faixa for null), agrupadas por região.
+     */
+    public List<Somas> somarBruto(FaixaRegioes faixa, LocalDateTime inicio, LocalDateTime fim, boolean fimInclusivo,
+                                  double limiarPlaquetas) {
+        String periodo = "timestamp >= ? AND timestamp " + (fimInclusivo ? "<=" : "<") + " ?";
+        String fonte = particaoRepository.fonte(inicio, fim);
+        if (faixa != null) {
+            return jdbcTemplate.query("SELECT region, " + SOMAS_BRUTAS + " FROM " + fonte + " h"
+                            + " WHERE region >= ? AND region < ? AND " + periodo + " GROUP BY region",
+                    (rs, i) -> somas(rs), limiarPlaquetas, faixa.de(), faixa.ate(),
+                    Timestamp.valueOf(inicio), Timestamp.valueOf(fim));
+        }
+        return jdbcTemplate.query("SELECT region, " + SOMAS_BRUTAS + " FROM " + fonte + " h"
+                        + " WHERE region IS NOT NULL AND " + periodo + " GROUP BY region",
+                (rs, i) -> somas(rs), limiarPlaquetas, Timestamp.valueOf(inicio), Timestamp.valueOf(fim));
+    }
+
+    private static Somas somas(ResultSet rs) throws SQLException {
+        return new Somas(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getDouble(4), rs.getLong(5),
+                rs.getDouble(6), rs.getLong(7));
+    }
+}
@@ -0,0 +1,57 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Gatilho INSTEAD OF INSERT da view hemograms: registra o observation_id na guarda global
+ * ({@link EsquemaParticoesHemogramas#GUARDA}) e grava a linha na tabela do mês do timestamp,
+ * na mesma transação da inserção. A restrição de cada mês só vale dentro dele; a da guarda
+ * recusa o mesmo observation_id em qualquer mês, inclusive de uma transação concorrente
+ * (que espera a outra terminar), e a violação chega ao chamador como a de uma tabela única.
+ * A tabela do mês precisa existir
+ * ({@link ParticaoHemogramaRepository#garantir}, chamado antes da transação de gravação):
+ * criar tabela aqui faria commit da transação do chamador.
+ */
+public class RoteadorParticoesHemogramas implements Trigger {
+
+    // Posição de timestamp em EsquemaParticoesHemogramas.COLUNAS
+    private static final int OBSERVATION_ID = 1;
+    private static final int TIMESTAMP = 6;
+    private static final String TABELA_INEXISTENTE = "42S02";
+
+    @Override
+    public void fire(Connection conexao, Object[] antiga, Object[] nova) throws SQLException {
+        Object valor = nova[TIMESTAMP];
+        LocalDateTime timestamp = valor instanceof Timestamp ts ? ts.toLocalDateTime() : (LocalDateTime) valor;
+        if (timestamp == null) {
+            throw new SQLException("Hemograma sem timestamp não tem partição", "23502");
+        }
+        String tabela = ParticaoTempo.contendo(timestamp).tabela();
+        try (PreparedStatement ps = conexao.prepareStatement("INSERT INTO " + EsquemaParticoesHemogramas.GUARDA
+                + " (observation_id) VALUES (?)")) {
+            ps.setObject(1, nova[OBSERVATION_ID]);
+            ps.executeUpdate();
+        }
+        // O H2 guarda os comandos preparados da sessão: preparar a cada linha não reanalisa o SQL
+        try (PreparedStatement ps = conexao.prepareStatement("INSERT INTO " + tabela + " ("
+                + EsquemaParticoesHemogramas.COLUNAS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int i = 0; i < nova.length; i++) {
+                ps.setObject(i + 1, nova[i]);
+            }
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            if (TABELA_INEXISTENTE.equals(e.getSQLState())) {
+                throw new SQLException("Partição " + tabela + " inexistente: crie com ParticaoHemogramaRepository.garantir"
+                        + " antes da transação de gravação", TABELA_INEXISTENTE, e);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,704 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.HyperLogLog;
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.model.SketchQuantis;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Agregados regionais em memória, por região: quantidade de hemogramas, quantidade de
+ * alertas (plaquetas baixas) e somas/contagens de plaquetas e leucócitos.
+ *
+ * Reconstruídos a partir da tabela hemograms na inicialização (antes do servidor HTTP
+ * aceitar requisições) e atualizados a cada {@link HemogramasPersistidosEvent} com
+ * contadores atômicos, sem lock. Uma janela é respondida somando os baldes do intervalo, sem
+ * acessar o banco.
+ *
+ * A memória é limitada em três frentes:
+ * - baldes de um minuto só nas últimas retencaoMinutosHoras (a janela de alerta e a
+ *   anterior); até retencaoHoras ficam baldes de uma hora, que recebem todo hemograma.
+ *   Janelas que começam antes do limite dos minutos têm essa parte truncada para a hora.
+ * - sketches por hora (quantis {@link SketchQuantis} de plaquetas e leucócitos e
+ *   {@link HyperLogLog} de pacientes distintos e de pacientes com alerta) só nas últimas
+ *   retencaoSketchesHoras. Mesclar os sketches das horas (e regiões) de uma janela dá a
+ *   distribuição aproximada e a contagem de pessoas (não de exames) sem guardar os valores.
+ * - no máximo maxRegioes regiões. Hemogramas de uma região nova com o limite cheio não
+ *   entram; enquanto algum descarte estiver dentro da retenção, {@link #cobre} responde
+ *   false para essa região e para "todas", e a análise cai no rollup/SQL.
+ */
+@Service
+public class AgregadosRegionaisService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AgregadosRegionaisService.class);
+
+    private static final int TAMANHO_LOTE_RECONSTRUCAO = 10_000;
+    private static final long SEM_DESCARTE = Long.MAX_VALUE;
+    // Marcador gravado pelo parser quando o Patient não traz CPF
+    private static final String CPF_INDISPONIVEL = "CPF não disponível";
+
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final AnaliseProperties analiseProperties;
+
+    private final Map<String, Regiao> regioes = new ConcurrentHashMap<>();
+    private final AtomicInteger quantidadeRegioes = new AtomicInteger();
+    // Primeiro minuto com baldes de minuto (hora cheia); antes dele, só os baldes por hora
+    private volatile long limiteMinutos;
+    private volatile long ultimaPodaMinuto;
+    // Ordem de admissão das regiões; no primeiro descarte por falta de vaga guarda-se a última
+    // admissão (regiões admitidas até ali nunca perderam hemogramas) e o minuto do último descarte
+    private final AtomicLong admissoes = new AtomicLong();
+    private final AtomicLong primeiroDescarte = new AtomicLong(SEM_DESCARTE);
+    private volatile long ultimoDescarte;
+
+    // Métricas
+    private final LongAdder registrados = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private volatile long linhasReconstrucao;
+    private volatile long duracaoReconstrucaoMs;
+
+    public AgregadosRegionaisService(ParticaoHemogramaRepository particaoRepository, AnaliseProperties analiseProperties) {
+        this.particaoRepository = particaoRepository;
+        this.analiseProperties = analiseProperties;
+    }
+
+    @PostConstruct
+    public void reconstruir() {
+        if (!isAtivo()) {
+            if (AnaliseProperties.FONTE_SQL.equalsIgnoreCase(analiseProperties.getFonte())) {
+                logger.info("Análise coletiva via SQL (hemogram.monitoring.analise.fonte={})", analiseProperties.getFonte());
+            }
+            return;
+        }
+        long inicio = System.nanoTime();
+        LocalDateTime desde = LocalDateTime.now().minusHours(analiseProperties.getRetencaoHoras());
+        long agora = minuto(LocalDateTime.now());
+        long limite = minuto(desde);
+        limiteMinutos = calcularLimiteMinutos(agora);
+        long linhas = particaoRepository.percorrer(ParticaoHemogramaRepository.Leitura.RESUMOS, desde,
+                TAMANHO_LOTE_RECONSTRUCAO, lote -> {
+                    for (Object[] linha : lote) {
+                        registrar((String) linha[1], (LocalDateTime) linha[2], (Double) linha[3], (Double) linha[4],
+                                chavePaciente((String) linha[5], (String) linha[6]), agora, limite);
+                    }
+                });
+
+        linhasReconstrucao = linhas;
+        duracaoReconstrucaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        logger.info("📊 Agregados regionais reconstruídos: {} hemogramas, {} regiões, {} baldes em {} ms",
+                linhas, regioes.size(), contarBaldesMinuto() + contarBaldesHora(), duracaoReconstrucaoMs);
+    }
+
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        if (!isAtivo()) {
+            return;
+        }
+        long agora = minuto(LocalDateTime.now());
+        long limite = agora - analiseProperties.getRetencaoHoras() * 60L;
+        for (HemogramEntity hemograma : event.getHemogramas()) {
+            registrar(hemograma.getRegion(), hemograma.getTimestamp(), hemograma.getPlaquetas(), hemograma.getLeucocitos(),
+                    chavePaciente(hemograma.getPatientCpf(), hemograma.getPatientId()), agora, limite);
+        }
+        podarSeNecessario(agora, limite);
+    }
+
+    /**
+     * Partição excluída pela retenção: descarta os baldes e sketches do intervalo, para as
+     * janelas em memória continuarem iguais às do banco.
+     */
+    @EventListener
+    public void aoExcluir(HemogramasExcluidosEvent event) {
+        if (!isAtivo()) {
+            return;
+        }
+        long de = minuto(event.getInicio());
+        long ate = minuto(event.getFim());
+        // Partições começam e terminam em hora cheia
+        for (Regiao regiao : regioes.values()) {
+            regiao.minutos.subMap(de, ate).clear();
+            regiao.horas.subMap(de / 60, ate / 60).clear();
+            regiao.sketches.subMap(de / 60, ate / 60).clear();
+        }
+    }
+
+    public boolean isAtivo() {
+        return AnaliseProperties.FONTE_MEMORIA.equalsIgnoreCase(analiseProperties.getFonte());
+    }
+
+    /**
+     * Indica se os agregados em memória cobrem janelas da região a partir de {@code inicio}.
+     *
+     * @param regiao a região, ou null para todas
+     */
+    public boolean cobre(String regiao, LocalDateTime inicio) {
+        return isAtivo()
+                && !inicio.isBefore(LocalDateTime.now().minusHours(analiseProperties.getRetencaoHoras()))
+                && completa(regiao);
+    }
+
+    /**
+     * Indica se os sketches (quantis e pacientes distintos) cobrem janelas a partir de {@code inicio}.
+     *
+     * @param regiao a região, ou null para todas
+     */
+    public boolean cobreSketches(String regiao, LocalDateTime inicio) {
+        return isAtivo()
+                && !inicio.isBefore(LocalDateTime.now().minusHours(retencaoSketchesHoras()))
+                && completa(regiao);
+    }
+
+    /**
+     * Soma os baldes da região entre o minuto de {@code inicio} e o minuto de {@code fim}, inclusive.
+     * A parte da janela anterior ao limite dos baldes de minuto é somada por hora (a hora de
+     * {@code inicio} entra inteira).
+     */
+    public Janela consultar(String regiao, LocalDateTime inicio, LocalDateTime fim) {
+        Janela janela = new Janela();
+        Regiao estado = regioes.get(regiao);
+        if (estado == null) {
+            return janela;
+        }
+        long minutoInicio = minuto(inicio);
+        long minutoFim = minuto(fim);
+        // Uma leitura só: a poda avança o limite antes de remover os minutos (que ficam uma hora a mais)
+        long limite = limiteMinutos;
+        if (minutoInicio < limite) {
+            long horaFim = Math.min(minutoFim, limite - 1) / 60;
+            for (Balde balde : estado.horas.subMap(minutoInicio / 60, true, horaFim, true).values()) {
+                janela.somar(balde);
+            }
+            minutoInicio = limite;
+        }
+        if (minutoInicio <= minutoFim) {
+            for (Balde balde : estado.minutos.subMap(minutoInicio, true, minutoFim, true).values()) {
+                janela.somar(balde);
+            }
+        }
+        return janela;
+    }
+
+    /**
+     * Mescla os sketches de quantis das horas entre {@code inicio} e {@code fim}, inclusive.
+     *
+     * @param regiao a região, ou null para todas
+     * @return a distribuição, ou null com os quantis desligados (kQuantis = 0)
+     */
+    public Distribuicao consultarDistribuicao(String regiao, LocalDateTime inicio, LocalDateTime fim) {
+        int k = analiseProperties.getKQuantis();
+        if (k <= 0) {
+            return null;
+        }
+        Distribuicao distribuicao = new Distribuicao(k);
+        percorrerSketches(regiao, inicio, fim, distribuicao::mesclar);
+        return distribuicao;
+    }
+
+    /**
+     * Mescla os HyperLogLog de pacientes das horas entre {@code inicio} e {@code fim}, inclusive.
+     *
+     * @param regiao a região, ou null para todas
+     * @return os pacientes distintos, ou null com a contagem desligada (precisaoHll = 0)
+     */
+    public Pacientes consultarPacientes(String regiao, LocalDateTime inicio, LocalDateTime fim) {
+        int precisao = analiseProperties.getPrecisaoHll();
+        if (precisao <= 0) {
+            return null;
+        }
+        Pacientes pacientes = new Pacientes(precisao);
+        percorrerSketches(regiao, inicio, fim, pacientes::mesclar);
+        return pacientes;
+    }
+
+    /**
+     * Regiões com ao menos um hemograma dentro da retenção.
+     */
+    public List<String> listarRegioes() {
+        List<String> lista = new ArrayList<>();
+        regioes.forEach((nome, estado) -> {
+            if (!estado.horas.isEmpty()) {
+                lista.add(nome);
+            }
+        });
+        return lista;
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("fonte", analiseProperties.getFonte());
+        metricas.put("retentionHours", analiseProperties.getRetencaoHoras());
+        metricas.put("minuteRetentionHours", analiseProperties.getRetencaoMinutosHoras());
+        metricas.put("sketchRetentionHours", retencaoSketchesHoras());
+        metricas.put("regions", regioes.size());
+        metricas.put("maxRegions", analiseProperties.getMaxRegioes());
+        metricas.put("minuteBuckets", contarBaldesMinuto());
+        metricas.put("hourBuckets", contarBaldesHora());
+        metricas.put("quantileK", analiseProperties.getKQuantis());
+        metricas.put("hllPrecision", analiseProperties.getPrecisaoHll());
+        metricas.put("sketchHours", contarSketches());
+        metricas.put("rebuildRows", linhasReconstrucao);
+        metricas.put("rebuildMs", duracaoReconstrucaoMs);
+        metricas.put("recorded", registrados.sum());
+        metricas.put("droppedRegionFull", descartados.sum());
+        metricas.put("complete", primeiroDescarte.get() == SEM_DESCARTE);
+        return metricas;
+    }
+
+    /**
+     * @param agora  minuto atual (relógio), para o controle de descartes
+     * @param limite primeiro minuto dentro da retenção (hemogramas mais antigos, ex: importação
+     *               de histórico, ficam só no banco)
+     */
+    private void registrar(String regiao, LocalDateTime timestamp, Double plaquetas, Double leucocitos,
+                           String paciente, long agora, long limite) {
+        if (regiao == null || timestamp == null || minuto(timestamp) < limite) {
+            return;
+        }
+        long minuto = minuto(timestamp);
+        while (true) {
+            Regiao estado = regioes.computeIfAbsent(regiao, r -> admitir());
+            if (estado == null) {
+                // Limite de regiões: a região fica fora da memória até o descarte sair da retenção
+                descartados.increment();
+                primeiroDescarte.compareAndSet(SEM_DESCARTE, admissoes.get());
+                ultimoDescarte = agora;
+                return;
+            }
+            estado.escritores.incrementAndGet();
+            try {
+                if (estado.removida) {
+                    // A poda está removendo a região (vazia): registra na próxima
+                    continue;
+                }
+                // Minutos anteriores ao limite (menos a hora de folga da poda) só entram no balde da hora
+                if (minuto >= limiteMinutos - 60) {
+                    estado.minutos.computeIfAbsent(minuto, m -> new Balde()).registrar(plaquetas, leucocitos);
+                }
+                estado.horas.computeIfAbsent(minuto / 60, h -> new Balde()).registrar(plaquetas, leucocitos);
+                if (minuto / 60 >= agora / 60 - retencaoSketchesHoras()) {
+                    registrarSketches(estado, minuto / 60, plaquetas, leucocitos, paciente);
+                }
+                break;
+            } finally {
+                estado.escritores.decrementAndGet();
+            }
+        }
+        registrados.increment();
+    }
+
+    /**
+     * Nova região, se houver vaga; null faz o computeIfAbsent não inserir nada.
+     */
+    private Regiao admitir() {
+        if (quantidadeRegioes.incrementAndGet() > analiseProperties.getMaxRegioes()) {
+            quantidadeRegioes.decrementAndGet();
+            return null;
+        }
+        return new Regiao(admissoes.incrementAndGet());
+    }
+
+    /**
+     * Uma região responde janelas em memória se foi admitida antes do primeiro descarte
+     * ainda dentro da retenção (nunca perdeu hemogramas). "Todas" exige que não haja descarte.
+     */
+    private boolean completa(String regiao) {
+        long descarte = primeiroDescarte.get();
+        if (descarte == SEM_DESCARTE) {
+            return true;
+        }
+        if (regiao == null) {
+            return false;
+        }
+        Regiao estado = regioes.get(regiao);
+        return estado != null && estado.admissao <= descarte;
+    }
+
+    private void registrarSketches(Regiao estado, long hora, Double plaquetas, Double leucocitos, String paciente) {
+        int k = analiseProperties.getKQuantis();
+        int precisao = analiseProperties.getPrecisaoHll();
+        if (k <= 0 && (precisao <= 0 || paciente == null)) {
+            return;
+        }
+        SketchesHora sketches = estado.sketches.computeIfAbsent(hora, h -> new SketchesHora(k, precisao));
+        if (plaquetas != null && sketches.plaquetas != null) {
+            sketches.plaquetas.adicionar(plaquetas);
+        }
+        if (leucocitos != null && sketches.leucocitos != null) {
+            sketches.leucocitos.adicionar(leucocitos);
+        }
+        if (paciente != null && sketches.pacientes != null) {
+            sketches.pacientes.adicionar(paciente);
+            if (plaquetas != null && plaquetas < ReferenceValues.PLAQUETAS_MIN) {
+                sketches.pacientesComAlerta.adicionar(paciente);
+            }
+        }
+    }
+
+    private void percorrerSketches(String regiao, LocalDateTime inicio, LocalDateTime fim,
+                                   Consumer<SketchesHora> destino) {
+        long horaInicio = hora(inicio);
+        long horaFim = hora(fim);
+        if (regiao != null) {
+            Regiao estado = regioes.get(regiao);
+            if (estado != null) {
+                estado.sketches.subMap(horaInicio, true, horaFim, true).values().forEach(destino);
+            }
+            return;
+        }
+        for (Regiao estado : regioes.values()) {
+            estado.sketches.subMap(horaInicio, true, horaFim, true).values().forEach(destino);
+        }
+    }
+
+    /**
+     * Identidade do paciente: CPF quando informado, senão o id do Patient FHIR.
+     */
+    private static String chavePaciente(String cpf, String patientId) {
+        if (cpf != null && !cpf.isBlank() && !CPF_INDISPONIVEL.equals(cpf)) {
+            return "cpf:" + cpf;
+        }
+        return patientId != null && !patientId.isBlank() ? "id:" + patientId : null;
+    }
+
+    /**
+     * Descarta baldes e sketches fora das retenções e regiões vazias, no máximo uma vez por minuto.
+     */
+    private void podarSeNecessario(long agora, long limite) {
+        if (agora == ultimaPodaMinuto) {
+            return;
+        }
+        ultimaPodaMinuto = agora;
+
+        // O limite avança antes da remoção, e os minutos ficam uma hora além dele: uma consulta
+        // que leu o limite anterior ainda encontra os seus
+        long novoLimiteMinutos = calcularLimiteMinutos(agora);
+        limiteMinutos = novoLimiteMinutos;
+        // A hora que contém o limite ainda tem minutos dentro da retenção
+        long horaLimite = limite / 60;
+        long horaLimiteSketches = agora / 60 - retencaoSketchesHoras();
+        for (Map.Entry<String, Regiao> entrada : regioes.entrySet()) {
+            Regiao estado = entrada.getValue();
+            limpar(estado.minutos.headMap(novoLimiteMinutos - 60));
+            limpar(estado.horas.headMap(horaLimite));
+            limpar(estado.sketches.headMap(horaLimiteSketches));
+            if (estado.horas.isEmpty()) {
+                remover(entrada.getKey(), estado);
+            }
+        }
+        if (ultimoDescarte < limite) {
+            // O último hemograma descartado saiu da retenção: as regiões voltam a estar completas
+            primeiroDescarte.set(SEM_DESCARTE);
+        }
+    }
+
+    /**
+     * Remove uma região vazia, liberando a vaga. Sem lock no registro: a poda marca a região
+     * como removida e só a remove se nenhum registro estiver em andamento; um registro que
+     * começar depois vê a marca e vai para uma região nova.
+     */
+    private void remover(String nome, Regiao estado) {
+        estado.removida = true;
+        if (estado.escritores.get() == 0 && estado.horas.isEmpty()) {
+            if (regioes.remove(nome, estado)) {
+                quantidadeRegioes.decrementAndGet();
+            }
+        } else {
+            estado.removida = false;
+        }
+    }
+
+    private static void limpar(ConcurrentNavigableMap<Long, ?> antigos) {
+        if (!antigos.isEmpty()) {
+            antigos.clear();
+        }
+    }
+
+    /**
+     * Hora cheia a partir da qual há baldes de minuto.
+     */
+    private long calcularLimiteMinutos(long agora) {
+        int horas = Math.min(analiseProperties.getRetencaoMinutosHoras(), analiseProperties.getRetencaoHoras());
+        return (agora - horas * 60L) / 60 * 60;
+    }
+
+    private int retencaoSketchesHoras() {
+        return Math.min(analiseProperties.getRetencaoSketchesHoras(), analiseProperties.getRetencaoHoras());
+    }
+
+    private long contarBaldesMinuto() {
+        long total = 0;
+        for (Regiao estado : regioes.values()) {
+            total += estado.minutos.size();
+        }
+        return total;
+    }
+
+    private long contarBaldesHora() {
+        long total = 0;
+        for (Regiao estado : regioes.values()) {
+            total += estado.horas.size();
+        }
+        return total;
+    }
+
+    private long contarSketches() {
+        long total = 0;
+        for (Regiao estado : regioes.values()) {
+            total += estado.sketches.size();
+        }
+        return total;
+    }
+
+    private static long hora(LocalDateTime timestamp) {
+        return minuto(timestamp) / 60;
+    }
+
+    private static long minuto(LocalDateTime timestamp) {
+        // Só serve de índice dos baldes: consultas e registros usam a mesma conversão
+        return timestamp.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+
+    /**
+     * Estado de uma região: baldes por minuto (recentes), por hora (toda a retenção) e sketches por hora.
+     */
+    private static final class Regiao {
+        final long admissao;
+        final AtomicInteger escritores = new AtomicInteger();
+        volatile boolean removida;
+        final ConcurrentSkipListMap<Long, Balde> minutos = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<Long, Balde> horas = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<Long, SketchesHora> sketches = new ConcurrentSkipListMap<>();
+
+        Regiao(long admissao) {
+            this.admissao = admissao;
+        }
+    }
+
+    /**
+     * Contadores de um balde em um único AtomicLongArray (~80 bytes, contra ~230 com um
+     * LongAdder/DoubleAdder por campo): são milhares de baldes por região e a disputa por
+     * um mesmo balde é rara. As somas guardam os bits do double e são atualizadas por CAS.
+     */
+    private static final class Balde {
+        private static final int TOTAL = 0;
+        private static final int ALERTAS = 1;
+        private static final int SOMA_PLAQUETAS = 2;
+        private static final int QUANTIDADE_PLAQUETAS = 3;
+        private static final int SOMA_LEUCOCITOS = 4;
+        private static final int QUANTIDADE_LEUCOCITOS = 5;
+
+        private final AtomicLongArray valores = new AtomicLongArray(6);
+
+        void registrar(Double plaquetas, Double leucocitos) {
+            valores.incrementAndGet(TOTAL);
+            if (plaquetas != null) {
+                somar(SOMA_PLAQUETAS, plaquetas);
+                valores.incrementAndGet(QUANTIDADE_PLAQUETAS);
+                // Mesmo critério de alerta da consulta SQL (countAlertsInRegionByTime)
+                if (plaquetas < ReferenceValues.PLAQUETAS_MIN) {
+                    valores.incrementAndGet(ALERTAS);
+                }
+            }
+            if (leucocitos != null) {
+                somar(SOMA_LEUCOCITOS, leucocitos);
+                valores.incrementAndGet(QUANTIDADE_LEUCOCITOS);
+            }
+        }
+
+        private void somar(int indice, double valor) {
+            long atual;
+            do {
+                atual = valores.get(indice);
+            } while (!valores.compareAndSet(indice, atual,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(atual) + valor)));
+        }
+
+        long total() {
+            return valores.get(TOTAL);
+        }
+
+        long alertas() {
+            return valores.get(ALERTAS);
+        }
+
+        double somaPlaquetas() {
+            return Double.longBitsToDouble(valores.get(SOMA_PLAQUETAS));
+        }
+
+        long quantidadePlaquetas() {
+            return valores.get(QUANTIDADE_PLAQUETAS);
+        }
+
+        double somaLeucocitos() {
+            return Double.longBitsToDouble(valores.get(SOMA_LEUCOCITOS));
+        }
+
+        long quantidadeLeucocitos() {
+            return valores.get(QUANTIDADE_LEUCOCITOS);
+        }
+    }
+
+    /**
+     * Sketches de uma região em uma hora; cada tipo é null quando desligado na configuração.
+     */
+    private static final class SketchesHora {
+        final SketchQuantis plaquetas;
+        final SketchQuantis leucocitos;
+        final HyperLogLog pacientes;
+        final HyperLogLog pacientesComAlerta;
+
+        SketchesHora(int k, int precisaoHll) {
+            this.plaquetas = k > 0 ? new SketchQuantis(k) : null;
+            this.leucocitos = k > 0 ? new SketchQuantis(k) : null;
+            this.pacientes = precisaoHll > 0 ? new HyperLogLog(precisaoHll) : null;
+            this.pacientesComAlerta = precisaoHll > 0 ? new HyperLogLog(precisaoHll) : null;
+        }
+    }
+
+    /**
+     * Sketches de plaquetas e leucócitos mesclados de uma janela (uma região ou todas).
+     */
+    public static final class Distribuicao {
+        private final SketchQuantis plaquetas;
+        private final SketchQuantis leucocitos;
+        private int sketchesMesclados;
+
+        private Distribuicao(int k) {
+            this.plaquetas = new SketchQuantis(k);
+            this.leucocitos = new SketchQuantis(k);
+        }
+
+        private void mesclar(SketchesHora sketches) {
+            if (sketches.plaquetas == null) {
+                return;
+            }
+            plaquetas.mesclar(sketches.plaquetas);
+            leucocitos.mesclar(sketches.leucocitos);
+            sketchesMesclados++;
+        }
+
+        public SketchQuantis getPlaquetas() {
+            return plaquetas;
+        }
+
+        public SketchQuantis getLeucocitos() {
+            return leucocitos;
+        }
+
+        public int getSketchesMesclados() {
+            return sketchesMesclados;
+        }
+    }
+
+    /**
+     * HyperLogLog de pacientes mesclados de uma janela (uma região ou todas).
+     */
+    public static final class Pacientes {
+        private final HyperLogLog distintos;
+        private final HyperLogLog comAlerta;
+        private int sketchesMesclados;
+
+        private Pacientes(int precisao) {
+            this.distintos = new HyperLogLog(precisao);
+            this.comAlerta = new HyperLogLog(precisao);
+        }
+
+        private void mesclar(SketchesHora sketches) {
+            if (sketches.pacientes == null) {
+                return;
+            }
+            distintos.mesclar(sketches.pacientes);
+            comAlerta.mesclar(sketches.pacientesComAlerta);
+            sketchesMesclados++;
+        }
+
+        public long getDistintos() {
+            return distintos.estimar();
+        }
+
+        public long getComAlerta() {
+            return comAlerta.estimar();
+        }
+
+        /**
+         * Erro padrão relativo de cada contagem.
+         */
+        public double getErroPadrao() {
+            return distintos.getErroPadrao();
+        }
+
+        public int getSketchesMesclados() {
+            return sketchesMesclados;
+        }
+    }
+
+    /**
+     * Totais de uma região em uma janela.
+     */
+    public static final class Janela {
+        private long total;
+        private long alertas;
+        private double somaPlaquetas;
+        private long quantidadePlaquetas;
+        private double somaLeucocitos;
+        private long quantidadeLeucocitos;
+
+        private void somar(Balde balde) {
+            acumular(balde.total(), balde.alertas(),
+                    balde.somaPlaquetas(), balde.quantidadePlaquetas(),
+                    balde.somaLeucocitos(), balde.quantidadeLeucocitos());
+        }
+
+        void acumular(long total, long alertas, double somaPlaquetas, long quantidadePlaquetas,
+                      double somaLeucocitos, long quantidadeLeucocitos) {
+            this.total += total;
+            this.alertas += alertas;
+            this.somaPlaquetas += somaPlaquetas;
+            this.quantidadePlaquetas += quantidadePlaquetas;
+            this.somaLeucocitos += somaLeucocitos;
+            this.quantidadeLeucocitos += quantidadeLeucocitos;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getAlertas() {
+            return alertas;
+        }
+
+        /**
+         * @return a média, ou null sem valores na janela (como o AVG do SQL)
+         */
+        public Double getMediaPlaquetas() {
+            return quantidadePlaquetas == 0 ? null : somaPlaquetas / quantidadePlaquetas;
+        }
+
+        public Double getMediaLeucocitos() {
+            return quantidadeLeucocitos == 0 ? null : somaLeucocitos / quantidadeLeucocitos;
+        }
+    }
+}
@@ -1,14 +1,37 @@
 package com.ubiquo.hemogrammonitoring.service;
 
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
 import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+import com.ubiquo.hemogrammonitoring.model.BlocoColunar;
+import com.ubiquo.hemogrammonitoring.model.FaixaRegioes;
 import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import com.ubiquo.hemogrammonitoring.model.SketchQuantis;
 import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service para análise coletiva de hemogramas
@@ -20,10 +43,64 @@ public class AnaliseColetivaService {
     private static final Logger logger = LoggerFactory.getLogger(AnaliseColetivaService.class);
 
     private static final double MARGEM_ESTABILIDADE_PERCENTUAL = 5.0;
+    // Várias partes por thread: uma parte lenta não segura as demais regiões
+    private static final int PARTES_POR_THREAD = 4;
+    private static final long VALIDADE_REGIOES_MS = 60_000;
     private final HemogramRepository hemogramRepository;
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final AgregadosRegionaisService agregadosRegionais;
+    private final RollupHorarioService rollupHorario;
+    private final ArmazemColunarService armazemColunar;
+    private final AnaliseProperties.Paralelismo paralelismo;
+
+    // Avaliação das regiões em memória: só CPU
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    // Partes das regiões nos caminhos SQL e rollup: cada thread ocupa uma conexão do pool
+    private final ThreadPoolExecutor executorBanco;
+    private final int threadsBanco;
+    private volatile RegioesConhecidas regioesConhecidas;
     
-    public AnaliseColetivaService(HemogramRepository hemogramRepository) {
+    public AnaliseColetivaService(HemogramRepository hemogramRepository, ParticaoHemogramaRepository particaoRepository,
+                                  AgregadosRegionaisService agregadosRegionais,
+                                  RollupHorarioService rollupHorario, ArmazemColunarService armazemColunar,
+                                  AnaliseProperties analiseProperties, DataSource dataSource) {
         this.hemogramRepository = hemogramRepository;
+        this.particaoRepository = particaoRepository;
+        this.agregadosRegionais = agregadosRegionais;
+        this.rollupHorario = rollupHorario;
+        this.armazemColunar = armazemColunar;
+        this.paralelismo = analiseProperties.getParalelismo();
+        this.threads = paralelismo.getThreads() > 0
+                ? paralelismo.getThreads()
+                : Runtime.getRuntime().availableProcessors();
+        this.threadsBanco = paralelismo.getThreadsBanco() > 0
+                ? paralelismo.getThreadsBanco()
+                : maximoConexoes(dataSource);
+        this.executor = novoPool(threads, threads * PARTES_POR_THREAD * 16, "analise-regiao-");
+        this.executorBanco = novoPool(threadsBanco, threadsBanco * 4, "analise-banco-");
+    }
+
+    /**
+     * Filas limitadas e AbortPolicy: com pool e fila cheios a parte é recusada e suas regiões
+     * ficam de fora (resultado parcial), em vez de a requisição avaliá-las sem prazo.
+     */
+    private static ThreadPoolExecutor novoPool(int threads, int fila, String prefixo) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(fila),
+                new AnaliseThreadFactory(prefixo),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static int maximoConexoes(DataSource dataSource) {
+        // 10 é também o padrão do Hikari
+        return dataSource instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize() : 10;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        executorBanco.shutdownNow();
     }
     
     /**
@@ -43,6 +120,248 @@ public class AnaliseColetivaService {
         logger.info("Analisando região: {} | Janela: últimas {}h ({} até {})", 
                    regiao, horas, inicio, agora);
         
+        IndicadoresRegionaisDTO indicadores;
+        if (agregadosRegionais.cobre(regiao, inicioAnterior)) {
+            indicadores = analisarEmMemoria(regiao, inicioAnterior, inicio, agora);
+        } else if (armazemColunar.cobre(inicioAnterior)) {
+            indicadores = analisarColunar(regiao, inicioAnterior, inicio, agora);
+        } else if (rollupHorario.atende(horas)) {
+            indicadores = analisarViaRollup(regiao, inicioAnterior, inicio, agora);
+        } else {
+            indicadores = analisarViaSql(regiao, inicioAnterior, inicio, agora);
+        }
+        preencherQuantis(indicadores, regiao, inicio, agora);
+        preencherPacientes(indicadores, regiao, inicio, agora);
+        
+        logger.info("Resultado: {} hemogramas | {} alertas | Proporção: {:.1f}% | Risco: {}", 
+                   indicadores.getTotalHemogramas(), indicadores.getTotalAlertas(), 
+                   indicadores.getProporcaoAlertas() * 100,
+                   indicadores.isTemRiscoColetivo() ? "SIM" : "NÃO");
+        
+        return indicadores;
+    }
+
+    /**
+     * Distribuição aproximada de plaquetas e leucócitos na janela (p10, mediana, p90),
+     * mesclando os sketches por hora da região, ou de todas as regiões com regiao null.
+     * Com o armazenamento colunar, os quantis são exatos.
+     *
+     * @return null se nem os agregados em memória nem o armazenamento colunar cobrem a
+     * janela, ou os quantis estão desligados
+     */
+    public Map<String, Object> analisarDistribuicao(String regiao, int horas) {
+        LocalDateTime agora = LocalDateTime.now();
+        LocalDateTime inicio = agora.minusHours(horas);
+        if (armazemColunar.cobre(inicio)) {
+            return analisarDistribuicaoColunar(regiao, inicio, agora);
+        }
+        if (!agregadosRegionais.cobreSketches(regiao, inicio)) {
+            return null;
+        }
+        long comeco = System.nanoTime();
+        AgregadosRegionaisService.Distribuicao distribuicao = agregadosRegionais.consultarDistribuicao(regiao, inicio, agora);
+        if (distribuicao == null) {
+            return null;
+        }
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("regiao", regiao != null ? regiao : "TODAS");
+        resultado.put("dataInicio", inicio);
+        resultado.put("dataFim", agora);
+        resultado.put("plaquetas", resumirQuantis(distribuicao.getPlaquetas()));
+        resultado.put("leucocitos", resumirQuantis(distribuicao.getLeucocitos()));
+        resultado.put("sketchesMesclados", distribuicao.getSketchesMesclados());
+        resultado.put("duracaoMs", (System.nanoTime() - comeco) / 1_000_000.0);
+        return resultado;
+    }
+
+    private Map<String, Object> analisarDistribuicaoColunar(String regiao, LocalDateTime inicio, LocalDateTime agora) {
+        long comeco = System.nanoTime();
+        BlocoColunar.Coletor coletor = armazemColunar.coletar(regiao, inicio, agora);
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("regiao", regiao != null ? regiao : "TODAS");
+        resultado.put("dataInicio", inicio);
+        resultado.put("dataFim", agora);
+        resultado.put("plaquetas", resumirQuantis(coletor.getPlaquetasOrdenadas()));
+        resultado.put("leucocitos", resumirQuantis(coletor.getLeucocitosOrdenados()));
+        resultado.put("exato", true);
+        resultado.put("duracaoMs", (System.nanoTime() - comeco) / 1_000_000.0);
+        return resultado;
+    }
+
+    /**
+     * Quantis saem dos agregados em memória (granularidade de uma hora) ou, exatos, do
+     * armazenamento colunar; nos caminhos SQL e rollup ficam null
+     */
+    private void preencherQuantis(IndicadoresRegionaisDTO indicadores, String regiao,
+                                  LocalDateTime inicio, LocalDateTime agora) {
+        if (armazemColunar.cobre(inicio)) {
+            BlocoColunar.Coletor coletor = armazemColunar.coletar(regiao, inicio, agora);
+            float[] plaquetas = coletor.getPlaquetasOrdenadas();
+            float[] leucocitos = coletor.getLeucocitosOrdenados();
+            indicadores.setPlaquetasP10(quantil(plaquetas, 0.1));
+            indicadores.setPlaquetasMediana(quantil(plaquetas, 0.5));
+            indicadores.setPlaquetasP90(quantil(plaquetas, 0.9));
+            indicadores.setLeucocitosP10(quantil(leucocitos, 0.1));
+            indicadores.setLeucocitosMediana(quantil(leucocitos, 0.5));
+            indicadores.setLeucocitosP90(quantil(leucocitos, 0.9));
+            return;
+        }
+        if (!agregadosRegionais.cobreSketches(regiao, inicio)) {
+            return;
+        }
+        AgregadosRegionaisService.Distribuicao distribuicao = agregadosRegionais.consultarDistribuicao(regiao, inicio, agora);
+        if (distribuicao == null) {
+            return;
+        }
+        SketchQuantis plaquetas = distribuicao.getPlaquetas();
+        SketchQuantis leucocitos = distribuicao.getLeucocitos();
+        indicadores.setPlaquetasP10(plaquetas.quantil(0.1));
+        indicadores.setPlaquetasMediana(plaquetas.quantil(0.5));
+        indicadores.setPlaquetasP90(plaquetas.quantil(0.9));
+        indicadores.setLeucocitosP10(leucocitos.quantil(0.1));
+        indicadores.setLeucocitosMediana(leucocitos.quantil(0.5));
+        indicadores.setLeucocitosP90(leucocitos.quantil(0.9));
+    }
+
+    /**
+     * Pacientes distintos e pacientes distintos com alerta na janela (HyperLogLog por hora):
+     * um paciente retestado várias vezes conta uma vez. Só nos agregados em memória.
+     */
+    private void preencherPacientes(IndicadoresRegionaisDTO indicadores, String regiao,
+                                    LocalDateTime inicio, LocalDateTime agora) {
+        if (!agregadosRegionais.cobreSketches(regiao, inicio)) {
+            return;
+        }
+        AgregadosRegionaisService.Pacientes pacientes = agregadosRegionais.consultarPacientes(regiao, inicio, agora);
+        if (pacientes == null) {
+            return;
+        }
+        long distintos = pacientes.getDistintos();
+        long comAlerta = pacientes.getComAlerta();
+        indicadores.setPacientesDistintos(distintos);
+        indicadores.setPacientesComAlerta(comAlerta);
+        indicadores.setProporcaoPacientesComAlerta(proporcaoPacientes(distintos, comAlerta));
+        indicadores.setErroPadraoPacientes(pacientes.getErroPadrao());
+    }
+
+    /**
+     * Pacientes distintos (e com alerta) na janela, de uma região ou de todas, pelos
+     * HyperLogLog por hora.
+     *
+     * @return null se os agregados em memória não cobrem a janela ou a contagem está desligada
+     */
+    public Map<String, Object> contarPacientes(String regiao, int horas) {
+        LocalDateTime agora = LocalDateTime.now();
+        LocalDateTime inicio = agora.minusHours(horas);
+        if (!agregadosRegionais.cobreSketches(regiao, inicio)) {
+            return null;
+        }
+        long comeco = System.nanoTime();
+        AgregadosRegionaisService.Pacientes pacientes = agregadosRegionais.consultarPacientes(regiao, inicio, agora);
+        if (pacientes == null) {
+            return null;
+        }
+        long distintos = pacientes.getDistintos();
+        long comAlerta = pacientes.getComAlerta();
+
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("regiao", regiao != null ? regiao : "TODAS");
+        resultado.put("dataInicio", inicio);
+        resultado.put("dataFim", agora);
+        resultado.put("pacientesDistintos", distintos);
+        resultado.put("pacientesComAlerta", comAlerta);
+        resultado.put("proporcaoPacientesComAlerta", proporcaoPacientes(distintos, comAlerta));
+        resultado.put("erroPadrao", pacientes.getErroPadrao());
+        resultado.put("sketchesMesclados", pacientes.getSketchesMesclados());
+        resultado.put("duracaoMs", (System.nanoTime() - comeco) / 1_000_000.0);
+        return resultado;
+    }
+
+    /**
+     * As duas contagens são estimativas independentes: com quase todos em alerta, a razão
+     * pode passar de 1 e é limitada
+     */
+    private double proporcaoPacientes(long distintos, long comAlerta) {
+        return distintos == 0 ? 0.0 : Math.min(1.0, (double) comAlerta / distintos);
+    }
+
+    private Map<String, Object> resumirQuantis(SketchQuantis sketch) {
+        Map<String, Object> resumo = new LinkedHashMap<>();
+        resumo.put("quantidade", sketch.getQuantidade());
+        resumo.put("minimo", sketch.quantil(0));
+        resumo.put("p10", sketch.quantil(0.1));
+        resumo.put("p25", sketch.quantil(0.25));
+        resumo.put("mediana", sketch.quantil(0.5));
+        resumo.put("p75", sketch.quantil(0.75));
+        resumo.put("p90", sketch.quantil(0.9));
+        resumo.put("maximo", sketch.quantil(1));
+        return resumo;
+    }
+
+    private Map<String, Object> resumirQuantis(float[] ordenados) {
+        Map<String, Object> resumo = new LinkedHashMap<>();
+        resumo.put("quantidade", (long) ordenados.length);
+        resumo.put("minimo", quantil(ordenados, 0));
+        resumo.put("p10", quantil(ordenados, 0.1));
+        resumo.put("p25", quantil(ordenados, 0.25));
+        resumo.put("mediana", quantil(ordenados, 0.5));
+        resumo.put("p75", quantil(ordenados, 0.75));
+        resumo.put("p90", quantil(ordenados, 0.9));
+        resumo.put("maximo", quantil(ordenados, 1));
+        return resumo;
+    }
+
+    /**
+     * Quantil exato pelo posto mais próximo: o menor valor com pelo menos q das observações
+     * até ele. Null sem observações, como no sketch.
+     */
+    private static Double quantil(float[] ordenados, double q) {
+        if (ordenados.length == 0) {
+            return null;
+        }
+        int posicao = (int) Math.ceil(q * ordenados.length) - 1;
+        return (double) ordenados[Math.max(0, Math.min(ordenados.length - 1, posicao))];
+    }
+
+    /**
+     * Agregados em memória: soma dos baldes por minuto, sem acessar o banco
+     */
+    private IndicadoresRegionaisDTO analisarEmMemoria(String regiao, LocalDateTime inicioAnterior,
+                                                      LocalDateTime inicio, LocalDateTime agora) {
+        AgregadosRegionaisService.Janela atual = agregadosRegionais.consultar(regiao, inicio, agora);
+        AgregadosRegionaisService.Janela anterior = agregadosRegionais.consultar(regiao, inicioAnterior, inicio.minusMinutes(1));
+
+        return montarIndicadores(regiao, inicio, agora, atual.getTotal(), atual.getAlertas(),
+                atual.getMediaPlaquetas(), atual.getMediaLeucocitos(),
+                anterior.getMediaPlaquetas(), anterior.getMediaLeucocitos());
+    }
+
+    /**
+     * Armazenamento colunar: uma varredura das colunas dá as duas janelas, com precisão de um segundo
+     */
+    private IndicadoresRegionaisDTO analisarColunar(String regiao, LocalDateTime inicioAnterior,
+                                                    LocalDateTime inicio, LocalDateTime agora) {
+        ArmazemColunarService.Janelas janelas = armazemColunar.consultar(regiao, inicioAnterior, inicio, agora);
+        return montarIndicadores(regiao, inicio, agora, janelas.atual(), janelas.anterior());
+    }
+
+    /**
+     * Janelas longas: horas consolidadas do rollup + linhas brutas das pontas
+     */
+    private IndicadoresRegionaisDTO analisarViaRollup(String regiao, LocalDateTime inicioAnterior,
+                                                      LocalDateTime inicio, LocalDateTime agora) {
+        AgregadosRegionaisService.Janela atual = rollupHorario.consultar(regiao, inicio, agora);
+        AgregadosRegionaisService.Janela anterior = rollupHorario.consultar(regiao, inicioAnterior, inicio);
+
+        return montarIndicadores(regiao, inicio, agora, atual.getTotal(), atual.getAlertas(),
+                atual.getMediaPlaquetas(), atual.getMediaLeucocitos(),
+                anterior.getMediaPlaquetas(), anterior.getMediaLeucocitos());
+    }
+
+    private IndicadoresRegionaisDTO analisarViaSql(String regiao, LocalDateTime inicioAnterior,
+                                                   LocalDateTime inicio, LocalDateTime agora) {
         // Buscar dados usando as queries do repository
         long totalHemogramas = hemogramRepository.countByRegionAndTimestampBetween(
             regiao, inicio, agora
@@ -70,6 +389,22 @@ public class AnaliseColetivaService {
                 regiao, inicioAnterior, inicio
         );
 
+        return montarIndicadores(regiao, inicio, agora, totalHemogramas, totalAlertas,
+                mediaPlaquetasAtual, mediaLeucocitosAtual, mediaPlaquetasAnterior, mediaLeucocitosAnterior);
+    }
+
+    private IndicadoresRegionaisDTO montarIndicadores(String regiao, LocalDateTime inicio, LocalDateTime agora,
+                                                      AgregadosRegionaisService.Janela atual,
+                                                      AgregadosRegionaisService.Janela anterior) {
+        return montarIndicadores(regiao, inicio, agora, atual.getTotal(), atual.getAlertas(),
+                atual.getMediaPlaquetas(), atual.getMediaLeucocitos(),
+                anterior.getMediaPlaquetas(), anterior.getMediaLeucocitos());
+    }
+
+    private IndicadoresRegionaisDTO montarIndicadores(String regiao, LocalDateTime inicio, LocalDateTime agora,
+                                                      long totalHemogramas, long totalAlertas,
+                                                      Double mediaPlaquetasAtual, Double mediaLeucocitosAtual,
+                                                      Double mediaPlaquetasAnterior, Double mediaLeucocitosAnterior) {
         // Criar DTO com indicadores
         IndicadoresRegionaisDTO indicadores = new IndicadoresRegionaisDTO(
                 regiao, inicio, agora, totalHemogramas, totalAlertas,
@@ -79,12 +414,6 @@ public class AnaliseColetivaService {
         // Calcular e Definir Tendências
         definirTendencias(indicadores, mediaPlaquetasAtual, mediaPlaquetasAnterior,
                 mediaLeucocitosAtual, mediaLeucocitosAnterior);
-        
-        logger.info("Resultado: {} hemogramas | {} alertas | Proporção: {:.1f}% | Risco: {}", 
-                   totalHemogramas, totalAlertas, 
-                   indicadores.getProporcaoAlertas() * 100,
-                   indicadores.isTemRiscoColetivo() ? "SIM" : "NÃO");
-        
         return indicadores;
     }
 
@@ -128,24 +457,226 @@ public class AnaliseColetivaService {
      * Lista todas as regiões que têm hemogramas cadastrados
      */
     public List<String> listarRegioes() {
-        return hemogramRepository.findDistinctRegions();
+        return particaoRepository.regioes();
     }
     
     /**
      * Analisa todas as regiões e retorna apenas as que têm risco coletivo
      * 
      * @param horas Janela de tempo em horas
-     * @return Lista de regiões com risco
+     * @return Regiões com risco (parcial se partes da avaliação falharem ou estourarem o prazo)
      */
-    public List<IndicadoresRegionaisDTO> identificarRegioesComRisco(int horas) {
+    public ResultadoRegioesRisco identificarRegioesComRisco(int horas) {
         logger.info("Identificando regiões com risco coletivo (janela: {}h)", horas);
-        
-        List<String> regioes = listarRegioes();
-        
-        return regioes.stream()
-                .map(regiao -> analisarRegiao(regiao, horas))
-                .filter(IndicadoresRegionaisDTO::isTemRiscoColetivo)
+
+        LocalDateTime agora = LocalDateTime.now();
+        LocalDateTime inicio = agora.minusHours(horas);
+        LocalDateTime inicioAnterior = inicio.minusHours(horas);
+
+        if (agregadosRegionais.cobre(null, inicioAnterior)) {
+            List<String> regioes = agregadosRegionais.listarRegioes();
+            if (threads <= 1 || regioes.size() < paralelismo.getMinimoRegioes()) {
+                return ResultadoRegioesRisco.completo(regioes.stream()
+                        .map(regiao -> analisarEmMemoria(regiao, inicioAnterior, inicio, agora))
+                        .filter(IndicadoresRegionaisDTO::isTemRiscoColetivo)
+                        .toList());
+            }
+            List<List<String>> partes = dividir(regioes, threads * PARTES_POR_THREAD);
+            return avaliarEmPartes(partes, executor, (parte, avaliadas) -> {
+                for (String regiao : partes.get(parte)) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    avaliadas.put(regiao, analisarEmMemoria(regiao, inicioAnterior, inicio, agora));
+                }
+            });
+        }
+
+        if (armazemColunar.cobre(inicioAnterior)) {
+            // Todas as regiões agrupadas em uma varredura das colunas em memória; dividir por
+            // região repetiria a varredura em cada parte
+            return ResultadoRegioesRisco.completo(armazemColunar.consultarTodas(inicioAnterior, inicio, agora)
+                    .entrySet().stream()
+                    .map(e -> montarIndicadores(e.getKey(), inicio, agora, e.getValue().atual(), e.getValue().anterior()))
+                    .filter(IndicadoresRegionaisDTO::isTemRiscoColetivo)
+                    .toList());
+        }
+
+        boolean viaRollup = rollupHorario.atende(horas);
+        List<String> regioes = threadsBanco > 1 ? regioesConhecidas() : List.of();
+        if (regioes.isEmpty() || regioes.size() < paralelismo.getMinimoRegioes()) {
+            // Poucas regiões: uma consulta agrupada para todas
+            return ResultadoRegioesRisco.completo(consultarBanco(null, viaRollup, inicioAnterior, inicio, agora).stream()
+                    .filter(IndicadoresRegionaisDTO::isTemRiscoColetivo)
+                    .toList());
+        }
+        // Uma faixa de regiões por parte, consultadas em paralelo nas conexões do pool
+        List<List<String>> partes = dividir(regioes, threadsBanco);
+        return avaliarEmPartes(partes, executorBanco, (parte, avaliadas) -> {
+            FaixaRegioes faixa = new FaixaRegioes(
+                    parte == 0 ? FaixaRegioes.INICIO : partes.get(parte).get(0),
+                    parte == partes.size() - 1 ? FaixaRegioes.FIM : partes.get(parte + 1).get(0));
+            for (IndicadoresRegionaisDTO indicadores : consultarBanco(faixa, viaRollup, inicioAnterior, inicio, agora)) {
+                avaliadas.put(indicadores.getRegiao(), indicadores);
+            }
+            // Sem linhas nas janelas: avaliada, sem risco
+            for (String regiao : partes.get(parte)) {
+                avaliadas.putIfAbsent(regiao, montarIndicadores(regiao, inicio, agora, 0, 0, null, null, null, null));
+            }
+        });
+    }
+
+    /**
+     * Regiões do banco, em ordem, para dividir as faixas. Recarregadas a cada
+     * VALIDADE_REGIOES_MS: o DISTINCT por partição custa tanto quanto a consulta agrupada, e uma
+     * lista desatualizada só desequilibra as partes (as faixas das pontas cobrem regiões novas).
+     */
+    private List<String> regioesConhecidas() {
+        RegioesConhecidas atuais = regioesConhecidas;
+        if (atuais == null || System.nanoTime() - atuais.carregadaEmNanos() > TimeUnit.MILLISECONDS.toNanos(VALIDADE_REGIOES_MS)) {
+            atuais = new RegioesConhecidas(particaoRepository.regioes(), System.nanoTime());
+            regioesConhecidas = atuais;
+        }
+        return atuais.nomes();
+    }
+
+    private record RegioesConhecidas(List<String> nomes, long carregadaEmNanos) {
+    }
+
+    /**
+     * Indicadores das regiões da faixa (de todas com faixa null) que têm hemogramas nas janelas:
+     * pelo rollup horário, ou em uma varredura agrupada por região em vez de 6 consultas por região.
+     */
+    private List<IndicadoresRegionaisDTO> consultarBanco(FaixaRegioes faixa, boolean viaRollup,
+                                                         LocalDateTime inicioAnterior, LocalDateTime inicio,
+                                                         LocalDateTime agora) {
+        if (viaRollup) {
+            Map<String, AgregadosRegionaisService.Janela> atuais = faixa == null
+                    ? rollupHorario.consultarTodas(inicio, agora)
+                    : rollupHorario.consultarFaixa(faixa, inicio, agora);
+            Map<String, AgregadosRegionaisService.Janela> anteriores = faixa == null
+                    ? rollupHorario.consultarTodas(inicioAnterior, inicio)
+                    : rollupHorario.consultarFaixa(faixa, inicioAnterior, inicio);
+            return atuais.entrySet().stream()
+                    .map(e -> montarIndicadores(e.getKey(), inicio, agora, e.getValue(),
+                            anteriores.getOrDefault(e.getKey(), new AgregadosRegionaisService.Janela())))
+                    .toList();
+        }
+
+        List<Object[]> linhas = faixa == null
+                ? hemogramRepository.aggregateWindowsByRegion(inicioAnterior, inicio, agora, ReferenceValues.PLAQUETAS_MIN)
+                : hemogramRepository.aggregateWindowsByRegionRange(faixa.de(), faixa.ate(), inicioAnterior, inicio, agora,
+                        ReferenceValues.PLAQUETAS_MIN);
+        return linhas.stream()
+                .map(linha -> montarIndicadores((String) linha[0], inicio, agora,
+                        ((Number) linha[1]).longValue(), ((Number) linha[2]).longValue(),
+                        (Double) linha[3], (Double) linha[4], (Double) linha[5], (Double) linha[6]))
                 .toList();
     }
-}
 
+    private static List<List<String>> dividir(List<String> regioes, int partes) {
+        int quantidade = Math.min(regioes.size(), partes);
+        List<List<String>> divididas = new ArrayList<>(quantidade);
+        for (int p = 0; p < quantidade; p++) {
+            divididas.add(regioes.subList(p * regioes.size() / quantidade, (p + 1) * regioes.size() / quantidade));
+        }
+        return divididas;
+    }
+
+    /**
+     * Avaliação da parte de índice {@code parte}: grava em avaliadas os indicadores de cada
+     * região, à medida que ficam prontos.
+     */
+    @FunctionalInterface
+    private interface AvaliacaoParte {
+        void avaliar(int parte, Map<String, IndicadoresRegionaisDTO> avaliadas);
+    }
+
+    /**
+     * Avalia as partes no pool, todas sob o mesmo prazo. Cada parte responde por si: a que
+     * falha, é recusada pelo pool cheio ou não termina no prazo (e é cancelada) deixa só as
+     * suas regiões de fora do resultado, que fica parcial, sem derrubar as demais.
+     */
+    private ResultadoRegioesRisco avaliarEmPartes(List<List<String>> partes, ThreadPoolExecutor pool,
+                                                  AvaliacaoParte avaliacao) {
+        Map<String, IndicadoresRegionaisDTO> avaliadas = new ConcurrentHashMap<>();
+        List<Future<?>> futuros = new ArrayList<>(partes.size());
+        int recusadas = 0;
+        for (int p = 0; p < partes.size(); p++) {
+            int parte = p;
+            try {
+                futuros.add(pool.submit(() -> avaliacao.avaliar(parte, avaliadas)));
+            } catch (RejectedExecutionException e) {
+                recusadas++;
+            }
+        }
+        if (recusadas > 0) {
+            logger.warn("⚠️ Pool de análise cheio: {} de {} partes recusadas", recusadas, partes.size());
+        }
+
+        long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(paralelismo.getTimeoutMs());
+        int falhas = 0;
+        int foraDoPrazo = 0;
+        try {
+            for (Future<?> futuro : futuros) {
+                try {
+                    futuro.get(Math.max(0, prazo - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    falhas++;
+                    logger.error("❌ Erro avaliando uma parte das regiões: {}", e.getCause().getMessage(), e.getCause());
+                } catch (TimeoutException e) {
+                    foraDoPrazo++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            futuros.forEach(futuro -> futuro.cancel(true));
+        }
+        if (foraDoPrazo > 0) {
+            logger.warn("⏱️ {} partes das regiões estouraram o prazo de {} ms", foraDoPrazo, paralelismo.getTimeoutMs());
+        }
+        if (falhas > 0) {
+            logger.warn("⚠️ {} partes das regiões falharam", falhas);
+        }
+
+        // Cópia: partes canceladas ainda podem gravar a região que estavam avaliando
+        Map<String, IndicadoresRegionaisDTO> resultado = new HashMap<>(avaliadas);
+        List<IndicadoresRegionaisDTO> comRisco = new ArrayList<>();
+        List<String> naoAvaliadas = new ArrayList<>();
+        int total = 0;
+        for (List<String> parte : partes) {
+            for (String regiao : parte) {
+                total++;
+                IndicadoresRegionaisDTO indicadores = resultado.remove(regiao);
+                if (indicadores == null) {
+                    naoAvaliadas.add(regiao);
+                } else if (indicadores.isTemRiscoColetivo()) {
+                    comRisco.add(indicadores);
+                }
+            }
+        }
+        // Regiões que surgiram depois da divisão em faixas
+        resultado.values().stream().filter(IndicadoresRegionaisDTO::isTemRiscoColetivo).forEach(comRisco::add);
+        if (!naoAvaliadas.isEmpty()) {
+            logger.warn("⚠️ Resultado parcial: {} de {} regiões não avaliadas", naoAvaliadas.size(), total);
+        }
+        return new ResultadoRegioesRisco(comRisco, naoAvaliadas);
+    }
+
+    private static class AnaliseThreadFactory implements ThreadFactory {
+        private final String prefixo;
+        private final AtomicInteger contador = new AtomicInteger();
+
+        AnaliseThreadFactory(String prefixo) {
+            this.prefixo = prefixo;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefixo + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.BlocoColunar;
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Armazenamento colunar dos hemogramas para a análise coletiva (fonte=colunar).
+ *
+ * Cada hemograma dentro da retenção vira uma linha em um {@link BlocoColunar}: coleta em
+ * segundos epoch, região codificada em um dicionário (String → int) e um float por
+ * analito, 28 bytes por linha contra centenas de uma entidade JPA com Double. Carregado do
+ * banco na inicialização e atualizado a cada {@link HemogramasPersistidosEvent}.
+ *
+ * O listener do evento roda na thread que gravou, então só enfileira o lote gravado em uma
+ * fila limitada a capacidade-fila hemogramas; uma thread própria acrescenta os lotes às
+ * colunas, com um lock de escrita para vários lotes. Com a fila cheia, a própria thread de
+ * gravação acrescenta (nada se perde e a fila não cresce). As consultas enxergam um hemograma
+ * gravado assim que a thread o acrescenta, normalmente em menos de um milissegundo.
+ *
+ * As consultas varrem as colunas de todos os blocos cuja faixa de coleta cruza a janela,
+ * então qualquer janela (não só minutos ou horas cheias) e qualquer agregado sobre as
+ * linhas, como quantis exatos, sai sem acessar o banco. Uma varredura agrupa todas as
+ * regiões de uma vez.
+ *
+ * Escritas (ingestão, poda, exclusão de partições) são serializadas; a lista de blocos é
+ * trocada inteira (cópia na escrita), então leitores nunca esperam.
+ */
+@Service
+public class ArmazemColunarService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArmazemColunarService.class);
+
+    private static final int TAMANHO_LOTE_CARGA = 10_000;
+    private static final int TAMANHO_LOTE_FILA = 4_096;
+    private static final float AUSENTE = Float.NaN;
+
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final AnaliseProperties analiseProperties;
+    private final AnaliseProperties.Colunar config;
+
+    private final ReentrantLock escrita = new ReentrantLock();
+    private volatile BlocoColunar[] blocos = new BlocoColunar[0];
+    private final Map<String, Integer> codigos = new ConcurrentHashMap<>();
+    private volatile String[] regioes = new String[0];
+    private volatile long ultimaPodaMinuto;
+
+    // Lotes gravados ainda não acrescentados; pendentes conta os hemogramas, inclusive os em andamento
+    private final BlockingQueue<List<HemogramEntity>> fila = new LinkedBlockingQueue<>();
+    private final AtomicLong pendentes = new AtomicLong();
+    private Thread acrescimo;
+
+    // Métricas
+    private final LongAdder registrados = new LongAdder();
+    private final LongAdder lotesAcrescentados = new LongAdder();
+    private final LongAdder acrescentadosNaGravacao = new LongAdder();
+    private final LongAdder varreduras = new LongAdder();
+    private final LongAdder linhasVarridas = new LongAdder();
+    private final LongAdder blocosPulados = new LongAdder();
+    private volatile long linhasCarga;
+    private volatile long duracaoCargaMs;
+    private volatile long duracaoUltimaVarreduraNanos;
+    private volatile long linhasUltimaVarredura;
+
+    public ArmazemColunarService(ParticaoHemogramaRepository particaoRepository, AnaliseProperties analiseProperties) {
+        this.particaoRepository = particaoRepository;
+        this.analiseProperties = analiseProperties;
+        this.config = analiseProperties.getColunar();
+        if (config.getLinhasPorBloco() < 1_024 || config.getLinhasPorBloco() > Integer.MAX_VALUE / BlocoColunar.BYTES_POR_LINHA) {
+            throw new IllegalArgumentException("hemogram.monitoring.analise.colunar.linhas-por-bloco fora do intervalo: "
+                    + config.getLinhasPorBloco());
+        }
+        if (config.getCapacidadeFila() < 1) {
+            throw new IllegalArgumentException("hemogram.monitoring.analise.colunar.capacidade-fila deve ser >= 1");
+        }
+    }
+
+    /**
+     * Janela atual e anterior de uma região.
+     */
+    public record Janelas(AgregadosRegionaisService.Janela atual, AgregadosRegionaisService.Janela anterior) {
+    }
+
+    @PostConstruct
+    public void carregar() {
+        if (!isAtivo()) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        LocalDateTime desde = LocalDateTime.now().minusHours(config.getRetencaoHoras());
+        long limite = segundo(desde);
+        long linhas = particaoRepository.percorrer(ParticaoHemogramaRepository.Leitura.COLUNAS, desde,
+                TAMANHO_LOTE_CARGA, lote -> {
+                    escrita.lock();
+                    try {
+                        for (Object[] linha : lote) {
+                            adicionar((String) linha[1], (LocalDateTime) linha[2], (Double) linha[3], (Double) linha[4],
+                                    (Double) linha[5], (Double) linha[6], limite);
+                        }
+                    } finally {
+                        escrita.unlock();
+                    }
+                });
+
+        linhasCarga = linhas;
+        duracaoCargaMs = (System.nanoTime() - inicio) / 1_000_000;
+        logger.info("🧱 Armazenamento colunar carregado: {} hemogramas em {} blocos ({} MB{}), {} regiões em {} ms",
+                contarLinhas(), blocos.length, contarBytes() / (1024 * 1024), config.isForaDoHeap() ? " fora do heap" : "",
+                regioes.length, duracaoCargaMs);
+
+        acrescimo = new Thread(this::loopDeAcrescimo, "armazem-colunar");
+        acrescimo.setDaemon(true);
+        acrescimo.start();
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        if (acrescimo != null) {
+            acrescimo.interrupt();
+        }
+    }
+
+    /**
+     * Enfileira os hemogramas gravados para a thread de acréscimo. Sem a thread (fonte
+     * colunar ligada depois da inicialização) ou com a fila cheia, acrescenta aqui mesmo.
+     */
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        if (!isAtivo()) {
+            return;
+        }
+        List<HemogramEntity> hemogramas = event.getHemogramas();
+        if (acrescimo != null) {
+            if (pendentes.addAndGet(hemogramas.size()) <= config.getCapacidadeFila()) {
+                fila.add(hemogramas);
+                return;
+            }
+            pendentes.addAndGet(-hemogramas.size());
+        }
+        acrescentar(hemogramas);
+        acrescentadosNaGravacao.add(hemogramas.size());
+    }
+
+    /**
+     * Espera a thread de acréscimo esvaziar a fila.
+     *
+     * @return false se ainda havia hemogramas pendentes no fim do prazo
+     */
+    public boolean aguardarFila(long timeoutMs) {
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (pendentes.get() > 0) {
+            if (System.nanoTime() - limite > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    /**
+     * Partição excluída pela retenção: reescreve só os blocos que têm linhas no intervalo,
+     * sem elas.
+     */
+    @EventListener
+    public void aoExcluir(HemogramasExcluidosEvent event) {
+        if (!isAtivo()) {
+            return;
+        }
+        long de = segundo(event.getInicio());
+        long ate = segundo(event.getFim()) - 1;
+        escrita.lock();
+        try {
+            BlocoColunar[] atuais = blocos;
+            List<BlocoColunar> mantidos = new ArrayList<>(atuais.length);
+            List<BlocoColunar> compactados = new ArrayList<>();
+            BlocoColunar destino = null;
+            for (BlocoColunar bloco : atuais) {
+                if (!bloco.sobrepoe(de, ate)) {
+                    mantidos.add(bloco);
+                    continue;
+                }
+                int n = bloco.getTamanho();
+                for (int i = 0; i < n; i++) {
+                    long t = bloco.segundo(i);
+                    if (t >= de && t <= ate) {
+                        continue;
+                    }
+                    if (destino == null || !bloco.copiarPara(i, destino)) {
+                        destino = novoBloco();
+                        compactados.add(destino);
+                        bloco.copiarPara(i, destino);
+                    }
+                }
+            }
+            if (compactados.isEmpty() && mantidos.size() == atuais.length) {
+                return;
+            }
+            // O último bloco recebe a ingestão: se ele não foi reescrito, continua no fim
+            int posicao = !mantidos.isEmpty() && mantidos.get(mantidos.size() - 1) == atuais[atuais.length - 1]
+                    ? mantidos.size() - 1 : mantidos.size();
+            mantidos.addAll(posicao, compactados);
+            blocos = mantidos.toArray(new BlocoColunar[0]);
+            logger.info("🧱 Armazenamento colunar: intervalo [{}, {}) removido, {} blocos reescritos",
+                    event.getInicio(), event.getFim(), compactados.size());
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    public boolean isAtivo() {
+        return AnaliseProperties.FONTE_COLUNAR.equalsIgnoreCase(analiseProperties.getFonte());
+    }
+
+    /**
+     * Indica se o armazenamento colunar cobre janelas a partir de {@code inicio}.
+     */
+    public boolean cobre(LocalDateTime inicio) {
+        return isAtivo() && !inicio.isBefore(LocalDateTime.now().minusHours(config.getRetencaoHoras()));
+    }
+
+    /**
+     * Totais da região na janela atual [{@code inicio}, {@code fim}] e na anterior
+     * [{@code inicioAnterior}, {@code inicio}), em uma varredura.
+     */
+    public Janelas consultar(String regiao, LocalDateTime inicioAnterior, LocalDateTime inicio, LocalDateTime fim) {
+        Integer codigo = codigos.get(regiao);
+        if (codigo == null) {
+            return new Janelas(new AgregadosRegionaisService.Janela(), new AgregadosRegionaisService.Janela());
+        }
+        BlocoColunar.Acumulador acumulador = new BlocoColunar.Acumulador(2, (float) ReferenceValues.PLAQUETAS_MIN);
+        agregar(codigo, inicioAnterior, inicio, fim, acumulador);
+        return new Janelas(janela(acumulador, 0), janela(acumulador, 1));
+    }
+
+    /**
+     * Totais de todas as regiões com hemogramas na janela atual ou na anterior, agrupados
+     * em uma única varredura.
+     */
+    public Map<String, Janelas> consultarTodas(LocalDateTime inicioAnterior, LocalDateTime inicio, LocalDateTime fim) {
+        String[] nomes = regioes;
+        BlocoColunar.Acumulador acumulador = new BlocoColunar.Acumulador(2 * nomes.length,
+                (float) ReferenceValues.PLAQUETAS_MIN);
+        agregar(-1, inicioAnterior, inicio, fim, acumulador);
+
+        Map<String, Janelas> resultado = new LinkedHashMap<>();
+        for (int codigo = 0; codigo < nomes.length; codigo++) {
+            int slot = codigo << 1;
+            if (acumulador.getTotal(slot) > 0 || acumulador.getTotal(slot | 1) > 0) {
+                resultado.put(nomes[codigo], new Janelas(janela(acumulador, slot), janela(acumulador, slot | 1)));
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Plaquetas e leucócitos da janela [{@code inicio}, {@code fim}], de uma região ou de
+     * todas (regiao null), para quantis exatos.
+     */
+    public BlocoColunar.Coletor coletar(String regiao, LocalDateTime inicio, LocalDateTime fim) {
+        BlocoColunar.Coletor coletor = new BlocoColunar.Coletor();
+        int codigo = -1;
+        if (regiao != null) {
+            Integer encontrado = codigos.get(regiao);
+            if (encontrado == null) {
+                return coletor;
+            }
+            codigo = encontrado;
+        }
+        long comeco = System.nanoTime();
+        long de = segundo(inicio);
+        long ate = segundo(fim);
+        long linhas = 0;
+        for (BlocoColunar bloco : blocos) {
+            int n = bloco.coletar(codigo, de, ate, coletor);
+            if (n == 0) {
+                blocosPulados.increment();
+            }
+            linhas += n;
+        }
+        registrarVarredura(linhas, System.nanoTime() - comeco);
+        return coletor;
+    }
+
+    public Map<String, Object> getMetricas() {
+        long linhas = contarLinhas();
+        long bytes = contarBytes();
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", isAtivo());
+        metricas.put("retentionHours", config.getRetencaoHoras());
+        metricas.put("offHeap", config.isForaDoHeap());
+        metricas.put("rowsPerBlock", config.getLinhasPorBloco());
+        metricas.put("rows", linhas);
+        metricas.put("blocks", blocos.length);
+        metricas.put("regions", regioes.length);
+        metricas.put("bytes", bytes);
+        metricas.put("bytesPerRow", linhas == 0 ? 0.0 : (double) bytes / linhas);
+        metricas.put("mbPerMillionRows", BlocoColunar.BYTES_POR_LINHA * 1_000_000.0 / (1024 * 1024));
+        metricas.put("loadRows", linhasCarga);
+        metricas.put("loadMs", duracaoCargaMs);
+        metricas.put("recorded", registrados.sum());
+        metricas.put("queued", pendentes.get());
+        metricas.put("queueCapacity", config.getCapacidadeFila());
+        metricas.put("appendBatches", lotesAcrescentados.sum());
+        metricas.put("appendedByWriter", acrescentadosNaGravacao.sum());
+        metricas.put("scans", varreduras.sum());
+        metricas.put("rowsScanned", linhasVarridas.sum());
+        metricas.put("blocksSkipped", blocosPulados.sum());
+        long nanos = duracaoUltimaVarreduraNanos;
+        metricas.put("lastScanMs", nanos / 1_000_000.0);
+        metricas.put("lastScanRowsPerSec", nanos == 0 ? 0 : (long) (linhasUltimaVarredura * 1e9 / nanos));
+        return metricas;
+    }
+
+    private void loopDeAcrescimo() {
+        List<HemogramEntity> lote = new ArrayList<>(TAMANHO_LOTE_FILA);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                lote.addAll(fila.take());
+                // Junta os lotes que já estão na fila, para um lock de escrita só
+                List<HemogramEntity> proximo;
+                while (lote.size() < TAMANHO_LOTE_FILA && (proximo = fila.poll()) != null) {
+                    lote.addAll(proximo);
+                }
+                acrescentar(lote);
+                lotesAcrescentados.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.error("❌ Erro ao acrescentar {} hemogramas às colunas: {}", lote.size(), e.getMessage(), e);
+            } finally {
+                pendentes.addAndGet(-lote.size());
+                lote.clear();
+            }
+        }
+    }
+
+    private void acrescentar(List<HemogramEntity> hemogramas) {
+        LocalDateTime agora = LocalDateTime.now();
+        long limite = segundo(agora.minusHours(config.getRetencaoHoras()));
+        escrita.lock();
+        try {
+            for (HemogramEntity hemograma : hemogramas) {
+                adicionar(hemograma.getRegion(), hemograma.getTimestamp(), hemograma.getLeucocitos(),
+                        hemograma.getHemoglobina(), hemograma.getPlaquetas(), hemograma.getHematocrito(), limite);
+            }
+            podarSeNecessario(segundo(agora) / 60, limite);
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    private void agregar(int codigo, LocalDateTime inicioAnterior, LocalDateTime inicio, LocalDateTime fim,
+                         BlocoColunar.Acumulador acumulador) {
+        long comeco = System.nanoTime();
+        long de = segundo(inicioAnterior);
+        long meio = segundo(inicio);
+        long ate = segundo(fim);
+        long linhas = 0;
+        for (BlocoColunar bloco : blocos) {
+            int n = bloco.agregar(codigo, de, meio, ate, acumulador);
+            if (n == 0) {
+                blocosPulados.increment();
+            }
+            linhas += n;
+        }
+        registrarVarredura(linhas, System.nanoTime() - comeco);
+    }
+
+    private void registrarVarredura(long linhas, long nanos) {
+        varreduras.increment();
+        linhasVarridas.add(linhas);
+        linhasUltimaVarredura = linhas;
+        duracaoUltimaVarreduraNanos = nanos;
+    }
+
+    private static AgregadosRegionaisService.Janela janela(BlocoColunar.Acumulador acumulador, int slot) {
+        AgregadosRegionaisService.Janela janela = new AgregadosRegionaisService.Janela();
+        if (slot < acumulador.getSlots()) {
+            janela.acumular(acumulador.getTotal(slot), acumulador.getAlertas(slot),
+                    acumulador.getSomaPlaquetas(slot), acumulador.getQuantidadePlaquetas(slot),
+                    acumulador.getSomaLeucocitos(slot), acumulador.getQuantidadeLeucocitos(slot));
+        }
+        return janela;
+    }
+
+    /**
+     * Chamado com o lock de escrita.
+     *
+     * @param limite primeiro segundo dentro da retenção (hemogramas mais antigos ficam só no banco)
+     */
+    private void adicionar(String regiao, LocalDateTime timestamp, Double leucocitos, Double hemoglobina,
+                           Double plaquetas, Double hematocrito, long limite) {
+        if (regiao == null || timestamp == null) {
+            return;
+        }
+        long t = segundo(timestamp);
+        if (t < limite) {
+            return;
+        }
+        int codigo = codificar(regiao);
+        float leuco = valor(leucocitos);
+        float hb = valor(hemoglobina);
+        float plaq = valor(plaquetas);
+        float ht = valor(hematocrito);
+
+        BlocoColunar[] atuais = blocos;
+        if (atuais.length == 0 || !atuais[atuais.length - 1].adicionar(t, codigo, leuco, hb, plaq, ht)) {
+            BlocoColunar novo = novoBloco();
+            novo.adicionar(t, codigo, leuco, hb, plaq, ht);
+            BlocoColunar[] maiores = Arrays.copyOf(atuais, atuais.length + 1);
+            maiores[atuais.length] = novo;
+            blocos = maiores;
+        }
+        registrados.increment();
+    }
+
+    private int codificar(String regiao) {
+        Integer codigo = codigos.get(regiao);
+        if (codigo != null) {
+            return codigo;
+        }
+        String[] nomes = regioes;
+        String[] maiores = Arrays.copyOf(nomes, nomes.length + 1);
+        maiores[nomes.length] = regiao;
+        // O nome entra no dicionário antes do código ficar visível para as consultas
+        regioes = maiores;
+        codigos.put(regiao, nomes.length);
+        return nomes.length;
+    }
+
+    /**
+     * Descarta blocos inteiros fora da retenção, no máximo uma vez por minuto. Chamado com o
+     * lock de escrita; linhas antigas em blocos que ainda têm linhas recentes ficam até o
+     * bloco todo sair (as consultas filtram pela coleta).
+     */
+    private void podarSeNecessario(long agoraMinuto, long limite) {
+        if (agoraMinuto == ultimaPodaMinuto) {
+            return;
+        }
+        ultimaPodaMinuto = agoraMinuto;
+        BlocoColunar[] atuais = blocos;
+        List<BlocoColunar> mantidos = new ArrayList<>(atuais.length);
+        for (int i = 0; i < atuais.length; i++) {
+            // O último bloco recebe a ingestão
+            if (i == atuais.length - 1 || atuais[i].sobrepoe(limite, Long.MAX_VALUE)) {
+                mantidos.add(atuais[i]);
+            }
+        }
+        if (mantidos.size() < atuais.length) {
+            blocos = mantidos.toArray(new BlocoColunar[0]);
+            logger.info("🧱 Armazenamento colunar: {} blocos fora da retenção descartados", atuais.length - mantidos.size());
+        }
+    }
+
+    private BlocoColunar novoBloco() {
+        return config.isForaDoHeap()
+                ? BlocoColunar.foraDoHeap(config.getLinhasPorBloco())
+                : BlocoColunar.naHeap(config.getLinhasPorBloco());
+    }
+
+    private long contarLinhas() {
+        long total = 0;
+        for (BlocoColunar bloco : blocos) {
+            total += bloco.getTamanho();
+        }
+        return total;
+    }
+
+    private long contarBytes() {
+        long total = 0;
+        for (BlocoColunar bloco : blocos) {
+            total += bloco.getBytes();
+        }
+        return total;
+    }
+
+    private static float valor(Double valor) {
+        return valor == null ? AUSENTE : valor.floatValue();
+    }
+
+    private static long segundo(LocalDateTime timestamp) {
+        // Só serve para comparar coletas: consultas e registros usam a mesma conversão
+        return timestamp.toEpochSecond(ZoneOffset.UTC);
+    }
+}
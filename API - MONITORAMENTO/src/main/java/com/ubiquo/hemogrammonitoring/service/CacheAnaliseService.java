@@ -0,0 +1,239 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Cache dos resultados de /analise: indicadores por (região, janela), regiões com risco
+ * por janela e a lista de regiões.
+ *
+ * LRU limitado com expiração por entrada. Cada entrada pertence a um escopo (a região,
+ * todas as regiões ou a lista de regiões), e as chaves ficam indexadas por escopo. Um
+ * {@link HemogramasPersistidosEvent} descarta só as chaves das regiões gravadas e, quando
+ * aparece uma região nova, a lista de regiões. As regiões com risco não são invalidadas a
+ * cada lote (todo lote tocaria nelas): seguem só a validade, ttl-segundos.
+ *
+ * O cálculo roda fora do lock. Um cálculo em andamento fica registrado no seu escopo, e uma
+ * invalidação do escopo no meio dele impede que o resultado seja guardado (evita cachear dado
+ * velho); o registro sai quando o cálculo termina, então nada cresce com o número de regiões
+ * já vistas. A exclusão de uma partição pela retenção ({@link HemogramasExcluidosEvent})
+ * invalida tudo.
+ */
+@Service
+public class CacheAnaliseService {
+
+    private static final String TIPO_REGIAO = "regiao";
+    private static final String TIPO_RISCO = "regioesRisco";
+    private static final String TIPO_REGIOES = "regioes";
+
+    // Escopos que não são uma região
+    private static final String ESCOPO_TODAS = "*todas";
+    private static final String ESCOPO_LISTA = "*lista";
+
+    private final AnaliseProperties.Cache config;
+
+    // Protegidos por this
+    private final LinkedHashMap<Chave, Entrada> entradas;
+    private final Map<String, Set<Chave>> chavesPorEscopo = new HashMap<>();
+    private final Map<String, List<Calculo>> calculando = new HashMap<>();
+
+    // Métricas
+    private final LongAdder acertos = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+    private final LongAdder despejos = new LongAdder();
+    private final LongAdder expiracoes = new LongAdder();
+    private final LongAdder invalidacoes = new LongAdder();
+
+    public CacheAnaliseService(AnaliseProperties analiseProperties) {
+        this.config = analiseProperties.getCache();
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Chave, Entrada> maisAntiga) {
+                if (size() > config.getMaxEntradas()) {
+                    despejos.increment();
+                    desindexar(maisAntiga.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public <T> T obterIndicadores(String regiao, int horas, Supplier<T> calculo) {
+        return obter(new Chave(TIPO_REGIAO, regiao, horas), calculo, valor -> true);
+    }
+
+    /**
+     * Resultados parciais (regiões não avaliadas no prazo) não são guardados.
+     */
+    public ResultadoRegioesRisco obterRegioesComRisco(int horas, Supplier<ResultadoRegioesRisco> calculo) {
+        return obter(new Chave(TIPO_RISCO, ESCOPO_TODAS, horas), calculo, resultado -> !resultado.isParcial());
+    }
+
+    public <T> T obterRegioes(Supplier<T> calculo) {
+        return obter(new Chave(TIPO_REGIOES, ESCOPO_LISTA, 0), calculo, valor -> true);
+    }
+
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        Set<String> regioes = new HashSet<>();
+        for (HemogramEntity hemograma : event.getHemogramas()) {
+            if (hemograma.getRegion() != null) {
+                regioes.add(hemograma.getRegion());
+            }
+        }
+        if (regioes.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            for (String regiao : regioes) {
+                invalidar(regiao);
+            }
+            if (temRegiaoNova(regioes)) {
+                invalidar(ESCOPO_LISTA);
+            }
+        }
+    }
+
+    @EventListener
+    public void aoExcluir(HemogramasExcluidosEvent event) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            calculando.values().forEach(calculos -> calculos.forEach(calculo -> calculo.invalidado = true));
+            invalidacoes.add(entradas.size());
+            entradas.clear();
+            chavesPorEscopo.clear();
+        }
+    }
+
+    public synchronized Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("maxEntries", config.getMaxEntradas());
+        metricas.put("ttlSeconds", config.getTtlSegundos());
+        metricas.put("size", entradas.size());
+        metricas.put("scopes", chavesPorEscopo.size());
+        metricas.put("inFlight", calculando.values().stream().mapToInt(List::size).sum());
+        metricas.put("hits", acertos.sum());
+        metricas.put("misses", falhas.sum());
+        metricas.put("evictions", despejos.sum());
+        metricas.put("expirations", expiracoes.sum());
+        metricas.put("invalidations", invalidacoes.sum());
+        return metricas;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T obter(Chave chave, Supplier<T> calculo, Predicate<T> guardar) {
+        if (!config.isEnabled()) {
+            return calculo.get();
+        }
+        Calculo emAndamento = new Calculo();
+        synchronized (this) {
+            Entrada entrada = entradas.get(chave);
+            if (entrada != null) {
+                if (System.nanoTime() - entrada.expiraEmNanos < 0) {
+                    acertos.increment();
+                    return (T) entrada.valor;
+                }
+                remover(chave);
+                expiracoes.increment();
+            }
+            calculando.computeIfAbsent(chave.escopo(), e -> new ArrayList<>()).add(emAndamento);
+        }
+
+        falhas.increment();
+        T valor = null;
+        try {
+            valor = calculo.get();
+        } finally {
+            synchronized (this) {
+                List<Calculo> doEscopo = calculando.get(chave.escopo());
+                doEscopo.remove(emAndamento);
+                if (doEscopo.isEmpty()) {
+                    calculando.remove(chave.escopo());
+                }
+                if (valor != null && !emAndamento.invalidado && guardar.test(valor)) {
+                    long expiraEm = System.nanoTime() + config.getTtlSegundos() * 1_000_000_000L;
+                    // Indexada antes: o put pode despejar a própria chave
+                    chavesPorEscopo.computeIfAbsent(chave.escopo(), e -> new HashSet<>()).add(chave);
+                    entradas.put(chave, new Entrada(valor, expiraEm));
+                }
+            }
+        }
+        return valor;
+    }
+
+    /**
+     * Descarta as chaves do escopo e marca os cálculos dele em andamento.
+     */
+    private void invalidar(String escopo) {
+        Set<Chave> chaves = chavesPorEscopo.remove(escopo);
+        if (chaves != null) {
+            for (Chave chave : chaves) {
+                entradas.remove(chave);
+            }
+            invalidacoes.add(chaves.size());
+        }
+        List<Calculo> calculos = calculando.get(escopo);
+        if (calculos != null) {
+            calculos.forEach(calculo -> calculo.invalidado = true);
+        }
+    }
+
+    private void remover(Chave chave) {
+        entradas.remove(chave);
+        desindexar(chave);
+    }
+
+    // Sai o escopo junto com a sua última chave
+    private void desindexar(Chave chave) {
+        Set<Chave> chaves = chavesPorEscopo.get(chave.escopo());
+        if (chaves != null && chaves.remove(chave) && chaves.isEmpty()) {
+            chavesPorEscopo.remove(chave.escopo());
+        }
+    }
+
+    /**
+     * Alguma das regiões não está na lista de regiões em cache (ou não há lista em cache).
+     */
+    private boolean temRegiaoNova(Set<String> regioes) {
+        Entrada lista = entradas.get(new Chave(TIPO_REGIOES, ESCOPO_LISTA, 0));
+        return lista == null || !(lista.valor instanceof List<?> conhecidas) || !conhecidas.containsAll(regioes);
+    }
+
+    /**
+     * @param escopo a região, {@link #ESCOPO_TODAS} ou {@link #ESCOPO_LISTA}
+     */
+    private record Chave(String tipo, String escopo, int horas) {
+    }
+
+    private record Entrada(Object valor, long expiraEmNanos) {
+    }
+
+    // Identidade: cada falha de cache registra o seu
+    private static final class Calculo {
+        private boolean invalidado;
+    }
+}
@@ -0,0 +1,198 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detecção de surtos em fluxo: um {@link DetectorSurtoRegional} (EWMA + CUSUM) por região,
+ * atualizado em O(1) por hemograma a cada {@link HemogramasPersistidosEvent}.
+ *
+ * O estado por região tem tamanho fixo (algumas dezenas de campos) e o número de regiões é
+ * limitado por maxRegioes, então memória e custo por gravação são limitados mesmo com
+ * dezenas de milhares de regiões. Os sinais (mudanças detectadas) ficam nos últimos
+ * maxSinais e no log.
+ *
+ * Na inicialização, o estado é reconstruído reprocessando os hemogramas das últimas
+ * horasReconstrucao, na ordem de gravação (id), como se chegassem agora.
+ */
+@Service
+public class DeteccaoSurtoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeteccaoSurtoService.class);
+
+    private static final int TAMANHO_LOTE_RECONSTRUCAO = 10_000;
+
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final AnaliseProperties.Deteccao config;
+
+    private final Map<String, DetectorSurtoRegional> detectores = new ConcurrentHashMap<>();
+    private final Deque<Map<String, Object>> sinais = new ArrayDeque<>();
+
+    // Métricas
+    private final LongAdder atualizacoes = new LongAdder();
+    private final LongAdder sinaisEmitidos = new LongAdder();
+    private final LongAdder regioesIgnoradas = new LongAdder();
+
+    public DeteccaoSurtoService(ParticaoHemogramaRepository particaoRepository, AnaliseProperties analiseProperties) {
+        this.particaoRepository = particaoRepository;
+        this.config = analiseProperties.getDeteccao();
+    }
+
+    @PostConstruct
+    public void reconstruir() {
+        if (!config.isEnabled() || config.getHorasReconstrucao() <= 0) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        LocalDateTime desde = LocalDateTime.now().minusHours(config.getHorasReconstrucao());
+        long sinaisAntes = sinaisEmitidos.sum();
+        long[] linhas = {0};
+
+        particaoRepository.percorrer(ParticaoHemogramaRepository.Leitura.RESUMOS, desde, TAMANHO_LOTE_RECONSTRUCAO,
+                lote -> {
+                    for (Object[] linha : lote) {
+                        LocalDateTime timestamp = (LocalDateTime) linha[2];
+                        if (!timestamp.isBefore(desde)) {
+                            registrar((String) linha[1], (Double) linha[3], timestamp, false);
+                            linhas[0]++;
+                        }
+                    }
+                });
+        logger.info("🚨 Detectores de surto reconstruídos: {} hemogramas, {} regiões, {} em alarme, {} sinais em {} ms",
+                linhas[0], detectores.size(), listarRegioesEmAlarme().size(), sinaisEmitidos.sum() - sinaisAntes,
+                (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        for (HemogramEntity hemograma : event.getHemogramas()) {
+            registrar(hemograma.getRegion(), hemograma.getPlaquetas(), hemograma.getTimestamp(), true);
+        }
+    }
+
+    /**
+     * @param aoVivo false na reconstrução: os sinais entram na lista sem um aviso por sinal no log
+     */
+    private void registrar(String regiao, Double plaquetas, LocalDateTime timestamp, boolean aoVivo) {
+        if (regiao == null || plaquetas == null) {
+            return;
+        }
+        DetectorSurtoRegional detector = detectorDa(regiao);
+        if (detector == null) {
+            return;
+        }
+        DetectorSurtoRegional.Sinal sinal;
+        synchronized (detector) {
+            sinal = detector.registrar(plaquetas < ReferenceValues.PLAQUETAS_MIN, plaquetas, timestamp, config);
+        }
+        atualizacoes.increment();
+        if (sinal != null) {
+            registrarSinal(regiao, sinal, aoVivo);
+        }
+    }
+
+    /**
+     * Estado do detector de uma região, ou null se a região não é acompanhada.
+     */
+    public Map<String, Object> consultarRegiao(String regiao) {
+        DetectorSurtoRegional detector = detectores.get(regiao);
+        if (detector == null) {
+            return null;
+        }
+        synchronized (detector) {
+            Map<String, Object> estado = new LinkedHashMap<>();
+            estado.put("regiao", regiao);
+            estado.putAll(detector.resumo());
+            return estado;
+        }
+    }
+
+    public List<String> listarRegioesEmAlarme() {
+        List<String> regioes = new ArrayList<>();
+        detectores.forEach((regiao, detector) -> {
+            synchronized (detector) {
+                if (detector.isEmAlarme()) {
+                    regioes.add(regiao);
+                }
+            }
+        });
+        regioes.sort(null);
+        return regioes;
+    }
+
+    public List<Map<String, Object>> listarSinais() {
+        synchronized (sinais) {
+            return new ArrayList<>(sinais);
+        }
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("regions", detectores.size());
+        metricas.put("maxRegions", config.getMaxRegioes());
+        metricas.put("regionsIgnored", regioesIgnoradas.sum());
+        metricas.put("updates", atualizacoes.sum());
+        metricas.put("signals", sinaisEmitidos.sum());
+        metricas.put("rebuildHours", config.getHorasReconstrucao());
+        return metricas;
+    }
+
+    private DetectorSurtoRegional detectorDa(String regiao) {
+        DetectorSurtoRegional detector = detectores.get(regiao);
+        if (detector != null) {
+            return detector;
+        }
+        if (detectores.size() >= config.getMaxRegioes()) {
+            regioesIgnoradas.increment();
+            return null;
+        }
+        return detectores.computeIfAbsent(regiao, r -> new DetectorSurtoRegional());
+    }
+
+    private void registrarSinal(String regiao, DetectorSurtoRegional.Sinal sinal, boolean aoVivo) {
+        sinaisEmitidos.increment();
+        if (aoVivo) {
+            logger.warn("🚨 Mudança detectada em {}: {} por {} (valor {}, linha de base {}), início estimado em {}",
+                    regiao, sinal.serie(), sinal.estatistica(), String.format("%.3f", sinal.valor()),
+                    String.format("%.3f", sinal.linhaDeBase()), sinal.momentoInicioEstimado());
+        }
+
+        Map<String, Object> registro = new LinkedHashMap<>();
+        registro.put("regiao", regiao);
+        registro.put("serie", sinal.serie());
+        registro.put("estatistica", sinal.estatistica());
+        registro.put("valor", sinal.valor());
+        registro.put("linhaDeBase", sinal.linhaDeBase());
+        registro.put("momento", sinal.momento());
+        registro.put("inicioEstimado", sinal.momentoInicioEstimado());
+        registro.put("observacoesDesdeInicio", sinal.observacao() - sinal.inicioEstimado());
+        synchronized (sinais) {
+            sinais.addFirst(registro);
+            while (sinais.size() > config.getMaxSinais()) {
+                sinais.removeLast();
+            }
+        }
+    }
+}
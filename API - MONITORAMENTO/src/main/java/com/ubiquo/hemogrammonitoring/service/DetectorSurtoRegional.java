@@ -0,0 +1,208 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Estado estatístico de detecção de surto de uma região, atualizado em O(1) a cada hemograma.
+ *
+ * Duas séries: a indicadora de alerta (plaquetas baixas, 0/1) e o valor das plaquetas.
+ * Para cada uma mantém uma linha de base (média/variância por EWMA lenta, congelada
+ * enquanto a série está em alarme), uma EWMA rápida com limite de controle de L desvios
+ * e um CUSUM unilateral padronizado (subida da proporção de alertas, queda das plaquetas).
+ * O ponto em que o CUSUM saiu de zero é a estimativa do início da mudança.
+ *
+ * Uma mudança sustentada deixaria a série em alarme para sempre, com a linha de base
+ * congelada no nível antigo. Depois de readaptacao observações seguidas em alarme, a média e
+ * a variância dessas observações passam a ser a linha de base e o alarme é encerrado: o novo
+ * nível vira o normal e só uma nova mudança a partir dele dispara outro sinal.
+ *
+ * Não é thread-safe: o chamador sincroniza no próprio detector.
+ */
+final class DetectorSurtoRegional {
+
+    static final String SERIE_PROPORCAO = "proporcaoAlertas";
+    static final String SERIE_PLAQUETAS = "mediaPlaquetas";
+    static final String ESTATISTICA_CUSUM = "CUSUM";
+    static final String ESTATISTICA_EWMA = "EWMA";
+
+    // Proporções extremas dariam desvio ~0 e CUSUM explosivo
+    private static final double PROPORCAO_MIN = 0.01;
+    private static final double PROPORCAO_MAX = 0.99;
+
+    private final Serie proporcao = new Serie(SERIE_PROPORCAO, 1, true);
+    private final Serie plaquetas = new Serie(SERIE_PLAQUETAS, -1, false);
+    private long observacoes;
+
+    /**
+     * Mudança detectada (borda de subida do alarme de uma série).
+     *
+     * @param observacao     número da observação que disparou o alarme
+     * @param inicioEstimado observação em que o CUSUM saiu de zero
+     */
+    record Sinal(String serie, String estatistica, double valor, double linhaDeBase,
+                 long observacao, long inicioEstimado, LocalDateTime momento, LocalDateTime momentoInicioEstimado) {
+    }
+
+    /**
+     * Registra um hemograma; retorna o sinal disparado (no máximo um por chamada) ou null.
+     */
+    Sinal registrar(boolean alerta, Double valorPlaquetas, LocalDateTime momento, AnaliseProperties.Deteccao p) {
+        observacoes++;
+        Sinal sinal = proporcao.registrar(alerta ? 1 : 0, observacoes, momento, p);
+        if (valorPlaquetas != null) {
+            Sinal sinalPlaquetas = plaquetas.registrar(valorPlaquetas, observacoes, momento, p);
+            if (sinal == null) {
+                sinal = sinalPlaquetas;
+            }
+        }
+        return sinal;
+    }
+
+    long getReadaptacoes() {
+        return proporcao.readaptacoes + plaquetas.readaptacoes;
+    }
+
+    boolean isEmAlarme() {
+        return proporcao.emAlarme || plaquetas.emAlarme;
+    }
+
+    long getObservacoes() {
+        return observacoes;
+    }
+
+    Map<String, Object> resumo() {
+        Map<String, Object> resumo = new LinkedHashMap<>();
+        resumo.put("observacoes", observacoes);
+        resumo.put("emAlarme", isEmAlarme());
+        resumo.put(SERIE_PROPORCAO, proporcao.resumo());
+        resumo.put(SERIE_PLAQUETAS, plaquetas.resumo());
+        return resumo;
+    }
+
+    /**
+     * @param sentido   +1 detecta subida, -1 detecta queda
+     * @param bernoulli série 0/1: o desvio vem da proporção de base, não da variância estimada
+     */
+    private static final class Serie {
+        private final String nome;
+        private final int sentido;
+        private final boolean bernoulli;
+
+        private long n;
+        private double media;
+        private double variancia;
+        private double ewma;
+        private double cusum;
+        private long inicioExcursao;
+        private LocalDateTime momentoInicioExcursao;
+        private boolean emAlarme;
+
+        // Média/variância (Welford) das observações desde o início do alarme atual
+        private long nAlarme;
+        private double mediaAlarme;
+        private double m2Alarme;
+        private long readaptacoes;
+
+        Serie(String nome, int sentido, boolean bernoulli) {
+            this.nome = nome;
+            this.sentido = sentido;
+            this.bernoulli = bernoulli;
+        }
+
+        Sinal registrar(double x, long observacao, LocalDateTime momento, AnaliseProperties.Deteccao p) {
+            n++;
+            if (n == 1) {
+                media = x;
+                ewma = x;
+                return null;
+            }
+
+            double desvio = desvioPadrao();
+            ewma += p.getLambdaEwma() * (x - ewma);
+
+            // CUSUM unilateral padronizado: acumula desvios no sentido monitorado além da folga k
+            double z = desvio > 0 ? sentido * (x - media) / desvio : 0;
+            double anterior = cusum;
+            cusum = Math.max(0, cusum + z - p.getFolgaCusum());
+            if (anterior == 0 && cusum > 0) {
+                inicioExcursao = observacao;
+                momentoInicioExcursao = momento;
+            }
+
+            boolean aquecido = n > p.getAquecimento();
+            double limiteEwma = p.getLarguraEwma() * desvio * Math.sqrt(p.getLambdaEwma() / (2 - p.getLambdaEwma()));
+            boolean foraEwma = aquecido && desvio > 0 && sentido * (ewma - media) > limiteEwma;
+            boolean foraCusum = aquecido && cusum > p.getLimiarCusum();
+
+            Sinal sinal = null;
+            if (!emAlarme && (foraCusum || foraEwma)) {
+                emAlarme = true;
+                nAlarme = 0;
+                mediaAlarme = 0;
+                m2Alarme = 0;
+                sinal = new Sinal(nome, foraCusum ? ESTATISTICA_CUSUM : ESTATISTICA_EWMA,
+                        foraCusum ? cusum : ewma, media, observacao,
+                        inicioExcursao > 0 ? inicioExcursao : observacao, momento,
+                        momentoInicioExcursao != null ? momentoInicioExcursao : momento);
+            } else if (emAlarme && cusum == 0 && !foraEwma) {
+                emAlarme = false;
+            }
+
+            if (emAlarme) {
+                nAlarme++;
+                double diferenca = x - mediaAlarme;
+                mediaAlarme += diferenca / nAlarme;
+                m2Alarme += diferenca * (x - mediaAlarme);
+                if (p.getReadaptacao() > 0 && nAlarme >= p.getReadaptacao()) {
+                    readaptar();
+                }
+                return sinal;
+            }
+
+            // A linha de base só aprende fora de alarme: o surto não vira o "normal" antes da readaptação
+            double peso = n <= p.getAquecimento() ? 1.0 / n : p.getLambdaBase();
+            double diferenca = x - media;
+            media += peso * diferenca;
+            variancia = (1 - peso) * (variancia + peso * diferenca * diferenca);
+            return sinal;
+        }
+
+        /**
+         * Alarme sustentado: o nível observado durante o alarme vira a nova linha de base.
+         */
+        private void readaptar() {
+            media = mediaAlarme;
+            variancia = nAlarme > 1 ? m2Alarme / (nAlarme - 1) : variancia;
+            ewma = media;
+            cusum = 0;
+            inicioExcursao = 0;
+            momentoInicioExcursao = null;
+            emAlarme = false;
+            readaptacoes++;
+        }
+
+        private double desvioPadrao() {
+            if (bernoulli) {
+                double p0 = Math.min(PROPORCAO_MAX, Math.max(PROPORCAO_MIN, media));
+                return Math.sqrt(p0 * (1 - p0));
+            }
+            return Math.sqrt(variancia);
+        }
+
+        Map<String, Object> resumo() {
+            Map<String, Object> resumo = new LinkedHashMap<>();
+            resumo.put("linhaDeBase", media);
+            resumo.put("desvioPadrao", desvioPadrao());
+            resumo.put("ewma", ewma);
+            resumo.put("cusum", cusum);
+            resumo.put("emAlarme", emAlarme);
+            resumo.put("observacoesEmAlarme", emAlarme ? nAlarme : 0);
+            resumo.put("readaptacoes", readaptacoes);
+            return resumo;
+        }
+    }
+}
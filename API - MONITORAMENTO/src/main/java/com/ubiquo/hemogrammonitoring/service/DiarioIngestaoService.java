@@ -0,0 +1,898 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Diário de ingestão (write-ahead) dos payloads recebidos em /fhir/subscription.
+ *
+ * Cada payload é copiado para um segmento mapeado em memória antes da resposta ao
+ * remetente e fica pendente até o hemograma estar no banco ({@link #confirmar(long)}).
+ * Na inicialização, as entradas acima do checkpoint são reprocessadas; a gravação é
+ * idempotente por observationId, então reprocessar uma entrada já persistida não duplica.
+ * Um payload sem id recebe o mesmo observationId a cada parse, derivado do conteúdo
+ * ({@link IdentificadorPayloadFhir}).
+ *
+ * Formato: segmentos de tamanho fixo {@code segmento-NNNNNNNNNNNN.diario}, com cabeçalho de
+ * 16 bytes e registros {@code [tamanho int][crc32c int][sequência long][payload UTF-8]}. O
+ * tamanho é escrito por último; um registro com tamanho zero marca o fim e um CRC que não
+ * confere (escrita interrompida por queda do sistema) encerra a leitura do segmento.
+ *
+ * Group commit: uma thread dedicada faz o fsync do trecho ainda não sincronizado do segmento
+ * atual (e do resto dos segmentos que encheram desde o último fsync) e libera de uma vez todos
+ * os remetentes que esperavam por ele. A mesma thread deixa pronto o próximo segmento (arquivo
+ * criado, mapeado e sincronizado, com o diretório), então a rolagem de um segmento cheio, com
+ * o lock de escrita, só troca o segmento atual. O checkpoint é a
+ * maior sequência abaixo da qual tudo foi confirmado; ele é gravado periodicamente e os
+ * segmentos inteiros abaixo dele são excluídos.
+ *
+ * Os remetentes podem ser virtual threads, então a espera pelo fsync usa ReentrantLock e
+ * Condition (não synchronized/wait): o append acorda só a thread de fsync, e cada fsync
+ * acorda todos os remetentes à espera. Checkpoint e compactação fazem I/O de arquivo sob um
+ * lock próprio, e os fsyncs da compactação rodam fora do lock de escrita.
+ */
+@Service
+public class DiarioIngestaoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiarioIngestaoService.class);
+
+    /** Sequência devolvida quando o diário está desabilitado; {@link #confirmar(long)} a ignora. */
+    public static final long SEM_REGISTRO = -1;
+
+    private static final int MAGICO = 0x48444931; // "HDI1"
+    private static final int CABECALHO_SEGMENTO = 16;
+    private static final int CABECALHO_REGISTRO = 16;
+    private static final String PREFIXO_SEGMENTO = "segmento-";
+    private static final String SUFIXO_SEGMENTO = ".diario";
+    private static final String ARQUIVO_CHECKPOINT = "checkpoint";
+
+    /** Recebe cada entrada pendente durante o reprocessamento. */
+    @FunctionalInterface
+    public interface Reprocessador {
+        void processar(long sequencia, String payload);
+    }
+
+    @FunctionalInterface
+    private interface Visitante {
+        void visitar(long sequencia, byte[] payload);
+    }
+
+    private final IngestionProperties.Diario config;
+    private final int tamanhoSegmento;
+
+    // Escrita: sequência, segmento atual e lista de segmentos só mudam com o lock
+    private final ReentrantLock escrita = new ReentrantLock();
+    private final List<Segmento> segmentos = new CopyOnWriteArrayList<>();
+    private final ConcurrentSkipListSet<Long> pendentes = new ConcurrentSkipListSet<>();
+    private final CRC32C crc = new CRC32C();
+    private Path diretorio;
+    private Segmento atual;
+    // Próximo segmento, preparado pela thread de fsync; consumido ao rolar
+    private Segmento reserva;
+    private long proximoNumero;
+    // Segmentos que encheram e ainda têm trecho sem fsync
+    private final List<Segmento> rolados = new ArrayList<>();
+    private long proximaSeq;
+    private volatile long ultimaSeq;
+    private volatile long escritos;
+    private volatile boolean aberto;
+    private long ultimaSeqNaAbertura;
+
+    // Group commit: escritos até "duraveis" já passaram por fsync. O append sinaliza
+    // haEscritas (só a thread de fsync espera por ela); cada fsync sinaliza sincronizado
+    private final ReentrantLock monitorFsync = new ReentrantLock();
+    private final Condition haEscritas = monitorFsync.newCondition();
+    private final Condition sincronizado = monitorFsync.newCondition();
+    private long duraveis;
+    private volatile boolean faltaReserva;
+    private volatile boolean executando;
+    private Thread sincronizador;
+
+    // Checkpoint e compactação (agendado e fechamento): um de cada vez
+    private final ReentrantLock manutencao = new ReentrantLock();
+    private volatile long checkpointGravado;
+
+    // Métricas
+    private final LongAdder registrados = new LongAdder();
+    private final LongAdder confirmados = new LongAdder();
+    private final LongAdder somaAppendNanos = new LongAdder();
+    private final AtomicLong maxAppendNanos = new AtomicLong();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder somaFsyncNanos = new LongAdder();
+    private final LongAdder registrosSincronizados = new LongAdder();
+    private final LongAdder timeoutsFsync = new LongAdder();
+    private final LongAdder rolagens = new LongAdder();
+    private final LongAdder rolagensSemReserva = new LongAdder();
+    private final LongAdder segmentosExcluidos = new LongAdder();
+    private final LongAdder realocados = new LongAdder();
+    private final LongAdder reprocessados = new LongAdder();
+    private final LongAdder falhasReprocessamento = new LongAdder();
+    private volatile long duracaoReprocessamentoMs;
+    private volatile boolean reprocessado;
+    private volatile boolean caudaCorrompida;
+
+    public DiarioIngestaoService(IngestionProperties ingestionProperties) {
+        this.config = ingestionProperties.getDiario();
+        this.tamanhoSegmento = (int) Math.min(Integer.MAX_VALUE, Math.max(1, config.getTamanhoSegmentoMb()) * 1024L * 1024L);
+    }
+
+    /**
+     * Abre os segmentos existentes, descarta a cauda corrompida do último e marca como
+     * pendentes as entradas acima do checkpoint (reprocessadas por {@link #reprocessarPendentes}).
+     */
+    @PostConstruct
+    public void abrir() throws IOException {
+        if (!config.isEnabled()) {
+            return;
+        }
+        diretorio = Paths.get(config.getDiretorio());
+        Files.createDirectories(diretorio);
+        checkpointGravado = lerCheckpoint();
+
+        List<Path> arquivos;
+        try (Stream<Path> listagem = Files.list(diretorio)) {
+            arquivos = listagem
+                    .filter(p -> p.getFileName().toString().startsWith(PREFIXO_SEGMENTO)
+                            && p.getFileName().toString().endsWith(SUFIXO_SEGMENTO))
+                    .sorted()
+                    .toList();
+        }
+
+        long maiorSeq = checkpointGravado;
+        for (int i = 0; i < arquivos.size(); i++) {
+            Segmento segmento = abrirSegmento(arquivos.get(i));
+            if (segmento == null) {
+                continue;
+            }
+            int fim = percorrer(segmento, segmento.capacidade, (seq, payload) -> {
+                segmento.maiorSeq = Math.max(segmento.maiorSeq, seq);
+                segmento.registros++;
+                if (seq > checkpointGravado) {
+                    pendentes.add(seq);
+                }
+            });
+            segmento.posicao = fim;
+            segmento.posicaoSincronizada = fim;
+            if (fim + Integer.BYTES <= segmento.capacidade && segmento.mapa.getInt(fim) != 0) {
+                caudaCorrompida = true;
+                logger.warn("Diário: registro incompleto no segmento {} (posição {}); o restante do segmento foi descartado",
+                        segmento.arquivo.getFileName(), fim);
+                if (i == arquivos.size() - 1) {
+                    zerar(segmento, fim);
+                }
+            }
+            maiorSeq = Math.max(maiorSeq, segmento.maiorSeq);
+            segmentos.add(segmento);
+        }
+
+        atual = segmentos.isEmpty() ? criarSegmento(1) : segmentos.get(segmentos.size() - 1);
+        if (segmentos.isEmpty()) {
+            segmentos.add(atual);
+        }
+        proximoNumero = atual.numero + 1;
+        proximaSeq = maiorSeq + 1;
+        ultimaSeq = maiorSeq;
+        ultimaSeqNaAbertura = maiorSeq;
+
+        faltaReserva = true;
+        executando = true;
+        sincronizador = new Thread(this::loopDeFsync, "diario-fsync");
+        sincronizador.setDaemon(true);
+        sincronizador.start();
+        aberto = true;
+
+        logger.info("📒 Diário de ingestão aberto em {}: {} segmentos, {} entradas pendentes (checkpoint {}), fsync {}",
+                diretorio.toAbsolutePath(), segmentos.size(), pendentes.size(), checkpointGravado,
+                config.isFsync() ? "antes da resposta" : "em segundo plano");
+    }
+
+    public boolean isAtivo() {
+        return aberto;
+    }
+
+    /**
+     * Se já dá para aceitar payloads novos: com o diário desabilitado, sempre; habilitado, só
+     * depois de {@link #reprocessarPendentes}, para que uma entrada de antes da queda não seja
+     * gravada depois de um payload mais novo do mesmo paciente.
+     */
+    public boolean isAceitandoPayloads() {
+        return !config.isEnabled() || reprocessado;
+    }
+
+    /**
+     * Registra o payload no diário. Com fsync=true só retorna depois do fsync do grupo que
+     * contém a entrada.
+     *
+     * @return a sequência da entrada, ou {@link #SEM_REGISTRO} com o diário desabilitado
+     * @throws IOException se o fsync não terminar dentro do timeout (a entrada é descartada
+     *         do checkpoint; o remetente deve reenviar)
+     * @throws IllegalArgumentException se o payload estiver vazio ou não couber em um segmento
+     */
+    public long registrar(String payload) throws IOException {
+        if (!aberto) {
+            return SEM_REGISTRO;
+        }
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || CABECALHO_REGISTRO + bytes.length > tamanhoSegmento - CABECALHO_SEGMENTO) {
+            throw new IllegalArgumentException("Payload de " + bytes.length + " bytes não cabe em um segmento do diário");
+        }
+
+        long inicio = System.nanoTime();
+        long seq;
+        long ticket;
+        escrita.lock();
+        try {
+            if (!aberto) {
+                throw new IOException("Diário de ingestão fechado");
+            }
+            seq = proximaSeq++;
+            gravarRegistro(seq, bytes);
+            pendentes.add(seq);
+            ultimaSeq = seq;
+            ticket = ++escritos;
+        } finally {
+            escrita.unlock();
+        }
+        long duracao = System.nanoTime() - inicio;
+        registrados.increment();
+        somaAppendNanos.add(duracao);
+        maxAppendNanos.accumulateAndGet(duracao, Math::max);
+
+        if (config.isFsync()) {
+            monitorFsync.lock();
+            try {
+                haEscritas.signal();
+                aguardarFsync(ticket, seq);
+            } finally {
+                monitorFsync.unlock();
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Marca a entrada como persistida (ou como sem nada a persistir). Entradas confirmadas
+     * saem do reprocessamento assim que o checkpoint passar por elas.
+     */
+    public void confirmar(long sequencia) {
+        if (sequencia != SEM_REGISTRO && pendentes.remove(sequencia)) {
+            confirmados.increment();
+        }
+    }
+
+    /**
+     * Reprocessa as entradas gravadas antes desta inicialização que ainda estão pendentes,
+     * na ordem dos segmentos. Uma entrada que falhar continua pendente para a próxima.
+     *
+     * @return quantidade de entradas reprocessadas
+     */
+    public long reprocessarPendentes(Reprocessador reprocessador) {
+        try {
+            return reprocessar(reprocessador);
+        } finally {
+            reprocessado = true;
+        }
+    }
+
+    private long reprocessar(Reprocessador reprocessador) {
+        if (!aberto || pendentes.isEmpty()) {
+            return 0;
+        }
+        long inicio = System.nanoTime();
+        long limite = ultimaSeqNaAbertura;
+        int total = pendentes.headSet(limite, true).size();
+        logger.info("📒 Reprocessando {} entradas pendentes do diário de ingestão", total);
+
+        // Uma entrada realocada pela compactação pode aparecer em dois segmentos
+        Set<Long> vistas = new HashSet<>();
+        for (Segmento segmento : segmentos) {
+            percorrer(segmento, segmento.posicao, (seq, payload) -> {
+                if (seq > limite || !pendentes.contains(seq) || !vistas.add(seq)) {
+                    return;
+                }
+                try {
+                    reprocessador.processar(seq, new String(payload, StandardCharsets.UTF_8));
+                    reprocessados.increment();
+                } catch (Exception e) {
+                    falhasReprocessamento.increment();
+                    logger.error("❌ Erro ao reprocessar a entrada {} do diário: {}", seq, e.getMessage(), e);
+                }
+            });
+        }
+
+        duracaoReprocessamentoMs = (System.nanoTime() - inicio) / 1_000_000;
+        logger.info("📒 Diário reprocessado: {} entradas em {} ms, {} ainda pendentes",
+                vistas.size(), duracaoReprocessamentoMs, pendentes.headSet(limite, true).size());
+        return vistas.size();
+    }
+
+    @Scheduled(fixedDelayString = "${hemogram.monitoring.ingestion.diario.intervalo-checkpoint-ms:1000}")
+    public void checkpointAgendado() {
+        if (!aberto) {
+            return;
+        }
+        try {
+            checkpoint();
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("❌ Erro no checkpoint do diário de ingestão: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Grava o checkpoint (se avançou) e compacta: exclui os segmentos inteiramente abaixo
+     * dele e, acima de max-segmentos, regrava no segmento atual as entradas ainda pendentes
+     * dos mais antigos antes de excluí-los.
+     */
+    public void checkpoint() throws IOException {
+        manutencao.lock();
+        try {
+            long marca = calcularCheckpoint();
+            if (marca > checkpointGravado) {
+                gravarCheckpoint(marca);
+                checkpointGravado = marca;
+            }
+
+            for (Segmento segmento : segmentos) {
+                if (segmento != atual && segmento.maiorSeq <= checkpointGravado) {
+                    excluir(segmento);
+                }
+            }
+
+            int maximo = Math.max(2, config.getMaxSegmentos());
+            while (segmentos.size() > maximo && segmentos.get(0) != atual) {
+                Segmento antigo = segmentos.get(0);
+                realocar(antigo);
+                excluir(antigo);
+            }
+        } finally {
+            manutencao.unlock();
+        }
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        long total = registrados.sum();
+        long sincronizacoes = fsyncs.sum();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("directory", diretorio != null ? diretorio.toAbsolutePath().toString() : null);
+        metricas.put("fsyncBeforeAck", config.isFsync());
+        metricas.put("segments", segmentos.size());
+        metricas.put("segmentSizeMb", config.getTamanhoSegmentoMb());
+        metricas.put("activeSegment", atual != null ? atual.arquivo.getFileName().toString() : null);
+        metricas.put("activeSegmentUsedBytes", atual != null ? atual.posicao : 0);
+        metricas.put("appended", total);
+        metricas.put("confirmed", confirmados.sum());
+        metricas.put("pending", pendentes.size());
+        metricas.put("oldestPending", pendentes.ceiling(Long.MIN_VALUE));
+        metricas.put("lastSequence", ultimaSeq);
+        metricas.put("checkpoint", checkpointGravado);
+        metricas.put("avgAppendUs", total > 0 ? somaAppendNanos.sum() / total / 1000.0 : 0.0);
+        metricas.put("maxAppendUs", maxAppendNanos.get() / 1000.0);
+        metricas.put("fsyncs", sincronizacoes);
+        metricas.put("avgFsyncMs", sincronizacoes > 0 ? somaFsyncNanos.sum() / sincronizacoes / 1_000_000.0 : 0.0);
+        metricas.put("avgEntriesPerFsync", sincronizacoes > 0 ? (double) registrosSincronizados.sum() / sincronizacoes : 0.0);
+        metricas.put("fsyncTimeouts", timeoutsFsync.sum());
+        metricas.put("rolls", rolagens.sum());
+        metricas.put("rollsWithoutSpare", rolagensSemReserva.sum());
+        metricas.put("segmentsDeleted", segmentosExcluidos.sum());
+        metricas.put("relocated", realocados.sum());
+        metricas.put("replayed", reprocessados.sum());
+        metricas.put("replayFailures", falhasReprocessamento.sum());
+        metricas.put("replayMs", duracaoReprocessamentoMs);
+        metricas.put("replayCompleted", reprocessado);
+        metricas.put("tornTailDiscarded", caudaCorrompida);
+        return metricas;
+    }
+
+    @PreDestroy
+    public void fechar() {
+        if (!aberto) {
+            return;
+        }
+        escrita.lock();
+        try {
+            aberto = false;
+        } finally {
+            escrita.unlock();
+        }
+        executando = false;
+        monitorFsync.lock();
+        try {
+            haEscritas.signal();
+        } finally {
+            monitorFsync.unlock();
+        }
+        try {
+            sincronizador.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Segmento naoUsado;
+        escrita.lock();
+        try {
+            naoUsado = reserva;
+            reserva = null;
+        } finally {
+            escrita.unlock();
+        }
+        try {
+            atual.mapa.force();
+            if (naoUsado != null) {
+                Files.deleteIfExists(naoUsado.arquivo);
+            }
+            checkpoint();
+            logger.info("📒 Diário de ingestão fechado: checkpoint {}, {} entradas pendentes",
+                    checkpointGravado, pendentes.size());
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("❌ Erro ao fechar o diário de ingestão: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Maior sequência com tudo até ela confirmado. {@code ultimaSeq} é lida antes dos
+     * pendentes: toda sequência até ela já foi incluída em {@code pendentes} ao ser gravada.
+     */
+    private long calcularCheckpoint() {
+        long ultima = ultimaSeq;
+        Long primeiraPendente = pendentes.ceiling(Long.MIN_VALUE);
+        return primeiraPendente == null ? ultima : Math.min(ultima, primeiraPendente - 1);
+    }
+
+    // ---------------------------------------------------------------------------------
+    // Escrita e group commit
+    // ---------------------------------------------------------------------------------
+
+    /** Chamado com o lock de escrita. O tamanho vai por último, depois do CRC. */
+    private void gravarRegistro(long seq, byte[] payload) throws IOException {
+        int tamanho = CABECALHO_REGISTRO + payload.length;
+        if (atual.posicao + tamanho > atual.capacidade) {
+            rolar();
+        }
+        Segmento segmento = atual;
+        int posicao = segmento.posicao;
+        MappedByteBuffer mapa = segmento.mapa;
+        mapa.putLong(posicao + 8, seq);
+        mapa.put(posicao + CABECALHO_REGISTRO, payload);
+        mapa.putInt(posicao + 4, calcularCrc(seq, payload));
+        mapa.putInt(posicao, payload.length);
+        segmento.posicao = posicao + tamanho;
+        segmento.maiorSeq = Math.max(segmento.maiorSeq, seq);
+        segmento.registros++;
+    }
+
+    /**
+     * Chamado com o lock de escrita: passa a escrever no segmento de reserva. O fsync do resto
+     * do segmento cheio fica com a thread de group commit, que também prepara a próxima reserva.
+     * Só cria o segmento aqui se a reserva ainda não estiver pronta (rolagens seguidas).
+     */
+    private void rolar() throws IOException {
+        Segmento anterior = atual;
+        Segmento proximo = reserva;
+        reserva = null;
+        if (proximo == null) {
+            proximo = criarSegmento(proximoNumero++);
+            rolagensSemReserva.increment();
+        }
+        rolados.add(anterior);
+        atual = proximo;
+        segmentos.add(proximo);
+        rolagens.increment();
+        faltaReserva = true;
+        monitorFsync.lock();
+        try {
+            haEscritas.signal();
+        } finally {
+            monitorFsync.unlock();
+        }
+        logger.info("📒 Diário: segmento {} cheio ({} entradas), novo segmento {}",
+                anterior.arquivo.getFileName(), anterior.registros, proximo.arquivo.getFileName());
+    }
+
+    /**
+     * Cria o próximo segmento fora do lock de escrita. Se uma rolagem sem reserva passou à frente
+     * nesse meio tempo, o segmento criado ficaria antes do atual na ordem dos arquivos e é descartado.
+     */
+    private void prepararReserva() throws IOException {
+        long numero;
+        escrita.lock();
+        try {
+            if (reserva != null || !aberto) {
+                faltaReserva = false;
+                return;
+            }
+            numero = proximoNumero++;
+        } finally {
+            escrita.unlock();
+        }
+        Segmento novo = criarSegmento(numero);
+        escrita.lock();
+        try {
+            if (reserva == null && aberto && novo.numero > atual.numero) {
+                reserva = novo;
+                faltaReserva = false;
+                return;
+            }
+        } finally {
+            escrita.unlock();
+        }
+        Files.deleteIfExists(novo.arquivo);
+    }
+
+    /** Chamado com o lock de fsync. */
+    private void aguardarFsync(long ticket, long seq) throws IOException {
+        long restante = TimeUnit.MILLISECONDS.toNanos(config.getTimeoutFsyncMs());
+        try {
+            while (duraveis < ticket) {
+                if (restante <= 0) {
+                    pendentes.remove(seq);
+                    timeoutsFsync.increment();
+                    throw new IOException("fsync do diário não terminou em " + config.getTimeoutFsyncMs() + " ms");
+                }
+                restante = sincronizado.awaitNanos(restante);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pendentes.remove(seq);
+            throw new IOException("Interrompido aguardando o fsync do diário", e);
+        }
+    }
+
+    private void marcarDuraveis(long ticket) {
+        monitorFsync.lock();
+        try {
+            if (ticket > duraveis) {
+                registrosSincronizados.add(ticket - duraveis);
+                duraveis = ticket;
+            }
+            sincronizado.signalAll();
+        } finally {
+            monitorFsync.unlock();
+        }
+    }
+
+    /**
+     * Thread de group commit: espera haver escritas sem fsync, opcionalmente aguarda a janela
+     * para juntar mais remetentes e sincroniza de uma vez o trecho pendente. Com fsync=false
+     * ninguém espera: sincroniza a cada intervalo do checkpoint, por mais escritas que cheguem
+     * nele (o append nem sinaliza). Nos dois modos, uma rolagem acorda a thread para preparar
+     * o próximo segmento de reserva.
+     */
+    private void loopDeFsync() {
+        long janelaNanos = TimeUnit.MICROSECONDS.toNanos(config.getJanelaGroupCommitMicros());
+        long intervaloNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getIntervaloCheckpointMs()));
+        while (true) {
+            boolean haPendentes;
+            monitorFsync.lock();
+            try {
+                if (config.isFsync()) {
+                    while (executando && escritos <= duraveis && !faltaReserva) {
+                        haEscritas.await();
+                    }
+                } else {
+                    // Só o fechamento e a rolagem interrompem a espera
+                    long restante = intervaloNanos;
+                    while (executando && restante > 0 && !faltaReserva) {
+                        restante = haEscritas.awaitNanos(restante);
+                    }
+                }
+                haPendentes = escritos > duraveis;
+                if (!executando && !haPendentes) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                monitorFsync.unlock();
+            }
+            try {
+                if (faltaReserva && executando) {
+                    prepararReserva();
+                }
+                if (haPendentes) {
+                    if (config.isFsync() && janelaNanos > 0) {
+                        LockSupport.parkNanos(janelaNanos);
+                    }
+                    sincronizar();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("❌ Erro no fsync do diário de ingestão: {}", e.getMessage(), e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    /**
+     * fsync do que foi escrito até agora: o resto dos segmentos que encheram desde o último
+     * fsync e o trecho novo do atual. Um segmento cheio só sai da lista depois do fsync dele.
+     */
+    private void sincronizar() {
+        long ticket;
+        Segmento segmento;
+        int ate;
+        List<Segmento> cheios;
+        escrita.lock();
+        try {
+            ticket = escritos;
+            segmento = atual;
+            ate = segmento.posicao;
+            cheios = rolados.isEmpty() ? List.of() : new ArrayList<>(rolados);
+        } finally {
+            escrita.unlock();
+        }
+        long inicio = System.nanoTime();
+        boolean sincronizou = false;
+        for (Segmento cheio : cheios) {
+            // Segmento cheio não recebe mais escritas: a posição dele é final
+            sincronizou |= sincronizarAte(cheio, cheio.posicao);
+        }
+        sincronizou |= sincronizarAte(segmento, ate);
+        if (sincronizou) {
+            fsyncs.increment();
+            somaFsyncNanos.add(System.nanoTime() - inicio);
+        }
+        if (!cheios.isEmpty()) {
+            escrita.lock();
+            try {
+                rolados.removeAll(cheios);
+            } finally {
+                escrita.unlock();
+            }
+        }
+        marcarDuraveis(ticket);
+    }
+
+    /** Só na thread de fsync, a única que avança posicaoSincronizada. */
+    private static boolean sincronizarAte(Segmento segmento, int ate) {
+        int de = segmento.posicaoSincronizada;
+        if (ate <= de) {
+            return false;
+        }
+        segmento.mapa.force(de, ate - de);
+        segmento.posicaoSincronizada = ate;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------
+    // Segmentos, checkpoint e compactação
+    // ---------------------------------------------------------------------------------
+
+    private Segmento criarSegmento(long numero) throws IOException {
+        Path arquivo = diretorio.resolve(String.format("%s%012d%s", PREFIXO_SEGMENTO, numero, SUFIXO_SEGMENTO));
+        MappedByteBuffer mapa;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamanhoSegmento);
+        }
+        mapa.putInt(0, MAGICO);
+        mapa.putLong(8, numero);
+        mapa.force();
+        sincronizarDiretorio();
+        Segmento segmento = new Segmento(arquivo, numero, mapa);
+        segmento.posicao = CABECALHO_SEGMENTO;
+        segmento.posicaoSincronizada = CABECALHO_SEGMENTO;
+        return segmento;
+    }
+
+    /** @return o segmento, ou null se o arquivo não for um segmento válido (fica no disco para análise) */
+    private Segmento abrirSegmento(Path arquivo) throws IOException {
+        MappedByteBuffer mapa;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (canal.size() < CABECALHO_SEGMENTO || canal.size() > Integer.MAX_VALUE) {
+                logger.warn("Diário: arquivo {} ignorado (tamanho {})", arquivo.getFileName(), canal.size());
+                return null;
+            }
+            mapa = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+        }
+        if (mapa.getInt(0) != MAGICO) {
+            logger.warn("Diário: arquivo {} ignorado (cabeçalho inválido)", arquivo.getFileName());
+            return null;
+        }
+        return new Segmento(arquivo, mapa.getLong(8), mapa);
+    }
+
+    /**
+     * Lê os registros válidos do segmento até {@code limite}.
+     *
+     * @return a posição logo após o último registro válido
+     */
+    private static int percorrer(Segmento segmento, int limite, Visitante visitante) {
+        MappedByteBuffer mapa = segmento.mapa;
+        CRC32C verificador = new CRC32C();
+        int posicao = CABECALHO_SEGMENTO;
+        while (posicao + CABECALHO_REGISTRO <= limite) {
+            int tamanho = mapa.getInt(posicao);
+            if (tamanho <= 0 || posicao + CABECALHO_REGISTRO + tamanho > limite) {
+                break;
+            }
+            long seq = mapa.getLong(posicao + 8);
+            byte[] payload = new byte[tamanho];
+            mapa.get(posicao + CABECALHO_REGISTRO, payload);
+            if (mapa.getInt(posicao + 4) != crc(verificador, seq, payload)) {
+                break;
+            }
+            visitante.visitar(seq, payload);
+            posicao += CABECALHO_REGISTRO + tamanho;
+        }
+        return posicao;
+    }
+
+    /** Chamado com o lock de escrita. */
+    private int calcularCrc(long seq, byte[] payload) {
+        return crc(crc, seq, payload);
+    }
+
+    private static int crc(CRC32C crc, long seq, byte[] payload) {
+        crc.reset();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, seq));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /** Zera a cauda do último segmento, para que restos de um registro incompleto não pareçam válidos. */
+    private static void zerar(Segmento segmento, int de) {
+        byte[] zeros = new byte[64 * 1024];
+        for (int posicao = de; posicao < segmento.capacidade; posicao += zeros.length) {
+            segmento.mapa.put(posicao, zeros, 0, Math.min(zeros.length, segmento.capacidade - posicao));
+        }
+        segmento.mapa.force();
+    }
+
+    /**
+     * Regrava no segmento atual, com a mesma sequência, as entradas ainda pendentes do
+     * segmento, e as sincroniza antes de o antigo ser excluído. Chamado com o lock de
+     * manutenção; o fsync roda depois de soltar o lock de escrita, sem segurar os remetentes.
+     */
+    private void realocar(Segmento antigo) throws IOException {
+        List<Long> sequencias = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        List<Segmento> destinos;
+        Segmento destino;
+        int ate;
+        escrita.lock();
+        try {
+            percorrer(antigo, antigo.posicao, (seq, payload) -> {
+                if (pendentes.contains(seq)) {
+                    sequencias.add(seq);
+                    payloads.add(payload);
+                }
+            });
+            for (int i = 0; i < sequencias.size(); i++) {
+                gravarRegistro(sequencias.get(i), payloads.get(i));
+            }
+            // Se o segmento rolou no meio, parte das entradas está em um segmento cheio ainda sem fsync
+            destinos = new ArrayList<>(rolados);
+            destino = atual;
+            ate = destino.posicao;
+        } finally {
+            escrita.unlock();
+        }
+        // Pode repetir parte de um fsync da thread de group commit; posicaoSincronizada continua dela
+        if (!sequencias.isEmpty()) {
+            for (Segmento cheio : destinos) {
+                int de = Math.min(cheio.posicaoSincronizada, cheio.posicao);
+                if (cheio.posicao > de) {
+                    cheio.mapa.force(de, cheio.posicao - de);
+                }
+            }
+            int de = Math.min(destino.posicaoSincronizada, ate);
+            if (ate > de) {
+                destino.mapa.force(de, ate - de);
+            }
+        }
+        realocados.add(sequencias.size());
+        logger.info("📒 Diário: {} entradas pendentes do segmento {} regravadas em {}",
+                sequencias.size(), antigo.arquivo.getFileName(), destino.arquivo.getFileName());
+    }
+
+    private void excluir(Segmento segmento) throws IOException {
+        escrita.lock();
+        try {
+            segmentos.remove(segmento);
+        } finally {
+            escrita.unlock();
+        }
+        // O mapeamento continua válido até ser coletado; no Linux o arquivo pode ser excluído antes
+        Files.deleteIfExists(segmento.arquivo);
+        segmentosExcluidos.increment();
+        logger.debug("Diário: segmento {} excluído ({} entradas)", segmento.arquivo.getFileName(), segmento.registros);
+    }
+
+    private long lerCheckpoint() throws IOException {
+        Path arquivo = diretorio.resolve(ARQUIVO_CHECKPOINT);
+        if (!Files.exists(arquivo)) {
+            return 0;
+        }
+        ByteBuffer conteudo = ByteBuffer.wrap(Files.readAllBytes(arquivo));
+        if (conteudo.remaining() != Long.BYTES + Integer.BYTES) {
+            logger.warn("Diário: checkpoint inválido, todas as entradas serão reprocessadas");
+            return 0;
+        }
+        long marca = conteudo.getLong();
+        if (conteudo.getInt() != crc(new CRC32C(), marca, new byte[0])) {
+            logger.warn("Diário: checkpoint inválido, todas as entradas serão reprocessadas");
+            return 0;
+        }
+        return marca;
+    }
+
+    /** Arquivo temporário sincronizado e renomeado: o checkpoint nunca fica pela metade. */
+    private void gravarCheckpoint(long marca) throws IOException {
+        Path destino = diretorio.resolve(ARQUIVO_CHECKPOINT);
+        Path temporario = diretorio.resolve(ARQUIVO_CHECKPOINT + ".tmp");
+        ByteBuffer conteudo = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        conteudo.putLong(marca).putInt(crc(new CRC32C(), marca, new byte[0])).flip();
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (conteudo.hasRemaining()) {
+                canal.write(conteudo);
+            }
+            canal.force(true);
+        }
+        Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        sincronizarDiretorio();
+    }
+
+    /** fsync do diretório, para que criação e renomeação de arquivos sobrevivam a uma queda. */
+    private void sincronizarDiretorio() {
+        try (FileChannel canal = FileChannel.open(diretorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Nem todo sistema operacional permite abrir um diretório
+            logger.debug("fsync do diretório do diário não suportado: {}", e.getMessage());
+        }
+    }
+
+    private static final class Segmento {
+        final Path arquivo;
+        final long numero;
+        final MappedByteBuffer mapa;
+        final int capacidade;
+        // Só muda com o lock de escrita; lida sem lock pela leitura de registros
+        volatile int posicao;
+        // Só muda na thread de fsync
+        volatile int posicaoSincronizada;
+        volatile long maiorSeq = -1;
+        long registros;
+
+        Segmento(Path arquivo, long numero, MappedByteBuffer mapa) {
+            this.arquivo = arquivo;
+            this.numero = numero;
+            this.mapa = mapa;
+            this.capacidade = mapa.capacity();
+        }
+    }
+}
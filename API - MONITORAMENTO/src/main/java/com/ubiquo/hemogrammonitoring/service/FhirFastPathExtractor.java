@@ -0,0 +1,525 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.model.ObservacaoResumo;
+import com.ubiquo.hemogrammonitoring.model.ValoresAnalitos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extrator "fast path" baseado na API de streaming do Jackson.
+ *
+ * Lê o JSON token a token, em uma única passada, guardando apenas os campos que o
+ * {@link FhirParserService} usa: id, subject, effectiveDateTime/issued, extension de bairro,
+ * códigos LOINC, value[x] e component[]. Não monta a árvore HAPI (Bundle/Observation).
+ * Códigos e unidades são resolvidos pela mesma {@link LoincDispatcher} do caminho HAPI.
+ *
+ * Reproduz a mesma semântica do caminho HAPI. Quando encontra um formato que não
+ * reconhece com segurança (tipo de recurso, datas fora do padrão, fullUrl absoluto etc.),
+ * retorna null e o chamador cai no parser HAPI.
+ */
+@Component
+public class FhirFastPathExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FhirFastPathExtractor.class);
+
+    private static final String CPF_SYSTEM = "https://fhir.saude.go.gov.br/sid/cpf";
+    private static final String BAIRRO_EXTENSION_URL = "https://fhir.saude.go.gov.br/r4/core/StructureDefinition/bairro";
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final LoincDispatcher loincDispatcher;
+
+    public FhirFastPathExtractor(LoincDispatcher loincDispatcher) {
+        this.loincDispatcher = loincDispatcher;
+    }
+
+    /**
+     * @return o hemograma extraído, ou null se o payload não for reconhecido (usar o caminho HAPI)
+     */
+    public HemogramData extrair(String fhirJson) {
+        try (JsonParser parser = jsonFactory.createParser(fhirJson)) {
+            RecursoLido recurso = lerRaiz(parser);
+            if (recurso == null) {
+                return null;
+            }
+            HemogramData hemogramData = null;
+            if ("Observation".equals(recurso.resourceType)) {
+                hemogramData = montarDeObservation(recurso);
+            } else if ("Bundle".equals(recurso.resourceType)) {
+                hemogramData = montarDeBundle(recurso);
+            }
+            if (hemogramData != null && hemogramData.getId() == null) {
+                hemogramData.setId(IdentificadorPayloadFhir.derivar(fhirJson));
+            }
+            return hemogramData;
+        } catch (FormatoNaoReconhecido e) {
+            logger.debug("Fast path não reconheceu o payload ({}), usando parser HAPI", e.getMessage());
+            return null;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Fast path falhou ({}), usando parser HAPI", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Extrai uma linha NDJSON direto dos bytes (sem decodificar para String).
+     * Observations soltas viram um {@link ObservacaoResumo} para agrupamento posterior;
+     * Bundles viram um hemograma completo.
+     *
+     * @return o resultado, ou null se a linha não for reconhecida (usar o caminho HAPI)
+     */
+    public LinhaExtraida extrairLinha(byte[] dados, int offset, int tamanho) {
+        try (JsonParser parser = jsonFactory.createParser(dados, offset, tamanho)) {
+            RecursoLido recurso = lerRaiz(parser);
+            if (recurso == null) {
+                return null;
+            }
+            if ("Observation".equals(recurso.resourceType)) {
+                String observationId = idDaObservation(recurso, null);
+                return new LinhaExtraida(resumir(recurso, observationId != null
+                        ? observationId : IdentificadorPayloadFhir.derivar(dados, offset, tamanho)), null);
+            }
+            if ("Bundle".equals(recurso.resourceType)) {
+                HemogramData hemogramData = montarDeBundle(recurso);
+                if (hemogramData == null) {
+                    return null;
+                }
+                if (hemogramData.getId() == null) {
+                    hemogramData.setId(IdentificadorPayloadFhir.derivar(dados, offset, tamanho));
+                }
+                return new LinhaExtraida(null, hemogramData);
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Resultado de uma linha NDJSON: uma Observation resumida ou um hemograma (Bundle).
+     */
+    public record LinhaExtraida(ObservacaoResumo observacao, HemogramData hemograma) {
+    }
+
+    private RecursoLido lerRaiz(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        return lerRecurso(parser);
+    }
+
+    private ObservacaoResumo resumir(RecursoLido obs, String observationId) {
+        ValoresAnalitos valores = new ValoresAnalitos();
+        lerAnalitos(obs, valores);
+        String horario = obs.effectiveDateTime != null ? obs.effectiveDateTime : obs.issued;
+        return new ObservacaoResumo(observationId, patientId(obs), patientCpf(obs), horario,
+                timestamp(obs), obs.bairro, valores);
+    }
+
+    private HemogramData montarDeObservation(RecursoLido obs) {
+        ValoresAnalitos valores = new ValoresAnalitos();
+        lerAnalitos(obs, valores);
+        return novoHemograma(obs, idDaObservation(obs, null), valores);
+    }
+
+    /**
+     * Mesma ordem do caminho HAPI: code de nível superior e depois cada component[].
+     */
+    private void lerAnalitos(RecursoLido obs, ValoresAnalitos valores) {
+        registrar(obs.leitura, valores);
+        if (obs.componentes != null) {
+            for (Leitura componente : obs.componentes) {
+                registrar(componente, valores);
+            }
+        }
+    }
+
+    private void registrar(Leitura leitura, ValoresAnalitos valores) {
+        if (leitura.analito == null) {
+            return;
+        }
+        String unidade = leitura.unidadeCodigo != null && !leitura.unidadeCodigo.isEmpty()
+                ? leitura.unidadeCodigo
+                : leitura.unidadeTexto;
+        valores.registrar(leitura.analito, loincDispatcher.normalizar(leitura.analito, leitura.valor, unidade));
+    }
+
+    private HemogramData montarDeBundle(RecursoLido bundle) {
+        if (bundle.entradas == null) {
+            return null;
+        }
+
+        ValoresAnalitos valores = new ValoresAnalitos();
+        RecursoLido primeira = null;
+        String primeiraFullUrl = null;
+
+        for (EntradaLida entrada : bundle.entradas) {
+            RecursoLido obs = entrada.recurso;
+            if (obs == null || !"Observation".equals(obs.resourceType)) {
+                continue;
+            }
+            if (primeira == null) {
+                primeira = obs;
+                primeiraFullUrl = entrada.fullUrl;
+            }
+            lerAnalitos(obs, valores);
+        }
+
+        // Sem parâmetros ou sem Observation: o caminho HAPI decide (e registra o motivo)
+        if (primeira == null || !valores.possuiValor()) {
+            return null;
+        }
+        return novoHemograma(primeira, idDaObservation(primeira, primeiraFullUrl), valores);
+    }
+
+    private HemogramData novoHemograma(RecursoLido obs, String observationId, ValoresAnalitos valores) {
+        String patientId = patientId(obs);
+        String region = obs.bairro != null && !obs.bairro.isEmpty() ? obs.bairro : "Goiânia";
+
+        return new HemogramData(
+                observationId, patientId, "Paciente " + patientId, patientCpf(obs), "Não disponível",
+                timestamp(obs), valores, region
+        );
+    }
+
+    private static String patientId(RecursoLido obs) {
+        if (obs.subjectReference == null) {
+            return "unknown";
+        }
+        return obs.subjectReference.startsWith("#")
+                ? obs.subjectReference.substring(1)
+                : obs.subjectReference.replace("Patient/", "");
+    }
+
+    private static String patientCpf(RecursoLido obs) {
+        return CPF_SYSTEM.equals(obs.identifierSystem) ? obs.identifierValue : "CPF não disponível";
+    }
+
+    /**
+     * Reproduz o id que o HAPI atribui à Observation (Observation/id[/_history/versão] ou fullUrl).
+     *
+     * @return null sem id nem fullUrl: o chamador usa o id derivado do payload ({@link IdentificadorPayloadFhir})
+     */
+    private String idDaObservation(RecursoLido obs, String fullUrl) {
+        boolean temId = obs.id != null && !obs.id.isEmpty();
+        if (fullUrl != null) {
+            if (!fullUrl.startsWith("urn:")) {
+                throw new FormatoNaoReconhecido("fullUrl absoluto");
+            }
+            if (!temId) {
+                return fullUrl;
+            }
+        }
+        if (!temId) {
+            return null;
+        }
+        return obs.versionId != null
+                ? "Observation/" + obs.id + "/_history/" + obs.versionId
+                : "Observation/" + obs.id;
+    }
+
+    private LocalDateTime timestamp(RecursoLido obs) {
+        String valor = obs.effectiveDateTime != null ? obs.effectiveDateTime : obs.issued;
+        if (valor == null) {
+            return LocalDateTime.now();
+        }
+        try {
+            switch (valor.length()) {
+                case 4:
+                    return LocalDate.of(Integer.parseInt(valor), 1, 1).atStartOfDay();
+                case 7:
+                    return LocalDate.parse(valor + "-01").atStartOfDay();
+                case 10:
+                    return LocalDate.parse(valor).atStartOfDay();
+                default:
+                    break;
+            }
+            // FHIR exige segundos quando há horário (o HAPI rejeita "2024-01-15T10:30")
+            if (valor.length() < 19 || valor.charAt(10) != 'T') {
+                throw new FormatoNaoReconhecido("data inválida: " + valor);
+            }
+            LocalDateTime local;
+            if (valor.endsWith("Z") || valor.lastIndexOf('+') > 10 || valor.lastIndexOf('-') > 10) {
+                local = OffsetDateTime.parse(valor).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            } else {
+                local = LocalDateTime.parse(valor);
+            }
+            // java.util.Date (caminho HAPI) tem precisão de milissegundos
+            return local.truncatedTo(ChronoUnit.MILLIS);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new FormatoNaoReconhecido("data inválida: " + valor);
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // Leitura token a token
+    // ------------------------------------------------------------------
+
+    /**
+     * Lê um recurso (objeto JSON já aberto). Os campos podem vir em qualquer ordem,
+     * por isso tudo é acumulado e o resourceType só é avaliado ao final.
+     */
+    private RecursoLido lerRecurso(JsonParser parser) throws IOException {
+        RecursoLido recurso = new RecursoLido();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String campo = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (campo) {
+                case "resourceType" -> recurso.resourceType = texto(parser, token);
+                case "id" -> recurso.id = texto(parser, token);
+                case "meta" -> lerMeta(parser, token, recurso);
+                case "subject" -> lerSubject(parser, token, recurso);
+                case "effectiveDateTime" -> recurso.effectiveDateTime = texto(parser, token);
+                case "issued" -> recurso.issued = texto(parser, token);
+                case "extension" -> lerExtensions(parser, token, recurso);
+                case "code" -> recurso.leitura.analito = lerCode(parser, token);
+                case "valueQuantity" -> lerValueQuantity(parser, token, recurso.leitura);
+                case "valueInteger" -> lerValueInteger(parser, token, recurso.leitura);
+                case "component" -> recurso.componentes = lerComponentes(parser, token);
+                case "entry" -> recurso.entradas = lerEntradas(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+        return recurso;
+    }
+
+    private void lerMeta(JsonParser parser, JsonToken token, RecursoLido recurso) throws IOException {
+        exigir(token, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String campo = parser.getCurrentName();
+            JsonToken valor = parser.nextToken();
+            if ("versionId".equals(campo)) {
+                recurso.versionId = texto(parser, valor);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void lerSubject(JsonParser parser, JsonToken token, RecursoLido recurso) throws IOException {
+        exigir(token, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String campo = parser.getCurrentName();
+            JsonToken valor = parser.nextToken();
+            if ("reference".equals(campo)) {
+                recurso.subjectReference = texto(parser, valor);
+            } else if ("identifier".equals(campo)) {
+                exigir(valor, JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String campoId = parser.getCurrentName();
+                    JsonToken valorId = parser.nextToken();
+                    if ("system".equals(campoId)) {
+                        recurso.identifierSystem = texto(parser, valorId);
+                    } else if ("value".equals(campoId)) {
+                        recurso.identifierValue = texto(parser, valorId);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void lerExtensions(JsonParser parser, JsonToken token, RecursoLido recurso) throws IOException {
+        exigir(token, JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String url = null;
+            String valueString = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String campo = parser.getCurrentName();
+                JsonToken valor = parser.nextToken();
+                if ("url".equals(campo)) {
+                    url = texto(parser, valor);
+                } else if ("valueString".equals(campo)) {
+                    valueString = texto(parser, valor);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (recurso.bairro == null && BAIRRO_EXTENSION_URL.equals(url) && valueString != null) {
+                recurso.bairro = valueString;
+            }
+        }
+    }
+
+    /**
+     * @return o analito do primeiro coding reconhecido pela tabela LOINC (null se nenhum)
+     */
+    private String lerCode(JsonParser parser, JsonToken token) throws IOException {
+        exigir(token, JsonToken.START_OBJECT);
+        String analito = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String campo = parser.getCurrentName();
+            JsonToken valor = parser.nextToken();
+            if (!"coding".equals(campo)) {
+                parser.skipChildren();
+                continue;
+            }
+            exigir(valor, JsonToken.START_ARRAY);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String system = null;
+                String code = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String campoCoding = parser.getCurrentName();
+                    JsonToken valorCoding = parser.nextToken();
+                    if ("system".equals(campoCoding)) {
+                        system = texto(parser, valorCoding);
+                    } else if ("code".equals(campoCoding)) {
+                        code = texto(parser, valorCoding);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (analito == null) {
+                    analito = loincDispatcher.classificar(system, code);
+                }
+            }
+        }
+        return analito;
+    }
+
+    private void lerValueQuantity(JsonParser parser, JsonToken token, Leitura leitura) throws IOException {
+        exigir(token, JsonToken.START_OBJECT);
+        marcarValor(leitura);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String campo = parser.getCurrentName();
+            JsonToken tokenValor = parser.nextToken();
+            switch (campo) {
+                case "value" -> {
+                    if (tokenValor != JsonToken.VALUE_NUMBER_INT && tokenValor != JsonToken.VALUE_NUMBER_FLOAT) {
+                        throw new FormatoNaoReconhecido("valueQuantity.value não numérico");
+                    }
+                    leitura.valor = parser.getDoubleValue();
+                }
+                case "code" -> leitura.unidadeCodigo = texto(parser, tokenValor);
+                case "unit" -> leitura.unidadeTexto = texto(parser, tokenValor);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void lerValueInteger(JsonParser parser, JsonToken token, Leitura leitura) throws IOException {
+        exigir(token, JsonToken.VALUE_NUMBER_INT);
+        marcarValor(leitura);
+        leitura.valor = (double) parser.getIntValue();
+    }
+
+    private static void marcarValor(Leitura leitura) {
+        // value[x] é escolha única; mais de um tipo de valor fica para o HAPI decidir
+        if (leitura.temValor) {
+            throw new FormatoNaoReconhecido("mais de um value[x]");
+        }
+        leitura.temValor = true;
+    }
+
+    private List<Leitura> lerComponentes(JsonParser parser, JsonToken token) throws IOException {
+        exigir(token, JsonToken.START_ARRAY);
+        List<Leitura> componentes = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Leitura componente = new Leitura();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String campo = parser.getCurrentName();
+                JsonToken valor = parser.nextToken();
+                switch (campo) {
+                    case "code" -> componente.analito = lerCode(parser, valor);
+                    case "valueQuantity" -> lerValueQuantity(parser, valor, componente);
+                    case "valueInteger" -> lerValueInteger(parser, valor, componente);
+                    default -> parser.skipChildren();
+                }
+            }
+            componentes.add(componente);
+        }
+        return componentes;
+    }
+
+    private List<EntradaLida> lerEntradas(JsonParser parser, JsonToken token) throws IOException {
+        exigir(token, JsonToken.START_ARRAY);
+        List<EntradaLida> entradas = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            EntradaLida entrada = new EntradaLida();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String campo = parser.getCurrentName();
+                JsonToken valor = parser.nextToken();
+                if ("fullUrl".equals(campo)) {
+                    entrada.fullUrl = texto(parser, valor);
+                } else if ("resource".equals(campo)) {
+                    exigir(valor, JsonToken.START_OBJECT);
+                    entrada.recurso = lerRecurso(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            entradas.add(entrada);
+        }
+        return entradas;
+    }
+
+    private static String texto(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            throw new FormatoNaoReconhecido("esperado texto em " + parser.getCurrentName());
+        }
+        return parser.getText();
+    }
+
+    private static void exigir(JsonToken atual, JsonToken esperado) {
+        if (atual != esperado) {
+            throw new FormatoNaoReconhecido("esperado " + esperado + ", encontrado " + atual);
+        }
+    }
+
+    private static class RecursoLido {
+        String resourceType;
+        String id;
+        String versionId;
+        String subjectReference;
+        String identifierSystem;
+        String identifierValue;
+        String effectiveDateTime;
+        String issued;
+        String bairro;
+        Leitura leitura = new Leitura();
+        List<Leitura> componentes;
+        List<EntradaLida> entradas;
+    }
+
+    /**
+     * code + value[x] de uma Observation ou de um component.
+     */
+    private static class Leitura {
+        String analito;
+        boolean temValor;
+        Double valor;
+        String unidadeCodigo;
+        String unidadeTexto;
+    }
+
+    private static class EntradaLida {
+        String fullUrl;
+        RecursoLido recurso;
+    }
+
+    private static class FormatoNaoReconhecido extends RuntimeException {
+        FormatoNaoReconhecido(String mensagem) {
+            super(mensagem, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.LenientErrorHandler;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool de parsers JSON do HAPI FHIR.
+ *
+ * O {@link FhirContext} é thread-safe, mas as instâncias de {@link IParser} não são
+ * documentadas como tal. Cada parse usa um parser exclusivo retirado do pool (fila sem
+ * lock) e devolvido ao final; se o pool estiver vazio, um novo parser é criado na hora
+ * (a criação é barata, o modelo pesado fica no contexto). Todos os parsers recebem o
+ * mesmo {@link LenientErrorHandler}, para não falhar em extensions desconhecidas.
+ */
+@Component
+public class FhirJsonParserPool {
+
+    // Parsers ociosos guardados além disto são descartados (picos de concorrência)
+    private static final int MAXIMO_OCIOSOS = 64;
+
+    private final FhirContext fhirContext;
+    private final ConcurrentLinkedQueue<IParser> ociosos = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger quantidadeOciosos = new AtomicInteger();
+
+    // Métricas
+    private final LongAdder criados = new LongAdder();
+    private final LongAdder reutilizados = new LongAdder();
+
+    public FhirJsonParserPool(FhirContext fhirContext) {
+        this.fhirContext = fhirContext;
+    }
+
+    /**
+     * Faz o parse do JSON com um parser exclusivo para a thread atual.
+     */
+    public IBaseResource parseResource(String json) {
+        IParser parser = emprestar();
+        try {
+            return parser.parseResource(json);
+        } finally {
+            devolver(parser);
+        }
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("idle", quantidadeOciosos.get());
+        metricas.put("created", criados.sum());
+        metricas.put("reused", reutilizados.sum());
+        return metricas;
+    }
+
+    private IParser emprestar() {
+        IParser parser = ociosos.poll();
+        if (parser != null) {
+            quantidadeOciosos.decrementAndGet();
+            reutilizados.increment();
+            return parser;
+        }
+        criados.increment();
+        return novoParser();
+    }
+
+    private void devolver(IParser parser) {
+        if (quantidadeOciosos.incrementAndGet() <= MAXIMO_OCIOSOS) {
+            ociosos.offer(parser);
+        } else {
+            quantidadeOciosos.decrementAndGet();
+        }
+    }
+
+    private IParser novoParser() {
+        IParser parser = fhirContext.newJsonParser();
+        // Configurar parser para ser mais tolerante (não falhar em extensions desconhecidas)
+        parser.setParserErrorHandler(new LenientErrorHandler());
+        return parser;
+    }
+}
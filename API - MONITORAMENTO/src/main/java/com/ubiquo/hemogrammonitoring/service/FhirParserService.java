@@ -1,21 +1,31 @@
 package com.ubiquo.hemogrammonitoring.service;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
-import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.model.Desvio;
 import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.model.ObservacaoResumo;
 import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
-import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.model.ResultadoIngestaoLote;
+import com.ubiquo.hemogrammonitoring.model.ValoresAnalitos;
 import org.hl7.fhir.r4.model.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Service refatorado para usar HAPI FHIR corretamente.
@@ -31,17 +41,31 @@ public class FhirParserService {
 
     private static final Logger logger = LoggerFactory.getLogger(FhirParserService.class);
     
-    private final FhirContext fhirContext;
-    private final IParser jsonParser;
-    private final HemogramRepository hemogramRepository;
-
-    public FhirParserService(FhirContext fhirContext, HemogramRepository hemogramRepository) {
-        this.fhirContext = fhirContext;
-        this.jsonParser = fhirContext.newJsonParser();
-        this.hemogramRepository = hemogramRepository;
-        
-        // Configurar parser para ser mais tolerante (não falhar em extensions desconhecidas)
-        jsonParser.setParserErrorHandler(new ca.uhn.fhir.parser.LenientErrorHandler());
+    private final FhirJsonParserPool parserPool;
+    private final HemogramPersistenceService hemogramPersistenceService;
+    private final FhirFastPathExtractor fastPathExtractor;
+    private final LoincDispatcher loincDispatcher;
+    private final IngestionProperties.FastPath fastPathConfig;
+    private final LinhaTempoPacienteService linhaTempoPacienteService;
+    private final DiarioIngestaoService diarioIngestaoService;
+
+    // Métricas do fast path
+    private final LongAdder fastPathHits = new LongAdder();
+    private final LongAdder fastPathFallbacks = new LongAdder();
+    private final LongAdder fastPathDivergencias = new LongAdder();
+
+    public FhirParserService(FhirJsonParserPool parserPool, HemogramPersistenceService hemogramPersistenceService,
+                             FhirFastPathExtractor fastPathExtractor, LoincDispatcher loincDispatcher,
+                             IngestionProperties ingestionProperties,
+                             LinhaTempoPacienteService linhaTempoPacienteService,
+                             DiarioIngestaoService diarioIngestaoService) {
+        this.parserPool = parserPool;
+        this.hemogramPersistenceService = hemogramPersistenceService;
+        this.fastPathExtractor = fastPathExtractor;
+        this.loincDispatcher = loincDispatcher;
+        this.fastPathConfig = ingestionProperties.getFastPath();
+        this.linhaTempoPacienteService = linhaTempoPacienteService;
+        this.diarioIngestaoService = diarioIngestaoService;
         
         logger.info("FhirParserService inicializado com HAPI FHIR R4");
     }
@@ -54,29 +78,203 @@ public class FhirParserService {
      * 2. Bundle contendo múltiplas Observations (formato SES-GO)
      */
     public HemogramData parseFhirObservation(String fhirJson) {
+        HemogramData hemogramData = extrairHemograma(fhirJson);
+        if (hemogramData != null) {
+            saveHemogram(hemogramData);
+        }
+        return hemogramData;
+    }
+
+    /**
+     * Como {@link #parseFhirObservation(String)}, para um payload registrado no diário de
+     * ingestão: grava na hora (mesmo com write-behind) e só confirma a entrada quando o
+     * hemograma está no banco. Payload sem hemograma também é confirmado, porque
+     * reprocessá-lo daria o mesmo resultado.
+     */
+    public HemogramData parseFhirObservation(String fhirJson, long sequenciaDiario) {
+        if (sequenciaDiario == DiarioIngestaoService.SEM_REGISTRO) {
+            return parseFhirObservation(fhirJson);
+        }
+        HemogramData hemogramData = extrairHemograma(fhirJson);
+        if (hemogramData == null || hemogramPersistenceService.gravarConfirmado(hemogramData)) {
+            diarioIngestaoService.confirmar(sequenciaDiario);
+        }
+        return hemogramData;
+    }
+
+    /**
+     * Extrai o hemograma sem persistir. Tenta primeiro o fast path (streaming Jackson)
+     * e cai no parser HAPI quando o formato não é reconhecido.
+     */
+    public HemogramData extrairHemograma(String fhirJson) {
+        if (fastPathConfig.isEnabled()) {
+            HemogramData hemogramData = fastPathExtractor.extrair(fhirJson);
+            if (hemogramData != null) {
+                fastPathHits.increment();
+                logger.debug("Hemograma extraído pelo fast path: {}", hemogramData.getId());
+                if (fastPathConfig.isVerify()) {
+                    verificarContraHapi(fhirJson, hemogramData);
+                }
+                return hemogramData;
+            }
+            fastPathFallbacks.increment();
+        }
+        return extrairViaHapi(fhirJson);
+    }
+
+    /**
+     * Caminho completo: monta o modelo HAPI R4 (Bundle/Observation) e extrai os valores.
+     */
+    public HemogramData extrairViaHapi(String fhirJson) {
         try {
             logger.debug("Iniciando parse de JSON FHIR");
             
             // Primeiro, tenta identificar o tipo de recurso
             // parseResource retorna IBaseResource, então fazemos cast para Resource (R4)
-            Resource resource = (Resource) jsonParser.parseResource(fhirJson);
+            Resource resource = (Resource) parserPool.parseResource(fhirJson);
             
+            HemogramData hemogramData;
             if (resource instanceof Bundle) {
                 logger.info("Recurso identificado como Bundle - processando...");
-                return processBundle((Bundle) resource);
+                hemogramData = processBundle((Bundle) resource);
             } else if (resource instanceof Observation) {
                 logger.info("Recurso identificado como Observation individual - processando...");
-                return processObservation((Observation) resource);
+                hemogramData = processObservation((Observation) resource);
             } else {
                 logger.error("Tipo de recurso FHIR não suportado: {}", resource.getResourceType());
                 return null;
             }
+            // Sem id no payload: o mesmo id do fast path, estável entre reprocessamentos
+            if (hemogramData != null && hemogramData.getId() == null) {
+                hemogramData.setId(IdentificadorPayloadFhir.derivar(fhirJson));
+            }
+            return hemogramData;
             
         } catch (Exception e) {
             logger.error("Erro ao processar JSON FHIR: {}", e.getMessage(), e);
             return null;
         }
     }
+
+    /**
+     * Extrai uma linha NDJSON (FHIR Bulk Data): Observation solta vira um resumo para
+     * agrupamento posterior; Bundle vira um hemograma. Tenta o fast path direto nos bytes
+     * e só decodifica a linha para o parser HAPI quando o formato não é reconhecido.
+     *
+     * @return o resultado, ou null se a linha não contiver dados de hemograma
+     */
+    public FhirFastPathExtractor.LinhaExtraida extrairLinhaNdjson(byte[] dados, int offset, int tamanho) {
+        if (fastPathConfig.isEnabled()) {
+            FhirFastPathExtractor.LinhaExtraida linha = fastPathExtractor.extrairLinha(dados, offset, tamanho);
+            if (linha != null) {
+                fastPathHits.increment();
+                return linha;
+            }
+            fastPathFallbacks.increment();
+        }
+
+        String json = new String(dados, offset, tamanho, StandardCharsets.UTF_8);
+        try {
+            Resource resource = (Resource) parserPool.parseResource(json);
+            if (resource instanceof Observation obs) {
+                String observationId = obs.hasId() ? obs.getId() : IdentificadorPayloadFhir.derivar(dados, offset, tamanho);
+                return new FhirFastPathExtractor.LinhaExtraida(resumirObservacao(obs, observationId), null);
+            }
+            if (resource instanceof Bundle bundle) {
+                HemogramData hemogramData = processBundle(bundle);
+                if (hemogramData == null) {
+                    return null;
+                }
+                if (hemogramData.getId() == null) {
+                    hemogramData.setId(IdentificadorPayloadFhir.derivar(dados, offset, tamanho));
+                }
+                return new FhirFastPathExtractor.LinhaExtraida(null, hemogramData);
+            }
+            logger.debug("Linha NDJSON com recurso não suportado: {}", resource.getResourceType());
+            return null;
+        } catch (Exception e) {
+            logger.warn("Linha NDJSON inválida: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Monta um hemograma a partir de Observations soltas do mesmo paciente e horário de coleta.
+     * Mesmas regras do Bundle em lote: dados comuns da primeira Observation, bairro da primeira
+     * que o informar, e a última ocorrência de cada analito prevalece.
+     */
+    public HemogramData montarHemogramaDeResumos(List<ObservacaoResumo> grupo) {
+        ValoresAnalitos valores = new ValoresAnalitos();
+        String bairro = null;
+
+        for (ObservacaoResumo obs : grupo) {
+            if (bairro == null && obs.getBairro() != null && !obs.getBairro().isEmpty()) {
+                bairro = obs.getBairro();
+            }
+            valores.registrarTodos(obs.getValores());
+        }
+
+        if (grupo.isEmpty() || !valores.possuiValor()) {
+            return null;
+        }
+
+        ObservacaoResumo referencia = grupo.get(0);
+        String patientId = referencia.getPatientId();
+        return new HemogramData(
+                referencia.getObservationId(), patientId, "Paciente " + patientId, referencia.getPatientCpf(),
+                "Não disponível", referencia.getTimestamp(), valores, bairro != null ? bairro : "Goiânia"
+        );
+    }
+
+    private ObservacaoResumo resumirObservacao(Observation obs, String observationId) {
+        ValoresAnalitos valores = new ValoresAnalitos();
+        lerAnalitos(obs, valores);
+        String horario = null;
+        if (obs.hasEffectiveDateTimeType()) {
+            horario = obs.getEffectiveDateTimeType().getValueAsString();
+        } else if (obs.hasIssued()) {
+            horario = obs.getIssuedElement().getValueAsString();
+        }
+        return new ObservacaoResumo(observationId, extractPatientIdFromObservation(obs), extractCpfFromSubject(obs),
+                horario, extractTimestampFromObservation(obs), extractBairroFromExtension(obs), valores);
+    }
+
+    /**
+     * Verificação diferencial: extrai o mesmo payload pelo caminho HAPI e compara campo a campo.
+     * Timestamps gerados na hora (ausentes no payload) são comparados com tolerância de 1 s.
+     */
+    private void verificarContraHapi(String fhirJson, HemogramData fastPath) {
+        HemogramData hapi = extrairViaHapi(fhirJson);
+        if (hapi == null) {
+            fastPathDivergencias.increment();
+            logger.warn("⚠️ Fast path divergente: HAPI não extraiu hemograma do payload que o fast path aceitou");
+            return;
+        }
+        boolean iguais = Objects.equals(fastPath.getId(), hapi.getId())
+                && Objects.equals(fastPath.getPatientId(), hapi.getPatientId())
+                && Objects.equals(fastPath.getPatientCpf(), hapi.getPatientCpf())
+                && Objects.equals(fastPath.getRegion(), hapi.getRegion())
+                && Objects.equals(fastPath.getLeucocitos(), hapi.getLeucocitos())
+                && Objects.equals(fastPath.getHemoglobina(), hapi.getHemoglobina())
+                && Objects.equals(fastPath.getPlaquetas(), hapi.getPlaquetas())
+                && Objects.equals(fastPath.getHematocrito(), hapi.getHematocrito())
+                && Objects.equals(fastPath.getOutrosAnalitos(), hapi.getOutrosAnalitos())
+                && Math.abs(Duration.between(fastPath.getTimestamp(), hapi.getTimestamp()).toSeconds()) <= 1;
+        if (!iguais) {
+            fastPathDivergencias.increment();
+            logger.warn("⚠️ Fast path divergente do HAPI:\n  fast path: {}\n  HAPI:      {}", fastPath, hapi);
+        }
+    }
+
+    public Map<String, Object> getMetricasFastPath() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", fastPathConfig.isEnabled());
+        metricas.put("verify", fastPathConfig.isVerify());
+        metricas.put("hits", fastPathHits.sum());
+        metricas.put("fallbacks", fastPathFallbacks.sum());
+        metricas.put("mismatches", fastPathDivergencias.sum());
+        return metricas;
+    }
     
     /**
      * Processa um Bundle FHIR (formato usado pela SES-GO).
@@ -85,11 +283,8 @@ public class FhirParserService {
     private HemogramData processBundle(Bundle bundle) {
         logger.info("Processando Bundle com {} entradas", bundle.getEntry().size());
         
-        // Variáveis para armazenar os valores extraídos
-        Double leucocitos = null;
-        Double hemoglobina = null;
-        Double plaquetas = null;
-        Double hematocrito = null;
+        // Valores extraídos (normalizados para a unidade canônica de cada analito)
+        ValoresAnalitos valores = new ValoresAnalitos();
         
         // Dados comuns (serão extraídos da primeira Observation válida)
         String observationId = null;
@@ -107,32 +302,21 @@ public class FhirParserService {
                 // Extrair dados comuns da primeira Observation válida
                 if (firstObservation == null) {
                     firstObservation = obs;
-                    observationId = obs.hasId() ? obs.getId() : java.util.UUID.randomUUID().toString();
+                    // Sem id: null, e o chamador usa o id derivado do payload
+                    observationId = obs.hasId() ? obs.getId() : null;
                     patientId = extractPatientIdFromObservation(obs);
                     patientCpf = extractCpfFromSubject(obs);
                     timestamp = extractTimestampFromObservation(obs);
                     region = extractRegionFromObservation(obs);
                 }
                 
-                // Extrair valores baseado no código LOINC
-                if (hasLoincCode(obs, ReferenceValues.LEUCOCITOS_LOINC)) {
-                    leucocitos = extractQuantityValue(obs);
-                    logger.debug("Leucócitos encontrados: {}", leucocitos);
-                } else if (hasLoincCode(obs, ReferenceValues.HEMOGLOBINA_LOINC)) {
-                    hemoglobina = extractQuantityValue(obs);
-                    logger.debug("Hemoglobina encontrada: {}", hemoglobina);
-                } else if (hasLoincCode(obs, ReferenceValues.PLAQUETAS_LOINC)) {
-                    plaquetas = extractQuantityValue(obs);
-                    logger.debug("Plaquetas encontradas: {}", plaquetas);
-                } else if (hasLoincCode(obs, ReferenceValues.HEMATOCRITO_LOINC)) {
-                    hematocrito = extractQuantityValue(obs);
-                    logger.debug("Hematócrito encontrado: {}", hematocrito);
-                }
+                // Extrair valores pela tabela LOINC (code e component[])
+                lerAnalitos(obs, valores);
             }
         }
         
         // Verificar se encontrou pelo menos um parâmetro
-        if (leucocitos == null && hemoglobina == null && plaquetas == null && hematocrito == null) {
+        if (!valores.possuiValor()) {
             logger.warn("Nenhum parâmetro de hemograma encontrado no Bundle");
             return null;
         }
@@ -142,30 +326,215 @@ public class FhirParserService {
             return null;
         }
         
-        logger.info("Bundle processado: Leucócitos={}, Hemoglobina={}, Plaquetas={}, Hematócrito={}", 
-                    leucocitos, hemoglobina, plaquetas, hematocrito);
-        
         // Criar HemogramData com todos os valores extraídos
         String patientName = "Paciente " + patientId;
         String patientPhone = "Não disponível";
         
         HemogramData hemogramData = new HemogramData(
                 observationId, patientId, patientName, patientCpf, patientPhone,
-                timestamp, leucocitos, hemoglobina, plaquetas, hematocrito, region
+                timestamp, valores, region
         );
-        
-        // Salvar no banco de dados
-        saveHemogram(hemogramData);
-        
+        logger.info("Bundle processado: Leucócitos={}, Hemoglobina={}, Plaquetas={}, Hematócrito={}", 
+                    hemogramData.getLeucocitos(), hemogramData.getHemoglobina(),
+                    hemogramData.getPlaquetas(), hemogramData.getHematocrito());
         return hemogramData;
     }
     
+    /**
+     * Processa um Bundle batch/transaction/collection com exames de muitos pacientes,
+     * gerando um hemograma por painel.
+     *
+     * Agrupamento (em uma única passada pelas entradas):
+     * 1. Painéis explícitos: DiagnosticReport.result ou Observation.hasMember
+     * 2. Observations soltas: agrupadas por paciente + horário de coleta
+     *
+     * Todos os hemogramas são persistidos em um único lote.
+     *
+     * @throws IllegalArgumentException se o JSON não for um Bundle
+     */
+    public ResultadoIngestaoLote processarBundleEmLote(String fhirJson) {
+        Resource resource = (Resource) parserPool.parseResource(fhirJson);
+        if (!(resource instanceof Bundle)) {
+            throw new IllegalArgumentException("Ingestão em lote requer um Bundle, recebido: " + resource.getResourceType());
+        }
+
+        List<Bundle.BundleEntryComponent> entradas = ((Bundle) resource).getEntry();
+        ResultadoIngestaoLote resultado = new ResultadoIngestaoLote(entradas.size());
+        logger.info("Processando Bundle em lote com {} entradas", entradas.size());
+
+        // Índice referência → posição da entrada (fullUrl e ResourceType/id)
+        Map<String, Integer> indicePorReferencia = new HashMap<>();
+        for (int i = 0; i < entradas.size(); i++) {
+            Bundle.BundleEntryComponent entry = entradas.get(i);
+            if (entry.hasFullUrl()) {
+                indicePorReferencia.putIfAbsent(entry.getFullUrl(), i);
+            }
+            if (entry.getResource() != null && entry.getResource().getIdElement().hasIdPart()) {
+                Resource r = entry.getResource();
+                indicePorReferencia.putIfAbsent(r.fhirType() + "/" + r.getIdElement().getIdPart(), i);
+            }
+        }
+
+        boolean[] agrupada = new boolean[entradas.size()];
+        List<List<Integer>> grupos = new ArrayList<>();
+
+        // 1. Painéis explícitos
+        for (int i = 0; i < entradas.size(); i++) {
+            List<Reference> membros = membrosDoPainel(entradas.get(i).getResource());
+            if (membros.isEmpty() || agrupada[i]) {
+                continue;
+            }
+            List<Integer> grupo = new ArrayList<>();
+            grupo.add(i);
+            agrupada[i] = true;
+            for (Reference membro : membros) {
+                Integer j = indicePorReferencia.get(membro.getReference());
+                if (j != null && !agrupada[j] && entradas.get(j).getResource() instanceof Observation) {
+                    grupo.add(j);
+                    agrupada[j] = true;
+                }
+            }
+            grupos.add(grupo);
+        }
+
+        // 2. Observations soltas: paciente + horário de coleta
+        Map<String, List<Integer>> porPacienteEHorario = new LinkedHashMap<>();
+        for (int i = 0; i < entradas.size(); i++) {
+            if (agrupada[i]) {
+                continue;
+            }
+            Resource r = entradas.get(i).getResource();
+            if (r instanceof Observation obs) {
+                porPacienteEHorario.computeIfAbsent(chavePacienteEHorario(obs), k -> new ArrayList<>()).add(i);
+            } else {
+                resultado.ignorarEntrada(i, r == null ? "Entrada sem recurso" : "Recurso não suportado: " + r.fhirType());
+            }
+        }
+        grupos.addAll(porPacienteEHorario.values());
+
+        // 3. Montar um hemograma por grupo
+        String idDoPayload = null;
+        for (List<Integer> grupo : grupos) {
+            HemogramData hemogramData = montarHemograma(entradas, grupo);
+            if (hemogramData != null && hemogramData.getId() == null) {
+                if (idDoPayload == null) {
+                    idDoPayload = IdentificadorPayloadFhir.derivar(fhirJson);
+                }
+                hemogramData.setId(IdentificadorPayloadFhir.daEntrada(idDoPayload, grupo.get(0)));
+            }
+            if (hemogramData == null) {
+                for (Integer i : grupo) {
+                    resultado.ignorarEntrada(i, "Nenhum parâmetro de hemograma encontrado");
+                }
+            } else {
+                resultado.adicionarHemograma(hemogramData, grupo);
+            }
+        }
+
+        // 4. Persistir em um único lote
+        boolean writeBehind = hemogramPersistenceService.isWriteBehindAtivo();
+        Set<String> gravados = new HashSet<>(hemogramPersistenceService.salvarTodos(resultado.getDadosHemogramas()));
+        for (ResultadoIngestaoLote.Item item : resultado.getHemogramas()) {
+            if (writeBehind) {
+                item.setStatus(ResultadoIngestaoLote.STATUS_ENFILEIRADO);
+            } else {
+                item.setStatus(gravados.remove(item.getId())
+                        ? ResultadoIngestaoLote.STATUS_CRIADO
+                        : ResultadoIngestaoLote.STATUS_IGNORADO);
+            }
+            item.setAlertaDengue(possuiAlertaDengue(item.getHemogramData()));
+            item.setQuedaPlaquetas(linhaTempoPacienteService.avaliarQuedaPlaquetas(item.getHemogramData()) != null);
+        }
+
+        logger.info("Bundle em lote processado: {} hemogramas, {} entradas ignoradas",
+                resultado.getHemogramas().size(), resultado.getEntradasIgnoradas().size());
+        return resultado;
+    }
+
+    /**
+     * Referências aos membros de um painel (DiagnosticReport.result ou Observation.hasMember).
+     */
+    private List<Reference> membrosDoPainel(Resource resource) {
+        if (resource instanceof DiagnosticReport report && report.hasResult()) {
+            return report.getResult();
+        }
+        if (resource instanceof Observation obs && obs.hasHasMember()) {
+            return obs.getHasMember();
+        }
+        return List.of();
+    }
+
+    /**
+     * Chave de agrupamento de Observations soltas: paciente (CPF ou referência) + horário de coleta.
+     */
+    private String chavePacienteEHorario(Observation obs) {
+        String paciente = extractCpfFromSubject(obs);
+        if ("CPF não disponível".equals(paciente)) {
+            paciente = extractPatientIdFromObservation(obs);
+        }
+        String horario = "";
+        if (obs.hasEffectiveDateTimeType()) {
+            horario = obs.getEffectiveDateTimeType().getValueAsString();
+        } else if (obs.hasIssued()) {
+            horario = obs.getIssuedElement().getValueAsString();
+        }
+        return paciente + "|" + horario;
+    }
+
+    /**
+     * Monta um hemograma a partir de um grupo de entradas (painel + membros, ou Observations soltas).
+     * Os dados comuns vêm da primeira Observation do grupo; o bairro, da primeira que o informar.
+     */
+    private HemogramData montarHemograma(List<Bundle.BundleEntryComponent> entradas, List<Integer> grupo) {
+        ValoresAnalitos valores = new ValoresAnalitos();
+        Observation referencia = null;
+        String bairro = null;
+
+        for (Integer i : grupo) {
+            if (!(entradas.get(i).getResource() instanceof Observation obs)) {
+                continue;
+            }
+            if (referencia == null) {
+                referencia = obs;
+            }
+            if (bairro == null) {
+                bairro = extractBairroFromExtension(obs);
+            }
+            lerAnalitos(obs, valores);
+        }
+
+        if (referencia == null || !valores.possuiValor()) {
+            return null;
+        }
+
+        // fullUrl (urn:uuid) é único no Bundle; ids locais como "leucocitos" se repetem entre pacientes
+        Bundle.BundleEntryComponent primeira = entradas.get(grupo.get(0));
+        String observationId;
+        if (primeira.hasFullUrl()) {
+            observationId = primeira.getFullUrl();
+        } else if (primeira.getResource().hasId()) {
+            observationId = primeira.getResource().getId();
+        } else {
+            // Derivado do payload e da posição da entrada pelo chamador
+            observationId = null;
+        }
+
+        String patientId = extractPatientIdFromObservation(referencia);
+        String region = bairro != null && !bairro.isEmpty() ? bairro : extractRegionFromObservation(referencia);
+
+        return new HemogramData(
+                observationId, patientId, "Paciente " + patientId, extractCpfFromSubject(referencia), "Não disponível",
+                extractTimestampFromObservation(referencia), valores, region
+        );
+    }
+
     /**
      * Processa uma Observation FHIR individual e extrai dados do hemograma.
      */
     private HemogramData processObservation(Observation observation) {
         try {
-            String observationId = observation.hasId() ? observation.getId() : java.util.UUID.randomUUID().toString();
+            // Sem id: null, e o chamador usa o id derivado do payload
+            String observationId = observation.hasId() ? observation.getId() : null;
 
             // Extrair referência do paciente
             String patientId = extractPatientIdFromObservation(observation);
@@ -176,29 +545,21 @@ public class FhirParserService {
             // Extrair região (por enquanto, fallback para Goiânia - tarefa #15 vai melhorar isso)
             String region = extractRegionFromObservation(observation);
             
-            // Extrair valor das plaquetas
-            Double plaquetas = extractQuantityValue(observation);
+            // Extrair valores pela tabela LOINC: o próprio code (Observation de um analito)
+            // ou component[] (painel de hemograma em uma única Observation)
+            ValoresAnalitos valores = new ValoresAnalitos();
+            lerAnalitos(observation, valores);
             
             // Dados do paciente (por enquanto valores padrão, JSON SES-GO não tem Patient completo)
             String patientName = "Paciente " + patientId;
             String patientCpf = extractCpfFromSubject(observation);
             String patientPhone = "Não disponível";
             
-            // Por enquanto, só temos plaquetas (outros parâmetros viriam de um Bundle completo)
-            Double leucocitos = null;
-            Double hemoglobina = null;
-            Double hematocrito = null;
-            
-            logger.info("Hemograma extraído: Paciente={}, Plaquetas={}", patientCpf, plaquetas);
-            
             HemogramData hemogramData = new HemogramData(
                     observationId, patientId, patientName, patientCpf, patientPhone,
-                    timestamp, leucocitos, hemoglobina, plaquetas, hematocrito, region
+                    timestamp, valores, region
             );
-            
-            // Salvar no banco de dados
-            saveHemogram(hemogramData);
-            
+            logger.info("Hemograma extraído: Paciente={}, Plaquetas={}", patientCpf, hemogramData.getPlaquetas());
             return hemogramData;
             
         } catch (Exception e) {
@@ -208,49 +569,46 @@ public class FhirParserService {
     }
 
     /**
-     * Salva os dados do hemograma no banco de dados.
+     * Salva os dados do hemograma no banco de dados (direto ou via write-behind).
      */
     private void saveHemogram(HemogramData data) {
-        if (data == null) {
-            logger.warn("Tentativa de salvar um hemograma nulo.");
-            return;
-        }
-        try {
-            HemogramEntity entity = new HemogramEntity();
-            entity.setObservationId(data.getId());
-            entity.setPatientId(data.getPatientId());
-            entity.setPatientName(data.getPatientName());
-            entity.setPatientCpf(data.getPatientCpf());
-            entity.setPatientPhone(data.getPatientPhone());
-            entity.setTimestamp(data.getTimestamp());
-            entity.setLeucocitos(data.getLeucocitos());
-            entity.setHemoglobina(data.getHemoglobina());
-            entity.setPlaquetas(data.getPlaquetas());
-            entity.setHematocrito(data.getHematocrito());
-            entity.setRegion(data.getRegion());
-
-            hemogramRepository.save(entity);
-            logger.info("✅ Hemograma para o paciente '{}' (CPF: {}) salvo no banco de dados.", data.getPatientName(), data.getPatientCpf());
-        } catch (Exception e) {
-            logger.error("❌ Erro ao salvar hemograma no banco de dados para o paciente {}: {}", data.getPatientName(), e.getMessage(), e);
-        }
+        hemogramPersistenceService.salvar(data);
     }
 
     /**
-     * Verifica se uma Observation tem um código LOINC específico.
+     * Registra os analitos da Observation: o code de nível superior com seu value[x] e
+     * cada component[] com o seu. Cada coding é classificado uma única vez pela tabela LOINC.
      */
-    private boolean hasLoincCode(Observation observation, String loincCode) {
-        if (!observation.hasCode() || !observation.getCode().hasCoding()) {
-            return false;
+    private void lerAnalitos(Observation observation, ValoresAnalitos valores) {
+        registrarAnalito(observation.getCode(), observation.getValue(), valores);
+        for (Observation.ObservationComponentComponent component : observation.getComponent()) {
+            registrarAnalito(component.getCode(), component.getValue(), valores);
         }
-        
-        for (Coding coding : observation.getCode().getCoding()) {
-            if ("http://loinc.org".equals(coding.getSystem()) && 
-                loincCode.equals(coding.getCode())) {
-                return true;
+    }
+
+    private void registrarAnalito(CodeableConcept code, Type value, ValoresAnalitos valores) {
+        String analito = null;
+        for (Coding coding : code.getCoding()) {
+            analito = loincDispatcher.classificar(coding.getSystem(), coding.getCode());
+            if (analito != null) {
+                break;
             }
         }
-        return false;
+        if (analito == null) {
+            return;
+        }
+
+        Double valor = null;
+        String unidade = null;
+        if (value instanceof Quantity quantity && quantity.hasValue()) {
+            valor = quantity.getValue().doubleValue();
+            unidade = quantity.hasCode() ? quantity.getCode() : quantity.getUnit();
+        } else if (value instanceof IntegerType inteiro && inteiro.hasValue()) {
+            valor = inteiro.getValue().doubleValue();
+        } else {
+            logger.warn("Valor numérico não encontrado para {}", analito);
+        }
+        valores.registrar(analito, loincDispatcher.normalizar(analito, valor, unidade));
     }
     
     /**
@@ -293,25 +651,6 @@ public class FhirParserService {
         }
     }
     
-    /**
-     * Extrai valor numérico (plaquetas) da Observation usando API HAPI.
-     */
-    private Double extractQuantityValue(Observation observation) {
-        try {
-            if (observation.hasValueQuantity()) {
-                Quantity quantity = observation.getValueQuantity();
-                if (quantity.hasValue()) {
-                    return quantity.getValue().doubleValue();
-                }
-            }
-            logger.warn("Valor numérico não encontrado na Observation");
-            return null;
-        } catch (Exception e) {
-            logger.warn("Erro ao extrair valor: {}", e.getMessage());
-            return null;
-        }
-    }
-    
     /**
      * Extrai CPF do subject.identifier usando API HAPI.
      */
@@ -382,49 +721,54 @@ public class FhirParserService {
         return null;
     }
 
-    public List<String> analyzeHemogram(HemogramData hemogram) {
-        List<String> deviations = new ArrayList<>();
+    /**
+     * Indica se o hemograma dispara o alerta de dengue (plaquetas E leucócitos baixos),
+     * sem montar as mensagens de desvio.
+     */
+    public boolean possuiAlertaDengue(HemogramData hemogram) {
+        return hemogram.getPlaquetas() != null && ReferenceValues.isPlaquetasBaixas(hemogram.getPlaquetas())
+                && hemogram.getLeucocitos() != null && ReferenceValues.isLeucocitosBaixos(hemogram.getLeucocitos());
+    }
+
+    /**
+     * Avalia o hemograma contra os valores de referência e contra as coletas anteriores do
+     * mesmo paciente (queda seriada de plaquetas, pelo cache em memória). Os desvios são
+     * devolvidos estruturados; o texto de cada um só é montado quando
+     * {@link Desvio#getMensagem()} é chamado.
+     */
+    public List<Desvio> analyzeHemogram(HemogramData hemogram) {
+        List<Desvio> deviations = new ArrayList<>();
 
         // Análise de Leucócitos
-        if (hemogram.getLeucocitos() != null) {
-            if (!ReferenceValues.isLeucocitosNormal(hemogram.getLeucocitos())) {
-                deviations.add(String.format("Leucócitos alterados: %.2f /µL (normal: %.0f-%.0f)",
-                        hemogram.getLeucocitos(), ReferenceValues.LEUCOCITOS_MIN, ReferenceValues.LEUCOCITOS_MAX));
-            }
+        if (hemogram.getLeucocitos() != null && !ReferenceValues.isLeucocitosNormal(hemogram.getLeucocitos())) {
+            deviations.add(Desvio.alterado(ValoresAnalitos.LEUCOCITOS, hemogram.getLeucocitos()));
         }
 
         // Análise de Hemoglobina
-        if (hemogram.getHemoglobina() != null) {
-            if (!ReferenceValues.isHemoglobinaNormal(hemogram.getHemoglobina())) {
-                deviations.add(String.format("Hemoglobina alterada: %.2f g/dL (normal: %.1f-%.1f)",
-                        hemogram.getHemoglobina(), ReferenceValues.HEMOGLOBINA_MIN, ReferenceValues.HEMOGLOBINA_MAX));
-            }
+        if (hemogram.getHemoglobina() != null && !ReferenceValues.isHemoglobinaNormal(hemogram.getHemoglobina())) {
+            deviations.add(Desvio.alterado(ValoresAnalitos.HEMOGLOBINA, hemogram.getHemoglobina()));
         }
 
         // Análise de Plaquetas
-        if (hemogram.getPlaquetas() != null) {
-            if (!ReferenceValues.isPlaquetasNormal(hemogram.getPlaquetas())) {
-                deviations.add(String.format("Plaquetas alteradas: %.0f /µL (normal: %.0f-%.0f)",
-                        hemogram.getPlaquetas(), ReferenceValues.PLAQUETAS_MIN, ReferenceValues.PLAQUETAS_MAX));
-
-            }
+        if (hemogram.getPlaquetas() != null && !ReferenceValues.isPlaquetasNormal(hemogram.getPlaquetas())) {
+            deviations.add(Desvio.alterado(ValoresAnalitos.PLAQUETAS, hemogram.getPlaquetas()));
         }
 
         // Análise de Hematócrito
-        if (hemogram.getHematocrito() != null) {
-            if (!ReferenceValues.isHematocritoNormal(hemogram.getHematocrito())) {
-                deviations.add(String.format("Hematócrito alterado: %.2f%% (normal: %.0f-%.0f%%)",
-                        hemogram.getHematocrito(), ReferenceValues.HEMATOCRITO_MIN, ReferenceValues.HEMATOCRITO_MAX));
-            }
+        if (hemogram.getHematocrito() != null && !ReferenceValues.isHematocritoNormal(hemogram.getHematocrito())) {
+            deviations.add(Desvio.alterado(ValoresAnalitos.HEMATOCRITO, hemogram.getHematocrito()));
         }
 
         // LÓGICA COMBINADA DE ALERTA DE DENGUE (PLAQUETAS + LEUCÓCITOS)
-        boolean temPlaquetasBaixas = hemogram.getPlaquetas() != null && ReferenceValues.isPlaquetasBaixas(hemogram.getPlaquetas());
-        boolean temLeucocitosBaixos = hemogram.getLeucocitos() != null && ReferenceValues.isLeucocitosBaixos(hemogram.getLeucocitos());
-
         // Só emite alerta de DENGUE se ambos estiverem baixos
-        if (temPlaquetasBaixas && temLeucocitosBaixos) {
-            deviations.add("⚠️ ALERTA DENGUE: Plaquetas E Leucócitos baixos detectados simultaneamente!");
+        if (possuiAlertaDengue(hemogram)) {
+            deviations.add(Desvio.alertaDengue());
+        }
+
+        // Queda seriada de plaquetas do mesmo paciente (ex: >20% em 48h)
+        Desvio quedaPlaquetas = linhaTempoPacienteService.avaliarQuedaPlaquetas(hemogram);
+        if (quedaPlaquetas != null) {
+            deviations.add(quedaPlaquetas);
         }
 
         return deviations;
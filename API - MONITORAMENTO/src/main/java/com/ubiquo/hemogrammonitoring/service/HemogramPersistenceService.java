@@ -0,0 +1,390 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.repository.RollupHorarioRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistência de hemogramas.
+ *
+ * No modo padrão cada hemograma é gravado na hora (um INSERT por mensagem).
+ * Com write-behind habilitado, as entidades vão para uma fila limitada e uma thread
+ * dedicada grava em lotes (JDBC batch via saveAll), disparando por tamanho do lote
+ * ou pelo intervalo máximo de espera. Violações de observationId duplicado são
+ * tratadas linha a linha, sem derrubar o lote inteiro.
+ *
+ * Toda gravação marca, na mesma transação, as horas afetadas para o rollup horário
+ * ({@link RollupHorarioRepository#marcarPendentes}) e, depois do commit, publica um
+ * {@link HemogramasPersistidosEvent}. Antes da transação, garante a partição mensal de cada
+ * hemograma ({@link ParticaoHemogramaRepository#garantir}).
+ */
+@Service
+public class HemogramPersistenceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HemogramPersistenceService.class);
+
+    private final HemogramRepository hemogramRepository;
+    private final RollupHorarioRepository rollupRepository;
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final IngestionProperties.WriteBehind config;
+    private final BlockingQueue<HemogramEntity> fila;
+
+    private volatile boolean executando;
+    private Thread flusher;
+
+    // Métricas
+    private final LongAdder lotesGravados = new LongAdder();
+    private final LongAdder linhasGravadas = new LongAdder();
+    private final LongAdder duplicadas = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+
+    public HemogramPersistenceService(HemogramRepository hemogramRepository, RollupHorarioRepository rollupRepository,
+                                      ParticaoHemogramaRepository particaoRepository,
+                                      TransactionTemplate transactionTemplate, ApplicationEventPublisher eventPublisher,
+                                      IngestionProperties ingestionProperties) {
+        this.hemogramRepository = hemogramRepository;
+        this.rollupRepository = rollupRepository;
+        this.particaoRepository = particaoRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.config = ingestionProperties.getWriteBehind();
+        this.fila = new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        executando = true;
+        flusher = new Thread(this::loopDeGravacao, "write-behind-flusher");
+        flusher.start();
+        logger.info("Persistência write-behind habilitada: lotes de até {} linhas a cada {} ms",
+                config.getBatchSize(), config.getFlushIntervalMs());
+    }
+
+    /**
+     * Persiste um hemograma. No modo write-behind apenas enfileira; se a fila estiver
+     * cheia, bloqueia o chamador (backpressure para os workers de ingestão).
+     */
+    public void salvar(HemogramData data) {
+        if (data == null) {
+            logger.warn("Tentativa de salvar um hemograma nulo.");
+            return;
+        }
+        HemogramEntity entity = toEntity(data);
+
+        if (config.isEnabled() && executando) {
+            try {
+                fila.put(entity);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("❌ Interrompido ao enfileirar hemograma do paciente {}", data.getPatientName());
+            }
+            return;
+        }
+
+        try {
+            gravar(List.of(entity));
+            linhasGravadas.increment();
+            eventPublisher.publishEvent(new HemogramasPersistidosEvent(List.of(entity)));
+            logger.info("✅ Hemograma para o paciente '{}' (CPF: {}) salvo no banco de dados.", data.getPatientName(), data.getPatientCpf());
+        } catch (Exception e) {
+            falhas.increment();
+            logger.error("❌ Erro ao salvar hemograma no banco de dados para o paciente {}: {}", data.getPatientName(), e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Persiste vários hemogramas de uma vez (ex: Bundle em lote). No modo write-behind
+     * apenas enfileira; caso contrário grava tudo em um único lote.
+     *
+     * @return observationIds efetivamente gravados (vazio no modo write-behind)
+     */
+    public Set<String> salvarTodos(List<HemogramData> dados) {
+        List<HemogramEntity> entidades = dados.stream().map(this::toEntity).toList();
+
+        if (config.isEnabled() && executando) {
+            try {
+                for (HemogramEntity entity : entidades) {
+                    fila.put(entity);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("❌ Interrompido ao enfileirar lote de {} hemogramas", entidades.size());
+            }
+            return Set.of();
+        }
+        return gravarLote(entidades);
+    }
+
+    /**
+     * Grava vários hemogramas imediatamente em um único lote, mesmo com write-behind
+     * habilitado. Usado pela importação NDJSON, que só marca o checkpoint depois que
+     * os dados estão no banco.
+     *
+     * @return observationIds efetivamente gravados (duplicados ficam de fora)
+     */
+    public Set<String> gravarAgora(List<HemogramData> dados) {
+        return gravarLote(dados.stream().map(this::toEntity).toList());
+    }
+
+    /**
+     * Grava um hemograma imediatamente, mesmo com write-behind, informando se ele ficou no
+     * banco. Usado pelo diário de ingestão, que só confirma a entrada depois da gravação.
+     *
+     * @return true se foi gravado agora, já existia ou viola uma restrição de integridade
+     *         (reprocessar não mudaria o resultado); false em erro transitório (ex: banco fora do ar)
+     */
+    public boolean gravarConfirmado(HemogramData data) {
+        HemogramEntity entity = toEntity(data);
+        try {
+            if (removerDuplicados(List.of(entity)).isEmpty()) {
+                return true;
+            }
+            gravar(List.of(entity));
+        } catch (DataIntegrityViolationException e) {
+            duplicadas.increment();
+            logger.warn("Hemograma {} violou restrição de integridade, ignorado: {}",
+                    entity.getObservationId(), e.getMostSpecificCause().getMessage());
+            return true;
+        } catch (Exception e) {
+            falhas.increment();
+            logger.error("❌ Erro ao salvar hemograma {}: {}", entity.getObservationId(), e.getMessage(), e);
+            return false;
+        }
+        linhasGravadas.increment();
+        eventPublisher.publishEvent(new HemogramasPersistidosEvent(List.of(entity)));
+        return true;
+    }
+
+    public boolean isWriteBehindAtivo() {
+        return config.isEnabled() && executando;
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("pending", fila.size());
+        metricas.put("queueCapacity", config.getQueueCapacity());
+        metricas.put("batchSize", config.getBatchSize());
+        metricas.put("batchesWritten", lotesGravados.sum());
+        metricas.put("rowsWritten", linhasGravadas.sum());
+        metricas.put("duplicatesSkipped", duplicadas.sum());
+        metricas.put("failed", falhas.sum());
+        return metricas;
+    }
+
+    @PreDestroy
+    public void parar() {
+        if (flusher == null) {
+            return;
+        }
+        executando = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Grava o que sobrou na fila antes de encerrar
+        List<HemogramEntity> restante = new ArrayList<>();
+        fila.drainTo(restante);
+        if (!restante.isEmpty()) {
+            gravarLote(restante);
+        }
+    }
+
+    private void loopDeGravacao() {
+        int tamanhoLote = Math.max(1, config.getBatchSize());
+        List<HemogramEntity> lote = new ArrayList<>(tamanhoLote);
+
+        while (executando) {
+            try {
+                HemogramEntity primeiro = fila.poll(config.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+                if (primeiro == null) {
+                    continue;
+                }
+                lote.add(primeiro);
+
+                // Completa o lote até o tamanho máximo ou até o prazo do flush
+                long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getFlushIntervalMs());
+                while (lote.size() < tamanhoLote) {
+                    fila.drainTo(lote, tamanhoLote - lote.size());
+                    long restanteNanos = prazo - System.nanoTime();
+                    if (lote.size() >= tamanhoLote || restanteNanos <= 0) {
+                        break;
+                    }
+                    HemogramEntity proximo = fila.poll(restanteNanos, TimeUnit.NANOSECONDS);
+                    if (proximo == null) {
+                        break;
+                    }
+                    lote.add(proximo);
+                }
+
+                gravarLote(lote);
+            } catch (InterruptedException e) {
+                if (!executando) {
+                    break;
+                }
+            } catch (Exception e) {
+                logger.error("❌ Erro inesperado no write-behind: {}", e.getMessage(), e);
+            }
+            lote.clear();
+        }
+
+        if (!lote.isEmpty()) {
+            gravarLote(lote);
+        }
+    }
+
+    /**
+     * Grava um lote: descarta duplicados já conhecidos (no próprio lote ou no banco)
+     * e envia o restante em um único saveAll. Se ainda assim houver violação de
+     * integridade (corrida com outra gravação), refaz linha a linha.
+     *
+     * @return observationIds gravados
+     */
+    private Set<String> gravarLote(List<HemogramEntity> lote) {
+        List<HemogramEntity> novos = removerDuplicados(lote);
+        if (novos.isEmpty()) {
+            return Set.of();
+        }
+
+        try {
+            gravar(novos);
+            lotesGravados.increment();
+            linhasGravadas.add(novos.size());
+            eventPublisher.publishEvent(new HemogramasPersistidosEvent(novos));
+            logger.info("✅ Lote de {} hemogramas gravado no banco de dados", novos.size());
+            return observationIds(novos);
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Violação de integridade no lote de {} hemogramas, gravando linha a linha", novos.size());
+            return gravarLinhaALinha(novos);
+        } catch (Exception e) {
+            falhas.add(novos.size());
+            logger.error("❌ Erro ao gravar lote de {} hemogramas: {}", novos.size(), e.getMessage(), e);
+            return Set.of();
+        }
+    }
+
+    /**
+     * INSERT das entidades e marca das horas delas no rollup, em uma transação.
+     */
+    private void gravar(List<HemogramEntity> entidades) {
+        Set<RollupHorarioRepository.HoraRegiao> horas = new HashSet<>();
+        List<LocalDateTime> instantes = new ArrayList<>(entidades.size());
+        for (HemogramEntity entity : entidades) {
+            if (entity.getTimestamp() != null) {
+                instantes.add(entity.getTimestamp());
+            }
+            if (entity.getRegion() != null && entity.getTimestamp() != null) {
+                horas.add(new RollupHorarioRepository.HoraRegiao(entity.getRegion(),
+                        entity.getTimestamp().truncatedTo(ChronoUnit.HOURS)));
+            }
+        }
+        // Meses novos (virada do mês, importação de histórico) ganham tabela antes da transação
+        particaoRepository.garantir(instantes);
+        transactionTemplate.executeWithoutResult(status -> {
+            hemogramRepository.saveAll(entidades);
+            rollupRepository.marcarPendentes(horas);
+        });
+    }
+
+    private static Set<String> observationIds(List<HemogramEntity> entidades) {
+        Set<String> ids = new HashSet<>();
+        for (HemogramEntity entity : entidades) {
+            ids.add(entity.getObservationId());
+        }
+        return ids;
+    }
+
+    private List<HemogramEntity> removerDuplicados(List<HemogramEntity> lote) {
+        Map<String, HemogramEntity> porObservationId = new LinkedHashMap<>();
+        for (HemogramEntity entity : lote) {
+            if (porObservationId.putIfAbsent(entity.getObservationId(), entity) != null) {
+                duplicadas.increment();
+                logger.warn("Hemograma {} duplicado no mesmo lote, ignorado", entity.getObservationId());
+            }
+        }
+
+        Set<String> existentes = new HashSet<>(hemogramRepository.findExistingObservationIds(porObservationId.keySet()));
+        List<HemogramEntity> novos = new ArrayList<>(porObservationId.size());
+        for (HemogramEntity entity : porObservationId.values()) {
+            if (existentes.contains(entity.getObservationId())) {
+                duplicadas.increment();
+                logger.warn("Hemograma {} já existe no banco de dados, ignorado", entity.getObservationId());
+            } else {
+                novos.add(entity);
+            }
+        }
+        return novos;
+    }
+
+    private Set<String> gravarLinhaALinha(List<HemogramEntity> entidades) {
+        List<HemogramEntity> gravados = new ArrayList<>();
+        for (HemogramEntity entity : entidades) {
+            // O id pode ter sido atribuído na tentativa em lote que sofreu rollback
+            entity.setId(null);
+            try {
+                gravar(List.of(entity));
+                linhasGravadas.increment();
+                gravados.add(entity);
+            } catch (DataIntegrityViolationException e) {
+                duplicadas.increment();
+                logger.warn("Hemograma {} violou restrição de integridade, ignorado: {}",
+                        entity.getObservationId(), e.getMostSpecificCause().getMessage());
+            } catch (Exception e) {
+                falhas.increment();
+                logger.error("❌ Erro ao salvar hemograma {}: {}", entity.getObservationId(), e.getMessage(), e);
+            }
+        }
+        if (!gravados.isEmpty()) {
+            eventPublisher.publishEvent(new HemogramasPersistidosEvent(gravados));
+        }
+        return observationIds(gravados);
+    }
+
+    private HemogramEntity toEntity(HemogramData data) {
+        HemogramEntity entity = new HemogramEntity();
+        entity.setObservationId(data.getId());
+        entity.setPatientId(data.getPatientId());
+        entity.setPatientName(data.getPatientName());
+        entity.setPatientCpf(data.getPatientCpf());
+        entity.setPatientPhone(data.getPatientPhone());
+        entity.setTimestamp(data.getTimestamp());
+        entity.setLeucocitos(data.getLeucocitos());
+        entity.setHemoglobina(data.getHemoglobina());
+        entity.setPlaquetas(data.getPlaquetas());
+        entity.setHematocrito(data.getHematocrito());
+        entity.setRegion(data.getRegion());
+        return entity;
+    }
+}
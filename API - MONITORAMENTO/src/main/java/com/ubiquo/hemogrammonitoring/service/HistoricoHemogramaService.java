@@ -0,0 +1,404 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.ubiquo.hemogrammonitoring.config.HistoricoProperties;
+import com.ubiquo.hemogrammonitoring.dto.HemogramaHistoricoDTO;
+import com.ubiquo.hemogrammonitoring.dto.PaginaHistoricoDTO;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histórico de hemogramas em páginas limitadas, com cursor de continuação opaco.
+ *
+ * O cursor guarda a posição (timestamp, id) do último hemograma da página e uma assinatura
+ * dos filtros: usá-lo com filtros diferentes dos que o geraram é rejeitado, em vez de
+ * devolver uma página de outra consulta. Hemogramas gravados depois da primeira página com
+ * timestamp mais recente que o cursor não aparecem nas páginas seguintes (a ordem é do mais
+ * recente para o mais antigo); nenhum é repetido nem pulado entre as páginas.
+ *
+ * A exportação (NDJSON ou CSV) percorre o mesmo filtro inteiro em uma transação somente
+ * leitura e escreve cada linha direto na saída, então a memória não cresce com o número de
+ * linhas. Cada exportação registra linhas e linhas/s (log e {@link #getMetricasExportacao()}).
+ *
+ * Uma exportação segura uma conexão do pool durante toda a transação. As exportações HTTP
+ * passam por uma {@link VagaExportacao}, limitadas a maxExportacoesSimultaneas: sem vaga, o
+ * controller responde 429 em vez de esperar e esgotar o pool das demais consultas.
+ */
+@Service
+public class HistoricoHemogramaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoricoHemogramaService.class);
+
+    private static final String VERSAO_CURSOR = "v1";
+    private static final String SEPARADOR = "|";
+
+    private static final DateTimeFormatter FORMATO_TIMESTAMP = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final String CABECALHO_CSV = "id,observationId,patientId,patientName,patientCpf,patientPhone,"
+            + "timestamp,leucocitos,hemoglobina,plaquetas,hematocrito,region";
+
+    private final HistoricoHemogramaRepository historicoRepository;
+    private final HistoricoProperties config;
+    private final TransactionTemplate transacaoLeitura;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Semaphore vagasExportacao;
+
+    // Métricas da exportação
+    private final LongAdder exportacoes = new LongAdder();
+    private final LongAdder exportacoesInterrompidas = new LongAdder();
+    private final LongAdder exportacoesRecusadas = new LongAdder();
+    private final LongAdder linhasExportadas = new LongAdder();
+    private final AtomicInteger exportacoesEmAndamento = new AtomicInteger();
+    private volatile Map<String, Object> ultimaExportacao;
+
+    public HistoricoHemogramaService(HistoricoHemogramaRepository historicoRepository, HistoricoProperties config,
+                                     PlatformTransactionManager transactionManager) {
+        this.historicoRepository = historicoRepository;
+        this.config = config;
+        this.transacaoLeitura = new TransactionTemplate(transactionManager);
+        this.transacaoLeitura.setReadOnly(true);
+        this.vagasExportacao = new Semaphore(config.getMaxExportacoesSimultaneas());
+    }
+
+    /**
+     * Vaga reservada antes de a resposta começar e devolvida uma única vez: ao fim da
+     * exportação ou, se a exportação nunca chegar a rodar (requisição encerrada antes de o
+     * executor assíncrono pegar a tarefa), por {@link #descartar()}.
+     */
+    public final class VagaExportacao {
+        private static final int RESERVADA = 0;
+        private static final int EM_USO = 1;
+        private static final int DEVOLVIDA = 2;
+
+        private final AtomicInteger estado = new AtomicInteger(RESERVADA);
+
+        private VagaExportacao() {
+        }
+
+        /**
+         * Exporta usando a vaga e a devolve ao terminar.
+         *
+         * @throws IllegalStateException se a vaga já foi usada ou descartada
+         */
+        public long exportar(HistoricoHemogramaRepository.Filtro filtro, FormatoExportacao formato,
+                             OutputStream saida) throws IOException {
+            if (!estado.compareAndSet(RESERVADA, EM_USO)) {
+                throw new IllegalStateException("Vaga de exportação já utilizada");
+            }
+            try {
+                return HistoricoHemogramaService.this.exportar(filtro, formato, saida);
+            } finally {
+                estado.set(DEVOLVIDA);
+                vagasExportacao.release();
+            }
+        }
+
+        /**
+         * Devolve a vaga se a exportação não começou; depois disso, não faz nada.
+         */
+        public void descartar() {
+            if (estado.compareAndSet(RESERVADA, DEVOLVIDA)) {
+                vagasExportacao.release();
+            }
+        }
+    }
+
+    /**
+     * @return a vaga, ou null se já há maxExportacoesSimultaneas exportações em andamento
+     */
+    public VagaExportacao reservarExportacao() {
+        if (!vagasExportacao.tryAcquire()) {
+            exportacoesRecusadas.increment();
+            return null;
+        }
+        return new VagaExportacao();
+    }
+
+    public enum FormatoExportacao {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String tipoConteudo;
+        private final String extensao;
+
+        FormatoExportacao(String tipoConteudo, String extensao) {
+            this.tipoConteudo = tipoConteudo;
+            this.extensao = extensao;
+        }
+
+        public String getTipoConteudo() {
+            return tipoConteudo;
+        }
+
+        public String getExtensao() {
+            return extensao;
+        }
+
+        /**
+         * @throws IllegalArgumentException para formatos desconhecidos
+         */
+        public static FormatoExportacao de(String nome) {
+            for (FormatoExportacao formato : values()) {
+                if (formato.extensao.equalsIgnoreCase(nome)) {
+                    return formato;
+                }
+            }
+            throw new IllegalArgumentException("Formato inválido: " + nome + " (use ndjson ou csv)");
+        }
+    }
+
+    /**
+     * @param limite hemogramas por página (null = padrão; acima do máximo é reduzido)
+     * @param cursor proximoCursor da página anterior, ou null para a primeira
+     * @throws IllegalArgumentException com limite, período ou cursor inválidos
+     */
+    public PaginaHistoricoDTO buscar(HistoricoHemogramaRepository.Filtro filtro, Integer limite, String cursor) {
+        if (limite != null && limite < 1) {
+            throw new IllegalArgumentException("limite deve ser >= 1");
+        }
+        validarPeriodo(filtro);
+        int limiteAplicado = limite == null
+                ? config.getLimitePadrao()
+                : Math.min(limite, config.getLimiteMaximo());
+
+        HistoricoHemogramaRepository.Posicao apos = cursor == null || cursor.isBlank() ? null : decodificar(cursor, filtro);
+
+        // Uma linha a mais diz se existe próxima página, sem COUNT
+        List<HemogramaHistoricoDTO> linhas = historicoRepository.buscarPagina(filtro, apos, limiteAplicado + 1);
+        String proximoCursor = null;
+        if (linhas.size() > limiteAplicado) {
+            linhas = linhas.subList(0, limiteAplicado);
+            HemogramaHistoricoDTO ultimo = linhas.get(limiteAplicado - 1);
+            proximoCursor = codificar(new HistoricoHemogramaRepository.Posicao(ultimo.timestamp(), ultimo.id()), filtro);
+        }
+        return new PaginaHistoricoDTO(List.copyOf(linhas), limiteAplicado, proximoCursor);
+    }
+
+    /**
+     * Escreve todos os hemogramas do filtro na saída, um por linha, na ordem do histórico.
+     * A saída não é fechada; o chamador cuida dela (e do gzip, se houver). Não passa pelo
+     * limite de exportações simultâneas (uso interno, como o arquivamento da retenção).
+     *
+     * @return linhas escritas
+     * @throws IOException se a escrita falhar (ex: cliente desconectou)
+     */
+    public long exportar(HistoricoHemogramaRepository.Filtro filtro, FormatoExportacao formato,
+                         OutputStream saida) throws IOException {
+        validarPeriodo(filtro);
+        return exportar(destino -> percorrer(filtro, destino), formato, saida);
+    }
+
+    /**
+     * Escreve todas as linhas de uma tabela de partição (ex: uma partição retirada pela
+     * retenção, no arquivamento), como {@link #exportar(HistoricoHemogramaRepository.Filtro,
+     * FormatoExportacao, OutputStream)}.
+     */
+    public long exportarTabela(String tabela, FormatoExportacao formato, OutputStream saida) throws IOException {
+        return exportar(destino -> transacaoLeitura.executeWithoutResult(status ->
+                historicoRepository.exportarTabela(tabela, config.getTamanhoLeituraExportacao(), destino)), formato, saida);
+    }
+
+    private long exportar(Origem origem, FormatoExportacao formato, OutputStream saida) throws IOException {
+        exportacoesEmAndamento.incrementAndGet();
+        long inicio = System.nanoTime();
+        long[] linhas = {0};
+        try {
+            if (formato == FormatoExportacao.NDJSON) {
+                exportarNdjson(origem, saida, linhas);
+            } else {
+                exportarCsv(origem, saida, linhas);
+            }
+        } catch (UncheckedIOException e) {
+            exportacoesInterrompidas.increment();
+            logger.warn("📤 Exportação {} interrompida após {} linhas: {}", formato, linhas[0], e.getCause().getMessage());
+            throw e.getCause();
+        } finally {
+            exportacoesEmAndamento.decrementAndGet();
+            linhasExportadas.add(linhas[0]);
+        }
+
+        long duracaoMs = Math.max(1, (System.nanoTime() - inicio) / 1_000_000);
+        long linhasPorSegundo = linhas[0] * 1000 / duracaoMs;
+        exportacoes.increment();
+        Map<String, Object> resumo = new LinkedHashMap<>();
+        resumo.put("format", formato.getExtensao());
+        resumo.put("rows", linhas[0]);
+        resumo.put("durationMs", duracaoMs);
+        resumo.put("rowsPerSecond", linhasPorSegundo);
+        ultimaExportacao = resumo;
+        logger.info("📤 Exportação {}: {} linhas em {} ms ({} linhas/s)", formato, linhas[0], duracaoMs, linhasPorSegundo);
+        return linhas[0];
+    }
+
+    public Map<String, Object> getMetricasExportacao() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("exports", exportacoes.sum());
+        metricas.put("exportsInterrupted", exportacoesInterrompidas.sum());
+        metricas.put("exportsInProgress", exportacoesEmAndamento.get());
+        metricas.put("exportsRejected", exportacoesRecusadas.sum());
+        metricas.put("maxConcurrentExports", config.getMaxExportacoesSimultaneas());
+        metricas.put("rowsExported", linhasExportadas.sum());
+        metricas.put("fetchSize", config.getTamanhoLeituraExportacao());
+        metricas.put("lastExport", ultimaExportacao);
+        return metricas;
+    }
+
+    /**
+     * Linhas de uma exportação, entregues ao destino uma a uma.
+     */
+    @FunctionalInterface
+    private interface Origem {
+        void percorrer(HistoricoHemogramaRepository.Destino destino);
+    }
+
+    private void exportarNdjson(Origem origem, OutputStream saida, long[] linhas)
+            throws IOException {
+        try (JsonGenerator gerador = jsonFactory.createGenerator(saida)) {
+            gerador.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            gerador.setRootValueSeparator(null);
+            origem.percorrer(hemograma -> {
+                gerador.writeStartObject();
+                gerador.writeNumberField("id", hemograma.id());
+                gerador.writeStringField("observationId", hemograma.observationId());
+                gerador.writeStringField("patientId", hemograma.patientId());
+                gerador.writeStringField("patientName", hemograma.patientName());
+                gerador.writeStringField("patientCpf", hemograma.patientCpf());
+                gerador.writeStringField("patientPhone", hemograma.patientPhone());
+                gerador.writeStringField("timestamp", FORMATO_TIMESTAMP.format(hemograma.timestamp()));
+                escreverNumero(gerador, "leucocitos", hemograma.leucocitos());
+                escreverNumero(gerador, "hemoglobina", hemograma.hemoglobina());
+                escreverNumero(gerador, "plaquetas", hemograma.plaquetas());
+                escreverNumero(gerador, "hematocrito", hemograma.hematocrito());
+                gerador.writeStringField("region", hemograma.region());
+                gerador.writeEndObject();
+                gerador.writeRaw('\n');
+                linhas[0]++;
+            });
+        }
+    }
+
+    private void exportarCsv(Origem origem, OutputStream saida, long[] linhas)
+            throws IOException {
+        // Sem fechar: fecharia a saída do chamador
+        Writer escritor = new OutputStreamWriter(saida, StandardCharsets.UTF_8);
+        escritor.write(CABECALHO_CSV);
+        escritor.write('\n');
+        origem.percorrer(hemograma -> {
+            escritor.write(Long.toString(hemograma.id()));
+            escreverCampoCsv(escritor, hemograma.observationId());
+            escreverCampoCsv(escritor, hemograma.patientId());
+            escreverCampoCsv(escritor, hemograma.patientName());
+            escreverCampoCsv(escritor, hemograma.patientCpf());
+            escreverCampoCsv(escritor, hemograma.patientPhone());
+            escreverCampoCsv(escritor, FORMATO_TIMESTAMP.format(hemograma.timestamp()));
+            escreverCampoCsv(escritor, hemograma.leucocitos());
+            escreverCampoCsv(escritor, hemograma.hemoglobina());
+            escreverCampoCsv(escritor, hemograma.plaquetas());
+            escreverCampoCsv(escritor, hemograma.hematocrito());
+            escreverCampoCsv(escritor, hemograma.region());
+            escritor.write('\n');
+            linhas[0]++;
+        });
+        escritor.flush();
+    }
+
+    /**
+     * Entrega todas as linhas do filtro ao destino, do mais recente para o mais antigo, em
+     * uma transação somente leitura e sem acumulá-las.
+     */
+    public void percorrer(HistoricoHemogramaRepository.Filtro filtro, HistoricoHemogramaRepository.Destino destino) {
+        transacaoLeitura.executeWithoutResult(status ->
+                historicoRepository.exportar(filtro, config.getTamanhoLeituraExportacao(), destino));
+    }
+
+    private static void escreverNumero(JsonGenerator gerador, String campo, Double valor) throws IOException {
+        if (valor == null) {
+            gerador.writeNullField(campo);
+        } else {
+            gerador.writeNumberField(campo, valor);
+        }
+    }
+
+    private static void escreverCampoCsv(Writer escritor, Double valor) throws IOException {
+        escritor.write(',');
+        if (valor != null) {
+            escritor.write(Double.toString(valor));
+        }
+    }
+
+    /**
+     * RFC 4180: campos com vírgula, aspas ou quebra de linha vão entre aspas, com aspas dobradas.
+     */
+    private static void escreverCampoCsv(Writer escritor, String valor) throws IOException {
+        escritor.write(',');
+        if (valor == null) {
+            return;
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            escritor.write(valor);
+            return;
+        }
+        escritor.write('"');
+        escritor.write(valor.replace("\"", "\"\""));
+        escritor.write('"');
+    }
+
+    private static void validarPeriodo(HistoricoHemogramaRepository.Filtro filtro) {
+        if (filtro.inicio() != null && filtro.fim() != null && filtro.inicio().isAfter(filtro.fim())) {
+            throw new IllegalArgumentException("inicio deve ser anterior ou igual a fim");
+        }
+    }
+
+    private static String codificar(HistoricoHemogramaRepository.Posicao posicao, HistoricoHemogramaRepository.Filtro filtro) {
+        String conteudo = String.join(SEPARADOR, VERSAO_CURSOR, posicao.timestamp().toString(),
+                Long.toString(posicao.id()), assinatura(filtro));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(conteudo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static HistoricoHemogramaRepository.Posicao decodificar(String cursor, HistoricoHemogramaRepository.Filtro filtro) {
+        String[] partes;
+        try {
+            partes = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\" + SEPARADOR);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+        if (partes.length != 4 || !VERSAO_CURSOR.equals(partes[0])) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+        if (!assinatura(filtro).equals(partes[3])) {
+            throw new IllegalArgumentException("Cursor gerado com outros filtros: repita a consulta com os mesmos filtros");
+        }
+        try {
+            return new HistoricoHemogramaRepository.Posicao(LocalDateTime.parse(partes[1]), Long.parseLong(partes[2]));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor inválido");
+        }
+    }
+
+    private static String assinatura(HistoricoHemogramaRepository.Filtro filtro) {
+        return Integer.toHexString(Objects.hash(filtro.regiao(), filtro.inicio(), filtro.fim(),
+                filtro.paciente(), filtro.somenteAlterados()));
+    }
+}
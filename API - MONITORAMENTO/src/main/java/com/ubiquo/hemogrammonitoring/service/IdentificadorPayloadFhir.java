@@ -0,0 +1,51 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * observationId de um hemograma cujo payload não traz id (nem fullUrl): derivado do conteúdo,
+ * como "urn:sha256:" + os primeiros 128 bits do SHA-256 dos bytes UTF-8 do payload.
+ *
+ * O mesmo payload dá sempre o mesmo id, no fast path e no caminho HAPI. Assim o reprocessamento
+ * do diário de ingestão (que entrega de novo entradas já gravadas acima do checkpoint) e o
+ * reenvio do mesmo payload caem na deduplicação por observationId, o que um UUID novo a cada
+ * parse não permitia.
+ */
+final class IdentificadorPayloadFhir {
+
+    static final String PREFIXO = "urn:sha256:";
+
+    private static final int BYTES_ID = 16;
+
+    private IdentificadorPayloadFhir() {
+    }
+
+    static String derivar(String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        return derivar(bytes, 0, bytes.length);
+    }
+
+    static String derivar(byte[] dados, int offset, int tamanho) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Obrigatório em toda JVM
+            throw new IllegalStateException(e);
+        }
+        sha256.update(dados, offset, tamanho);
+        byte[] resumo = sha256.digest();
+        return PREFIXO + HexFormat.of().formatHex(resumo, 0, BYTES_ID);
+    }
+
+    /**
+     * Id de um dos hemogramas de um Bundle em lote: o id do payload ({@link #derivar(String)})
+     * com a posição da primeira entrada do painel.
+     */
+    static String daEntrada(String idDoPayload, int entrada) {
+        return idDoPayload + "#" + entrada;
+    }
+}
@@ -0,0 +1,265 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.model.Desvio;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline assíncrono de ingestão (accept-and-ack).
+ *
+ * O endpoint de subscription só valida o envelope FHIR e enfileira o payload em uma
+ * fila limitada; um pool fixo de workers executa parse, persistência e análise.
+ * Quando a fila enche, {@link #enfileirar(String, long)} retorna false e o controller
+ * responde 429 com Retry-After.
+ *
+ * Com {@code spring.threads.virtual.enabled=true} (Java 21, perfil "virtual") os workers
+ * passam a ser virtual threads: a fila continua limitada, mas o bloqueio em JPA não
+ * prende threads de plataforma.
+ *
+ * Com o diário de ingestão habilitado, cada tarefa leva a sequência da entrada e a
+ * confirma depois da gravação; as entradas pendentes de uma execução anterior são
+ * reprocessadas quando a aplicação termina de subir, e até lá o endpoint de subscription
+ * recusa payloads novos ({@link DiarioIngestaoService#isAceitandoPayloads()}).
+ */
+@Service
+public class IngestionQueueService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionQueueService.class);
+
+    private static final List<String> TIPOS_SUPORTADOS = List.of("Bundle", "Observation");
+
+    private final FhirParserService fhirParserService;
+    private final DiarioIngestaoService diarioIngestaoService;
+    private final IngestionProperties.Async config;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final ThreadPoolExecutor executor;
+
+    // Métricas
+    private final LongAdder aceitas = new LongAdder();
+    private final LongAdder rejeitadas = new LongAdder();
+    private final LongAdder processadas = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+    private final LongAdder somaLagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicLong ultimoLagNanos = new AtomicLong();
+    private final LongAdder tempoOcupadoNanos = new LongAdder();
+    private final long inicioNanos = System.nanoTime();
+
+    public IngestionQueueService(FhirParserService fhirParserService, DiarioIngestaoService diarioIngestaoService,
+                                 IngestionProperties ingestionProperties, Environment environment) {
+        this.fhirParserService = fhirParserService;
+        this.diarioIngestaoService = diarioIngestaoService;
+        this.config = ingestionProperties.getAsync();
+
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        ThreadFactory threadFactory = virtual
+                ? new VirtualThreadTaskExecutor("ingestao-worker-").getVirtualThreadFactory()
+                : new WorkerThreadFactory();
+
+        int workers = Math.max(1, config.getWorkers());
+        this.executor = new ThreadPoolExecutor(
+                workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity())),
+                threadFactory,
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+
+        if (config.isEnabled()) {
+            logger.info("Ingestão assíncrona habilitada: {} workers ({}), fila de {} posições",
+                    workers, virtual ? "virtual threads" : "threads de plataforma", config.getQueueCapacity());
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    public int getRetryAfterSeconds() {
+        return config.getRetryAfterSeconds();
+    }
+
+    /**
+     * Valida o envelope do payload sem montar o modelo HAPI: confere que é um objeto JSON
+     * bem formado no nível superior e que o resourceType é Bundle ou Observation.
+     *
+     * @return o resourceType encontrado, ou null se o envelope for inválido
+     */
+    public String validarEnvelope(String fhirJson) {
+        if (fhirJson == null || fhirJson.isBlank()) {
+            return null;
+        }
+        try (JsonParser parser = jsonFactory.createParser(fhirJson)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            String resourceType = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String campo = parser.getCurrentName();
+                JsonToken valor = parser.nextToken();
+                if ("resourceType".equals(campo) && valor == JsonToken.VALUE_STRING) {
+                    resourceType = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return TIPOS_SUPORTADOS.contains(resourceType) ? resourceType : null;
+        } catch (Exception e) {
+            logger.debug("Envelope FHIR inválido: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Enfileira o payload para processamento pelos workers.
+     *
+     * @param sequenciaDiario entrada do diário de ingestão, ou {@link DiarioIngestaoService#SEM_REGISTRO}
+     * @return false se a fila estiver cheia (o chamador deve sinalizar backpressure)
+     */
+    public boolean enfileirar(String fhirJson, long sequenciaDiario) {
+        try {
+            executor.execute(new TarefaIngestao(fhirJson, sequenciaDiario, System.nanoTime()));
+            aceitas.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejeitadas.increment();
+            logger.warn("Fila de ingestão cheia ({} itens) - payload rejeitado", executor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * Reprocessa as entradas do diário que uma execução anterior recebeu e não chegou a
+     * gravar. Roda depois que todos os listeners estão registrados, para que agregados, rollup
+     * e cache vejam os hemogramas regravados. O Tomcat já aceita conexões nesse ponto: até o
+     * fim do reprocessamento o endpoint de subscription responde 503 com Retry-After, então
+     * nenhum payload novo entra na fila antes das entradas pendentes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reprocessarDiario() {
+        diarioIngestaoService.reprocessarPendentes(
+                (sequencia, payload) -> fhirParserService.parseFhirObservation(payload, sequencia));
+    }
+
+    /**
+     * Métricas do pipeline: profundidade da fila, utilização dos workers e lag ponta a ponta
+     * (do enfileiramento até o fim do processamento).
+     */
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        int workers = executor.getMaximumPoolSize();
+        long processadasTotal = processadas.sum() + falhas.sum();
+        long decorridoNanos = Math.max(1, System.nanoTime() - inicioNanos);
+
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("queueDepth", executor.getQueue().size());
+        metricas.put("queueCapacity", config.getQueueCapacity());
+        metricas.put("workers", workers);
+        metricas.put("activeWorkers", executor.getActiveCount());
+        metricas.put("workerUtilization", (double) tempoOcupadoNanos.sum() / ((double) decorridoNanos * workers));
+        metricas.put("accepted", aceitas.sum());
+        metricas.put("rejected", rejeitadas.sum());
+        metricas.put("processed", processadas.sum());
+        metricas.put("failed", falhas.sum());
+        metricas.put("lastLagMs", nanosParaMillis(ultimoLagNanos.get()));
+        metricas.put("avgLagMs", processadasTotal > 0 ? nanosParaMillis(somaLagNanos.sum() / processadasTotal) : 0.0);
+        metricas.put("maxLagMs", nanosParaMillis(maxLagNanos.get()));
+        return metricas;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Workers de ingestão não terminaram a tempo; {} itens descartados da fila",
+                        executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void registrarLag(long lagNanos) {
+        somaLagNanos.add(lagNanos);
+        ultimoLagNanos.set(lagNanos);
+        maxLagNanos.accumulateAndGet(lagNanos, Math::max);
+    }
+
+    private static double nanosParaMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private class TarefaIngestao implements Runnable {
+
+        private final String fhirJson;
+        private final long sequenciaDiario;
+        private final long enfileiradoEmNanos;
+
+        TarefaIngestao(String fhirJson, long sequenciaDiario, long enfileiradoEmNanos) {
+            this.fhirJson = fhirJson;
+            this.sequenciaDiario = sequenciaDiario;
+            this.enfileiradoEmNanos = enfileiradoEmNanos;
+        }
+
+        @Override
+        public void run() {
+            long inicio = System.nanoTime();
+            try {
+                HemogramData hemogramData = fhirParserService.parseFhirObservation(fhirJson, sequenciaDiario);
+                if (hemogramData != null) {
+                    List<Desvio> deviations = fhirParserService.analyzeHemogram(hemogramData);
+                    logger.info("Hemograma {} processado de forma assíncrona. Desvios encontrados: {}",
+                            hemogramData.getId(), deviations.size());
+                    processadas.increment();
+                } else {
+                    logger.warn("Payload enfileirado não pôde ser processado");
+                    falhas.increment();
+                }
+            } catch (Exception e) {
+                logger.error("Erro no worker de ingestão: {}", e.getMessage(), e);
+                falhas.increment();
+            } finally {
+                long fim = System.nanoTime();
+                tempoOcupadoNanos.add(fim - inicio);
+                registrarLag(fim - enfileiradoEmNanos);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger contador = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ingestao-worker-" + contador.incrementAndGet());
+            thread.setDaemon(false);
+            return thread;
+        }
+    }
+}
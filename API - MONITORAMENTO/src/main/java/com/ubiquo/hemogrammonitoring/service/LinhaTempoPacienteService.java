@@ -0,0 +1,301 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.HistoricoProperties;
+import com.ubiquo.hemogrammonitoring.config.PacientesProperties;
+import com.ubiquo.hemogrammonitoring.dto.HemogramaHistoricoDTO;
+import com.ubiquo.hemogrammonitoring.dto.LinhaTempoPacienteDTO;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.Desvio;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.model.ResultadosRecentesPaciente;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Linha do tempo por paciente e queda seriada de plaquetas.
+ *
+ * A linha do tempo vem do banco, pelo índice (patient_id, timestamp, id). Para a ingestão
+ * não consultar o banco, as últimas contagens de plaquetas de cada paciente ativo ficam em
+ * um LRU limitado ({@code pacientes.max-pacientes} pacientes × {@code pacientes.ultimos-resultados}
+ * coletas), alimentado pelos {@link HemogramasPersistidosEvent} e aquecido na inicialização
+ * com a janela de detecção. Cada hemograma gravado é comparado com a maior contagem do mesmo
+ * paciente nas {@code janela-queda-horas} anteriores, antes de entrar no cache; caindo mais que
+ * {@code queda-plaquetas-percentual}, a queda vai para o log e para as últimas
+ * {@code pacientes.max-quedas} quedas, qualquer que seja o modo de resposta da ingestão. As
+ * respostas completas repetem a comparação como desvio {@link Desvio#QUEDA_PLAQUETAS}.
+ *
+ * Pacientes sem id (o parser usa "unknown") não entram no cache.
+ */
+@Service
+public class LinhaTempoPacienteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinhaTempoPacienteService.class);
+
+    private static final String PACIENTE_DESCONHECIDO = "unknown";
+
+    private final HistoricoHemogramaRepository historicoRepository;
+    private final HistoricoHemogramaService historicoService;
+    private final HistoricoProperties historicoProperties;
+    private final PacientesProperties config;
+
+    // Protegido por this
+    private final LinkedHashMap<String, ResultadosRecentesPaciente> recentes;
+    // Últimas quedas detectadas na gravação, da mais recente para a mais antiga
+    private final Deque<Map<String, Object>> quedas = new ArrayDeque<>();
+
+    // Métricas
+    private final LongAdder registrados = new LongAdder();
+    private final LongAdder despejos = new LongAdder();
+    private final LongAdder avaliacoes = new LongAdder();
+    private final LongAdder semHistorico = new LongAdder();
+    private final LongAdder quedasDetectadas = new LongAdder();
+    private volatile long linhasAquecimento;
+    private volatile long duracaoAquecimentoMs;
+
+    public LinhaTempoPacienteService(HistoricoHemogramaRepository historicoRepository,
+                                     HistoricoHemogramaService historicoService,
+                                     HistoricoProperties historicoProperties, PacientesProperties config) {
+        this.historicoRepository = historicoRepository;
+        this.historicoService = historicoService;
+        this.historicoProperties = historicoProperties;
+        this.config = config;
+        this.recentes = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResultadosRecentesPaciente> maisAntiga) {
+                if (size() > config.getMaxPacientes()) {
+                    despejos.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Carrega as coletas da janela de detecção, da mais recente para a mais antiga: com a
+     * lista de um paciente cheia, as mais antigas são descartadas sem custo, e com o cache
+     * cheio não entram pacientes novos (só teriam coletas mais antigas que os já carregados).
+     */
+    @PostConstruct
+    public void aquecer() {
+        if (!isAtivo()) {
+            logger.info("Cache de resultados por paciente desligado (hemogram.monitoring.pacientes.max-pacientes=0)");
+            return;
+        }
+        long inicio = System.nanoTime();
+        long[] linhas = {0};
+        HistoricoHemogramaRepository.Filtro janela = new HistoricoHemogramaRepository.Filtro(
+                null, LocalDateTime.now().minusHours(config.getJanelaQuedaHoras()), null, null, false);
+        historicoService.percorrer(janela, hemograma -> {
+            registrar(hemograma.patientId(), hemograma.observationId(), hemograma.timestamp(), hemograma.plaquetas(),
+                    false);
+            linhas[0]++;
+        });
+        linhasAquecimento = linhas[0];
+        duracaoAquecimentoMs = (System.nanoTime() - inicio) / 1_000_000;
+        logger.info("🩸 Resultados recentes por paciente carregados: {} hemogramas, {} pacientes em {} ms",
+                linhasAquecimento, tamanhoCache(), duracaoAquecimentoMs);
+    }
+
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        if (!isAtivo()) {
+            return;
+        }
+        for (HemogramEntity hemograma : event.getHemogramas()) {
+            Desvio queda = registrar(hemograma.getPatientId(), hemograma.getObservationId(), hemograma.getTimestamp(),
+                    hemograma.getPlaquetas(), true);
+            if (queda != null) {
+                registrarQueda(hemograma, queda);
+            }
+        }
+    }
+
+    /**
+     * Compara as plaquetas do hemograma com as coletas anteriores do mesmo paciente em
+     * memória, para a resposta da ingestão. Não depende de o hemograma já ter sido gravado:
+     * ele mesmo e coletas posteriores são ignorados. Não conta nem registra a queda; isso é
+     * feito uma vez, na gravação.
+     *
+     * @return o desvio de queda seriada, ou null
+     */
+    public Desvio avaliarQuedaPlaquetas(HemogramData hemograma) {
+        if (!isAtivo() || hemograma.getPlaquetas() == null || hemograma.getTimestamp() == null
+                || !rastreavel(hemograma.getPatientId())) {
+            return null;
+        }
+        synchronized (this) {
+            ResultadosRecentesPaciente resultados = recentes.get(hemograma.getPatientId());
+            if (resultados == null) {
+                return null;
+            }
+            return resultados.avaliarQueda(hemograma.getId(), hemograma.getTimestamp(), hemograma.getPlaquetas(),
+                    config.getQuedaPlaquetasPercentual(), config.getJanelaQuedaHoras());
+        }
+    }
+
+    /**
+     * Últimas quedas seriadas detectadas na gravação (até pacientes.max-quedas), da mais recente
+     * para a mais antiga.
+     */
+    public List<Map<String, Object>> listarQuedas() {
+        synchronized (quedas) {
+            return new ArrayList<>(quedas);
+        }
+    }
+
+    /**
+     * Hemogramas do paciente em ordem de coleta. Com mais de {@code limite} no período,
+     * ficam os mais recentes. As quedas usam a mesma regra da ingestão, sobre os pontos
+     * devolvidos (os primeiros pontos não têm as coletas anteriores ao período como referência).
+     *
+     * @param limite hemogramas (null = historico.limite-padrao; acima de historico.limite-maximo é reduzido)
+     * @throws IllegalArgumentException com limite ou período inválidos
+     */
+    public LinhaTempoPacienteDTO linhaTempo(String paciente, LocalDateTime inicio, LocalDateTime fim, Integer limite) {
+        if (limite != null && limite < 1) {
+            throw new IllegalArgumentException("limite deve ser >= 1");
+        }
+        if (inicio != null && fim != null && inicio.isAfter(fim)) {
+            throw new IllegalArgumentException("inicio deve ser anterior ou igual a fim");
+        }
+        int limiteAplicado = limite == null
+                ? historicoProperties.getLimitePadrao()
+                : Math.min(limite, historicoProperties.getLimiteMaximo());
+
+        HistoricoHemogramaRepository.Filtro filtro =
+                new HistoricoHemogramaRepository.Filtro(null, inicio, fim, paciente, false);
+        List<HemogramaHistoricoDTO> linhas = historicoRepository.buscarPagina(filtro, null, limiteAplicado);
+
+        List<LinhaTempoPacienteDTO.Ponto> pontos = new ArrayList<>(linhas.size());
+        List<LinhaTempoPacienteDTO.Queda> quedas = new ArrayList<>();
+        ResultadosRecentesPaciente anteriores = new ResultadosRecentesPaciente(Math.max(1, config.getUltimosResultados()));
+        Double plaquetasAnterior = null;
+        // A consulta devolve do mais recente para o mais antigo
+        for (int i = linhas.size() - 1; i >= 0; i--) {
+            HemogramaHistoricoDTO h = linhas.get(i);
+            Double variacao = null;
+            if (h.plaquetas() != null) {
+                if (plaquetasAnterior != null && plaquetasAnterior > 0) {
+                    variacao = (h.plaquetas() - plaquetasAnterior) / plaquetasAnterior * 100;
+                }
+                Desvio queda = anteriores.avaliarQueda(h.observationId(), h.timestamp(), h.plaquetas(),
+                        config.getQuedaPlaquetasPercentual(), config.getJanelaQuedaHoras());
+                if (queda != null) {
+                    quedas.add(new LinhaTempoPacienteDTO.Queda(h.observationId(), h.timestamp(), h.plaquetas(),
+                            queda.getReferencia(), queda.getQuedaPercentual(), queda.getHoras(), queda.getMensagem()));
+                }
+                anteriores.adicionar(h.observationId(), h.timestamp(), h.plaquetas());
+                plaquetasAnterior = h.plaquetas();
+            }
+            pontos.add(new LinhaTempoPacienteDTO.Ponto(h.id(), h.observationId(), h.timestamp(), h.leucocitos(),
+                    h.hemoglobina(), h.plaquetas(), h.hematocrito(), h.region(), variacao));
+        }
+        return new LinhaTempoPacienteDTO(paciente, pontos.size(), limiteAplicado, pontos, quedas);
+    }
+
+    public boolean isAtivo() {
+        return config.getMaxPacientes() > 0 && config.getUltimosResultados() > 0;
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", isAtivo());
+        metricas.put("maxPatients", config.getMaxPacientes());
+        metricas.put("resultsPerPatient", config.getUltimosResultados());
+        metricas.put("dropThresholdPercent", config.getQuedaPlaquetasPercentual());
+        metricas.put("dropWindowHours", config.getJanelaQuedaHoras());
+        metricas.put("patients", tamanhoCache());
+        metricas.put("registered", registrados.sum());
+        metricas.put("evictions", despejos.sum());
+        metricas.put("evaluations", avaliacoes.sum());
+        metricas.put("evaluationsWithoutHistory", semHistorico.sum());
+        metricas.put("dropsDetected", quedasDetectadas.sum());
+        metricas.put("maxDropsKept", config.getMaxQuedas());
+        metricas.put("warmupRows", linhasAquecimento);
+        metricas.put("warmupMs", duracaoAquecimentoMs);
+        return metricas;
+    }
+
+    /**
+     * Guarda a coleta no cache do paciente. Na gravação (admitirComCacheCheio), antes compara
+     * a coleta com as anteriores, sob o mesmo lock: duas gravações do mesmo paciente não
+     * avaliam contra um cache pela metade.
+     *
+     * @param admitirComCacheCheio se false, paciente ainda fora do cache não entra quando ele está cheio
+     * @return a queda seriada da coleta (só na gravação), ou null
+     */
+    private Desvio registrar(String paciente, String observationId, LocalDateTime coleta, Double plaquetas,
+                             boolean admitirComCacheCheio) {
+        if (plaquetas == null || coleta == null || !rastreavel(paciente)) {
+            return null;
+        }
+        Desvio queda = null;
+        synchronized (this) {
+            ResultadosRecentesPaciente resultados = recentes.get(paciente);
+            if (resultados == null) {
+                if (!admitirComCacheCheio && recentes.size() >= config.getMaxPacientes()) {
+                    return null;
+                }
+                resultados = new ResultadosRecentesPaciente(config.getUltimosResultados());
+                recentes.put(paciente, resultados);
+                if (admitirComCacheCheio) {
+                    avaliacoes.increment();
+                    semHistorico.increment();
+                }
+            } else if (admitirComCacheCheio) {
+                avaliacoes.increment();
+                queda = resultados.avaliarQueda(observationId, coleta, plaquetas,
+                        config.getQuedaPlaquetasPercentual(), config.getJanelaQuedaHoras());
+            }
+            if (resultados.adicionar(observationId, coleta, plaquetas)) {
+                registrados.increment();
+            }
+        }
+        return queda;
+    }
+
+    private void registrarQueda(HemogramEntity hemograma, Desvio queda) {
+        quedasDetectadas.increment();
+        logger.warn("📉 Queda seriada de plaquetas do paciente {}: {}", hemograma.getPatientId(), queda.getMensagem());
+
+        Map<String, Object> registro = new LinkedHashMap<>();
+        registro.put("paciente", hemograma.getPatientId());
+        registro.put("observationId", hemograma.getObservationId());
+        registro.put("coleta", hemograma.getTimestamp());
+        registro.put("regiao", hemograma.getRegion());
+        registro.put("plaquetas", queda.getValor());
+        registro.put("referencia", queda.getReferencia());
+        registro.put("quedaPercentual", queda.getQuedaPercentual());
+        registro.put("horas", queda.getHoras());
+        registro.put("mensagem", queda.getMensagem());
+        synchronized (quedas) {
+            quedas.addFirst(registro);
+            while (quedas.size() > config.getMaxQuedas()) {
+                quedas.removeLast();
+            }
+        }
+    }
+
+    private synchronized int tamanhoCache() {
+        return recentes.size();
+    }
+
+    private static boolean rastreavel(String paciente) {
+        return paciente != null && !paciente.isBlank() && !PACIENTE_DESCONHECIDO.equals(paciente);
+    }
+}
@@ -0,0 +1,91 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.LoincProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Classifica codings LOINC em analitos do hemograma e normaliza os valores para a
+ * unidade canônica de cada analito.
+ *
+ * As tabelas são montadas uma vez a partir de {@link LoincProperties}: cada coding é
+ * classificado com uma única consulta ao mapa (sem if/else por código) e cada unidade
+ * com no máximo uma consulta à tabela de conversões. Usado tanto pelo caminho HAPI
+ * quanto pelo fast path, para que ambos extraiam exatamente os mesmos valores.
+ */
+@Component
+public class LoincDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoincDispatcher.class);
+
+    public static final String LOINC_SYSTEM = "http://loinc.org";
+
+    private final Map<String, String> analitoPorCodigo = new HashMap<>();
+    private final Map<String, String> unidadeCanonica = new HashMap<>();
+    private final Map<String, BigDecimal> fatorPorConversao = new HashMap<>();
+
+    public LoincDispatcher(LoincProperties loincProperties) {
+        for (LoincProperties.Codigo codigo : loincProperties.getCodigos()) {
+            analitoPorCodigo.put(codigo.getCodigo(), codigo.getAnalito());
+        }
+        loincProperties.getUnidades().forEach((analito, unidade) -> unidadeCanonica.put(analito, normalizarUnidade(unidade)));
+        for (LoincProperties.Conversao conversao : loincProperties.getConversoes()) {
+            fatorPorConversao.put(chaveConversao(normalizarUnidade(conversao.getDe()), normalizarUnidade(conversao.getPara())),
+                    BigDecimal.valueOf(conversao.getFator()));
+        }
+        logger.info("Tabela LOINC carregada: {} códigos, {} analitos, {} conversões de unidade",
+                analitoPorCodigo.size(), unidadeCanonica.size(), fatorPorConversao.size());
+    }
+
+    /**
+     * @return o analito do coding, ou null se não for um código LOINC reconhecido
+     */
+    public String classificar(String system, String code) {
+        if (code == null || !LOINC_SYSTEM.equals(system)) {
+            return null;
+        }
+        return analitoPorCodigo.get(code);
+    }
+
+    /**
+     * Converte o valor para a unidade canônica do analito.
+     * Sem unidade informada, o valor é considerado já na unidade canônica.
+     *
+     * @param unidade código UCUM (ou, na falta dele, o texto da unidade)
+     * @return o valor normalizado, ou null se a unidade não puder ser convertida
+     */
+    public Double normalizar(String analito, Double valor, String unidade) {
+        if (valor == null || unidade == null || unidade.isBlank()) {
+            return valor;
+        }
+        String canonica = unidadeCanonica.get(analito);
+        String origem = normalizarUnidade(unidade);
+        if (canonica == null || canonica.equals(origem)) {
+            return valor;
+        }
+        BigDecimal fator = fatorPorConversao.get(chaveConversao(origem, canonica));
+        if (fator == null) {
+            logger.warn("Unidade '{}' sem conversão para '{}' ({}), valor {} ignorado", unidade, canonica, analito, valor);
+            return null;
+        }
+        // BigDecimal evita resíduos binários (ex: 7.2 * 1000 = 7200.000000000001)
+        return BigDecimal.valueOf(valor).multiply(fator).doubleValue();
+    }
+
+    private static String chaveConversao(String de, String para) {
+        return de + "->" + para;
+    }
+
+    /**
+     * Unidades comparadas sem diferenciar maiúsculas e com µ/μ tratados como "u" (UCUM).
+     */
+    private static String normalizarUnidade(String unidade) {
+        return unidade.trim().replace('µ', 'u').replace('μ', 'u').toLowerCase(Locale.ROOT);
+    }
+}
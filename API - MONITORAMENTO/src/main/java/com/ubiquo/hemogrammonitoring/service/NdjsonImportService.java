@@ -0,0 +1,432 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.model.ObservacaoResumo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Importação de arquivos NDJSON do FHIR Bulk Data (uma Observation ou um Bundle por linha).
+ *
+ * O arquivo é dividido em blocos alinhados a quebras de linha; cada bloco é mapeado em memória
+ * (FileChannel.map) e processado por um worker do pool, com a mesma extração do
+ * {@link FhirParserService}. Observations soltas são agrupadas em hemogramas por paciente +
+ * horário de coleta dentro do bloco. A gravação é feita em lotes (JDBC batch).
+ *
+ * Blocos concluídos são registrados em {@code <arquivo>.checkpoint}; ao reiniciar a importação
+ * do mesmo arquivo eles são pulados. Como a gravação descarta observationIds já existentes,
+ * reprocessar um bloco interrompido no meio não duplica hemogramas.
+ */
+@Service
+public class NdjsonImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonImportService.class);
+
+    private static final String SUFIXO_CHECKPOINT = ".checkpoint";
+
+    private final FhirParserService fhirParserService;
+    private final HemogramPersistenceService hemogramPersistenceService;
+    private final IngestionProperties.Importacao config;
+
+    private volatile Progresso atual;
+
+    public NdjsonImportService(FhirParserService fhirParserService,
+                               HemogramPersistenceService hemogramPersistenceService,
+                               IngestionProperties ingestionProperties) {
+        this.fhirParserService = fhirParserService;
+        this.hemogramPersistenceService = hemogramPersistenceService;
+        this.config = ingestionProperties.getImportacao();
+    }
+
+    /**
+     * Inicia a importação em segundo plano.
+     *
+     * @param arquivo caminho relativo ao diretório de importação configurado
+     * @throws IllegalArgumentException se o arquivo não existir ou estiver fora do diretório permitido
+     * @throws IllegalStateException se já houver uma importação em andamento
+     */
+    public synchronized Map<String, Object> iniciar(String arquivo) {
+        Path caminho = resolverArquivo(arquivo);
+        if (atual != null && atual.emAndamento()) {
+            throw new IllegalStateException("Já existe uma importação em andamento: " + atual.arquivo.getFileName());
+        }
+
+        Progresso progresso = new Progresso(caminho);
+        atual = progresso;
+        Thread coordenador = new Thread(() -> executar(progresso), "ndjson-import");
+        coordenador.setDaemon(true);
+        coordenador.start();
+        return progresso.toMap();
+    }
+
+    /**
+     * Progresso e vazão da importação atual (ou da última executada).
+     */
+    public Map<String, Object> getStatus() {
+        Progresso progresso = atual;
+        if (progresso == null) {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", "IDLE");
+            return status;
+        }
+        return progresso.toMap();
+    }
+
+    private Path resolverArquivo(String arquivo) {
+        if (arquivo == null || arquivo.isBlank()) {
+            throw new IllegalArgumentException("Informe o arquivo NDJSON a importar");
+        }
+        try {
+            Path base = Paths.get(config.getDiretorio()).toAbsolutePath().normalize();
+            Path caminho = base.resolve(arquivo).normalize();
+            if (!caminho.startsWith(base) || !Files.isRegularFile(caminho)
+                    || !caminho.toRealPath().startsWith(base.toRealPath())) {
+                throw new IllegalArgumentException("Arquivo não encontrado no diretório de importação: " + arquivo);
+            }
+            return caminho;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Arquivo não encontrado no diretório de importação: " + arquivo);
+        }
+    }
+
+    private void executar(Progresso progresso) {
+        long chunkBytes = Math.max(1, config.getChunkSizeMb()) * 1024L * 1024L;
+        int workers = Math.max(1, config.getWorkers());
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new ImportThreadFactory());
+
+        try (FileChannel canal = FileChannel.open(progresso.arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            progresso.bytesTotal = tamanho;
+            List<long[]> blocos = dividirEmBlocos(canal, tamanho, chunkBytes);
+            progresso.blocosTotal = blocos.size();
+
+            Checkpoint checkpoint = Checkpoint.abrir(
+                    progresso.arquivo.resolveSibling(progresso.arquivo.getFileName() + SUFIXO_CHECKPOINT),
+                    tamanho, chunkBytes);
+
+            logger.info("📥 Importação NDJSON iniciada: {} ({} MB, {} blocos, {} workers)",
+                    progresso.arquivo.getFileName(), tamanho / (1024 * 1024), blocos.size(), workers);
+
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int i = 0; i < blocos.size(); i++) {
+                long inicio = blocos.get(i)[0];
+                long fim = blocos.get(i)[1];
+                if (checkpoint.concluido(i)) {
+                    progresso.blocosRetomados.increment();
+                    progresso.blocosConcluidos.increment();
+                    progresso.bytesProcessados.add(fim - inicio);
+                    progresso.bytesRetomados.add(fim - inicio);
+                    continue;
+                }
+                int indice = i;
+                tarefas.add(pool.submit(() -> {
+                    processarBloco(canal, inicio, fim, progresso);
+                    checkpoint.marcar(indice);
+                    progresso.blocosConcluidos.increment();
+                    logger.info("📥 Importação: bloco {}/{} concluído ({}%)", indice + 1, blocos.size(),
+                            progresso.percentual());
+                    return null;
+                }));
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get();
+            }
+
+            checkpoint.remover();
+            progresso.finalizar(Progresso.CONCLUIDA, null);
+            logger.info("✅ Importação NDJSON concluída: {} linhas, {} hemogramas gravados em {} ms ({} MB/s, {} linhas/s)",
+                    progresso.linhas.sum(), progresso.hemogramasGravados.sum(), progresso.duracaoMs(),
+                    String.format("%.1f", progresso.mbPorSegundo()), progresso.porSegundo(progresso.linhas.sum()));
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause() != null ? e.getCause() : e;
+            progresso.finalizar(Progresso.FALHOU, causa.getMessage());
+            logger.error("❌ Importação NDJSON interrompida (retomável pelo checkpoint): {}", causa.getMessage(), causa);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            progresso.finalizar(Progresso.FALHOU, "Interrompida");
+        } catch (Exception e) {
+            progresso.finalizar(Progresso.FALHOU, e.getMessage());
+            logger.error("❌ Erro na importação NDJSON: {}", e.getMessage(), e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Divide o arquivo em blocos de ~chunkBytes, estendendo cada fim até a próxima quebra de linha.
+     */
+    private static List<long[]> dividirEmBlocos(FileChannel canal, long tamanho, long chunkBytes) throws IOException {
+        List<long[]> blocos = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long inicio = 0;
+        while (inicio < tamanho) {
+            long fim = proximaQuebraDeLinha(canal, Math.min(inicio + chunkBytes, tamanho), tamanho, buffer);
+            if (fim - inicio > Integer.MAX_VALUE) {
+                throw new IOException("Linha maior que 2 GB a partir do byte " + inicio);
+            }
+            blocos.add(new long[]{inicio, fim});
+            inicio = fim;
+        }
+        return blocos;
+    }
+
+    private static long proximaQuebraDeLinha(FileChannel canal, long posicao, long tamanho, ByteBuffer buffer) throws IOException {
+        while (posicao < tamanho) {
+            buffer.clear();
+            int lidos = canal.read(buffer, posicao);
+            if (lidos <= 0) {
+                break;
+            }
+            for (int i = 0; i < lidos; i++) {
+                if (buffer.get(i) == '\n') {
+                    return posicao + i + 1;
+                }
+            }
+            posicao += lidos;
+        }
+        return tamanho;
+    }
+
+    private void processarBloco(FileChannel canal, long inicio, long fim, Progresso progresso) throws IOException {
+        MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio);
+        int limite = mapa.limit();
+        byte[] linha = new byte[64 * 1024];
+
+        Map<String, List<ObservacaoResumo>> grupos = new LinkedHashMap<>();
+        List<HemogramData> pendentes = new ArrayList<>();
+
+        int inicioLinha = 0;
+        for (int i = 0; i <= limite; i++) {
+            if (i < limite && mapa.get(i) != '\n') {
+                continue;
+            }
+            int tamanho = i - inicioLinha;
+            progresso.bytesProcessados.add(i < limite ? tamanho + 1 : tamanho);
+            if (tamanho > 0) {
+                if (linha.length < tamanho) {
+                    linha = new byte[Math.max(tamanho, linha.length * 2)];
+                }
+                mapa.get(inicioLinha, linha, 0, tamanho);
+                processarLinha(linha, tamanho, grupos, pendentes, progresso);
+                if (pendentes.size() >= config.getBatchSize()) {
+                    gravar(pendentes, progresso);
+                }
+            }
+            inicioLinha = i + 1;
+        }
+
+        for (List<ObservacaoResumo> grupo : grupos.values()) {
+            HemogramData hemogramData = fhirParserService.montarHemogramaDeResumos(grupo);
+            if (hemogramData == null) {
+                progresso.linhasIgnoradas.add(grupo.size());
+                continue;
+            }
+            progresso.hemogramasExtraidos.increment();
+            pendentes.add(hemogramData);
+            if (pendentes.size() >= config.getBatchSize()) {
+                gravar(pendentes, progresso);
+            }
+        }
+        gravar(pendentes, progresso);
+    }
+
+    private void processarLinha(byte[] linha, int tamanho, Map<String, List<ObservacaoResumo>> grupos,
+                                List<HemogramData> pendentes, Progresso progresso) {
+        // Ignora \r (arquivos gerados no Windows) e linhas em branco
+        while (tamanho > 0 && Character.isWhitespace(linha[tamanho - 1])) {
+            tamanho--;
+        }
+        if (tamanho == 0) {
+            return;
+        }
+        progresso.linhas.increment();
+
+        FhirFastPathExtractor.LinhaExtraida extraida = fhirParserService.extrairLinhaNdjson(linha, 0, tamanho);
+        if (extraida == null) {
+            progresso.linhasIgnoradas.increment();
+        } else if (extraida.hemograma() != null) {
+            progresso.hemogramasExtraidos.increment();
+            pendentes.add(extraida.hemograma());
+        } else {
+            ObservacaoResumo observacao = extraida.observacao();
+            grupos.computeIfAbsent(observacao.getChavePacienteEHorario(), chave -> new ArrayList<>()).add(observacao);
+        }
+    }
+
+    private void gravar(List<HemogramData> pendentes, Progresso progresso) {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+        Set<String> gravados = hemogramPersistenceService.gravarAgora(pendentes);
+        progresso.hemogramasGravados.add(gravados.size());
+        progresso.naoGravados.add(pendentes.size() - gravados.size());
+        pendentes.clear();
+    }
+
+    /**
+     * Arquivo de checkpoint: cabeçalho com tamanho do arquivo e do bloco (um checkpoint de
+     * outra versão do arquivo é descartado) seguido dos índices dos blocos concluídos.
+     */
+    private static class Checkpoint {
+
+        private final Path arquivo;
+        private final Set<Integer> concluidos;
+
+        private Checkpoint(Path arquivo, Set<Integer> concluidos) {
+            this.arquivo = arquivo;
+            this.concluidos = concluidos;
+        }
+
+        static Checkpoint abrir(Path arquivo, long tamanho, long chunkBytes) throws IOException {
+            String cabecalho = "# " + tamanho + " " + chunkBytes;
+            Set<Integer> concluidos = new HashSet<>();
+            if (Files.exists(arquivo)) {
+                List<String> linhas = Files.readAllLines(arquivo, StandardCharsets.UTF_8);
+                if (!linhas.isEmpty() && cabecalho.equals(linhas.get(0))) {
+                    for (String linha : linhas.subList(1, linhas.size())) {
+                        if (!linha.isBlank()) {
+                            concluidos.add(Integer.parseInt(linha.trim()));
+                        }
+                    }
+                    logger.info("Checkpoint encontrado: {} blocos já importados serão pulados", concluidos.size());
+                    return new Checkpoint(arquivo, concluidos);
+                }
+                logger.warn("Checkpoint {} não corresponde ao arquivo atual, recomeçando do início", arquivo.getFileName());
+            }
+            Files.writeString(arquivo, cabecalho + "\n", StandardCharsets.UTF_8);
+            return new Checkpoint(arquivo, concluidos);
+        }
+
+        boolean concluido(int indice) {
+            return concluidos.contains(indice);
+        }
+
+        synchronized void marcar(int indice) throws IOException {
+            Files.writeString(arquivo, indice + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+
+        void remover() throws IOException {
+            Files.deleteIfExists(arquivo);
+        }
+    }
+
+    private static class Progresso {
+
+        static final String EM_ANDAMENTO = "RUNNING";
+        static final String CONCLUIDA = "COMPLETED";
+        static final String FALHOU = "FAILED";
+
+        final Path arquivo;
+        final long inicioNanos = System.nanoTime();
+        volatile long fimNanos;
+        volatile String estado = EM_ANDAMENTO;
+        volatile String erro;
+        volatile long bytesTotal;
+        volatile int blocosTotal;
+
+        final LongAdder bytesProcessados = new LongAdder();
+        final LongAdder blocosConcluidos = new LongAdder();
+        final LongAdder blocosRetomados = new LongAdder();
+        final LongAdder bytesRetomados = new LongAdder();
+        final LongAdder linhas = new LongAdder();
+        final LongAdder linhasIgnoradas = new LongAdder();
+        final LongAdder hemogramasExtraidos = new LongAdder();
+        final LongAdder hemogramasGravados = new LongAdder();
+        final LongAdder naoGravados = new LongAdder();
+
+        Progresso(Path arquivo) {
+            this.arquivo = arquivo;
+        }
+
+        boolean emAndamento() {
+            return EM_ANDAMENTO.equals(estado);
+        }
+
+        void finalizar(String estadoFinal, String mensagemErro) {
+            fimNanos = System.nanoTime();
+            erro = mensagemErro;
+            estado = estadoFinal;
+        }
+
+        long duracaoMs() {
+            long fim = emAndamento() ? System.nanoTime() : fimNanos;
+            return (fim - inicioNanos) / 1_000_000;
+        }
+
+        double percentual() {
+            return bytesTotal == 0 ? 0.0 : Math.round(bytesProcessados.sum() * 1000.0 / bytesTotal) / 10.0;
+        }
+
+        double mbPorSegundo() {
+            // Blocos pulados pelo checkpoint não entram na vazão
+            return porSegundo(bytesProcessados.sum() - bytesRetomados.sum()) / (1024.0 * 1024.0);
+        }
+
+        double porSegundo(long quantidade) {
+            long ms = Math.max(1, duracaoMs());
+            return Math.round(quantidade * 10000.0 / ms) / 10.0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("file", arquivo.getFileName().toString());
+            status.put("state", estado);
+            status.put("bytesTotal", bytesTotal);
+            status.put("bytesProcessed", bytesProcessados.sum());
+            status.put("percent", percentual());
+            status.put("chunksTotal", blocosTotal);
+            status.put("chunksDone", blocosConcluidos.sum());
+            status.put("chunksResumed", blocosRetomados.sum());
+            status.put("lines", linhas.sum());
+            status.put("linesSkipped", linhasIgnoradas.sum());
+            status.put("hemogramsExtracted", hemogramasExtraidos.sum());
+            status.put("hemogramsWritten", hemogramasGravados.sum());
+            status.put("duplicatesSkipped", naoGravados.sum());
+            status.put("elapsedMs", duracaoMs());
+            status.put("mbPerSecond", Math.round(mbPorSegundo() * 10.0) / 10.0);
+            status.put("linesPerSecond", porSegundo(linhas.sum()));
+            status.put("hemogramsPerSecond", porSegundo(hemogramasGravados.sum()));
+            if (erro != null) {
+                status.put("error", erro);
+            }
+            return status;
+        }
+    }
+
+    private static class ImportThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger contador = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ndjson-import-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
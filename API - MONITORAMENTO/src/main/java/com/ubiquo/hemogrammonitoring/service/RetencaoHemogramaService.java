@@ -0,0 +1,310 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.RetencaoProperties;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Manutenção das partições mensais dos hemogramas (tabelas hemograms_AAAAMM, ver
+ * {@link ParticaoHemogramaRepository}): virada de mês e retenção por partição inteira.
+ *
+ * A cada intervaloMs, em uma thread própria (não a do agendador compartilhado, que ficaria
+ * parada durante um arquivamento longo):
+ * - garante as tabelas do mês atual e do próximo, para a virada do mês não criar tabela no
+ *   caminho da ingestão;
+ * - com a retenção ligada, retira os meses mais antigos que as {@code particoes-retidas}
+ *   mais recentes: a tabela sai da view e é renomeada (hemogramas que chegarem para o mês
+ *   vão para uma tabela nova, retirada na próxima rodada), é arquivada em NDJSON gzip (se
+ *   habilitado), a contagem do arquivo é conferida e a tabela é excluída com DROP TABLE, sem
+ *   DELETE linha a linha. Uma tabela retirada que não pôde ser arquivada fica para a próxima
+ *   rodada. Cada partição excluída publica um {@link HemogramasExcluidosEvent}, para rollup,
+ *   agregados em memória e cache descartarem o intervalo.
+ *
+ * A execução manual ({@link #executar()}) roda na mesma thread, então duas execuções nunca
+ * se sobrepõem.
+ */
+@Service
+public class RetencaoHemogramaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RetencaoHemogramaService.class);
+
+    private final ParticaoHemogramaRepository particaoRepository;
+    private final HistoricoHemogramaService historicoService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RetencaoProperties config;
+    private ScheduledExecutorService manutencao;
+
+    // Métricas
+    private final LongAdder execucoes = new LongAdder();
+    private final LongAdder particoesExcluidas = new LongAdder();
+    private final LongAdder linhasExcluidas = new LongAdder();
+    private final LongAdder linhasArquivadas = new LongAdder();
+    private final LongAdder falhas = new LongAdder();
+    private volatile long duracaoUltimaExecucaoMs;
+
+    public RetencaoHemogramaService(ParticaoHemogramaRepository particaoRepository,
+                                    HistoricoHemogramaService historicoService,
+                                    ApplicationEventPublisher eventPublisher, RetencaoProperties config) {
+        this.particaoRepository = particaoRepository;
+        this.historicoService = historicoService;
+        this.eventPublisher = eventPublisher;
+        this.config = config;
+        if (config.getParticoesRetidas() < 1) {
+            throw new IllegalArgumentException("hemogram.monitoring.retencao.particoes-retidas deve ser >= 1");
+        }
+    }
+
+    /**
+     * Partição excluída (ou arquivada e excluída) em uma execução.
+     *
+     * @param arquivo caminho do arquivo NDJSON gzip, ou null sem arquivamento
+     */
+    public record ParticaoExcluida(String particao, LocalDateTime inicio, LocalDateTime fim, long linhas,
+                                   String arquivo) {
+    }
+
+    @PostConstruct
+    public void iniciar() {
+        virarMes();
+        manutencao = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "retencao-particoes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        manutencao.scheduleWithFixedDelay(this::executarAgendado, config.getIntervaloMs(), config.getIntervaloMs(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        manutencao.shutdownNow();
+    }
+
+    /**
+     * Exclui agora as partições expiradas, na thread de manutenção, e espera o resultado.
+     */
+    public List<ParticaoExcluida> executar() {
+        try {
+            return manutencao.submit(this::reter).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Execução da retenção interrompida", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException erro ? erro : new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Partições da view, da mais antiga para a atual, com a quantidade de linhas de cada uma,
+     * e as retiradas que ainda aguardam arquivamento.
+     */
+    public List<Map<String, Object>> listarParticoes() {
+        List<Map<String, Object>> particoes = new ArrayList<>();
+        LocalDateTime corte = primeiraRetida().inicio();
+        for (ParticaoTempo particao : particaoRepository.particoes()) {
+            particoes.add(descrever(particao, particao.tabela(), particao.inicio().isBefore(corte), false));
+        }
+        for (ParticaoTempo particao : particaoRepository.retiradas()) {
+            particoes.add(descrever(particao, ParticaoHemogramaRepository.tabelaRetirada(particao), true, true));
+        }
+        return particoes;
+    }
+
+    public boolean isAtivo() {
+        return config.isEnabled();
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("retainedPartitions", config.getParticoesRetidas());
+        metricas.put("oldestRetained", primeiraRetida().nome());
+        metricas.put("archive", config.isArquivar());
+        metricas.put("archiveDir", config.isArquivar() ? Paths.get(config.getDiretorioArquivo()).toAbsolutePath().toString() : null);
+        metricas.put("runs", execucoes.sum());
+        metricas.put("partitionsDropped", particoesExcluidas.sum());
+        metricas.put("rowsDeleted", linhasExcluidas.sum());
+        metricas.put("rowsArchived", linhasArquivadas.sum());
+        metricas.put("failures", falhas.sum());
+        metricas.put("lastRunMs", duracaoUltimaExecucaoMs);
+        return metricas;
+    }
+
+    private void executarAgendado() {
+        // Uma exceção aqui cancelaria as execuções seguintes do agendamento
+        try {
+            virarMes();
+            if (config.isEnabled()) {
+                reter();
+            }
+        } catch (Exception e) {
+            falhas.increment();
+            logger.error("❌ Erro na manutenção das partições: {}", e.getMessage(), e);
+        }
+    }
+
+    private void virarMes() {
+        LocalDateTime agora = LocalDateTime.now();
+        particaoRepository.garantir(List.of(agora, agora.plusMonths(1)));
+    }
+
+    /**
+     * Conclui as retiradas pendentes e retira as partições expiradas, da mais antiga para a
+     * mais recente. Uma partição que falhar (ex: erro ao gravar o arquivo) não é excluída e
+     * é tentada de novo na próxima execução.
+     */
+    private List<ParticaoExcluida> reter() {
+        long inicio = System.nanoTime();
+        List<ParticaoExcluida> excluidas = new ArrayList<>();
+        // Um mês com retirada pendente não pode ser retirado de novo (o nome da tabela está em uso)
+        Set<LocalDateTime> pendentes = new HashSet<>();
+        for (ParticaoTempo particao : particaoRepository.retiradas()) {
+            if (!concluir(particao, excluidas)) {
+                pendentes.add(particao.inicio());
+            }
+        }
+        LocalDateTime corte = primeiraRetida().inicio();
+        for (ParticaoTempo particao : particaoRepository.particoes()) {
+            if (!particao.inicio().isBefore(corte)) {
+                break;
+            }
+            if (pendentes.contains(particao.inicio())) {
+                continue;
+            }
+            try {
+                if (particaoRepository.retirar(particao)) {
+                    concluir(particao, excluidas);
+                }
+            } catch (Exception e) {
+                falhas.increment();
+                logger.error("❌ Erro ao retirar a partição {}: {}", particao.nome(), e.getMessage(), e);
+            }
+        }
+        execucoes.increment();
+        duracaoUltimaExecucaoMs = (System.nanoTime() - inicio) / 1_000_000;
+        if (!excluidas.isEmpty()) {
+            logger.info("🗄️ Retenção: {} partições excluídas ({} linhas) em {} ms", excluidas.size(),
+                    excluidas.stream().mapToLong(ParticaoExcluida::linhas).sum(), duracaoUltimaExecucaoMs);
+        }
+        return excluidas;
+    }
+
+    /**
+     * Arquiva (se habilitado) e exclui uma partição já retirada da view. Nada mais grava na
+     * tabela retirada, então a contagem é exata.
+     *
+     * @return false se a partição continua retirada para a próxima execução
+     */
+    private boolean concluir(ParticaoTempo particao, List<ParticaoExcluida> excluidas) {
+        String tabela = ParticaoHemogramaRepository.tabelaRetirada(particao);
+        try {
+            long linhas = particaoRepository.contar(tabela);
+            Path arquivo = null;
+            if (config.isArquivar() && linhas > 0) {
+                arquivo = arquivar(particao, tabela, linhas);
+                if (arquivo == null) {
+                    return false;
+                }
+            }
+            particaoRepository.excluirRetirada(particao);
+
+            particoesExcluidas.increment();
+            linhasExcluidas.add(linhas);
+            eventPublisher.publishEvent(new HemogramasExcluidosEvent(particao.inicio(), particao.fim(), linhas));
+            logger.info("🗄️ Partição {} excluída: {} linhas{}", particao.nome(), linhas,
+                    arquivo != null ? ", arquivo " + arquivo : "");
+            excluidas.add(new ParticaoExcluida(particao.nome(), particao.inicio(), particao.fim(), linhas,
+                    arquivo != null ? arquivo.toString() : null));
+            return true;
+        } catch (Exception e) {
+            falhas.increment();
+            logger.error("❌ Erro na retenção da partição {}: {}", particao.nome(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Grava a tabela retirada em NDJSON gzip (arquivo .parcial renomeado no fim).
+     *
+     * @return o arquivo, ou null se saíram linhas diferentes das contadas (a tabela não é excluída)
+     */
+    private Path arquivar(ParticaoTempo particao, String tabela, long esperadas) throws IOException {
+        Path diretorio = Paths.get(config.getDiretorioArquivo());
+        Files.createDirectories(diretorio);
+        Path destino = diretorio.resolve("hemogramas-" + particao.nome() + ".ndjson.gz");
+        if (Files.exists(destino)) {
+            // Hemogramas que chegaram para o mês depois de um arquivamento anterior
+            destino = diretorio.resolve("hemogramas-" + particao.nome() + "-" + System.currentTimeMillis() + ".ndjson.gz");
+        }
+        Path parcial = destino.resolveSibling(destino.getFileName() + ".parcial");
+
+        long exportadas;
+        try (OutputStream arquivo = new BufferedOutputStream(Files.newOutputStream(parcial));
+             GZIPOutputStream compactado = new GZIPOutputStream(arquivo, 64 * 1024)) {
+            exportadas = historicoService.exportarTabela(tabela, HistoricoHemogramaService.FormatoExportacao.NDJSON,
+                    compactado);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(parcial);
+            throw e;
+        }
+
+        if (exportadas != esperadas) {
+            Files.deleteIfExists(parcial);
+            falhas.increment();
+            logger.error("❌ Partição {}: {} linhas arquivadas, {} esperadas; exclusão adiada",
+                    particao.nome(), exportadas, esperadas);
+            return null;
+        }
+        Files.move(parcial, destino, StandardCopyOption.ATOMIC_MOVE);
+        linhasArquivadas.add(exportadas);
+        return destino;
+    }
+
+    private Map<String, Object> descrever(ParticaoTempo particao, String tabela, boolean expirada, boolean retirada) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("particao", particao.nome());
+        item.put("tabela", tabela);
+        item.put("inicio", particao.inicio());
+        item.put("fim", particao.fim());
+        item.put("linhas", particaoRepository.contar(tabela));
+        item.put("expirada", expirada);
+        item.put("retirada", retirada);
+        return item;
+    }
+
+    private ParticaoTempo primeiraRetida() {
+        ParticaoTempo particao = ParticaoTempo.contendo(LocalDateTime.now());
+        for (int i = 1; i < config.getParticoesRetidas(); i++) {
+            particao = particao.anterior();
+        }
+        return particao;
+    }
+}
@@ -0,0 +1,174 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.model.FaixaRegioes;
+import com.ubiquo.hemogrammonitoring.model.ReferenceValues;
+import com.ubiquo.hemogrammonitoring.repository.RollupHorarioRepository;
+import com.ubiquo.hemogrammonitoring.repository.RollupHorarioRepository.Pendente;
+import com.ubiquo.hemogrammonitoring.repository.RollupHorarioRepository.Somas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consolidação horária por região (tabela hemogram_rollup_hourly).
+ *
+ * A gravação dos hemogramas marca, na mesma transação, cada região e hora que recebeu linhas
+ * (rollup_pendente). Um job agendado recalcula por completo as horas marcadas com MERGE e
+ * remove as marcas cuja versão não mudou; uma hora gravada durante o recálculo continua
+ * marcada para a rodada seguinte. Não há marca d'água por id: uma transação que atribuiu
+ * ids menores e fez commit depois também deixa a sua hora marcada.
+ *
+ * Uma janela longa é respondida com as horas em dia do rollup, as linhas brutas das horas
+ * marcadas e das horas parciais nas pontas, então o custo cresce com o número de horas e
+ * não com o número de exames.
+ */
+@Service
+public class RollupHorarioService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollupHorarioService.class);
+
+    private final RollupHorarioRepository rollupRepository;
+    private final AnaliseProperties.Rollup config;
+
+    // Métricas
+    private final LongAdder execucoes = new LongAdder();
+    private final LongAdder horasRecalculadas = new LongAdder();
+    private volatile long duracaoUltimaExecucaoMs;
+
+    public RollupHorarioService(RollupHorarioRepository rollupRepository, AnaliseProperties analiseProperties) {
+        this.rollupRepository = rollupRepository;
+        this.config = analiseProperties.getRollup();
+    }
+
+    /**
+     * Indica se janelas de {@code horas} devem ser respondidas pelo rollup.
+     */
+    public boolean atende(int horas) {
+        return config.isEnabled() && horas >= config.getMinimoHoras();
+    }
+
+    @Scheduled(fixedDelayString = "${hemogram.monitoring.analise.rollup.intervalo-ms:60000}",
+            initialDelayString = "${hemogram.monitoring.analise.rollup.intervalo-ms:60000}")
+    public void consolidar() {
+        if (!config.isEnabled()) {
+            return;
+        }
+        long inicio = System.nanoTime();
+        try {
+            int horas = 0;
+            int lote = Math.max(1, config.getLoteHoras());
+            Pendente ultima = null;
+            List<Pendente> pendentes;
+            do {
+                pendentes = rollupRepository.pendentes(ultima, lote);
+                if (pendentes.isEmpty()) {
+                    break;
+                }
+                rollupRepository.recalcular(pendentes, ReferenceValues.PLAQUETAS_MIN);
+                rollupRepository.concluir(pendentes);
+                horas += pendentes.size();
+                ultima = pendentes.get(pendentes.size() - 1);
+            } while (pendentes.size() == lote);
+            horasRecalculadas.add(horas);
+            execucoes.increment();
+            duracaoUltimaExecucaoMs = (System.nanoTime() - inicio) / 1_000_000;
+            if (horas > 0) {
+                logger.info("🕐 Rollup horário: {} horas recalculadas em {} ms", horas, duracaoUltimaExecucaoMs);
+            }
+        } catch (Exception e) {
+            logger.error("❌ Erro na consolidação do rollup horário: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Partição excluída pela retenção: as horas dela saem do rollup, senão janelas longas
+     * continuariam somando hemogramas que já não estão no banco.
+     */
+    @EventListener
+    public void aoExcluir(HemogramasExcluidosEvent event) {
+        // Partições começam e terminam em hora cheia
+        LocalDateTime deHora = event.getInicio().truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime ateHora = event.getFim().truncatedTo(ChronoUnit.HOURS);
+        int horas = rollupRepository.excluirHoras(deHora, ateHora);
+        logger.info("🕐 Rollup horário: {} horas excluídas em [{}, {})", horas, deHora, ateHora);
+    }
+
+    /**
+     * Soma a região em [inicio, fim] (ambos inclusivos, como o BETWEEN das consultas SQL).
+     */
+    public AgregadosRegionaisService.Janela consultar(String regiao, LocalDateTime inicio, LocalDateTime fim) {
+        return somar(FaixaRegioes.daRegiao(regiao), inicio, fim).getOrDefault(regiao, new AgregadosRegionaisService.Janela());
+    }
+
+    /**
+     * Soma todas as regiões em [inicio, fim].
+     */
+    public Map<String, AgregadosRegionaisService.Janela> consultarTodas(LocalDateTime inicio, LocalDateTime fim) {
+        return somar(null, inicio, fim);
+    }
+
+    /**
+     * Soma as regiões da faixa em [inicio, fim]; regiões sem hemogramas não aparecem.
+     */
+    public Map<String, AgregadosRegionaisService.Janela> consultarFaixa(FaixaRegioes faixa,
+                                                                       LocalDateTime inicio, LocalDateTime fim) {
+        return somar(faixa, inicio, fim);
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("enabled", config.isEnabled());
+        metricas.put("minimumHours", config.getMinimoHoras());
+        metricas.put("pendingHours", rollupRepository.contarPendentes());
+        metricas.put("runs", execucoes.sum());
+        metricas.put("hoursRecomputed", horasRecalculadas.sum());
+        metricas.put("lastRunMs", duracaoUltimaExecucaoMs);
+        return metricas;
+    }
+
+    /**
+     * Soma, por região, a cabeça [inicio, primeira hora cheia), as horas cheias (rollup ou,
+     * nas pendentes, linhas brutas) e a cauda [última hora, fim]. Todas as regiões com faixa null.
+     */
+    private Map<String, AgregadosRegionaisService.Janela> somar(FaixaRegioes faixa, LocalDateTime inicio,
+                                                                LocalDateTime fim) {
+        double limiar = ReferenceValues.PLAQUETAS_MIN;
+        LocalDateTime primeiraHora = inicio.truncatedTo(ChronoUnit.HOURS);
+        if (primeiraHora.isBefore(inicio)) {
+            primeiraHora = primeiraHora.plusHours(1);
+        }
+        LocalDateTime ultimaHora = fim.truncatedTo(ChronoUnit.HOURS);
+
+        Map<String, AgregadosRegionaisService.Janela> janelas = new HashMap<>();
+        if (!primeiraHora.isBefore(ultimaHora)) {
+            // Janela sem nenhuma hora cheia: só linhas brutas
+            acumular(janelas, rollupRepository.somarBruto(faixa, inicio, fim, true, limiar));
+            return janelas;
+        }
+
+        acumular(janelas, rollupRepository.somarBruto(faixa, inicio, primeiraHora, false, limiar));
+        acumular(janelas, rollupRepository.somarHoras(faixa, primeiraHora, ultimaHora, limiar));
+        acumular(janelas, rollupRepository.somarBruto(faixa, ultimaHora, fim, true, limiar));
+        return janelas;
+    }
+
+    private static void acumular(Map<String, AgregadosRegionaisService.Janela> janelas, List<Somas> somas) {
+        for (Somas s : somas) {
+            janelas.computeIfAbsent(s.regiao(), r -> new AgregadosRegionaisService.Janela()).acumular(
+                    s.total(), s.alertas(), s.somaPlaquetas(), s.quantidadePlaquetas(),
+                    s.somaLeucocitos(), s.quantidadeLeucocitos());
+        }
+    }
+}
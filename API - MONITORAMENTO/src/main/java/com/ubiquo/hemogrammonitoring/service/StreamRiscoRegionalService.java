@@ -0,0 +1,383 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.MudancaRiscoRegional;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stream SSE de mudanças de risco regional (/analise/stream), no lugar do polling de
+ * /analise/regioes-risco.
+ *
+ * Cada {@link HemogramasPersistidosEvent} só marca as regiões gravadas como pendentes (o
+ * listener roda na thread que gravou). A cada intervalo, as regiões pendentes são
+ * reavaliadas e, se o risco, a faixa de 10% da proporção de alertas ou uma das tendências
+ * mudou desde o último evento da região, o evento vai para todos os assinantes.
+ *
+ * Cada assinante tem um buffer limitado, chaveado por região, esvaziado por um pool de
+ * envio compartilhado (no máximo uma tarefa por assinante); os heartbeats passam pelo mesmo
+ * pool. Enquanto um assinante não consome, eventos novos da mesma região substituem o
+ * pendente. Um assinante lento é desconectado quando o buffer enche ou quando um envio passa
+ * de timeoutEnvioMs; a thread presa no envio só volta quando o contêiner desiste da escrita,
+ * mas o assinante deixa de receber tarefas e não segura os demais.
+ */
+@Service
+public class StreamRiscoRegionalService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamRiscoRegionalService.class);
+
+    public static final String EVENTO_MUDANCA = "risco-regional";
+
+    private final AnaliseColetivaService analiseColetivaService;
+    private final CacheAnaliseService cacheAnaliseService;
+    private final AnaliseProperties.Stream config;
+
+    private final Set<String> regioesPendentes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Estado> ultimosEstados = new ConcurrentHashMap<>();
+    private final Set<Assinante> assinantes = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor envio;
+    private final AtomicLong sequencia = new AtomicLong();
+
+    // Métricas
+    private final LongAdder regioesAvaliadas = new LongAdder();
+    private final LongAdder eventosPublicados = new LongAdder();
+    private final LongAdder eventosEnviados = new LongAdder();
+    private final LongAdder eventosCoalescidos = new LongAdder();
+    private final LongAdder eventosDescartados = new LongAdder();
+    private final LongAdder assinantesDesconectados = new LongAdder();
+
+    public StreamRiscoRegionalService(AnaliseColetivaService analiseColetivaService,
+                                      CacheAnaliseService cacheAnaliseService,
+                                      AnaliseProperties analiseProperties) {
+        this.analiseColetivaService = analiseColetivaService;
+        this.cacheAnaliseService = cacheAnaliseService;
+        this.config = analiseProperties.getStream();
+        // Uma tarefa de envio por assinante, no máximo: a fila é limitada por maxAssinantes
+        this.envio = new ThreadPoolExecutor(config.getThreadsEnvio(), config.getThreadsEnvio(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new EnvioThreadFactory());
+    }
+
+    /**
+     * Registra um assinante; null se o limite de assinantes foi atingido.
+     */
+    public SseEmitter assinar() {
+        if (assinantes.size() >= config.getMaxAssinantes()) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(0L);
+        Assinante assinante = new Assinante(emitter);
+        assinantes.add(assinante);
+        emitter.onCompletion(assinante::encerrar);
+        emitter.onTimeout(assinante::encerrar);
+        emitter.onError(e -> assinante.encerrar());
+        try {
+            emitter.send(SseEmitter.event().comment("conectado"));
+        } catch (IOException e) {
+            assinante.encerrar();
+        }
+        logger.info("📡 Novo assinante do stream de risco regional ({} conectados)", assinantes.size());
+        return emitter;
+    }
+
+    @EventListener
+    public void aoPersistir(HemogramasPersistidosEvent event) {
+        for (HemogramEntity hemograma : event.getHemogramas()) {
+            if (hemograma.getRegion() != null) {
+                regioesPendentes.add(hemograma.getRegion());
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${hemogram.monitoring.analise.stream.intervalo-ms:250}")
+    public void avaliarPendentes() {
+        desconectarLentos();
+        if (regioesPendentes.isEmpty()) {
+            return;
+        }
+        if (assinantes.isEmpty()) {
+            // Sem ninguém ouvindo não há o que avisar; o próximo evento compara com o último enviado
+            regioesPendentes.clear();
+            return;
+        }
+        Iterator<String> pendentes = regioesPendentes.iterator();
+        while (pendentes.hasNext()) {
+            String regiao = pendentes.next();
+            pendentes.remove();
+            try {
+                avaliar(regiao);
+            } catch (Exception e) {
+                logger.error("❌ Erro avaliando região {} para o stream: {}", regiao, e.getMessage(), e);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${hemogram.monitoring.analise.stream.heartbeat-ms:15000}")
+    public void heartbeat() {
+        // Comentário SSE: mantém proxies abertos e detecta conexões mortas. Só enfileira;
+        // quem escreve é o pool de envio, nunca a thread do agendador
+        for (Assinante assinante : assinantes) {
+            assinante.pedirHeartbeat();
+        }
+    }
+
+    /**
+     * Desconecta os assinantes com um envio em andamento há mais de timeoutEnvioMs.
+     */
+    private void desconectarLentos() {
+        long limite = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.getTimeoutEnvioMs());
+        for (Assinante assinante : assinantes) {
+            long desde = assinante.envioDesde;
+            if (desde != 0 && desde - limite < 0) {
+                assinante.desconectar("envio parado há mais de " + config.getTimeoutEnvioMs() + " ms");
+            }
+        }
+    }
+
+    public Map<String, Object> getMetricas() {
+        Map<String, Object> metricas = new LinkedHashMap<>();
+        metricas.put("subscribers", assinantes.size());
+        metricas.put("maxSubscribers", config.getMaxAssinantes());
+        metricas.put("bufferPerSubscriber", config.getBufferPorAssinante());
+        metricas.put("sendTimeoutMs", config.getTimeoutEnvioMs());
+        metricas.put("windowHours", config.getJanelaHoras());
+        metricas.put("pendingRegions", regioesPendentes.size());
+        metricas.put("regionsEvaluated", regioesAvaliadas.sum());
+        metricas.put("eventsPublished", eventosPublicados.sum());
+        metricas.put("eventsSent", eventosEnviados.sum());
+        metricas.put("eventsCoalesced", eventosCoalescidos.sum());
+        metricas.put("eventsDropped", eventosDescartados.sum());
+        metricas.put("subscribersEvicted", assinantesDesconectados.sum());
+        return metricas;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        assinantes.forEach(assinante -> assinante.emitter.complete());
+        envio.shutdownNow();
+    }
+
+    private void avaliar(String regiao) {
+        int horas = config.getJanelaHoras();
+        IndicadoresRegionaisDTO indicadores = cacheAnaliseService.obterIndicadores(regiao, horas,
+                () -> analiseColetivaService.analisarRegiao(regiao, horas));
+        regioesAvaliadas.increment();
+
+        Estado atual = Estado.de(indicadores);
+        Estado anterior = ultimosEstados.put(regiao, atual);
+        List<String> mudancas = atual.mudancasDesde(anterior);
+        if (mudancas.isEmpty()) {
+            return;
+        }
+
+        MudancaRiscoRegional mudanca = new MudancaRiscoRegional(indicadores, atual.faixaProporcao(), mudancas);
+        eventosPublicados.increment();
+        logger.info("📡 Região {} mudou ({}): risco={}, proporção={}%", regiao, mudancas,
+                indicadores.isTemRiscoColetivo(), Math.round(indicadores.getProporcaoAlertas() * 100));
+        for (Assinante assinante : assinantes) {
+            assinante.oferecer(mudanca);
+        }
+    }
+
+    /**
+     * O que é comparado entre avaliações de uma região.
+     */
+    private record Estado(boolean risco, int faixaProporcao, String tendenciaPlaquetas, String tendenciaLeucocitos) {
+
+        static Estado de(IndicadoresRegionaisDTO indicadores) {
+            int faixa = (int) Math.min(10, Math.floor(indicadores.getProporcaoAlertas() * 10));
+            return new Estado(indicadores.isTemRiscoColetivo(), faixa,
+                    indicadores.getTendenciaPlaquetas(), indicadores.getTendenciaLeucocitos());
+        }
+
+        List<String> mudancasDesde(Estado anterior) {
+            List<String> mudancas = new ArrayList<>();
+            if (anterior == null || anterior.risco != risco) {
+                mudancas.add(MudancaRiscoRegional.RISCO);
+            }
+            if (anterior == null || anterior.faixaProporcao != faixaProporcao) {
+                mudancas.add(MudancaRiscoRegional.FAIXA_PROPORCAO);
+            }
+            if (anterior == null || !Objects.equals(anterior.tendenciaPlaquetas, tendenciaPlaquetas)) {
+                mudancas.add(MudancaRiscoRegional.TENDENCIA_PLAQUETAS);
+            }
+            if (anterior == null || !Objects.equals(anterior.tendenciaLeucocitos, tendenciaLeucocitos)) {
+                mudancas.add(MudancaRiscoRegional.TENDENCIA_LEUCOCITOS);
+            }
+            return mudancas;
+        }
+    }
+
+    private final class Assinante {
+        private final SseEmitter emitter;
+
+        // Protegidos por this: eventos ainda não enviados, um por região, em ordem de chegada
+        private final LinkedHashMap<String, MudancaRiscoRegional> pendentes = new LinkedHashMap<>();
+        private boolean heartbeatPendente;
+        private boolean enviando;
+        private boolean encerrado;
+        private boolean desconectado;
+
+        // nanoTime do início do envio em andamento (0 = nenhum), lido pelo agendador
+        private volatile long envioDesde;
+
+        Assinante(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void oferecer(MudancaRiscoRegional mudanca) {
+            synchronized (this) {
+                if (encerrado) {
+                    return;
+                }
+                if (pendentes.remove(mudanca.getRegiao()) != null) {
+                    eventosCoalescidos.increment();
+                } else if (pendentes.size() >= config.getBufferPorAssinante()) {
+                    // Buffer cheio: o assinante não acompanha nem o estado mais recente das regiões
+                    mudanca = null;
+                }
+                if (mudanca != null) {
+                    pendentes.put(mudanca.getRegiao(), mudanca);
+                    if (!iniciarEnvio()) {
+                        return;
+                    }
+                }
+            }
+            if (mudanca == null) {
+                desconectar("buffer de " + config.getBufferPorAssinante() + " regiões cheio");
+                return;
+            }
+            envio.execute(this::esvaziar);
+        }
+
+        void pedirHeartbeat() {
+            synchronized (this) {
+                // Com envio em andamento a conexão já está sendo exercitada
+                if (encerrado || enviando) {
+                    return;
+                }
+                heartbeatPendente = true;
+                iniciarEnvio();
+            }
+            envio.execute(this::esvaziar);
+        }
+
+        /**
+         * Chamado com o lock: marca o envio como iniciado; false se já havia tarefa de envio.
+         */
+        private boolean iniciarEnvio() {
+            if (enviando) {
+                return false;
+            }
+            enviando = true;
+            return true;
+        }
+
+        private void esvaziar() {
+            while (true) {
+                SseEmitter.SseEventBuilder evento = null;
+                boolean fechar = false;
+                synchronized (this) {
+                    if (encerrado || (pendentes.isEmpty() && !heartbeatPendente)) {
+                        enviando = false;
+                        fechar = desconectado;
+                    } else if (!pendentes.isEmpty()) {
+                        Iterator<MudancaRiscoRegional> fila = pendentes.values().iterator();
+                        evento = SseEmitter.event()
+                                .id(String.valueOf(sequencia.incrementAndGet()))
+                                .name(EVENTO_MUDANCA)
+                                .data(fila.next(), MediaType.APPLICATION_JSON);
+                        fila.remove();
+                        heartbeatPendente = false;
+                    } else {
+                        evento = SseEmitter.event().comment("heartbeat");
+                        heartbeatPendente = false;
+                    }
+                }
+                if (evento == null) {
+                    if (fechar) {
+                        // Desconectado por lentidão: a conexão é fechada aqui, fora do agendador
+                        emitter.complete();
+                    }
+                    return;
+                }
+                envioDesde = System.nanoTime() | 1;
+                try {
+                    emitter.send(evento);
+                    eventosEnviados.increment();
+                } catch (IOException | IllegalStateException e) {
+                    encerrar();
+                    emitter.completeWithError(e);
+                    return;
+                } finally {
+                    envioDesde = 0;
+                }
+            }
+        }
+
+        /**
+         * Assinante lento: sai da lista e não recebe mais eventos. Não toca no emitter (um
+         * envio parado seguraria também esta thread); a tarefa de envio fecha a conexão.
+         */
+        void desconectar(String motivo) {
+            synchronized (this) {
+                if (encerrado) {
+                    return;
+                }
+                desconectado = true;
+                eventosDescartados.add(pendentes.size());
+            }
+            encerrar();
+            assinantesDesconectados.increment();
+            logger.warn("📡 Assinante do stream desconectado: {}", motivo);
+        }
+
+        void encerrar() {
+            synchronized (this) {
+                if (encerrado) {
+                    return;
+                }
+                encerrado = true;
+                pendentes.clear();
+            }
+            assinantes.remove(this);
+            logger.info("📡 Assinante do stream desconectado ({} conectados)", assinantes.size());
+        }
+    }
+
+    private static class EnvioThreadFactory implements ThreadFactory {
+        private final AtomicInteger contador = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "stream-envio-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package db.migration;
+
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.repository.EsquemaParticoesHemogramas;
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Particiona hemograms por mês: uma tabela hemograms_AAAAMM por mês com hemogramas (e para
+ * o mês atual), com as linhas copiadas da tabela única, e "hemograms" recriada como view
+ * UNION ALL das partições com o gatilho que roteia as inserções
+ * ({@link EsquemaParticoesHemogramas}). Em Java porque os meses dependem dos dados.
+ */
+public class V5__particionar_hemograms extends BaseJavaMigration {
+
+    private static final String LEGADO = "hemograms_sem_particao";
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection conexao = context.getConnection();
+        TreeMap<LocalDateTime, ParticaoTempo> particoes = new TreeMap<>();
+        ParticaoTempo atual = ParticaoTempo.contendo(LocalDateTime.now());
+        particoes.put(atual.inicio(), atual);
+        try (Statement st = conexao.createStatement();
+             ResultSet rs = st.executeQuery("SELECT DISTINCT DATE_TRUNC('MONTH', timestamp) FROM hemograms")) {
+            while (rs.next()) {
+                ParticaoTempo particao = ParticaoTempo.contendo(rs.getTimestamp(1).toLocalDateTime());
+                particoes.put(particao.inicio(), particao);
+            }
+        }
+
+        executar(conexao, List.of("ALTER TABLE hemograms RENAME TO " + LEGADO));
+        List<String> tabelas = new ArrayList<>();
+        for (ParticaoTempo particao : particoes.values()) {
+            executar(conexao, EsquemaParticoesHemogramas.criarTabela(particao.tabela()));
+            try (PreparedStatement ps = conexao.prepareStatement("INSERT INTO " + particao.tabela()
+                    + " (" + EsquemaParticoesHemogramas.COLUNAS + ") SELECT " + EsquemaParticoesHemogramas.COLUNAS
+                    + " FROM " + LEGADO + " WHERE timestamp >= ? AND timestamp < ?")) {
+                ps.setTimestamp(1, Timestamp.valueOf(particao.inicio()));
+                ps.setTimestamp(2, Timestamp.valueOf(particao.fim()));
+                ps.executeUpdate();
+            }
+            tabelas.add(particao.tabela());
+        }
+        executar(conexao, List.of("DROP TABLE " + LEGADO,
+                EsquemaParticoesHemogramas.recriarVisao(tabelas),
+                EsquemaParticoesHemogramas.criarGatilho()));
+    }
+
+    private static void executar(Connection conexao, List<String> comandos) throws SQLException {
+        try (Statement st = conexao.createStatement()) {
+            for (String comando : comandos) {
+                st.execute(comando);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+-- Tabela de hemogramas (HemogramEntity) e índices alinhados às consultas do HemogramRepository.
+
+-- Alocação em bloco de 50 ids (allocationSize da entidade), necessária para o JDBC batch
+CREATE SEQUENCE hemograms_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE hemograms (
+    id             BIGINT       NOT NULL,
+    observation_id VARCHAR(255) NOT NULL,
+    patient_id     VARCHAR(255),
+    patient_name   VARCHAR(255),
+    patient_cpf    VARCHAR(255),
+    patient_phone  VARCHAR(255),
+    timestamp      TIMESTAMP(6) NOT NULL,
+    leucocitos     FLOAT(53),
+    hemoglobina    FLOAT(53),
+    plaquetas      FLOAT(53),
+    hematocrito    FLOAT(53),
+    region         VARCHAR(255),
+    CONSTRAINT pk_hemograms PRIMARY KEY (id),
+    -- Também atende findExistingObservationIds (deduplicação do write-behind)
+    CONSTRAINT uk_hemograms_observation_id UNIQUE (observation_id)
+);
+
+-- region = ? AND timestamp BETWEEN ? AND ? (contagens, alertas e médias por região) e DISTINCT region.
+-- Cobre plaquetas e leucócitos, então COUNT/AVG/alertas são respondidos só pelo índice.
+CREATE INDEX idx_hemograms_region_timestamp ON hemograms (region, timestamp, plaquetas, leucocitos);
+
+-- timestamp BETWEEN ? AND ? GROUP BY region (todas as regiões de uma vez) e reconstrução dos agregados
+CREATE INDEX idx_hemograms_timestamp_region ON hemograms (timestamp, region, plaquetas, leucocitos);
+
+-- plaquetas < ? (hemogramas com alerta de dengue)
+CREATE INDEX idx_hemograms_plaquetas ON hemograms (plaquetas, timestamp);
+
+-- Histórico de um paciente
+CREATE INDEX idx_hemograms_patient ON hemograms (patient_id, timestamp);
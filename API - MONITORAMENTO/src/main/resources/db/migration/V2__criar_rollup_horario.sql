@@ -0,0 +1,29 @@
+-- Agregados por região e hora, mantidos pelo RollupHorarioService a partir da tabela hemograms.
+-- Janelas longas somam estas linhas (uma por região/hora) em vez de todos os exames.
+CREATE TABLE hemogram_rollup_hourly (
+    region          VARCHAR(255) NOT NULL,
+    hora            TIMESTAMP(6) NOT NULL,
+    total           BIGINT       NOT NULL,
+    alertas         BIGINT       NOT NULL,
+    soma_plaquetas  FLOAT(53),
+    qtd_plaquetas   BIGINT       NOT NULL,
+    min_plaquetas   FLOAT(53),
+    max_plaquetas   FLOAT(53),
+    soma_leucocitos FLOAT(53),
+    qtd_leucocitos  BIGINT       NOT NULL,
+    min_leucocitos  FLOAT(53),
+    max_leucocitos  FLOAT(53),
+    CONSTRAINT pk_hemogram_rollup_hourly PRIMARY KEY (region, hora)
+);
+
+-- Janela de todas as regiões de uma vez (hora BETWEEN ... GROUP BY region)
+CREATE INDEX idx_rollup_hourly_hora ON hemogram_rollup_hourly (hora, region);
+
+-- Marca d'água: maior hemograms.id já consolidado no rollup
+CREATE TABLE rollup_controle (
+    nome      VARCHAR(100) NOT NULL,
+    ultimo_id BIGINT       NOT NULL,
+    CONSTRAINT pk_rollup_controle PRIMARY KEY (nome)
+);
+
+INSERT INTO rollup_controle (nome, ultimo_id) VALUES ('hemogram_rollup_hourly', 0);
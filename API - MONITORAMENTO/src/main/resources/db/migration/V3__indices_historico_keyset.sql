@@ -0,0 +1,12 @@
+-- Paginação por keyset de /history/hemograms: ORDER BY timestamp DESC, id DESC e
+-- continuação por (timestamp, id) < (?, ?). Índices descendentes para o H2 ler a página
+-- já ordenada (sem ordenar o intervalo inteiro); com filtro de região ou paciente a
+-- coluna do filtro é o prefixo.
+
+CREATE INDEX idx_hemograms_timestamp_id ON hemograms (timestamp DESC, id DESC);
+
+CREATE INDEX idx_hemograms_region_timestamp_id ON hemograms (region, timestamp DESC, id DESC);
+
+-- Substitui o índice de histórico do paciente (mesmo prefixo, agora com o desempate por id)
+DROP INDEX idx_hemograms_patient;
+CREATE INDEX idx_hemograms_patient ON hemograms (patient_id, timestamp DESC, id DESC);
@@ -0,0 +1,21 @@
+-- Horas (por região) com hemogramas gravados depois do último recálculo do rollup.
+-- A gravação dos hemogramas marca a hora na mesma transação; o RollupHorarioService
+-- recalcula as horas marcadas e só remove a marca se a versão não mudou nesse meio tempo.
+-- Enquanto marcada, a hora é respondida pelas linhas brutas, não pelo rollup.
+-- Substitui a marca d'água por id (rollup_controle): ids atribuídos antes da marca mas
+-- gravados depois dela ficavam fora do rollup.
+CREATE TABLE rollup_pendente (
+    region VARCHAR(255) NOT NULL,
+    hora   TIMESTAMP(6) NOT NULL,
+    versao BIGINT       NOT NULL,
+    CONSTRAINT pk_rollup_pendente PRIMARY KEY (region, hora)
+);
+
+-- Consolidação em ordem de hora e janelas de todas as regiões
+CREATE INDEX idx_rollup_pendente_hora ON rollup_pendente (hora, region);
+
+-- O rollup existente pode ter perdido gravações tardias: todas as horas são recalculadas uma vez
+INSERT INTO rollup_pendente (region, hora, versao)
+SELECT DISTINCT region, DATE_TRUNC('HOUR', timestamp), 1 FROM hemograms WHERE region IS NOT NULL;
+
+DROP TABLE rollup_controle;
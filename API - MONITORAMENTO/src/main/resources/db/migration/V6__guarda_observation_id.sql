@@ -0,0 +1,13 @@
+-- Unicidade global de observation_id sobre as partições mensais (V5), que só garantem
+-- unicidade dentro do mês: um reenvio com effectiveDateTime corrigido para outro mês, ou dois
+-- gravadores inserindo em meses diferentes, passariam pelas restrições das tabelas do mês.
+-- O gatilho de inserção da view (RoteadorParticoesHemogramas) grava aqui na mesma transação
+-- da linha; a retenção libera os ids de um mês antes do DROP TABLE da partição.
+CREATE TABLE hemogram_observation_ids (
+    observation_id VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_hemogram_observation_ids PRIMARY KEY (observation_id)
+);
+
+-- DISTINCT: duplicados entre meses gravados antes desta migração ficam com um só registro
+INSERT INTO hemogram_observation_ids (observation_id)
+SELECT DISTINCT observation_id FROM hemograms;
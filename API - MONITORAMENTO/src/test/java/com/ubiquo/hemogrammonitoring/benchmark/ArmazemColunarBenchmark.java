@@ -0,0 +1,144 @@
+package com.ubiquo.hemogrammonitoring.benchmark;
+
+import com.ubiquo.hemogrammonitoring.HemogramMonitoringApplication;
+import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.service.AnaliseColetivaService;
+import com.ubiquo.hemogrammonitoring.service.ArmazemColunarService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Análise coletiva pelas consultas JPA (fonte=sql) contra o armazenamento colunar em
+ * memória (fonte=colunar): /analise/regiao e /analise/regioes-risco sobre {@code hemogramas}
+ * hemogramas dos últimos 30 dias, com cache e rollup desligados para medir só a fonte.
+ *
+ * Cada fonte roda em um fork próprio, com o banco populado antes de a aplicação subir. O
+ * heap usado depois de um GC completo, impresso no fim da carga, mostra o custo das colunas
+ * (a diferença entre colunar e sql, já que o H2 em memória está nos dois).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class ArmazemColunarBenchmark {
+
+    private static final String BANCO = "jdbc:h2:mem:benchmark-colunar;DB_CLOSE_DELAY=-1";
+
+    @Param({"sql", "colunar"})
+    public String fonte;
+
+    @Param({"1000000"})
+    public int hemogramas;
+
+    @Param({"60"})
+    public int regioes;
+
+    @Param({"72"})
+    public int horas;
+
+    private ConfigurableApplicationContext contexto;
+    private AnaliseColetivaService analise;
+
+    @Setup(Level.Trial)
+    public void iniciar() {
+        // 1. Migrações e carga direto nas partições, sem nenhuma fonte em memória
+        try (ConfigurableApplicationContext carga = subir("sql")) {
+            popular(carga);
+        }
+
+        // 2. A aplicação na fonte medida, com as colunas carregadas do banco na inicialização
+        contexto = subir(fonte);
+        analise = contexto.getBean(AnaliseColetivaService.class);
+        Map<String, Object> colunar = contexto.getBean(ArmazemColunarService.class).getMetricas();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%nfonte=%s: heap usado após GC %d MB; colunas: %s linhas, %s bytes/linha, carga %s ms%n",
+                fonte, (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024),
+                colunar.get("rows"), colunar.get("bytesPerRow"), colunar.get("loadMs"));
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public IndicadoresRegionaisDTO regiao() {
+        return analise.analisarRegiao("Bairro 1", horas);
+    }
+
+    @Benchmark
+    public ResultadoRegioesRisco regioesRisco() {
+        return analise.identificarRegioesComRisco(horas);
+    }
+
+    private static ConfigurableApplicationContext subir(String fonte) {
+        return new SpringApplicationBuilder(HemogramMonitoringApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + BANCO,
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.ubiquo=WARN",
+                "--logging.level.org.hibernate.SQL=WARN",
+                "--hemogram.monitoring.fhir.subscription.enabled=false",
+                "--hemogram.monitoring.analise.fonte=" + fonte,
+                "--hemogram.monitoring.analise.cache.enabled=false",
+                "--hemogram.monitoring.analise.rollup.enabled=false",
+                "--hemogram.monitoring.analise.deteccao.enabled=false");
+    }
+
+    /**
+     * Coletas espalhadas pelos últimos 30 dias, 40% com plaquetas abaixo do mínimo, uma
+     * partição por vez (sem passar pelo gatilho da view).
+     */
+    private void popular(ConfigurableApplicationContext carga) {
+        JdbcTemplate jdbcTemplate = carga.getBean(JdbcTemplate.class);
+        LocalDateTime agora = LocalDateTime.now();
+        List<LocalDateTime> meses = new ArrayList<>();
+        for (ParticaoTempo particao = ParticaoTempo.contendo(agora.minusDays(30)); !particao.inicio().isAfter(agora);
+             particao = particao.proxima()) {
+            meses.add(particao.inicio());
+        }
+        carga.getBean(ParticaoHemogramaRepository.class).garantir(meses);
+        for (LocalDateTime mes : meses) {
+            ParticaoTempo particao = ParticaoTempo.contendo(mes);
+            jdbcTemplate.update("INSERT INTO " + particao.tabela()
+                    + " (id, observation_id, patient_id, timestamp, leucocitos, hemoglobina, plaquetas, hematocrito, region)"
+                    + " SELECT * FROM (SELECT X AS id, 'bench-' || X AS observation_id, 'p' || X AS patient_id,"
+                    + " DATEADD('MINUTE', -MOD(X * 7919, 43200), CAST(? AS TIMESTAMP)) AS t,"
+                    + " 3000 + MOD(X * 31, 9000) AS leucocitos, 13.5 AS hemoglobina,"
+                    + " CASE WHEN MOD(X, 5) < 2 THEN 90000 + MOD(X, 50000) ELSE 160000 + MOD(X, 200000) END AS plaquetas,"
+                    + " 42.0 AS hematocrito, 'Bairro ' || MOD(X, ?) AS region FROM SYSTEM_RANGE(1, ?))"
+                    + " WHERE t >= ? AND t < ?",
+                    Timestamp.valueOf(agora), regioes, hemogramas,
+                    Timestamp.valueOf(particao.inicio()), Timestamp.valueOf(particao.fim()));
+        }
+        jdbcTemplate.execute("ALTER SEQUENCE hemograms_seq RESTART WITH " + (hemogramas + 1));
+    }
+}
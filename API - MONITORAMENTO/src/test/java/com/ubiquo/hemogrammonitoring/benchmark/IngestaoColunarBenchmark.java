@@ -0,0 +1,101 @@
+package com.ubiquo.hemogrammonitoring.benchmark;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.service.ArmazemColunarService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Quanto o armazenamento colunar acrescenta à gravação: tempo do listener de
+ * {@link HemogramasPersistidosEvent} por lote gravado, na thread que gravou.
+ * - desligado: fonte=sql, o listener só confere a fonte (a linha de base);
+ * - sincrono: acréscimo às colunas na própria thread de gravação, sob o lock de escrita
+ *   (o comportamento com a fila cheia);
+ * - assincrono: só enfileira para a thread de acréscimo.
+ *
+ * Iterações curtas, e as colunas esvaziadas no fim de cada uma: a gravação contínua não
+ * para de acrescentar linhas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 100, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+public class IngestaoColunarBenchmark {
+
+    @Param({"desligado", "sincrono", "assincrono"})
+    public String modo;
+
+    @Param({"1", "500"})
+    public int lote;
+
+    private ArmazemColunarService armazem;
+    private HemogramasPersistidosEvent evento;
+    private LocalDateTime agora;
+
+    @Setup(Level.Trial)
+    public void iniciar() {
+        AnaliseProperties propriedades = new AnaliseProperties();
+        propriedades.setFonte("desligado".equals(modo) ? "sql" : AnaliseProperties.FONTE_COLUNAR);
+        armazem = new ArmazemColunarService(mock(ParticaoHemogramaRepository.class), propriedades);
+        if ("assincrono".equals(modo)) {
+            // Carga vazia; inicia a thread de acréscimo
+            armazem.carregar();
+        }
+
+        agora = LocalDateTime.now();
+        List<HemogramEntity> hemogramas = new ArrayList<>(lote);
+        for (int i = 0; i < lote; i++) {
+            HemogramEntity hemograma = new HemogramEntity();
+            hemograma.setRegion("Bairro " + (i % 60));
+            hemograma.setTimestamp(agora.minusSeconds(i));
+            hemograma.setLeucocitos(7_000.0 + i);
+            hemograma.setHemoglobina(13.5);
+            hemograma.setPlaquetas(i % 5 < 2 ? 90_000.0 : 200_000.0);
+            hemograma.setHematocrito(42.0);
+            hemogramas.add(hemograma);
+        }
+        evento = new HemogramasPersistidosEvent(hemogramas);
+    }
+
+    @TearDown(Level.Iteration)
+    public void esvaziar() {
+        if (!armazem.aguardarFila(60_000)) {
+            throw new IllegalStateException("Fila do armazenamento colunar não esvaziou");
+        }
+        armazem.aoExcluir(new HemogramasExcluidosEvent(agora.minusDays(1), agora.plusDays(1), 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        armazem.encerrar();
+    }
+
+    @Benchmark
+    public void gravar() {
+        armazem.aoPersistir(evento);
+    }
+}
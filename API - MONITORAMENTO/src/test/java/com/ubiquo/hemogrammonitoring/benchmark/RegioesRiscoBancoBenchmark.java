@@ -0,0 +1,137 @@
+package com.ubiquo.hemogrammonitoring.benchmark;
+
+import com.ubiquo.hemogrammonitoring.HemogramMonitoringApplication;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.service.AnaliseColetivaService;
+import com.ubiquo.hemogrammonitoring.service.RollupHorarioService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /analise/regioes-risco fora da memória (fonte=sql): uma consulta agrupada para todas as
+ * regiões (threadsBanco=1) contra uma consulta por parte das regiões no pool do banco
+ * (threadsBanco=10, o maximum-pool-size padrão do Hikari). horas=24 usa o SQL direto;
+ * horas=72 passa do minimo-horas do rollup e soma a tabela horária.
+ *
+ * O rollup é consolidado antes da medição, e o prazo da avaliação é alto o bastante para
+ * nenhuma resposta sair parcial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class RegioesRiscoBancoBenchmark {
+
+    private static final String BANCO = "jdbc:h2:mem:benchmark-regioes-banco;DB_CLOSE_DELAY=-1";
+
+    @Param({"1", "10"})
+    public int threadsBanco;
+
+    @Param({"24", "72"})
+    public int horas;
+
+    @Param({"1000000"})
+    public int hemogramas;
+
+    @Param({"1000"})
+    public int regioes;
+
+    private ConfigurableApplicationContext contexto;
+    private AnaliseColetivaService analise;
+
+    @Setup(Level.Trial)
+    public void iniciar() {
+        try (ConfigurableApplicationContext carga = subir(1)) {
+            popular(carga);
+        }
+
+        contexto = subir(threadsBanco);
+        contexto.getBean(RollupHorarioService.class).consolidar();
+        analise = contexto.getBean(AnaliseColetivaService.class);
+        ResultadoRegioesRisco resultado = analise.identificarRegioesComRisco(horas);
+        System.out.printf("%nthreadsBanco=%d horas=%d: %d regiões com risco, parcial=%s%n",
+                threadsBanco, horas, resultado.getRegioesComRisco().size(), resultado.isParcial());
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() {
+        contexto.close();
+    }
+
+    @Benchmark
+    public ResultadoRegioesRisco regioesRisco() {
+        return analise.identificarRegioesComRisco(horas);
+    }
+
+    private static ConfigurableApplicationContext subir(int threadsBanco) {
+        return new SpringApplicationBuilder(HemogramMonitoringApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + BANCO,
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.ubiquo=WARN",
+                "--logging.level.org.hibernate.SQL=WARN",
+                "--hemogram.monitoring.fhir.subscription.enabled=false",
+                "--hemogram.monitoring.analise.fonte=sql",
+                "--hemogram.monitoring.analise.cache.enabled=false",
+                "--hemogram.monitoring.analise.deteccao.enabled=false",
+                "--hemogram.monitoring.analise.rollup.intervalo-ms=3600000",
+                "--hemogram.monitoring.analise.paralelismo.threads-banco=" + threadsBanco,
+                "--hemogram.monitoring.analise.paralelismo.timeout-ms=60000");
+    }
+
+    /**
+     * Coletas espalhadas pelos últimos 30 dias, 40% com plaquetas abaixo do mínimo, direto nas
+     * partições, e todas as horas marcadas para o rollup.
+     */
+    private void popular(ConfigurableApplicationContext carga) {
+        JdbcTemplate jdbcTemplate = carga.getBean(JdbcTemplate.class);
+        LocalDateTime agora = LocalDateTime.now();
+        List<LocalDateTime> meses = new ArrayList<>();
+        for (ParticaoTempo particao = ParticaoTempo.contendo(agora.minusDays(30)); !particao.inicio().isAfter(agora);
+             particao = particao.proxima()) {
+            meses.add(particao.inicio());
+        }
+        carga.getBean(ParticaoHemogramaRepository.class).garantir(meses);
+        for (LocalDateTime mes : meses) {
+            ParticaoTempo particao = ParticaoTempo.contendo(mes);
+            jdbcTemplate.update("INSERT INTO " + particao.tabela()
+                    + " (id, observation_id, patient_id, timestamp, leucocitos, hemoglobina, plaquetas, hematocrito, region)"
+                    + " SELECT * FROM (SELECT X AS id, 'bench-' || X AS observation_id, 'p' || X AS patient_id,"
+                    + " DATEADD('MINUTE', -MOD(X * 7919, 43200), CAST(? AS TIMESTAMP)) AS t,"
+                    + " 3000 + MOD(X * 31, 9000) AS leucocitos, 13.5 AS hemoglobina,"
+                    + " CASE WHEN MOD(X, 5) < 2 THEN 90000 + MOD(X, 50000) ELSE 160000 + MOD(X, 200000) END AS plaquetas,"
+                    + " 42.0 AS hematocrito, 'Setor ' || MOD(X, ?) AS region FROM SYSTEM_RANGE(1, ?))"
+                    + " WHERE t >= ? AND t < ?",
+                    Timestamp.valueOf(agora), regioes, hemogramas,
+                    Timestamp.valueOf(particao.inicio()), Timestamp.valueOf(particao.fim()));
+        }
+        jdbcTemplate.execute("ALTER SEQUENCE hemograms_seq RESTART WITH " + (hemogramas + 1));
+        jdbcTemplate.update("INSERT INTO rollup_pendente (region, hora, versao)"
+                + " SELECT DISTINCT region, DATE_TRUNC('HOUR', timestamp), 1 FROM hemograms");
+    }
+}
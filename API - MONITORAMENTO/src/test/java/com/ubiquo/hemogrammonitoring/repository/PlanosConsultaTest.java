@@ -0,0 +1,277 @@
+package com.ubiquo.hemogrammonitoring.repository;
+
+import com.ubiquo.hemogrammonitoring.model.FaixaRegioes;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Planos de execução das consultas reais dos repositórios sobre hemograms e o rollup horário.
+ *
+ * Cada método do repositório roda contra o schema das migrações; o SQL que ele gera (JPQL
+ * traduzido pelo Hibernate ou SQL nativo) e os parâmetros ligados são capturados no DataSource
+ * e passam por EXPLAIN no H2. Nenhum acesso pode ser varredura da tabela nem leitura de um
+ * índice inteiro sem condição (salvo onde isso é o plano certo, como o DISTINCT sobre índice
+ * de cobertura ou MIN/MAX lidos na ponta do índice). As páginas do histórico precisam sair na
+ * ordem do índice, sem ordenar o intervalo inteiro.
+ */
+@DataJpaTest(showSql = false, properties = {"spring.datasource.url=jdbc:h2:mem:planos-consulta",
+        "logging.level.com.ubiquo.hemogrammonitoring=WARN",
+        "logging.level.org.hibernate.SQL=WARN"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({HistoricoHemogramaRepository.class, RollupHorarioRepository.class, ParticaoHemogramaRepository.class,
+        PlanosConsultaTest.Captura.class})
+class PlanosConsultaTest {
+
+    // Acesso escolhido pelo H2: /* PUBLIC.HEMOGRAMS.tableScan */ ou /* PUBLIC.IDX_NOME: CONDICAO */
+    private static final Pattern ACESSO = Pattern.compile("/\\* PUBLIC\\.([A-Za-z0-9_.]+)(:?)");
+    private static final String VARREDURA_COMPLETA = ".tableScan";
+    private static final String PONTA_DO_INDICE = "/* direct lookup */";
+    private static final String ORDENADO_PELO_INDICE = "/* index sorted */";
+
+    // Consultas em que ler o índice inteiro é o plano certo (não há condição para restringir)
+    private static final Set<String> LEITURA_DE_INDICE_INTEIRO = Set.of("particao.regioes", "historico.primeiraPagina", "rollup.pendentes");
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime FIM = INICIO.plusDays(1);
+    private static final int LINHAS = 5_000;
+
+    @Autowired
+    private HemogramRepository hemogramRepository;
+    @Autowired
+    private HistoricoHemogramaRepository historicoRepository;
+    @Autowired
+    private RollupHorarioRepository rollupRepository;
+    @Autowired
+    private ParticaoHemogramaRepository particaoRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Planos por consulta, na ordem alfabética do nome
+    private final Map<String, List<String>> planos = new TreeMap<>();
+
+    /**
+     * Envolve o DataSource e guarda, enquanto ligada, o SQL de cada comando executado e os
+     * parâmetros ligados a ele.
+     */
+    @TestConfiguration
+    static class Captura {
+
+        record Comando(String sql, Map<Integer, Object> parametros) {
+        }
+
+        static volatile List<Comando> comandos;
+
+        @Bean
+        static BeanPostProcessor capturarComandos() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String nome) {
+                    return bean instanceof DataSource dataSource
+                            ? proxy(DataSource.class, dataSource, (resultado, metodo, args) ->
+                                    resultado instanceof Connection c ? conexao(c) : resultado)
+                            : bean;
+                }
+            };
+        }
+
+        private static Connection conexao(Connection conexao) {
+            return proxy(Connection.class, conexao, (resultado, metodo, args) -> {
+                List<Comando> ativos = comandos;
+                if (ativos == null) {
+                    return resultado;
+                }
+                if (!(resultado instanceof PreparedStatement ps)) {
+                    // Consultas sem parâmetros do JdbcTemplate vão por Statement
+                    return resultado instanceof Statement st
+                            ? proxy(Statement.class, st, (r, m, a) -> {
+                                if (m.getName().startsWith("execute") && a != null && a[0] instanceof String sql) {
+                                    ativos.add(new Comando(sql, Map.of()));
+                                }
+                                return r;
+                            })
+                            : resultado;
+                }
+                Comando comando = new Comando((String) args[0], new TreeMap<>());
+                ativos.add(comando);
+                return proxy(PreparedStatement.class, ps, (r, m, a) -> {
+                    if (m.getName().startsWith("set") && a != null && a.length >= 2 && a[0] instanceof Integer i) {
+                        comando.parametros().put(i, m.getName().equals("setNull") ? null : a[1]);
+                    }
+                    return r;
+                });
+            });
+        }
+
+        interface Depois {
+            Object aplicar(Object resultado, java.lang.reflect.Method metodo, Object[] args);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> tipo, T alvo, Depois depois) {
+            return (T) Proxy.newProxyInstance(PlanosConsultaTest.class.getClassLoader(), new Class<?>[]{tipo},
+                    (p, metodo, args) -> {
+                        try {
+                            return depois.aplicar(metodo.invoke(alvo, args), metodo, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+    }
+
+    @BeforeEach
+    void popular() {
+        particaoRepository.garantir(List.of(INICIO.minusMonths(1), INICIO));
+        List<Object[]> linhas = new ArrayList<>();
+        for (int i = 1; i <= LINHAS; i++) {
+            linhas.add(new Object[]{i, "obs-" + i, "p-" + (i % 500), Timestamp.valueOf(INICIO.minusDays(10).plusMinutes(5L * i)),
+                    4_000.0 + i % 8_000, 13.5, 100_000.0 + (i * 37) % 300_000, 42.0, "R" + (i % 20)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO hemograms (id, observation_id, patient_id, timestamp, leucocitos,"
+                + " hemoglobina, plaquetas, hematocrito, region) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", linhas);
+        // Horas consolidadas e algumas pendentes, como depois de algumas rodadas do rollup
+        jdbcTemplate.update("INSERT INTO rollup_pendente (region, hora, versao)"
+                + " SELECT DISTINCT region, DATE_TRUNC('HOUR', timestamp), 1 FROM hemograms WHERE id % 7 = 0");
+        jdbcTemplate.update("INSERT INTO hemogram_rollup_hourly (region, hora, total, alertas, qtd_plaquetas, qtd_leucocitos)"
+                + " SELECT DISTINCT region, DATE_TRUNC('HOUR', timestamp), 1, 0, 1, 1 FROM hemograms");
+        // ANALYZE faz commit: o banco em memória é só desta classe
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void consultasDosRepositoriosUsamIndice() {
+        HistoricoHemogramaRepository.Posicao posicao = new HistoricoHemogramaRepository.Posicao(FIM, 100);
+
+        explicar("findExistingObservationIds", () -> hemogramRepository.findExistingObservationIds(List.of("obs-1", "obs-2")));
+        explicar("findByRegion", () -> hemogramRepository.findByRegion("R1"));
+        explicar("findByRegionAndTimestampBetween", () -> hemogramRepository.findByRegionAndTimestampBetween("R1", INICIO, FIM));
+        explicar("findByRegionAndTimestampAfter", () -> hemogramRepository.findByRegionAndTimestampAfter("R1", INICIO));
+        explicar("countByRegionAndTimestampBetween", () -> hemogramRepository.countByRegionAndTimestampBetween("R1", INICIO, FIM));
+        explicar("findAlertsInRegionByTime", () -> hemogramRepository.findAlertsInRegionByTime("R1", INICIO, FIM, 150_000.0));
+        explicar("countAlertsInRegionByTime", () -> hemogramRepository.countAlertsInRegionByTime("R1", INICIO, FIM, 150_000.0));
+        explicar("particao.regioes", () -> particaoRepository.regioes());
+        explicar("calculateAveragePlaquetasInRegion", () -> hemogramRepository.calculateAveragePlaquetasInRegion("R1", INICIO, FIM));
+        explicar("calculateAverageLeucocitosInRegion", () -> hemogramRepository.calculateAverageLeucocitosInRegion("R1", INICIO, FIM));
+        explicar("aggregateWindowsByRegion", () -> hemogramRepository.aggregateWindowsByRegion(INICIO.minusDays(1), INICIO, FIM, 150_000.0));
+        explicar("aggregateWindowsByRegionRange", () -> hemogramRepository.aggregateWindowsByRegionRange(
+                "R1", "R3", INICIO.minusDays(1), INICIO, FIM, 150_000.0));
+
+        explicar("historico.primeiraPagina", () -> historicoRepository.buscarPagina(filtro(null, null, null, null), null, 101));
+        explicar("historico.continuacao", () -> historicoRepository.buscarPagina(filtro(null, null, null, null), posicao, 101));
+        explicar("historico.periodo", () -> historicoRepository.buscarPagina(filtro(null, INICIO, FIM, null), posicao, 101));
+        explicar("historico.regiao", () -> historicoRepository.buscarPagina(filtro("R1", null, null, null), posicao, 101));
+        explicar("historico.paciente", () -> historicoRepository.buscarPagina(filtro("R1", null, null, "p-1"), posicao, 101));
+        explicar("historico.exportar", () -> historicoRepository.exportar(filtro("R1", INICIO, FIM, null), 100, h -> { }));
+
+        RollupHorarioRepository.Pendente pendente = new RollupHorarioRepository.Pendente("R1", INICIO, 1);
+        explicar("rollup.marcarPendentes", () -> rollupRepository.marcarPendentes(
+                List.of(new RollupHorarioRepository.HoraRegiao("R1", INICIO))));
+        explicar("rollup.pendentes", () -> rollupRepository.pendentes(null, 100));
+        explicar("rollup.pendentesContinuacao", () -> rollupRepository.pendentes(pendente, 100));
+        explicar("rollup.contarPendentes", () -> rollupRepository.contarPendentes());
+        explicar("rollup.recalcular", () -> rollupRepository.recalcular(List.of(pendente), 150_000.0));
+        explicar("rollup.concluir", () -> rollupRepository.concluir(List.of(pendente)));
+        explicar("rollup.somarHoras", () -> rollupRepository.somarHoras(null, INICIO, FIM, 150_000.0));
+        explicar("rollup.somarHorasRegiao", () -> rollupRepository.somarHoras(FaixaRegioes.daRegiao("R1"), INICIO, FIM, 150_000.0));
+        explicar("rollup.somarHorasFaixa", () -> rollupRepository.somarHoras(new FaixaRegioes("R1", "R3"), INICIO, FIM, 150_000.0));
+        explicar("rollup.somarBruto", () -> rollupRepository.somarBruto(null, INICIO, FIM, true, 150_000.0));
+        explicar("rollup.somarBrutoRegiao", () -> rollupRepository.somarBruto(FaixaRegioes.daRegiao("R1"), INICIO, FIM, false, 150_000.0));
+        explicar("rollup.somarBrutoFaixa", () -> rollupRepository.somarBruto(new FaixaRegioes("R1", "R3"), INICIO, FIM, true, 150_000.0));
+        explicar("rollup.excluirHoras", () -> rollupRepository.excluirHoras(INICIO, FIM));
+
+        explicar("particao.percorrerResumos", () -> particaoRepository.percorrer(
+                ParticaoHemogramaRepository.Leitura.RESUMOS, INICIO.minusDays(3), 1_000, lote -> { }));
+        explicar("particao.percorrerColunas", () -> particaoRepository.percorrer(
+                ParticaoHemogramaRepository.Leitura.COLUNAS, INICIO.minusDays(3), 1_000, lote -> { }));
+
+        List<String> semIndice = new ArrayList<>();
+        planos.forEach((consulta, explicados) -> {
+            for (String plano : explicados) {
+                if (!usaIndice(plano, LEITURA_DE_INDICE_INTEIRO.contains(consulta))) {
+                    semIndice.add(consulta + ":\n" + plano);
+                }
+            }
+        });
+        assertThat(semIndice).as("consultas com varredura completa").isEmpty();
+
+        planos.forEach((consulta, explicados) -> {
+            if (consulta.startsWith("historico.") && !consulta.equals("historico.exportar")) {
+                assertThat(explicados).as(consulta).allMatch(plano -> plano.contains(ORDENADO_PELO_INDICE));
+            }
+        });
+    }
+
+    private static HistoricoHemogramaRepository.Filtro filtro(String regiao, LocalDateTime inicio, LocalDateTime fim,
+                                                             String paciente) {
+        return new HistoricoHemogramaRepository.Filtro(regiao, inicio, fim, paciente, false);
+    }
+
+    /**
+     * Roda a consulta capturando o SQL e os parâmetros, e guarda o EXPLAIN de cada comando.
+     */
+    private void explicar(String consulta, Runnable chamada) {
+        List<Captura.Comando> comandos = new ArrayList<>();
+        Captura.comandos = comandos;
+        try {
+            chamada.run();
+        } finally {
+            Captura.comandos = null;
+        }
+        assertThat(comandos).as("SQL capturado de " + consulta).isNotEmpty();
+        for (Captura.Comando comando : comandos) {
+            String plano = jdbcTemplate.query("EXPLAIN " + comando.sql(), ps -> {
+                for (Map.Entry<Integer, Object> parametro : comando.parametros().entrySet()) {
+                    ps.setObject(parametro.getKey(), parametro.getValue());
+                }
+            }, rs -> rs.next() ? rs.getString(1) : null);
+            planos.computeIfAbsent(consulta, c -> new ArrayList<>()).add(plano);
+        }
+    }
+
+    /**
+     * Todo acesso a tabela usa um índice com condição de busca; sem condição, só a leitura
+     * da ponta do índice (MIN/MAX) ou de um índice de cobertura inteiro quando é o que a
+     * consulta pede (DISTINCT de todas as regiões, primeira página do histórico).
+     */
+    private static boolean usaIndice(String plano, boolean aceitaIndiceInteiro) {
+        Matcher acesso = ACESSO.matcher(plano == null ? "" : plano);
+        boolean algum = false;
+        while (acesso.find()) {
+            algum = true;
+            if (acesso.group(1).endsWith(VARREDURA_COMPLETA)) {
+                return false;
+            }
+            boolean indiceInteiro = acesso.group(2).isEmpty();
+            if (indiceInteiro && !aceitaIndiceInteiro && !plano.contains(PONTA_DO_INDICE)) {
+                return false;
+            }
+        }
+        return algum;
+    }
+}
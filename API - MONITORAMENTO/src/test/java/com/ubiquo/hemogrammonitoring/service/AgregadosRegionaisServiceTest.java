@@ -0,0 +1,109 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Limites de memória dos agregados regionais: baldes de minuto só nas horas recentes,
+ * baldes de hora até a retenção, sketches com retenção própria e teto de regiões.
+ */
+class AgregadosRegionaisServiceTest {
+
+    private AnaliseProperties propriedades;
+    private AgregadosRegionaisService agregados;
+
+    @BeforeEach
+    void criar() {
+        ParticaoHemogramaRepository repositorio = mock(ParticaoHemogramaRepository.class);
+        propriedades = new AnaliseProperties();
+        propriedades.setRetencaoHoras(24 * 10);
+        propriedades.setRetencaoMinutosHoras(6);
+        propriedades.setRetencaoSketchesHoras(12);
+        propriedades.setMaxRegioes(3);
+        agregados = new AgregadosRegionaisService(repositorio, propriedades);
+        agregados.reconstruir();
+    }
+
+    @Test
+    void janelaLongaSomaHorasAntigasEMinutosRecentes() {
+        LocalDateTime agora = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        List<HemogramEntity> lote = new ArrayList<>();
+        // Um hemograma a cada 30 minutos nos últimos 5 dias; metade com plaquetas baixas
+        for (int i = 0; i < 48 * 5; i++) {
+            lote.add(hemograma("Centro", agora.minusMinutes(30L * i), i % 2 == 0 ? 100_000.0 : 250_000.0));
+        }
+        agregados.aoPersistir(new HemogramasPersistidosEvent(lote));
+
+        // Janela inteiramente na faixa dos minutos: granularidade de minuto
+        AgregadosRegionaisService.Janela recente = agregados.consultar("Centro", agora.minusMinutes(90), agora);
+        assertThat(recente.getTotal()).isEqualTo(4);
+
+        // Janela de 4 dias, começando em hora cheia: horas antigas + minutos recentes, sem dupla contagem
+        LocalDateTime inicio = agora.truncatedTo(ChronoUnit.HOURS).minusDays(4);
+        long esperado = lote.stream().filter(h -> !h.getTimestamp().isBefore(inicio)).count();
+        AgregadosRegionaisService.Janela longa = agregados.consultar("Centro", inicio, agora);
+        assertThat(longa.getTotal()).isEqualTo(esperado);
+        assertThat(longa.getAlertas()).isEqualTo(lote.stream()
+                .filter(h -> !h.getTimestamp().isBefore(inicio) && h.getPlaquetas() < 150_000).count());
+
+        // Só as últimas 6 horas (+1 de folga da poda) têm baldes de minuto
+        long baldesMinuto = (Long) agregados.getMetricas().get("minuteBuckets");
+        assertThat(baldesMinuto).isLessThanOrEqualTo(2 * 8);
+    }
+
+    @Test
+    void sketchesRespeitamRetencaoPropria() {
+        LocalDateTime agora = LocalDateTime.now();
+        agregados.aoPersistir(new HemogramasPersistidosEvent(List.of(
+                hemograma("Centro", agora.minusHours(1), 90_000.0),
+                hemograma("Centro", agora.minusHours(48), 90_000.0))));
+
+        assertThat(agregados.cobreSketches("Centro", agora.minusHours(11))).isTrue();
+        assertThat(agregados.cobreSketches("Centro", agora.minusHours(24))).isFalse();
+        assertThat(agregados.cobre("Centro", agora.minusHours(72))).isTrue();
+        assertThat((Long) agregados.getMetricas().get("sketchHours")).isEqualTo(1L);
+        assertThat(agregados.consultarPacientes("Centro", agora.minusHours(12), agora).getDistintos()).isEqualTo(1);
+    }
+
+    @Test
+    void regiaoAlemDoLimiteFicaForaECaiNoBanco() {
+        LocalDateTime agora = LocalDateTime.now();
+        List<HemogramEntity> lote = new ArrayList<>();
+        for (String regiao : List.of("A", "B", "C", "D", "E")) {
+            lote.add(hemograma(regiao, agora.minusMinutes(5), 200_000.0));
+        }
+        agregados.aoPersistir(new HemogramasPersistidosEvent(lote));
+
+        assertThat(agregados.listarRegioes()).containsExactlyInAnyOrder("A", "B", "C");
+        assertThat(agregados.getMetricas().get("droppedRegionFull")).isEqualTo(2L);
+        // Regiões admitidas antes do descarte continuam completas
+        assertThat(agregados.cobre("A", agora.minusHours(24))).isTrue();
+        // A região descartada e a visão "todas" não podem ser respondidas pela memória
+        assertThat(agregados.cobre("D", agora.minusHours(24))).isFalse();
+        assertThat(agregados.cobre(null, agora.minusHours(24))).isFalse();
+        assertThat(agregados.cobreSketches(null, agora.minusHours(1))).isFalse();
+    }
+
+    private static HemogramEntity hemograma(String regiao, LocalDateTime timestamp, double plaquetas) {
+        HemogramEntity hemograma = new HemogramEntity();
+        hemograma.setRegion(regiao);
+        hemograma.setTimestamp(timestamp);
+        hemograma.setPlaquetas(plaquetas);
+        hemograma.setLeucocitos(7_000.0);
+        hemograma.setPatientId("p-" + regiao);
+        hemograma.setPatientCpf("CPF não disponível");
+        return hemograma;
+    }
+}
@@ -0,0 +1,142 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.dto.IndicadoresRegionaisDTO;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * /analise/regioes-risco no caminho SQL com as regiões divididas em faixas, uma consulta por
+ * faixa no pool do banco: uma parte que falha ou estoura o prazo deixa só as suas regiões de
+ * fora (resultado parcial), e as demais partes entram no resultado.
+ */
+class AnaliseColetivaServiceTest {
+
+    // Na ordem do banco, como ParticaoHemogramaRepository.regioes(): "Setor 0", "Setor 1", "Setor 10", ...
+    private static final List<String> REGIOES = IntStream.range(0, 200).mapToObj(i -> "Setor " + i).sorted().toList();
+
+    private final HemogramRepository hemogramRepository = mock(HemogramRepository.class);
+    private final ParticaoHemogramaRepository particaoRepository = mock(ParticaoHemogramaRepository.class);
+    private final CountDownLatch liberar = new CountDownLatch(1);
+    private AnaliseColetivaService analise;
+
+    @AfterEach
+    void encerrar() {
+        liberar.countDown();
+        if (analise != null) {
+            analise.shutdown();
+        }
+    }
+
+    @Test
+    void parteQueFalhaDeixaSoAsSuasRegioesDeFora() {
+        analise = criar(4, 5_000);
+        when(hemogramRepository.aggregateWindowsByRegionRange(anyString(), anyString(), any(), any(), any(), anyDouble()))
+                .thenAnswer(invocacao -> {
+                    List<String> parte = daFaixa(invocacao.getArgument(0), invocacao.getArgument(1));
+                    if (parte.contains("Setor 7")) {
+                        throw new IllegalStateException("conexão perdida");
+                    }
+                    return linhasComRisco(parte);
+                });
+
+        ResultadoRegioesRisco resultado = analise.identificarRegioesComRisco(24);
+
+        // 4 partes de 50: a do "Setor 7" falhou, as outras três responderam
+        List<String> falhou = parteDe("Setor 7");
+        assertThat(resultado.isParcial()).isTrue();
+        assertThat(resultado.getRegioesNaoAvaliadas()).isEqualTo(falhou);
+        assertThat(resultado.getRegioesComRisco()).extracting(IndicadoresRegionaisDTO::getRegiao)
+                .hasSize(150)
+                .doesNotContainAnyElementsOf(falhou);
+        verify(hemogramRepository, never()).aggregateWindowsByRegion(any(), any(), any(), anyDouble());
+    }
+
+    @Test
+    void parteForaDoPrazoNaoSeguraAsDemais() {
+        analise = criar(4, 300);
+        when(hemogramRepository.aggregateWindowsByRegionRange(anyString(), anyString(), any(), any(), any(), anyDouble()))
+                .thenAnswer(invocacao -> {
+                    List<String> parte = daFaixa(invocacao.getArgument(0), invocacao.getArgument(1));
+                    if (parte.contains("Setor 120")) {
+                        // Consulta presa: só termina depois do teste
+                        liberar.await(30, TimeUnit.SECONDS);
+                    }
+                    return linhasComRisco(parte);
+                });
+
+        long comeco = System.nanoTime();
+        ResultadoRegioesRisco resultado = analise.identificarRegioesComRisco(24);
+        long duracaoMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - comeco);
+
+        assertThat(duracaoMs).isLessThan(5_000);
+        assertThat(resultado.getRegioesNaoAvaliadas()).isEqualTo(parteDe("Setor 120"));
+        assertThat(resultado.getRegioesComRisco()).hasSize(150);
+    }
+
+    @Test
+    void regiaoSemHemogramasNaJanelaContaComoAvaliada() {
+        analise = criar(4, 5_000);
+        // Só as regiões pares têm linhas nas janelas
+        when(hemogramRepository.aggregateWindowsByRegionRange(anyString(), anyString(), any(), any(), any(), anyDouble()))
+                .thenAnswer(invocacao -> linhasComRisco(daFaixa(invocacao.getArgument(0), invocacao.getArgument(1)).stream()
+                        .filter(regiao -> Integer.parseInt(regiao.substring(6)) % 2 == 0)
+                        .toList()));
+
+        ResultadoRegioesRisco resultado = analise.identificarRegioesComRisco(24);
+
+        assertThat(resultado.isParcial()).isFalse();
+        assertThat(resultado.getRegioesComRisco()).hasSize(100);
+    }
+
+    private AnaliseColetivaService criar(int threadsBanco, long timeoutMs) {
+        AnaliseProperties propriedades = new AnaliseProperties();
+        propriedades.getParalelismo().setThreadsBanco(threadsBanco);
+        propriedades.getParalelismo().setTimeoutMs(timeoutMs);
+        when(particaoRepository.regioes()).thenReturn(REGIOES);
+        // Agregados em memória, colunas e rollup não cobrem a janela: caminho SQL
+        return new AnaliseColetivaService(hemogramRepository, particaoRepository,
+                mock(AgregadosRegionaisService.class), mock(RollupHorarioService.class),
+                mock(ArmazemColunarService.class), propriedades, mock(DataSource.class));
+    }
+
+    // Regiões em [de, ate), como a consulta por faixa
+    private static List<String> daFaixa(String de, String ate) {
+        return REGIOES.stream().filter(regiao -> regiao.compareTo(de) >= 0 && regiao.compareTo(ate) < 0).toList();
+    }
+
+    // As 50 regiões da parte (de 4) que contém a região
+    private static List<String> parteDe(String regiao) {
+        int parte = REGIOES.indexOf(regiao) / 50;
+        return REGIOES.subList(parte * 50, (parte + 1) * 50);
+    }
+
+    // Metade dos hemogramas com plaquetas baixas: risco coletivo em todas
+    private static List<Object[]> linhasComRisco(Collection<String> regioes) {
+        List<Object[]> linhas = new ArrayList<>();
+        for (String regiao : regioes) {
+            linhas.add(new Object[]{regiao, 10L, 5L, 120_000.0, 7_000.0, 200_000.0, 7_000.0});
+        }
+        return linhas;
+    }
+}
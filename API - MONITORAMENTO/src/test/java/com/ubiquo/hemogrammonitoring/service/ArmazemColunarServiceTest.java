@@ -0,0 +1,86 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Acréscimo assíncrono às colunas: com várias threads gravando e a fila pequena (parte dos
+ * lotes acrescentada pela própria thread de gravação), nenhum hemograma se perde e os
+ * totais batem depois que a fila esvazia.
+ */
+class ArmazemColunarServiceTest {
+
+    private static final LocalDateTime AGORA = LocalDateTime.now();
+
+    private ArmazemColunarService armazem;
+
+    @AfterEach
+    void encerrar() {
+        armazem.encerrar();
+    }
+
+    @Test
+    void filaCheiaNaoPerdeHemogramas() throws Exception {
+        AnaliseProperties propriedades = new AnaliseProperties();
+        propriedades.setFonte(AnaliseProperties.FONTE_COLUNAR);
+        propriedades.getColunar().setCapacidadeFila(200);
+        armazem = new ArmazemColunarService(mock(ParticaoHemogramaRepository.class), propriedades);
+        armazem.carregar();
+
+        int threads = 4;
+        int lotesPorThread = 500;
+        int hemogramasPorLote = 50;
+        ExecutorService gravacao = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tarefas.add(gravacao.submit(() -> {
+                    for (int i = 0; i < lotesPorThread; i++) {
+                        armazem.aoPersistir(new HemogramasPersistidosEvent(lote(hemogramasPorLote)));
+                    }
+                }));
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get();
+            }
+        } finally {
+            gravacao.shutdown();
+        }
+
+        assertThat(armazem.aguardarFila(10_000)).isTrue();
+        long total = (long) threads * lotesPorThread * hemogramasPorLote;
+        assertThat(armazem.getMetricas().get("rows")).isEqualTo(total);
+        assertThat(armazem.getMetricas().get("queued")).isEqualTo(0L);
+        AgregadosRegionaisService.Janela janela = armazem.consultar("Centro", AGORA.minusHours(2), AGORA.minusHours(1),
+                AGORA.plusMinutes(1)).atual();
+        assertThat(janela.getTotal()).isEqualTo(total);
+        assertThat(janela.getAlertas()).isEqualTo(total / 5);
+    }
+
+    private static List<HemogramEntity> lote(int tamanho) {
+        List<HemogramEntity> hemogramas = new ArrayList<>(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            HemogramEntity hemograma = new HemogramEntity();
+            hemograma.setRegion("Centro");
+            hemograma.setTimestamp(AGORA.minusSeconds(i));
+            hemograma.setLeucocitos(7_000.0);
+            hemograma.setPlaquetas(i % 5 == 0 ? 90_000.0 : 200_000.0);
+            hemogramas.add(hemograma);
+        }
+        return hemogramas;
+    }
+}
@@ -0,0 +1,89 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.ResultadoRegioesRisco;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Invalidação do cache de /analise: um lote gravado descarta só as chaves das suas regiões
+ * (as regiões com risco seguem a validade), um cálculo invalidado no meio não é guardado, e
+ * o índice por escopo não guarda regiões que já saíram do LRU.
+ */
+class CacheAnaliseServiceTest {
+
+    @Test
+    void loteGravadoDescartaSoAsChavesDasSuasRegioes() {
+        CacheAnaliseService cache = criar(100);
+        AtomicInteger calculos = new AtomicInteger();
+        cache.obterIndicadores("Centro", 24, () -> "centro-" + calculos.incrementAndGet());
+        cache.obterIndicadores("Centro", 72, () -> "centro-" + calculos.incrementAndGet());
+        cache.obterIndicadores("Norte", 24, () -> "norte-" + calculos.incrementAndGet());
+        cache.obterRegioes(() -> List.of("Centro", "Norte"));
+        ResultadoRegioesRisco risco = cache.obterRegioesComRisco(24, () -> ResultadoRegioesRisco.completo(List.of()));
+
+        gravar(cache, "Centro");
+
+        assertThat(cache.obterIndicadores("Centro", 24, () -> "recalculado")).isEqualTo("recalculado");
+        assertThat(cache.obterIndicadores("Norte", 24, () -> "recalculado")).isEqualTo("norte-3");
+        assertThat(cache.obterRegioes(() -> List.of())).isEqualTo(List.of("Centro", "Norte"));
+        assertThat(cache.obterRegioesComRisco(24, () -> ResultadoRegioesRisco.completo(List.of()))).isSameAs(risco);
+        assertThat(cache.getMetricas()).containsEntry("invalidations", 2L);
+
+        // Região nova: a lista também sai
+        gravar(cache, "Sul");
+        assertThat(cache.obterRegioes(() -> List.of("Centro", "Norte", "Sul"))).hasSize(3);
+    }
+
+    @Test
+    void calculoInvalidadoNoMeioNaoEhGuardado() {
+        CacheAnaliseService cache = criar(100);
+
+        String valor = cache.obterIndicadores("Centro", 24, () -> {
+            // Lote da mesma região gravado durante o cálculo
+            gravar(cache, "Centro");
+            return "velho";
+        });
+
+        assertThat(valor).isEqualTo("velho");
+        assertThat(cache.obterIndicadores("Centro", 24, () -> "novo")).isEqualTo("novo");
+        assertThat(cache.getMetricas()).containsEntry("inFlight", 0);
+    }
+
+    @Test
+    void indiceNaoGuardaRegioesDespejadas() {
+        CacheAnaliseService cache = criar(10);
+
+        for (int i = 0; i < 1_000; i++) {
+            String regiao = "Setor " + i;
+            cache.obterIndicadores(regiao, 24, () -> regiao);
+            gravar(cache, "Outra " + i);
+        }
+
+        assertThat(cache.getMetricas())
+                .containsEntry("size", 10)
+                .containsEntry("scopes", 10)
+                .containsEntry("inFlight", 0);
+    }
+
+    private static CacheAnaliseService criar(int maxEntradas) {
+        AnaliseProperties propriedades = new AnaliseProperties();
+        propriedades.getCache().setMaxEntradas(maxEntradas);
+        return new CacheAnaliseService(propriedades);
+    }
+
+    private static void gravar(CacheAnaliseService cache, String regiao) {
+        HemogramEntity hemograma = new HemogramEntity();
+        hemograma.setRegion(regiao);
+        List<HemogramEntity> lote = new ArrayList<>();
+        lote.add(hemograma);
+        cache.aoPersistir(new HemogramasPersistidosEvent(lote));
+    }
+}
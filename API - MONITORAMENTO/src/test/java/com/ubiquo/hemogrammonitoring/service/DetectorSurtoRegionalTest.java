@@ -0,0 +1,168 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replay de surtos sintéticos com os parâmetros padrão: metade das regiões recebe um surto
+ * (proporção de alertas 15% → 35%, plaquetas 250 mil → 200 mil) a partir da observação
+ * INICIO_SURTO; a outra metade é controle. Atraso = observações entre o início do surto e o
+ * primeiro sinal; alarme falso = sinal antes do surto ou em região de controle.
+ */
+class DetectorSurtoRegionalTest {
+
+    private static final int REGIOES = 1_000;
+    private static final int OBSERVACOES = 2_000;
+    private static final int INICIO_SURTO = 1_000;
+
+    private final AnaliseProperties.Deteccao parametros = new AnaliseProperties().getDeteccao();
+
+    @Test
+    void surtoDetectadoRapidoComPoucosAlarmesFalsos() {
+        Random aleatorio = new Random(42);
+        List<Long> atrasos = new ArrayList<>();
+        long alarmesFalsos = 0;
+        long observacoesSemSurto = 0;
+
+        for (int r = 0; r < REGIOES; r++) {
+            boolean comSurto = r % 2 == 0;
+            DetectorSurtoRegional detector = new DetectorSurtoRegional();
+            long atraso = -1;
+            for (int i = 0; i < OBSERVACOES; i++) {
+                boolean emSurto = comSurto && i >= INICIO_SURTO;
+                if (!emSurto) {
+                    observacoesSemSurto++;
+                }
+                DetectorSurtoRegional.Sinal sinal = registrar(detector, aleatorio, emSurto);
+                if (sinal == null) {
+                    continue;
+                }
+                if (!emSurto) {
+                    alarmesFalsos++;
+                } else if (atraso < 0) {
+                    atraso = i - INICIO_SURTO;
+                }
+            }
+            if (atraso >= 0) {
+                atrasos.add(atraso);
+            }
+        }
+
+        long[] ordenados = atrasos.stream().mapToLong(Long::longValue).sorted().toArray();
+        double taxaDeteccao = (double) ordenados.length / (REGIOES / 2);
+        double alarmesFalsosPor1000 = alarmesFalsos * 1000.0 / observacoesSemSurto;
+
+        assertThat(taxaDeteccao).isGreaterThanOrEqualTo(0.99);
+        assertThat(ordenados[ordenados.length / 2]).isLessThan(40);
+        assertThat(alarmesFalsosPor1000).isLessThan(1.0);
+        assertThat(Arrays.stream(ordenados).max().orElseThrow()).isLessThan(OBSERVACOES - INICIO_SURTO);
+    }
+
+    @Test
+    void mudancaSustentadaViraLinhaDeBaseDepoisDaReadaptacao() {
+        Random aleatorio = new Random(7);
+        DetectorSurtoRegional detector = new DetectorSurtoRegional();
+        for (int i = 0; i < 1_000; i++) {
+            registrar(detector, aleatorio, false);
+        }
+        assertThat(detector.isEmAlarme()).isFalse();
+
+        // Entra em alarme logo depois da mudança e sai sozinho depois de readaptacao observações em alarme
+        int emAlarme = 0;
+        for (int i = 0; i < 3 * parametros.getReadaptacao(); i++) {
+            registrar(detector, aleatorio, true);
+            if (detector.isEmAlarme()) {
+                emAlarme++;
+            }
+        }
+        assertThat(emAlarme).isBetween(parametros.getReadaptacao(), 2 * parametros.getReadaptacao());
+        assertThat(detector.isEmAlarme()).isFalse();
+        assertThat(detector.getReadaptacoes()).isGreaterThanOrEqualTo(1);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> proporcao = (Map<String, Object>) detector.resumo().get(DetectorSurtoRegional.SERIE_PROPORCAO);
+        assertThat((Double) proporcao.get("linhaDeBase")).isBetween(0.30, 0.40);
+
+        // Com readaptacao = 0 a linha de base continua congelada e o alarme não termina
+        parametros.setReadaptacao(0);
+        DetectorSurtoRegional congelado = new DetectorSurtoRegional();
+        for (int i = 0; i < 1_000; i++) {
+            registrar(congelado, aleatorio, false);
+        }
+        for (int i = 0; i < 1_500; i++) {
+            registrar(congelado, aleatorio, true);
+        }
+        assertThat(congelado.isEmAlarme()).isTrue();
+    }
+
+    @Test
+    void reconstroiEstadoAPartirDoBanco() {
+        LocalDateTime agora = LocalDateTime.now();
+        Random aleatorio = new Random(3);
+        List<Object[]> linhas = new ArrayList<>();
+        // Centro: surto a partir da milésima linha; Norte: estável
+        for (int i = 0; i < 1_500; i++) {
+            boolean emSurto = i >= 1_000;
+            double plaquetas = valorPlaquetas(aleatorio, emSurto);
+            linhas.add(new Object[]{1_000L + i, "Centro", agora.minusMinutes(1_500 - i), plaquetas, 7_000.0,
+                    "CPF", "p" + i});
+            linhas.add(new Object[]{5_000L + i, "Norte", agora.minusMinutes(1_500 - i),
+                    valorPlaquetas(aleatorio, false), 7_000.0, "CPF", "q" + i});
+        }
+        // Gravada depois com timestamp fora da janela de reconstrução: ignorada
+        linhas.add(new Object[]{9_000L, "Sul", agora.minusDays(30), 90_000.0, 7_000.0, "CPF", "r"});
+        linhas.sort((a, b) -> Long.compare((Long) a[0], (Long) b[0]));
+
+        ParticaoHemogramaRepository repositorio = mock(ParticaoHemogramaRepository.class);
+        when(repositorio.percorrer(eq(ParticaoHemogramaRepository.Leitura.RESUMOS), any(), anyInt(), any()))
+                .thenAnswer(chamada -> {
+                    int tamanhoLote = chamada.getArgument(2);
+                    Consumer<List<Object[]>> consumidor = chamada.getArgument(3);
+                    for (int i = 0; i < linhas.size(); i += tamanhoLote) {
+                        consumidor.accept(linhas.subList(i, Math.min(linhas.size(), i + tamanhoLote)));
+                    }
+                    return (long) linhas.size();
+                });
+
+        AnaliseProperties propriedades = new AnaliseProperties();
+        propriedades.getDeteccao().setReadaptacao(0);
+        DeteccaoSurtoService servico = new DeteccaoSurtoService(repositorio, propriedades);
+        servico.reconstruir();
+
+        assertThat(servico.getMetricas().get("updates")).isEqualTo(3_000L);
+        assertThat(servico.listarRegioesEmAlarme()).containsExactly("Centro");
+        assertThat(servico.listarSinais()).isNotEmpty()
+                .allSatisfy(sinal -> assertThat(sinal.get("regiao")).isEqualTo("Centro"));
+        assertThat((Long) servico.consultarRegiao("Norte").get("observacoes")).isEqualTo(1_500L);
+        assertThat(servico.consultarRegiao("Sul")).isNull();
+    }
+
+    private DetectorSurtoRegional.Sinal registrar(DetectorSurtoRegional detector, Random aleatorio, boolean emSurto) {
+        double plaquetas = valorPlaquetas(aleatorio, emSurto);
+        boolean alerta = aleatorio.nextDouble() < (emSurto ? 0.35 : 0.15);
+        return detector.registrar(alerta, plaquetas, null, parametros);
+    }
+
+    /**
+     * Plaquetas de um hemograma sintético (média 250 mil, 200 mil no surto, desvio 70 mil).
+     */
+    private static double valorPlaquetas(Random aleatorio, boolean emSurto) {
+        return Math.max(0, (emSurto ? 200_000 : 250_000) + aleatorio.nextGaussian() * 70_000);
+    }
+}
@@ -0,0 +1,225 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.config.LoincProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Recuperação depois de uma queda: o diário é abandonado sem fechar (nem checkpoint final)
+ * e reaberto no mesmo diretório. O diário entrega pelo menos uma vez tudo acima do checkpoint
+ * (confirmações acima dele não vão para o disco) e no máximo uma vez por reprocessamento; com
+ * a gravação idempotente por observationId, como a do HemogramPersistenceService, quedas
+ * repetidas, inclusive no meio da recuperação, não perdem nem duplicam hemogramas. Vale
+ * também para Observations sem id, cujo observationId é derivado do payload.
+ */
+class DiarioIngestaoServiceTest {
+
+    @TempDir
+    Path diretorio;
+
+    private final List<DiarioIngestaoService> abertos = new ArrayList<>();
+    // observationId -> gravações; a gravação ignora um id que já está no banco
+    private final Map<String, Integer> banco = new HashMap<>();
+    private int insercoes;
+
+    @AfterEach
+    void encerrar() {
+        // Inclusive os "derrubados", para não deixar a thread de fsync viva entre os testes
+        for (int i = abertos.size() - 1; i >= 0; i--) {
+            abertos.get(i).fechar();
+        }
+    }
+
+    @Test
+    void quedasRepetidasNaoPerdemNemDuplicamHemogramas() throws IOException {
+        DiarioIngestaoService diario = abrir(64, 8);
+        Set<String> naoGravados = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            String payload = observacao(i, 100);
+            long seq = diario.registrar(payload);
+            // Os ímpares ficaram na fila dos workers quando o processo caiu
+            if (i % 2 == 0) {
+                gravar(payload);
+                diario.confirmar(seq);
+            } else {
+                naoGravados.add(idDe(payload));
+            }
+        }
+        diario.checkpoint();
+        // Queda: nada mais é confirmado nem gravado
+
+        DiarioIngestaoService recuperado = abrir(64, 8);
+        // Payloads novos só depois do reprocessamento
+        assertThat(recuperado.isAceitandoPayloads()).isFalse();
+        List<Long> entregues = new ArrayList<>();
+        Set<String> reprocessados = new HashSet<>();
+        long total = recuperado.reprocessarPendentes((seq, payload) -> {
+            entregues.add(seq);
+            reprocessados.add(idDe(payload));
+            gravar(payload);
+            // Nova queda no meio da recuperação: só a primeira metade chega a ser confirmada
+            if (entregues.size() <= 100) {
+                recuperado.confirmar(seq);
+            }
+        });
+
+        assertThat(total).isEqualTo(entregues.size());
+        assertThat(recuperado.isAceitandoPayloads()).isTrue();
+        assertThat(entregues).doesNotHaveDuplicates().isSorted();
+        assertThat(reprocessados).containsAll(naoGravados);
+        assertThat(banco).hasSize(200);
+        assertThat(banco.values()).containsOnly(1);
+        recuperado.checkpoint();
+
+        DiarioIngestaoService segundaRecuperacao = abrir(64, 8);
+        int insercoesAntes = insercoes;
+        List<Long> novasEntregas = new ArrayList<>();
+        segundaRecuperacao.reprocessarPendentes((seq, payload) -> {
+            novasEntregas.add(seq);
+            gravar(payload);
+        });
+
+        // Só o que não foi confirmado antes da segunda queda volta, e o banco não muda
+        assertThat(novasEntregas).doesNotHaveDuplicates().containsAll(entregues.subList(100, entregues.size()));
+        assertThat(novasEntregas).doesNotContainAnyElementsOf(entregues.subList(0, 100));
+        assertThat(insercoes).isEqualTo(insercoesAntes);
+        assertThat(banco).hasSize(200);
+
+        // Tudo confirmado e fechado normalmente: nada a reprocessar na próxima abertura
+        novasEntregas.forEach(segundaRecuperacao::confirmar);
+        segundaRecuperacao.fechar();
+        DiarioIngestaoService limpo = abrir(64, 8);
+        assertThat(limpo.reprocessarPendentes((seq, payload) -> {
+            throw new AssertionError("Entrada já confirmada reprocessada: " + seq);
+        })).isZero();
+        assertThat(limpo.getMetricas().get("pending")).isEqualTo(0);
+    }
+
+    @Test
+    void compactacaoMantemPendentesDosSegmentosExcluidos() throws IOException {
+        // Segmentos de 1 MB com entradas de ~100 KB: uns 10 registros por segmento
+        DiarioIngestaoService diario = abrir(1, 2);
+        Set<String> naoGravados = new HashSet<>();
+        for (int i = 0; i < 60; i++) {
+            String payload = observacao(i, 100 * 1024);
+            long seq = diario.registrar(payload);
+            if (i % 20 == 0) {
+                naoGravados.add(idDe(payload));
+            } else {
+                gravar(payload);
+                diario.confirmar(seq);
+            }
+        }
+        diario.checkpoint();
+
+        Map<String, Object> metricas = diario.getMetricas();
+        assertThat((Long) metricas.get("relocated")).isPositive();
+        // Cada remetente espera o fsync, e a thread de fsync prepara a reserva antes dele:
+        // nenhuma rolagem precisou criar segmento com o lock de escrita
+        assertThat((Long) metricas.get("rolls")).isPositive();
+        assertThat(metricas.get("rollsWithoutSpare")).isEqualTo(0L);
+        assertThat((Integer) metricas.get("segments")).isLessThanOrEqualTo(2);
+        // Queda logo depois da compactação
+
+        DiarioIngestaoService recuperado = abrir(1, 2);
+        List<Long> entregues = new ArrayList<>();
+        Set<String> reprocessados = new HashSet<>();
+        recuperado.reprocessarPendentes((seq, payload) -> {
+            entregues.add(seq);
+            reprocessados.add(idDe(payload));
+            gravar(payload);
+        });
+
+        assertThat(entregues).doesNotHaveDuplicates();
+        assertThat(reprocessados).containsAll(naoGravados);
+        assertThat(banco).hasSize(60);
+        assertThat(banco.values()).containsOnly(1);
+    }
+
+    private void gravar(String payload) {
+        gravarComId(idDe(payload));
+    }
+
+    private void gravarComId(String observationId) {
+        if (banco.putIfAbsent(observationId, 1) == null) {
+            insercoes++;
+        }
+    }
+
+    @Test
+    void observationSemIdGravadaAntesDoCheckpointNaoDuplicaNoReprocessamento() throws IOException {
+        FhirFastPathExtractor extrator = new FhirFastPathExtractor(new LoincDispatcher(new LoincProperties()));
+        DiarioIngestaoService diario = abrir(64, 8);
+        Set<String> idsGravados = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            String payload = observacaoFhirSemId(i);
+            long seq = diario.registrar(payload);
+            String observationId = extrator.extrair(payload).getId();
+            gravarComId(observationId);
+            idsGravados.add(observationId);
+            diario.confirmar(seq);
+        }
+        // Queda depois da gravação e antes do checkpoint: tudo volta no reprocessamento
+
+        DiarioIngestaoService recuperado = abrir(64, 8);
+        int insercoesAntes = insercoes;
+        Set<String> idsReprocessados = new HashSet<>();
+        long total = recuperado.reprocessarPendentes((seq, payload) -> {
+            // Novo parse do mesmo payload, como faria o FhirParserService
+            String observationId = extrator.extrair(payload).getId();
+            idsReprocessados.add(observationId);
+            gravarComId(observationId);
+        });
+
+        assertThat(total).isEqualTo(50);
+        assertThat(idsGravados).hasSize(50).allMatch(id -> id.startsWith("urn:sha256:"));
+        assertThat(idsReprocessados).isEqualTo(idsGravados);
+        assertThat(insercoes).isEqualTo(insercoesAntes);
+        assertThat(banco).hasSize(50);
+    }
+
+    private DiarioIngestaoService abrir(int tamanhoSegmentoMb, int maxSegmentos) throws IOException {
+        IngestionProperties propriedades = new IngestionProperties();
+        IngestionProperties.Diario config = propriedades.getDiario();
+        config.setEnabled(true);
+        config.setDiretorio(diretorio.toString());
+        config.setTamanhoSegmentoMb(tamanhoSegmentoMb);
+        config.setMaxSegmentos(maxSegmentos);
+        config.setFsync(true);
+        DiarioIngestaoService diario = new DiarioIngestaoService(propriedades);
+        diario.abrir();
+        abertos.add(diario);
+        return diario;
+    }
+
+    private static String idDe(String payload) {
+        int inicio = payload.indexOf("obs-");
+        return payload.substring(inicio, payload.indexOf('"', inicio));
+    }
+
+    private static String observacaoFhirSemId(int indice) {
+        return "{\"resourceType\":\"Observation\",\"status\":\"final\","
+                + "\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"777-3\"}]},"
+                + "\"subject\":{\"reference\":\"Patient/paciente-" + indice + "\"},"
+                + "\"effectiveDateTime\":\"2025-03-10T08:00:00-03:00\","
+                + "\"valueQuantity\":{\"value\":" + (150000 + indice) + ",\"code\":\"/uL\"}}";
+    }
+
+    private static String observacao(int indice, int tamanho) {
+        String prefixo = "{\"id\":\"obs-" + indice + "\",\"dados\":\"";
+        return prefixo + "x".repeat(Math.max(0, tamanho - prefixo.length() - 2)) + "\"}";
+    }
+}
@@ -0,0 +1,283 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ubiquo.hemogrammonitoring.config.IngestionProperties;
+import com.ubiquo.hemogrammonitoring.config.LoincProperties;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Teste diferencial do fast path (streaming Jackson) contra o caminho HAPI.
+ *
+ * Um gerador com semente fixa monta Observations e Bundles variando os pontos em que os dois
+ * caminhos podem divergir: component[] x value[x], códigos alternativos e não LOINC, unidades
+ * com conversão, formatos de data, subject por referência ou por CPF, extension de bairro e
+ * campos desconhecidos. Sempre que o fast path aceita o payload, o resultado tem de ser igual
+ * ao do HAPI; quando ele recusa, o chamador cai no HAPI e não há o que comparar.
+ */
+@SpringBootTest(classes = FhirFastPathDiferencialTest.Config.class, webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = "logging.level.com.ubiquo.hemogrammonitoring=WARN")
+class FhirFastPathDiferencialTest {
+
+    private static final int PAYLOADS = 2000;
+    private static final long SEMENTE = 20240611L;
+
+    private static final String CPF_SYSTEM = "https://fhir.saude.go.gov.br/sid/cpf";
+    private static final String BAIRRO_URL = "https://fhir.saude.go.gov.br/r4/core/StructureDefinition/bairro";
+
+    // codigo LOINC, unidade e faixa de valores na unidade informada
+    private static final Object[][] ANALITOS = {
+            {"33747-0", "/uL", 1500.0, 20000.0},
+            {"6690-2", "10*3/uL", 1.5, 20.0},
+            {"26464-8", "10*9/L", 1.5, 20.0},
+            {"718-7", "g/dL", 7.0, 18.0},
+            {"718-7", "g/L", 70.0, 180.0},
+            {"777-3", "/uL", 20000.0, 450000.0},
+            {"777-3", "10*3/uL", 20.0, 450.0},
+            {"26515-7", "/mm3", 20000.0, 450000.0},
+            {"4544-3", "%", 25.0, 52.0},
+            {"20570-8", "L/L", 0.25, 0.52},
+            {"789-8", "10*6/uL", 3.0, 6.0},
+            {"787-2", "fL", 70.0, 100.0},
+            {"751-8", "/uL", 1000.0, 8000.0},
+    };
+
+    private static final String[] DATAS = {
+            "2025-03-10T08:15:00-03:00", "2025-03-10T08:15:00Z", "2025-03-10T08:15:00.123-03:00",
+            "2025-03-10T08:15:00", "2025-03-10", "2025-03-10T23:59:59+05:30",
+    };
+
+    private static final String[] BAIRROS = {"Setor Bueno", "Setor Criméia Leste", "Vila Nova", "Jardim Goiás"};
+
+    @Configuration
+    @EnableConfigurationProperties({LoincProperties.class, IngestionProperties.class})
+    @Import({LoincDispatcher.class, FhirFastPathExtractor.class, FhirJsonParserPool.class, FhirParserService.class})
+    static class Config {
+        @Bean
+        FhirContext fhirContext() {
+            return FhirContext.forR4();
+        }
+    }
+
+    @MockBean
+    private HemogramPersistenceService hemogramPersistenceService;
+
+    @MockBean
+    private LinhaTempoPacienteService linhaTempoPacienteService;
+
+    @MockBean
+    private DiarioIngestaoService diarioIngestaoService;
+
+    @Autowired
+    private FhirFastPathExtractor fastPath;
+
+    @Autowired
+    private FhirParserService fhirParserService;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void fastPathExtraiOMesmoQueOHapiQuandoAceitaOPayload() {
+        Random random = new Random(SEMENTE);
+        int aceitos = 0;
+        List<String> divergencias = new ArrayList<>();
+
+        for (int i = 0; i < PAYLOADS; i++) {
+            String json = random.nextInt(3) == 0 ? bundlePainel(random, i) : observation(random, i).toString();
+            HemogramData rapido = fastPath.extrair(json);
+            if (rapido == null) {
+                continue;
+            }
+            aceitos++;
+            HemogramData hapi = fhirParserService.extrairViaHapi(json);
+            String diferenca = comparar(rapido, hapi);
+            if (diferenca != null) {
+                divergencias.add(diferenca + "\n  payload: " + json);
+            }
+        }
+
+        assertThat(divergencias).as("payloads em que o fast path diverge do HAPI").isEmpty();
+        // O teste só vale se o fast path de fato aceitar a maior parte dos formatos gerados
+        assertThat(aceitos).isGreaterThan(PAYLOADS * 8 / 10);
+    }
+
+    @Test
+    void formatoNaoReconhecidoCaiNoHapi() {
+        String paciente = """
+                {"resourceType": "Patient", "id": "p1"}
+                """;
+        String semValores = """
+                {"resourceType": "Bundle", "type": "collection", "entry": [
+                  {"resource": {"resourceType": "Patient", "id": "p1"}}]}
+                """;
+        assertThat(fastPath.extrair(paciente)).isNull();
+        assertThat(fastPath.extrair(semValores)).isNull();
+        assertThat(fastPath.extrair("{\"resourceType\": \"Observation\", ")).isNull();
+    }
+
+    /**
+     * @return descrição da primeira diferença, ou null se os dois caminhos concordam
+     */
+    private static String comparar(HemogramData rapido, HemogramData hapi) {
+        if (hapi == null) {
+            return "HAPI não extraiu hemograma do payload aceito pelo fast path: " + rapido;
+        }
+        // Sem id no payload, os dois caminhos derivam o mesmo id do conteúdo
+        List<String> campos = new ArrayList<>();
+        if (!rapido.getId().equals(hapi.getId())) campos.add("id");
+        if (!equals(rapido.getPatientId(), hapi.getPatientId())) campos.add("patientId");
+        if (!equals(rapido.getPatientCpf(), hapi.getPatientCpf())) campos.add("patientCpf");
+        if (!equals(rapido.getRegion(), hapi.getRegion())) campos.add("region");
+        if (!equals(rapido.getLeucocitos(), hapi.getLeucocitos())) campos.add("leucocitos");
+        if (!equals(rapido.getHemoglobina(), hapi.getHemoglobina())) campos.add("hemoglobina");
+        if (!equals(rapido.getPlaquetas(), hapi.getPlaquetas())) campos.add("plaquetas");
+        if (!equals(rapido.getHematocrito(), hapi.getHematocrito())) campos.add("hematocrito");
+        if (!equals(rapido.getOutrosAnalitos(), hapi.getOutrosAnalitos())) campos.add("outrosAnalitos");
+        if (Math.abs(Duration.between(rapido.getTimestamp(), hapi.getTimestamp()).toSeconds()) > 1) campos.add("timestamp");
+        return campos.isEmpty() ? null : "campos " + campos + "\n  fast path: " + rapido + "\n  HAPI:      " + hapi;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private ObjectNode observation(Random random, int i) {
+        ObjectNode obs = mapper.createObjectNode();
+        obs.put("resourceType", "Observation");
+        if (random.nextInt(10) > 0) {
+            obs.put("id", "obs-" + i);
+        }
+        obs.put("status", "final");
+        if (random.nextBoolean()) {
+            // Campos que o fast path precisa pular sem se perder
+            obs.putObject("meta").putArray("profile").add("https://fhir.saude.go.gov.br/r4/core/StructureDefinition/exame-simples");
+            obs.putArray("contained").addObject().put("resourceType", "Specimen").put("id", "amostra")
+                    .putObject("collection").put("collectedDateTime", DATAS[0]);
+            obs.putArray("performer").addObject().putObject("identifier").put("value", "2337991");
+        }
+
+        ObjectNode subject = obs.putObject("subject");
+        switch (random.nextInt(3)) {
+            case 0 -> subject.put("reference", "Patient/paciente-" + random.nextInt(500));
+            case 1 -> subject.putObject("identifier").put("system", CPF_SYSTEM).put("value", String.valueOf(10_000_000_000L + random.nextInt(1_000_000)));
+            default -> {
+                subject.put("reference", "Patient/paciente-" + random.nextInt(500));
+                subject.putObject("identifier").put("system", "https://outro.sistema/id").put("value", "x" + i);
+            }
+        }
+
+        switch (random.nextInt(3)) {
+            case 0 -> obs.put("effectiveDateTime", DATAS[random.nextInt(DATAS.length)]);
+            case 1 -> obs.put("issued", DATAS[random.nextInt(2)]);
+            default -> {
+                obs.put("effectiveDateTime", DATAS[random.nextInt(DATAS.length)]);
+                obs.put("issued", DATAS[random.nextInt(2)]);
+            }
+        }
+
+        if (random.nextBoolean()) {
+            obs.putArray("extension").addObject().put("url", BAIRRO_URL).put("valueString", BAIRROS[random.nextInt(BAIRROS.length)]);
+        }
+
+        if (random.nextBoolean()) {
+            // Painel com component[]
+            codificar(obs.putObject("code"), "58410-2", random.nextInt(4) == 0);
+            ArrayNode componentes = obs.putArray("component");
+            int n = 1 + random.nextInt(6);
+            for (int c = 0; c < n; c++) {
+                ObjectNode componente = componentes.addObject();
+                Object[] analito = ANALITOS[random.nextInt(ANALITOS.length)];
+                codificar(componente.putObject("code"), (String) analito[0], random.nextInt(4) == 0);
+                quantidade(componente, analito, random);
+            }
+        } else {
+            // Exame simples com value[x] no nível superior
+            Object[] analito = ANALITOS[random.nextInt(ANALITOS.length)];
+            codificar(obs.putObject("code"), (String) analito[0], random.nextInt(4) == 0);
+            quantidade(obs, analito, random);
+        }
+        return obs;
+    }
+
+    /** Bundle no formato SES-GO: Observation composta (hasMember) e um exame simples por analito. */
+    private String bundlePainel(Random random, int i) {
+        ObjectNode bundle = mapper.createObjectNode();
+        bundle.put("resourceType", "Bundle");
+        bundle.put("type", random.nextBoolean() ? "collection" : "batch");
+        ArrayNode entradas = bundle.putArray("entry");
+
+        String cpf = String.valueOf(10_000_000_000L + random.nextInt(1_000_000));
+        String data = DATAS[random.nextInt(DATAS.length)];
+        String bairro = random.nextBoolean() ? BAIRROS[random.nextInt(BAIRROS.length)] : null;
+
+        ObjectNode composta = entradas.addObject();
+        composta.put("fullUrl", "urn:uuid:00000000-0000-0000-0000-" + String.format("%012d", i));
+        ObjectNode painel = composta.putObject("resource");
+        painel.put("resourceType", "Observation");
+        painel.put("id", "exame-composto");
+        painel.put("status", "final");
+        codificar(painel.putObject("code"), "58410-2", false);
+        painel.putObject("subject").putObject("identifier").put("system", CPF_SYSTEM).put("value", cpf);
+        painel.put("issued", data);
+        ArrayNode membros = painel.putArray("hasMember");
+
+        for (int a = 0; a < 4; a++) {
+            Object[] analito = ANALITOS[new int[]{0, 3, 5, 8}[a] + (random.nextInt(3) == 0 ? 1 : 0)];
+            String fullUrl = "urn:uuid:00000000-0000-0000-000" + a + "-" + String.format("%012d", i);
+            membros.addObject().put("reference", fullUrl);
+            ObjectNode entrada = entradas.addObject();
+            entrada.put("fullUrl", fullUrl);
+            ObjectNode obs = entrada.putObject("resource");
+            obs.put("resourceType", "Observation");
+            obs.put("id", "simples-" + a);
+            obs.put("status", "final");
+            codificar(obs.putObject("code"), (String) analito[0], false);
+            obs.putObject("subject").putObject("identifier").put("system", CPF_SYSTEM).put("value", cpf);
+            obs.put("issued", data);
+            if (bairro != null) {
+                obs.putArray("extension").addObject().put("url", BAIRRO_URL).put("valueString", bairro);
+            }
+            quantidade(obs, analito, random);
+        }
+        return bundle.toString();
+    }
+
+    private static void codificar(ObjectNode code, String loinc, boolean comCodingExtra) {
+        ArrayNode codings = code.putArray("coding");
+        if (comCodingExtra) {
+            codings.addObject().put("system", "http://snomed.info/sct").put("code", "26604007");
+        }
+        codings.addObject().put("system", "http://loinc.org").put("code", loinc).put("display", "x");
+    }
+
+    private static void quantidade(ObjectNode alvo, Object[] analito, Random random) {
+        double minimo = (Double) analito[2];
+        double maximo = (Double) analito[3];
+        double valor = minimo + random.nextDouble() * (maximo - minimo);
+        valor = maximo >= 1000 ? Math.round(valor) : Math.round(valor * 100) / 100.0;
+        ObjectNode quantidade = alvo.putObject("valueQuantity");
+        quantidade.put("value", valor);
+        switch (random.nextInt(3)) {
+            case 0 -> quantidade.put("system", "http://unitsofmeasure.org").put("code", (String) analito[1]);
+            case 1 -> quantidade.put("unit", (String) analito[1]);
+            default -> quantidade.put("unit", "texto livre").put("system", "http://unitsofmeasure.org").put("code", (String) analito[1]);
+        }
+    }
+}
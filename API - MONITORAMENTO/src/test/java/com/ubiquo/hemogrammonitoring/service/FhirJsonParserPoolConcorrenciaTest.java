@@ -0,0 +1,129 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Estresse do {@link FhirJsonParserPool}: muitas threads fazendo parse ao mesmo tempo,
+ * cada uma com payloads únicos. Se dois parses compartilhassem um {@link ca.uhn.fhir.parser.IParser}
+ * com estado, um resultado traria o paciente, o id ou o valor de outra requisição.
+ */
+class FhirJsonParserPoolConcorrenciaTest {
+
+    private static final int THREADS = 32;
+    private static final int PARSES_POR_THREAD = 300;
+
+    private static FhirContext fhirContext;
+
+    @BeforeAll
+    static void criarContexto() {
+        // Criar o FhirContext é caro; um por classe de teste
+        fhirContext = FhirContext.forR4();
+    }
+
+    @Test
+    void parsesConcorrentesNaoMisturamResultados() throws Exception {
+        FhirJsonParserPool pool = new FhirJsonParserPool(fhirContext);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch largada = new CountDownLatch(1);
+        try {
+            List<Future<List<String>>> resultados = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                resultados.add(executor.submit(() -> {
+                    largada.await();
+                    List<String> erros = new ArrayList<>();
+                    for (int i = 0; i < PARSES_POR_THREAD; i++) {
+                        String chave = thread + "-" + i;
+                        double plaquetas = thread * 100_000.0 + i;
+                        Observation obs = (Observation) pool.parseResource(observation(chave, plaquetas));
+                        if (!obs.getIdElement().getIdPart().equals("obs-" + chave)
+                                || !obs.getSubject().getReference().equals("Patient/p-" + chave)
+                                || obs.getComponentFirstRep().getValueQuantity().getValue().doubleValue() != plaquetas) {
+                            erros.add(chave + " -> " + obs.getIdElement().getIdPart() + " " + obs.getSubject().getReference());
+                        }
+                    }
+                    return erros;
+                }));
+            }
+            largada.countDown();
+
+            List<String> erros = new ArrayList<>();
+            for (Future<List<String>> resultado : resultados) {
+                erros.addAll(resultado.get(2, TimeUnit.MINUTES));
+            }
+            assertThat(erros).as("resultados trocados entre threads").isEmpty();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> metricas = pool.getMetricas();
+        long criados = (Long) metricas.get("created");
+        long reutilizados = (Long) metricas.get("reused");
+        assertThat(criados + reutilizados).isEqualTo((long) THREADS * PARSES_POR_THREAD);
+        // Terminados os parses, todo parser criado voltou ao pool (até o limite de ociosos)
+        assertThat(reutilizados).isGreaterThan(criados);
+        assertThat((Integer) metricas.get("idle")).isEqualTo((int) Math.min(criados, 64));
+    }
+
+    @Test
+    void ociososAlemDoLimiteSaoDescartados() throws Exception {
+        FhirJsonParserPool pool = new FhirJsonParserPool(fhirContext);
+        int threads = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String json = observation("limite-" + t, t);
+                tarefas.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        pool.parseResource(json);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat((Integer) pool.getMetricas().get("idle")).isLessThanOrEqualTo(64);
+    }
+
+    @Test
+    void extensionDesconhecidaNaoFalhaOParse() {
+        FhirJsonParserPool pool = new FhirJsonParserPool(fhirContext);
+        String json = """
+                {"resourceType": "Observation", "id": "x", "status": "final", "campoInexistente": 1,
+                 "code": {"coding": [{"system": "http://loinc.org", "code": "777-3"}]},
+                 "extension": [{"url": "http://desconhecida", "valueString": "a"}]}
+                """;
+        assertThat(((Observation) pool.parseResource(json)).getIdElement().getIdPart()).isEqualTo("x");
+    }
+
+    private static String observation(String chave, double plaquetas) {
+        return """
+                {"resourceType": "Observation", "id": "obs-%s", "status": "final",
+                 "subject": {"reference": "Patient/p-%s"},
+                 "effectiveDateTime": "2025-03-10T08:15:00-03:00",
+                 "code": {"coding": [{"system": "http://loinc.org", "code": "58410-2"}]},
+                 "component": [{"code": {"coding": [{"system": "http://loinc.org", "code": "777-3"}]},
+                                "valueQuantity": {"value": %s, "unit": "/uL"}}]}
+                """.formatted(chave, chave, plaquetas);
+    }
+}
@@ -0,0 +1,144 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.HistoricoProperties;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Exportação do histórico: a memória não cresce com as linhas exportadas (o heap medido depois
+ * de um GC no meio e no fim da exportação fica no mesmo patamar, bem abaixo do que as linhas
+ * ocupariam acumuladas) e as vagas de exportação simultânea são devolvidas exatamente uma vez.
+ */
+@DataJpaTest(showSql = false, properties = {"spring.datasource.url=jdbc:h2:mem:historico-exportacao",
+        "logging.level.com.ubiquo.hemogrammonitoring=WARN",
+        "logging.level.org.hibernate.SQL=WARN"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ParticaoHemogramaRepository.class, HistoricoHemogramaRepository.class, HistoricoHemogramaService.class, HistoricoProperties.class})
+class HistoricoExportacaoTest {
+
+    private static final int LINHAS = 100_000;
+    // 100 mil linhas acumuladas como DTO passariam de 40 MB
+    private static final long CRESCIMENTO_MAXIMO_BYTES = 16L * 1024 * 1024;
+
+    private static final HistoricoHemogramaRepository.Filtro TODOS =
+            new HistoricoHemogramaRepository.Filtro(null, null, null, null, false);
+
+    @Autowired
+    private HistoricoHemogramaService historicoService;
+    @Autowired
+    private ParticaoHemogramaRepository particaoRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void memoriaNaoCresceComAsLinhasExportadas() throws Exception {
+        // As linhas vão de 2024-03-23 a 2024-05-31, espalhadas por três partições
+        LocalDateTime fim = LocalDateTime.of(2024, 6, 1, 0, 0);
+        particaoRepository.garantir(List.of(fim.minusMonths(3), fim.minusMonths(2), fim.minusMonths(1)));
+        jdbcTemplate.update("INSERT INTO hemograms (id, observation_id, patient_id, patient_name, patient_cpf, timestamp,"
+                + " plaquetas, leucocitos, hemoglobina, hematocrito, region)"
+                + " SELECT X, 'exportacao-' || X, 'p' || MOD(X, 5000), 'Paciente ' || MOD(X, 5000), '000.000.000-00',"
+                + " DATEADD('MINUTE', -X, TIMESTAMP '2024-06-01 00:00:00'), 90000 + MOD(X, 200000),"
+                + " 3000 + MOD(X * 31, 9000), 13.5, 42.0, 'Bairro ' || MOD(X, 60)"
+                + " FROM SYSTEM_RANGE(1, ?)", LINHAS);
+
+        MedidorSaida medidor = new MedidorSaida(10_000, LINHAS - 10_000);
+        long exportadas = historicoService.reservarExportacao()
+                .exportar(TODOS, HistoricoHemogramaService.FormatoExportacao.NDJSON, medidor);
+
+        assertThat(exportadas).isEqualTo(LINHAS);
+        assertThat(medidor.linhas).isEqualTo(LINHAS);
+        assertThat(medidor.heapNoInicio).isPositive();
+        assertThat(medidor.heapNoFim).isPositive();
+        assertThat(medidor.heapNoFim - medidor.heapNoInicio).isLessThan(CRESCIMENTO_MAXIMO_BYTES);
+        assertThat(historicoService.getMetricasExportacao().get("rowsExported")).isEqualTo((long) LINHAS);
+    }
+
+    @Test
+    void vagasDeExportacaoLimitadasEDevolvidasUmaVez() throws Exception {
+        HistoricoHemogramaService.VagaExportacao primeira = historicoService.reservarExportacao();
+        HistoricoHemogramaService.VagaExportacao segunda = historicoService.reservarExportacao();
+        assertThat(primeira).isNotNull();
+        assertThat(segunda).isNotNull();
+        assertThat(historicoService.reservarExportacao()).isNull();
+
+        // Usada e depois descartada (como faz o interceptor da requisição): devolvida uma vez só
+        primeira.exportar(TODOS, HistoricoHemogramaService.FormatoExportacao.CSV, OutputStream.nullOutputStream());
+        primeira.descartar();
+        HistoricoHemogramaService.VagaExportacao terceira = historicoService.reservarExportacao();
+        assertThat(terceira).isNotNull();
+        assertThat(historicoService.reservarExportacao()).isNull();
+
+        // Descartada sem uso: devolvida uma vez só, e não pode mais ser usada
+        segunda.descartar();
+        segunda.descartar();
+        HistoricoHemogramaService.VagaExportacao quarta = historicoService.reservarExportacao();
+        assertThat(quarta).isNotNull();
+        assertThat(historicoService.reservarExportacao()).isNull();
+        assertThatThrownBy(() -> segunda.exportar(TODOS,
+                HistoricoHemogramaService.FormatoExportacao.CSV, OutputStream.nullOutputStream()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat((Long) historicoService.getMetricasExportacao().get("exportsRejected")).isGreaterThanOrEqualTo(3L);
+
+        // O serviço é compartilhado pelos testes do contexto
+        terceira.descartar();
+        quarta.descartar();
+    }
+
+    /**
+     * Descarta os bytes, conta as linhas e mede o heap ocupado (depois de um GC) quando a
+     * exportação passa de duas linhas: uma no começo e outra perto do fim.
+     */
+    private static final class MedidorSaida extends OutputStream {
+        private final long linhaInicio;
+        private final long linhaFim;
+        private long linhas;
+        private long heapNoInicio;
+        private long heapNoFim;
+
+        MedidorSaida(long linhaInicio, long linhaFim) {
+            this.linhaInicio = linhaInicio;
+            this.linhaFim = linhaFim;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            long antes = linhas;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    linhas++;
+                }
+            }
+            if (antes < linhaInicio && linhas >= linhaInicio) {
+                heapNoInicio = heapOcupado();
+            }
+            if (antes < linhaFim && linhas >= linhaFim) {
+                heapNoFim = heapOcupado();
+            }
+        }
+
+        private static long heapOcupado() {
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.HistoricoProperties;
+import com.ubiquo.hemogrammonitoring.config.PacientesProperties;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasPersistidosEvent;
+import com.ubiquo.hemogrammonitoring.model.Desvio;
+import com.ubiquo.hemogrammonitoring.model.HemogramData;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Queda seriada de plaquetas avaliada na gravação: vale para qualquer modo de resposta da
+ * ingestão (o ack mínimo não chama a análise), fica registrada nas últimas max-quedas e é
+ * contada uma vez só, mesmo quando a resposta completa repete a comparação.
+ */
+class LinhaTempoPacienteServiceTest {
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2025, 3, 10, 8, 0);
+
+    @Test
+    void quedaEhRegistradaNaGravacaoSemPassarPelaAnalise() {
+        LinhaTempoPacienteService linhaTempo = criar(1_000);
+
+        gravar(linhaTempo, hemograma("obs-1", "paciente-1", INICIO, 240_000.0),
+                hemograma("obs-2", "paciente-2", INICIO, 200_000.0));
+        // Só a gravação, como no Prefer: return=minimal
+        gravar(linhaTempo, hemograma("obs-3", "paciente-1", INICIO.plusHours(34), 185_000.0),
+                hemograma("obs-4", "paciente-2", INICIO.plusHours(34), 190_000.0));
+
+        List<Map<String, Object>> quedas = linhaTempo.listarQuedas();
+        assertThat(quedas).hasSize(1);
+        assertThat(quedas.get(0))
+                .containsEntry("paciente", "paciente-1")
+                .containsEntry("observationId", "obs-3")
+                .containsEntry("regiao", "Centro")
+                .containsEntry("plaquetas", 185_000.0)
+                .containsEntry("referencia", 240_000.0)
+                .containsEntry("horas", 34L);
+        assertThat((Double) quedas.get(0).get("quedaPercentual")).isBetween(22.9, 23.0);
+        assertThat(linhaTempo.getMetricas()).containsEntry("dropsDetected", 1L);
+
+        // A resposta completa vê a mesma queda sem contá-la de novo
+        Desvio desvio = linhaTempo.avaliarQuedaPlaquetas(dados("obs-3", "paciente-1", INICIO.plusHours(34), 185_000.0));
+        assertThat(desvio).isNotNull();
+        assertThat(desvio.isQuedaPlaquetas()).isTrue();
+        assertThat(linhaTempo.getMetricas()).containsEntry("dropsDetected", 1L);
+        assertThat(linhaTempo.listarQuedas()).hasSize(1);
+    }
+
+    @Test
+    void guardaSoAsUltimasQuedas() {
+        LinhaTempoPacienteService linhaTempo = criar(2);
+
+        for (int i = 0; i < 3; i++) {
+            gravar(linhaTempo, hemograma("obs-" + i + "-a", "paciente-" + i, INICIO, 240_000.0));
+            gravar(linhaTempo, hemograma("obs-" + i + "-b", "paciente-" + i, INICIO.plusHours(12), 100_000.0));
+        }
+
+        assertThat(linhaTempo.listarQuedas()).extracting(queda -> queda.get("paciente"))
+                .containsExactly("paciente-2", "paciente-1");
+        assertThat(linhaTempo.getMetricas()).containsEntry("dropsDetected", 3L);
+    }
+
+    private static LinhaTempoPacienteService criar(int maxQuedas) {
+        PacientesProperties propriedades = new PacientesProperties();
+        propriedades.setMaxQuedas(maxQuedas);
+        return new LinhaTempoPacienteService(mock(HistoricoHemogramaRepository.class),
+                mock(HistoricoHemogramaService.class), new HistoricoProperties(), propriedades);
+    }
+
+    private static void gravar(LinhaTempoPacienteService linhaTempo, HemogramEntity... hemogramas) {
+        linhaTempo.aoPersistir(new HemogramasPersistidosEvent(List.of(hemogramas)));
+    }
+
+    private static HemogramEntity hemograma(String observationId, String paciente, LocalDateTime coleta,
+                                            Double plaquetas) {
+        HemogramEntity hemograma = new HemogramEntity();
+        hemograma.setObservationId(observationId);
+        hemograma.setPatientId(paciente);
+        hemograma.setTimestamp(coleta);
+        hemograma.setPlaquetas(plaquetas);
+        hemograma.setRegion("Centro");
+        return hemograma;
+    }
+
+    private static HemogramData dados(String observationId, String paciente, LocalDateTime coleta, Double plaquetas) {
+        HemogramData hemograma = new HemogramData();
+        hemograma.setId(observationId);
+        hemograma.setPatientId(paciente);
+        hemograma.setTimestamp(coleta);
+        hemograma.setPlaquetas(plaquetas);
+        return hemograma;
+    }
+}
@@ -0,0 +1,226 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.HistoricoProperties;
+import com.ubiquo.hemogrammonitoring.config.RetencaoProperties;
+import com.ubiquo.hemogrammonitoring.dto.HemogramaHistoricoDTO;
+import com.ubiquo.hemogrammonitoring.entity.HemogramEntity;
+import com.ubiquo.hemogrammonitoring.event.HemogramasExcluidosEvent;
+import com.ubiquo.hemogrammonitoring.model.ParticaoTempo;
+import com.ubiquo.hemogrammonitoring.repository.EsquemaParticoesHemogramas;
+import com.ubiquo.hemogrammonitoring.repository.HemogramRepository;
+import com.ubiquo.hemogrammonitoring.repository.HistoricoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Partições mensais contra o schema das migrações: inserções na view caem na tabela do mês,
+ * um observation_id já gravado é recusado em qualquer mês, o histórico pagina através das
+ * partições, e a retenção arquiva cada mês expirado, libera os ids dele, exclui a tabela com
+ * DROP TABLE e conclui na rodada seguinte uma retirada que ficou pendente.
+ *
+ * Sem a transação do teste: a retenção roda na própria thread, com outra conexão.
+ */
+@DataJpaTest(showSql = false, properties = {"spring.datasource.url=jdbc:h2:mem:retencao-particoes",
+        "logging.level.com.ubiquo.hemogrammonitoring=WARN",
+        "logging.level.org.hibernate.SQL=WARN"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ParticaoHemogramaRepository.class, HistoricoHemogramaRepository.class, HistoricoHemogramaService.class,
+        HistoricoProperties.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RetencaoHemogramaServiceTest {
+
+    private static final ParticaoTempo ATUAL = ParticaoTempo.contendo(LocalDateTime.now());
+    private static final int LINHAS_POR_MES = 50;
+
+    @Autowired
+    private ParticaoHemogramaRepository particaoRepository;
+    @Autowired
+    private HistoricoHemogramaRepository historicoRepository;
+    @Autowired
+    private HemogramRepository hemogramRepository;
+    @Autowired
+    private HistoricoHemogramaService historicoService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @TempDir
+    Path diretorio;
+
+    private final ApplicationEventPublisher eventos = mock(ApplicationEventPublisher.class);
+    private RetencaoHemogramaService retencao;
+    private long proximoId = 1;
+    private long idLinha = 1;
+
+    @BeforeEach
+    void iniciar() {
+        RetencaoProperties config = new RetencaoProperties();
+        // Só a execução manual retém; o agendamento apenas vira o mês
+        config.setEnabled(false);
+        config.setParticoesRetidas(2);
+        config.setArquivar(true);
+        config.setDiretorioArquivo(diretorio.toString());
+        retencao = new RetencaoHemogramaService(particaoRepository, historicoService, eventos, config);
+        retencao.iniciar();
+    }
+
+    @AfterEach
+    void encerrar() {
+        retencao.encerrar();
+        // O banco é compartilhado pelos testes do contexto e aqui nada é desfeito no fim
+        for (ParticaoTempo particao : particaoRepository.retiradas()) {
+            particaoRepository.excluirRetirada(particao);
+        }
+        for (ParticaoTempo particao : particaoRepository.particoes()) {
+            jdbcTemplate.update("DELETE FROM " + particao.tabela());
+        }
+        jdbcTemplate.update("DELETE FROM " + EsquemaParticoesHemogramas.GUARDA);
+    }
+
+    @Test
+    void observationIdRepetidoEmOutroMesEhRecusado() {
+        gravar(ATUAL.anterior(), 1);
+        particaoRepository.garantir(List.of(ATUAL.inicio()));
+
+        // Reenvio com a data de coleta corrigida para outro mês: a restrição do mês não o veria.
+        // Pelo JPA, como a HemogramPersistenceService, que cai para linha a linha nessa exceção
+        HemogramEntity reenvio = new HemogramEntity();
+        reenvio.setObservationId("obs-1");
+        reenvio.setPatientId("p");
+        reenvio.setTimestamp(ATUAL.inicio().plusHours(1));
+        assertThatThrownBy(() -> hemogramRepository.saveAndFlush(reenvio))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(particaoRepository.contar(ATUAL.tabela())).isZero();
+        assertThat(particaoRepository.contar("hemograms")).isEqualTo(1);
+    }
+
+    @Test
+    void insercoesNaViewCaemNaTabelaDoMesEOHistoricoAtravessaAsParticoes() {
+        List<ParticaoTempo> meses = List.of(ATUAL.anterior().anterior(), ATUAL.anterior(), ATUAL);
+        for (ParticaoTempo mes : meses) {
+            gravar(mes, LINHAS_POR_MES);
+        }
+
+        for (ParticaoTempo mes : meses) {
+            assertThat(particaoRepository.contar(mes.tabela())).isEqualTo(LINHAS_POR_MES);
+        }
+        List<HemogramaHistoricoDTO> pagina = historicoRepository.buscarPagina(
+                new HistoricoHemogramaRepository.Filtro(null, null, null, null, false), null, 3 * LINHAS_POR_MES);
+        assertThat(pagina).hasSize(3 * LINHAS_POR_MES);
+        assertThat(pagina).isSortedAccordingTo(Comparator.comparing(HemogramaHistoricoDTO::timestamp).reversed()
+                .thenComparing(Comparator.comparing(HemogramaHistoricoDTO::id).reversed()));
+    }
+
+    @Test
+    void retencaoArquivaEExcluiAsParticoesExpiradas() throws IOException {
+        ParticaoTempo expirada = ATUAL.anterior().anterior();
+        ParticaoTempo maisAntiga = expirada.anterior();
+        gravar(maisAntiga, LINHAS_POR_MES);
+        gravar(expirada, LINHAS_POR_MES);
+        gravar(ATUAL.anterior(), LINHAS_POR_MES);
+
+        List<RetencaoHemogramaService.ParticaoExcluida> excluidas = retencao.executar();
+
+        assertThat(excluidas).extracting(RetencaoHemogramaService.ParticaoExcluida::particao)
+                .containsExactly(maisAntiga.nome(), expirada.nome());
+        for (RetencaoHemogramaService.ParticaoExcluida excluida : excluidas) {
+            assertThat(excluida.linhas()).isEqualTo(LINHAS_POR_MES);
+            assertThat(linhasDoArquivo(Path.of(excluida.arquivo()))).isEqualTo(LINHAS_POR_MES);
+        }
+        assertThat(particaoRepository.particoes()).doesNotContain(maisAntiga, expirada).contains(ATUAL.anterior(), ATUAL);
+        assertThat(tabelaExiste(maisAntiga.tabela())).isFalse();
+        assertThat(tabelaExiste(ParticaoHemogramaRepository.tabelaRetirada(expirada))).isFalse();
+        assertThat(particaoRepository.contar("hemograms")).isEqualTo(LINHAS_POR_MES);
+        verify(eventos, times(2)).publishEvent(any(HemogramasExcluidosEvent.class));
+        // A guarda libera os ids dos meses excluídos e mantém os do mês retido
+        assertThat(particaoRepository.contar(EsquemaParticoesHemogramas.GUARDA)).isEqualTo(LINHAS_POR_MES);
+        inserir(1, ATUAL.inicio());
+        assertThat(particaoRepository.contar(ATUAL.tabela())).isEqualTo(1);
+    }
+
+    @Test
+    void retiradaPendenteEConcluidaNaProximaExecucao() throws IOException {
+        ParticaoTempo expirada = ATUAL.anterior().anterior();
+        gravar(expirada, LINHAS_POR_MES);
+        // Retirada da view sem arquivar nem excluir, como numa queda no meio da retenção
+        assertThat(particaoRepository.retirar(expirada)).isTrue();
+        assertThat(particaoRepository.retiradas()).containsExactly(expirada);
+
+        // Hemograma tardio para o mês: vai para uma tabela nova, ao lado da retirada
+        gravar(expirada, 1);
+        assertThat(particaoRepository.contar(expirada.tabela())).isEqualTo(1);
+
+        List<RetencaoHemogramaService.ParticaoExcluida> excluidas = retencao.executar();
+
+        // Primeiro a retirada pendente, depois a tabela nova do mês, retirada na mesma rodada
+        assertThat(excluidas).extracting(RetencaoHemogramaService.ParticaoExcluida::linhas)
+                .containsExactly((long) LINHAS_POR_MES, 1L);
+        assertThat(linhasDoArquivo(Path.of(excluidas.get(0).arquivo()))).isEqualTo(LINHAS_POR_MES);
+        // Arquivo separado para o hemograma que chegou depois do primeiro arquivamento
+        assertThat(excluidas.get(1).arquivo()).isNotEqualTo(excluidas.get(0).arquivo());
+        assertThat(linhasDoArquivo(Path.of(excluidas.get(1).arquivo()))).isEqualTo(1);
+        assertThat(particaoRepository.particoes()).doesNotContain(expirada);
+        assertThat(particaoRepository.retiradas()).isEmpty();
+        assertThat(tabelaExiste(expirada.tabela())).isFalse();
+    }
+
+    /**
+     * Grava como a HemogramPersistenceService: garante a partição antes e insere na view.
+     */
+    private void gravar(ParticaoTempo mes, int linhas) {
+        particaoRepository.garantir(List.of(mes.inicio()));
+        for (int i = 0; i < linhas; i++) {
+            inserir(proximoId++, mes.inicio().plusHours(i));
+        }
+    }
+
+    private void inserir(long observacao, LocalDateTime timestamp) {
+        jdbcTemplate.update("INSERT INTO hemograms (id, observation_id, patient_id, timestamp, plaquetas, leucocitos, region)"
+                + " VALUES (?, ?, 'p', ?, 200000, 7000, 'Centro')", idLinha++, "obs-" + observacao,
+                Timestamp.valueOf(timestamp));
+    }
+
+    private boolean tabelaExiste(String tabela) {
+        Long tabelas = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES"
+                + " WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME = ?", Long.class, tabela.toUpperCase());
+        return tabelas != null && tabelas > 0;
+    }
+
+    private static long linhasDoArquivo(Path arquivo) throws IOException {
+        try (BufferedReader leitor = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(arquivo)), StandardCharsets.UTF_8))) {
+            return leitor.lines().count();
+        }
+    }
+}
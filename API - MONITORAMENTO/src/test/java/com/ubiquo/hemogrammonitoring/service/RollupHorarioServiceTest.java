@@ -0,0 +1,110 @@
+package com.ubiquo.hemogrammonitoring.service;
+
+import com.ubiquo.hemogrammonitoring.config.AnaliseProperties;
+import com.ubiquo.hemogrammonitoring.model.FaixaRegioes;
+import com.ubiquo.hemogrammonitoring.repository.ParticaoHemogramaRepository;
+import com.ubiquo.hemogrammonitoring.repository.RollupHorarioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rollup horário contra o schema das migrações: a soma de uma janela longa tem que bater com
+ * o SQL direto sobre as linhas brutas, inclusive quando uma gravação chega depois da
+ * consolidação com id menor que os já consolidados (commit fora da ordem dos ids).
+ */
+@DataJpaTest(showSql = false, properties = {"spring.datasource.url=jdbc:h2:mem:rollup-horario",
+        "logging.level.com.ubiquo.hemogrammonitoring=WARN",
+        "logging.level.org.hibernate.SQL=WARN"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ParticaoHemogramaRepository.class, RollupHorarioRepository.class, RollupHorarioService.class, AnaliseProperties.class})
+class RollupHorarioServiceTest {
+
+    private static final LocalDateTime INICIO = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final LocalDateTime FIM = INICIO.plusDays(3);
+
+    @Autowired
+    private RollupHorarioService rollup;
+    @Autowired
+    private RollupHorarioRepository rollupRepository;
+    @Autowired
+    private ParticaoHemogramaRepository particaoRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void criarParticao() {
+        particaoRepository.garantir(List.of(INICIO));
+    }
+
+    @Test
+    void gravacaoTardiaComIdMenorEntraNaJanela() {
+        for (int i = 1; i <= 500; i++) {
+            gravar(1_000 + i, INICIO.plusMinutes(7L * i + 3), i % 3 == 0 ? 90_000.0 : 250_000.0);
+        }
+        rollup.consolidar();
+        assertThat(rollupRepository.contarPendentes()).isZero();
+        assertThat(rollup.consultar("Centro", INICIO, FIM).getTotal()).isEqualTo(500);
+
+        // Id atribuído antes dos já consolidados, gravado depois, em uma hora já no rollup
+        gravar(7, INICIO.plusHours(5).plusMinutes(10), 80_000.0);
+        assertJanelaIgualAoBruto();
+
+        rollup.consolidar();
+        assertThat(rollupRepository.contarPendentes()).isZero();
+        assertJanelaIgualAoBruto();
+    }
+
+    @Test
+    void horaGravadaDuranteORecalculoContinuaPendente() {
+        gravar(1, INICIO.plusMinutes(30), 200_000.0);
+        List<RollupHorarioRepository.Pendente> lidas = rollupRepository.pendentes(null, 10);
+        rollupRepository.recalcular(lidas, 150_000.0);
+
+        // Nova gravação na mesma hora entre o recálculo e a remoção da marca
+        gravar(2, INICIO.plusMinutes(40), 100_000.0);
+        rollupRepository.concluir(lidas);
+
+        assertThat(rollupRepository.contarPendentes()).isEqualTo(1);
+        assertJanelaIgualAoBruto();
+        rollup.consolidar();
+        assertThat(rollupRepository.contarPendentes()).isZero();
+        assertJanelaIgualAoBruto();
+    }
+
+    private void assertJanelaIgualAoBruto() {
+        AgregadosRegionaisService.Janela janela = rollup.consultar("Centro", INICIO.plusMinutes(1), FIM);
+        Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM hemograms WHERE region = 'Centro'"
+                + " AND timestamp BETWEEN ? AND ?", Long.class, Timestamp.valueOf(INICIO.plusMinutes(1)), Timestamp.valueOf(FIM));
+        Long alertas = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM hemograms WHERE region = 'Centro'"
+                + " AND timestamp BETWEEN ? AND ? AND plaquetas < 150000", Long.class,
+                Timestamp.valueOf(INICIO.plusMinutes(1)), Timestamp.valueOf(FIM));
+        assertThat(janela.getTotal()).isEqualTo(total);
+        assertThat(janela.getAlertas()).isEqualTo(alertas);
+        // Consulta de uma parte das regiões (/analise/regioes-risco em paralelo)
+        AgregadosRegionaisService.Janela daParte = rollup.consultarFaixa(new FaixaRegioes("A", "D"),
+                INICIO.plusMinutes(1), FIM).get("Centro");
+        assertThat(daParte.getTotal()).isEqualTo(total);
+        assertThat(daParte.getAlertas()).isEqualTo(alertas);
+    }
+
+    /**
+     * Grava como a HemogramPersistenceService: a linha e a marca da hora juntas.
+     */
+    private void gravar(long id, LocalDateTime timestamp, double plaquetas) {
+        jdbcTemplate.update("INSERT INTO hemograms (id, observation_id, patient_id, timestamp, plaquetas, leucocitos, region)"
+                + " VALUES (?, ?, 'p', ?, ?, 7000, 'Centro')", id, "obs-" + id, Timestamp.valueOf(timestamp), plaquetas);
+        rollupRepository.marcarPendentes(List.of(new RollupHorarioRepository.HoraRegiao("Centro",
+                timestamp.withMinute(0).withSecond(0).withNano(0))));
+    }
+}